@@ -17,115 +17,210 @@
 package org.mellowtech.core.codec;
 
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
+import java.nio.ByteBuffer;
 import java.util.TreeMap;
 
 /**
  * Class that holds information for fast parsing of
  * BRecord classes. The class is internal to the package
- * and should not be used externally
+ * and should not be used externally.
+ * <p>
+ * Each record class is parsed once into an array of field accessors (sorted on field index)
+ * that read and write fields through method handles. Each accessor also holds the codec of
+ * its declared type so that field values can be encoded without looking up their codec.
+ * </p>
  *
  * @author Martin Svensson {@literal <msvens@gmail.com>}
  * @since 4.0.0
  */
 class AutoField {
-  
-  private class MultiField {
-    Method get;
-    Method set;
-    Field field;
-    boolean isMethod;
-    
-    public MultiField(Method get, Method set){
-      this.get = get;
-      this.set = set;
-      isMethod = true;
-    }
-    
-    public MultiField(Field f){
-      this.field = f;
-      isMethod = false;
-    }
-  }
 
-  private static class SingletonHolder {
-    private final static AutoField autoBytes = new AutoField();
-  }
+  private static final MethodType GETTER = MethodType.methodType(Object.class, Object.class);
+  private static final MethodType SETTER = MethodType.methodType(void.class, Object.class, Object.class);
+  private static final MethodType CONSTRUCTOR = MethodType.methodType(Object.class);
 
-  private Map<String, TreeMap<Integer, MultiField>> fields;
-  //private Map<String, TreeMap<Integer, MethodPair>> methods;
+  private static final ObjectCodec objectCodec = new ObjectCodec();
 
-  private AutoField(){
-    this.fields = new HashMap<>();
-  }
+  private static final ClassValue<AutoField> autoFields = new ClassValue<AutoField>() {
+    @Override
+    protected AutoField computeValue(Class<?> type) {
+      return new AutoField(type);
+    }
+  };
+
+  /**
+   * Accessor for a single record field. The value of a field is stored as its index followed
+   * by the value as encoded by {@link ObjectCodec}
+   */
+  static final class Accessor {
+    final short index;
+    final MethodHandle get;
+    final MethodHandle set;
+    final Class<?> type;
+    final BCodec<Object> codec;
+    final byte codecByte;
+    /**
+     * Size of index and encoded value, or -1 if the size is not fixed
+     */
+    final int fixedSize;
+
+    @SuppressWarnings("unchecked")
+    Accessor(int index, MethodHandle get, MethodHandle set, Class<?> type) {
+      this.index = (short) index;
+      this.get = get.asType(GETTER);
+      this.set = set.asType(SETTER);
+      this.type = type;
+      this.codec = (BCodec<Object>) Codecs.fromClass(type);
+      if(codec == null)
+        throw new CodecException("could not instansiate BSAuto");
+      byte b;
+      try {
+        b = Codecs.toByte(codec);
+      } catch(Error e){
+        b = 0; //user defined codec
+      }
+      this.codecByte = b;
+      this.fixedSize = b != 0 && codec.isFixed() ? 2 + CodecUtil.byteSize(1 + codec.fixedSize(), true) : -1;
+    }
 
-  public static AutoField I(){
-    return SingletonHolder.autoBytes;
-  }
+    Object get(Object record) {
+      try {
+        return (Object) get.invokeExact(record);
+      } catch (Throwable t) {
+        throw new CodecException(t);
+      }
+    }
 
-  public void parseClass(Class clazz){
-    if(fields.containsKey(clazz.getName()))
-      return;
-    Field[] fs = clazz.getDeclaredFields();
-    TreeMap <Integer, MultiField> map = new TreeMap<>();
+    void set(Object record, Object value) {
+      try {
+        set.invokeExact(record, value);
+      } catch (Throwable t) {
+        throw new CodecException(t);
+      }
+    }
 
-    for(Field f : fs){
-      if(f.isAnnotationPresent(BField.class))
-        parseField(f, map);
+    /**
+     * Size of a non-null field value including its index
+     */
+    int byteSize(Object value) {
+      if(fixedSize > 0)
+        return fixedSize;
+      if(codecByte != 0 && value.getClass() == type)
+        return 2 + CodecUtil.byteSize(1 + codec.byteSize(value), true);
+      return 2 + objectCodec.byteSize(value);
     }
-    
-    //methods
-    Method[] ms = clazz.getDeclaredMethods();
-    for(Method m : ms) {
-      if(m.isAnnotationPresent(BField.class)){
-        try{
-          parseMethod(clazz, m, ms, map);
-        }
-        catch(Exception e){
-          throw new CodecException(e);
-        }
-      }
+
+    /**
+     * Write index and value in the same format as ObjectCodec
+     */
+    void to(Object value, ByteBuffer bb) {
+      bb.putShort(index);
+      if(codecByte != 0 && value.getClass() == type){
+        CodecUtil.putSize(1 + codec.byteSize(value), bb, true);
+        bb.put(codecByte);
+        codec.to(value, bb);
+      } else
+        objectCodec.to(value, bb);
     }
-    fields.put(clazz.getName(), map);
-  }
 
-  public Set<Integer> getFieldIndexes(Class clazz){
-    return this.fields.get(clazz.getName()).keySet();
+    /**
+     * Read a value in the format written by ObjectCodec
+     */
+    Object from(ByteBuffer bb) {
+      CodecUtil.getSize(bb, true);
+      byte b = bb.get();
+      return b == codecByte ? codec.from(bb) : Codecs.fromByte(b).from(bb);
+    }
   }
 
-  public void setField(Class clazz, int index, Object o, Object toSet){
-    MultiField mf = fields.get(clazz.getName()).get(index);
-    if(mf == null) return;
+  private final Accessor[] accessors;
+  private final Accessor[] byIndex;
+  private final MethodHandle constructor;
+
+  private AutoField(Class<?> clazz){
+    TreeMap<Integer, Accessor> map = new TreeMap<>();
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
     try {
-      if(mf.isMethod){
-        mf.set.invoke(toSet, o);
+      for(Field f : clazz.getDeclaredFields()){
+        if(f.isAnnotationPresent(BField.class))
+          parseField(lookup, f, map);
+      }
+      //methods
+      Method[] ms = clazz.getDeclaredMethods();
+      for(Method m : ms) {
+        if(m.isAnnotationPresent(BField.class))
+          parseMethod(lookup, clazz, m, map);
       }
-      else {
-        mf.field.set(toSet, o);
+      MethodHandle c = null;
+      try {
+        Constructor<?> ctor = clazz.getDeclaredConstructor();
+        ctor.setAccessible(true);
+        c = lookup.unreflectConstructor(ctor).asType(CONSTRUCTOR);
+      } catch (NoSuchMethodException e){
+        //records without a default constructor can only be encoded
       }
+      constructor = c;
+    }
+    catch(CodecException e){
+      throw e;
     }
     catch(Exception e){
       throw new CodecException(e);
     }
-    
+    accessors = map.values().toArray(new Accessor[0]);
+    byIndex = new Accessor[map.isEmpty() ? 0 : map.lastKey() + 1];
+    for(Accessor a : accessors)
+      byIndex[a.index] = a;
   }
 
-  public Object getField(Class clazz, int index, Object obj){
-    MultiField mf = fields.get(clazz.getName()).get(index);
-    try{
-      return mf.isMethod ? mf.get.invoke(obj) : mf.field.get(obj);
-    }
-    catch(Exception e){
-      throw new CodecException(e);
+  /**
+   * Get the (cached) field information of a record class
+   * @param clazz record class
+   * @return field information
+   */
+  public static AutoField of(Class<?> clazz){
+    return autoFields.get(clazz);
+  }
+
+  /**
+   * Accessors of all fields sorted on field index
+   * @return accessors
+   */
+  Accessor[] accessors(){
+    return accessors;
+  }
+
+  /**
+   * Accessor for a field index
+   * @param index field index
+   * @return accessor or null if no field has this index
+   */
+  Accessor accessor(int index){
+    return index >= 0 && index < byIndex.length ? byIndex[index] : null;
+  }
+
+  /**
+   * Create a new instance of the record using its no argument constructor
+   * @return new record
+   */
+  Object newInstance(){
+    if(constructor == null)
+      throw new CodecException("no default constructor");
+    try {
+      return (Object) constructor.invokeExact();
+    } catch (Throwable t){
+      throw new CodecException(t);
     }
   }
 
-  @SuppressWarnings("unchecked")
-  private void parseMethod(Class clazz, Method m, Method[] ms, TreeMap <Integer, MultiField> map) throws Exception{
+  private void parseMethod(MethodHandles.Lookup lookup, Class<?> clazz, Method m,
+                           TreeMap <Integer, Accessor> map) throws Exception{
     String sib;
     Method set, get;
     if(m.getName().startsWith("get")){
@@ -143,30 +238,17 @@ class AutoField {
     int index = m.getAnnotation(BField.class).value();
     if(index < 0)
       throw new CodecException("no index of field specified");
-    Object fType = get.getReturnType();
-    BCodec pt = Codecs.type(fType);
-    if(pt == null)
-      throw new CodecException("could not instansiate BSAuto");
     get.setAccessible(true);
     set.setAccessible(true);
-    map.put(index, new MultiField(get, set));
-    
+    map.put(index, new Accessor(index, lookup.unreflect(get), lookup.unreflect(set), get.getReturnType()));
   }
-  
 
-  private void parseField(Field f, TreeMap <Integer, MultiField> map){
+
+  private void parseField(MethodHandles.Lookup lookup, Field f, TreeMap <Integer, Accessor> map) throws Exception{
     f.setAccessible(true);
     int index = f.getAnnotation(BField.class).value();
-    //PrimitiveObject po = null;
     if(index < 0)
       throw new CodecException("no index of field specified");
-
-
-    Object fType = f.getType();
-    BCodec pt = Codecs.type(fType);
-    if(pt == null)
-      throw new CodecException("could not instansiate BSAuto");
-
-    map.put(index, new MultiField(f));
+    map.put(index, new Accessor(index, lookup.unreflectGetter(f), lookup.unreflectSetter(f), f.getType()));
   }
 }
@@ -21,8 +21,10 @@ import org.mellowtech.core.util.RangeIterable;
 
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 
 
 /**
@@ -38,6 +40,21 @@ import java.util.Iterator;
  * The overhead for using the buffer depends on the pointer size. It can
  * either be 4, 2, 1 byte extra for each key stored in the sorted block.
  * </p>
+ * <p>
+ * If the codec has a fixed size ({@link BCodec#isFixed()}) a new buffer uses a fixed
+ * width format instead. Element i is then stored at offset i * fixedSize after the
+ * header and there is no pointer section, so searching is done with direct
+ * offset arithmetic and inserts and deletes shift the elements with one
+ * copy. The format is recorded in the buffer so existing buffers are always
+ * opened in the format they were created with.
+ * </p>
+ * <p>
+ * Compaction of deleted elements can be deferred (see {@link #setDeferCompaction(boolean)}).
+ * Deleted elements are then left as dead space that is reclaimed the first time
+ * an insert does not fit in the free space. The dead space is only counted in
+ * {@link #getDataBytes()} and friends once it has been reclaimed, i.e. the
+ * buffer always reports its live contents.
+ * </p>
  * <p><strong>Observe</strong> that this class always assume the underlying
  * ByteBuffer starts at position 0. So if you want to use this class over a larger
  * buffer you need to use the split/submap operations in ByteBuffer
@@ -48,6 +65,10 @@ import java.util.Iterator;
  */
 public class BBuffer<A extends Comparable<? super A>> implements RangeIterable<A,A> {
 
+  //flag in the pointer size byte that signals that the buffer may contain dead space
+  private static final byte DEAD_SPACE = 0x40;
+  //flag in the pointer size byte that signals a fixed width buffer
+  private static final byte FIXED_WIDTH = 0x20;
 
   private ByteBuffer block;
   private BCodec<A> codec;
@@ -60,6 +81,13 @@ public class BBuffer<A extends Comparable<? super A>> implements RangeIterable<A
   private byte ptrSize;
   private int headerSize;
   private int capacity;
+  //bytes of deleted elements not yet compacted, -1 if unknown
+  private int deadBytes;
+  //element size in a fixed width buffer, otherwise 0
+  private int elementSize;
+  //pointer bytes per element (0 in a fixed width buffer)
+  private int overhead;
+  private boolean deferCompaction = false;
 
   /**
    * Open an existing buffer
@@ -237,6 +265,35 @@ public class BBuffer<A extends Comparable<? super A>> implements RangeIterable<A
     bytesWritten = 0;
     writeNumElements(0);
     writeBytesWritten(0);
+    setDeadBytes(0);
+  }
+
+  /**
+   * Move all elements to the end of the buffer, reclaiming any space left by
+   * deleted elements.
+   *
+   * @see #setDeferCompaction(boolean)
+   */
+  public void compact() {
+    if (deadBytes == 0 || elementSize > 0)
+      return;
+    long[] order = new long[high];
+    for (int i = 0; i < high; i++)
+      order[i] = ((long) getPhysicalPos(i) << 32) | i;
+    Arrays.sort(order);
+    //move the element with the highest offset first so nothing is overwritten
+    int w = capacity;
+    for (int k = high - 1; k >= 0; k--) {
+      int pPos = (int) (order[k] >>> 32);
+      int size = byteSize(pPos);
+      w -= size;
+      if (w != pPos)
+        moveBytes(pPos, w, size);
+      setPhysicalPos((int) order[k], w);
+    }
+    bytesWritten = capacity - w;
+    writeBytesWritten(bytesWritten);
+    setDeadBytes(0);
   }
 
   /**
@@ -273,12 +330,26 @@ public class BBuffer<A extends Comparable<? super A>> implements RangeIterable<A
     int pPos = getPhysicalPos(idx);
     block.position(pPos);
     A toDelete = codec.from(block);
+    if (elementSize > 0) {
+      moveBytes(pPos + elementSize, pPos, (high - 1 - idx) * elementSize);
+      high--;
+      writeNumElements(high);
+      bytesWritten -= elementSize;
+      writeBytesWritten(bytesWritten);
+      return toDelete;
+    }
     int firstPos = capacity - bytesWritten;
-    int byteSize = codec.byteSize(toDelete);
+    int byteSize = block.position() - pPos;
     if (idx < high - 1) { // we have to compact the array:
       byteBufferCopy(getIndexPos(idx + 1), getIndexPos(idx), (high - 1 - idx)
           * ptrSize);
     }
+    if (deferCompaction) {
+      high--;
+      writeNumElements(high);
+      setDeadBytes(deadBytes < 0 ? -1 : deadBytes + byteSize);
+      return toDelete;
+    }
     // now compact the data:
     byteBufferCopy(firstPos, firstPos + byteSize, pPos - firstPos);
 
@@ -304,8 +375,7 @@ public class BBuffer<A extends Comparable<? super A>> implements RangeIterable<A
    * @return True if element can be stored.
    */
   public boolean fits(A element) {
-    return reservedSpace + headerSize + bytesWritten + ((high + 1) * ptrSize)
-        + codec.byteSize(element) <= capacity;
+    return fits(elementSize > 0 ? elementSize : codec.byteSize(element), 1);
   }
 
   /**
@@ -318,7 +388,7 @@ public class BBuffer<A extends Comparable<? super A>> implements RangeIterable<A
   public boolean fits(BBuffer<A> other) {
     int totDataBytes = other.getDataBytes() + getDataBytes();
     int totElements = other.getNumberOfElements() + getNumberOfElements();
-    return reservedSpace + headerSize + totDataBytes + (totElements * ptrSize) <= capacity;
+    return reservedSpace + headerSize + totDataBytes + (totElements * overhead) <= capacity;
   }
 
   /**
@@ -333,7 +403,12 @@ public class BBuffer<A extends Comparable<? super A>> implements RangeIterable<A
     int totDataBytes = other.getDataBytes() + getDataBytes()
         + codec.byteSize(additional);
     int totElements = other.getNumberOfElements() + getNumberOfElements() + 1;
-    return reservedSpace + headerSize + totDataBytes + ((totElements) * ptrSize) <= capacity;
+    return reservedSpace + headerSize + totDataBytes + ((totElements) * overhead) <= capacity;
+  }
+
+  private boolean fits(int dataBytes, int elements) {
+    return reservedSpace + headerSize + getDataBytes() + ((high + elements) * overhead)
+        + dataBytes <= capacity;
   }
 
   /**
@@ -397,7 +472,7 @@ public class BBuffer<A extends Comparable<? super A>> implements RangeIterable<A
    * @return bytes written
    */
   public int getBytesWritten() {
-    return reservedSpace + headerSize + bytesWritten + (high * ptrSize);
+    return reservedSpace + headerSize + getDataBytes() + (high * overhead);
   }
 
   /**
@@ -406,7 +481,7 @@ public class BBuffer<A extends Comparable<? super A>> implements RangeIterable<A
    * @return bytes written
    */
   public int getDataAndPointersBytes() {
-    return bytesWritten + (high * ptrSize);
+    return getDataBytes() + (high * overhead);
   }
 
   /**
@@ -416,7 +491,29 @@ public class BBuffer<A extends Comparable<? super A>> implements RangeIterable<A
    * @return bytes written
    */
   public int getDataBytes() {
-    return bytesWritten;
+    if (elementSize > 0)
+      return bytesWritten;
+    if (deadBytes < 0) {
+      int live = 0;
+      for (int i = 0; i < high; i++)
+        live += byteSize(getPhysicalPos(i));
+      deadBytes = bytesWritten - live;
+    }
+    return bytesWritten - deadBytes;
+  }
+
+  /**
+   * Get the element at a position, only reading the part that is used for comparisons
+   *
+   * @param idx position
+   * @return (possibly partial) element or null if position is out of bounds
+   * @see BCodec#fromKey(ByteBuffer)
+   */
+  public A getKey(int idx) {
+    if (idx >= high || idx < 0)
+      return null;
+    block.position(getPhysicalPos(idx));
+    return codec.fromKey(block);
   }
 
   /**
@@ -491,16 +588,29 @@ public class BBuffer<A extends Comparable<? super A>> implements RangeIterable<A
    */
   public int insert(A element) {
     // check if it can be inserted here:
-    if (!fits(element))
+    int byteSize = elementSize > 0 ? elementSize : codec.byteSize(element);
+    if (!fits(byteSize, 1))
       return -1;
     int pos = search(element);
     if (pos >= 0)
       return -1;
     pos++;
     pos = Math.abs(pos);
+    if (elementSize > 0) {
+      int pPos = getPhysicalPos(pos);
+      moveBytes(pPos, pPos + elementSize, (high - pos) * elementSize);
+      high++;
+      writeNumElements(high);
+      bytesWritten += elementSize;
+      writeBytesWritten(bytesWritten);
+      block.position(pPos);
+      codec.to(element, block);
+      return pos;
+    }
+    reclaim(byteSize + ptrSize);
 
     // calculate physical position:
-    int pPos = capacity - bytesWritten - codec.byteSize(element);
+    int pPos = capacity - bytesWritten - byteSize;
 
     // shift all the elments to the right of pos to fit the pPos (e.g. a short)
     if (pos < high)
@@ -510,13 +620,111 @@ public class BBuffer<A extends Comparable<? super A>> implements RangeIterable<A
     setPhysicalPos(pos, pPos);
     high++;
     writeNumElements(high);
-    bytesWritten += codec.byteSize(element);
+    bytesWritten += byteSize;
     writeBytesWritten(bytesWritten);
     block.position(pPos);
     codec.to(element, block);
     return pos;
   }
 
+  /**
+   * Inserts a number of sorted elements in this buffer. The elements are merged with the
+   * elements already in the buffer so the pointers are only rewritten once. Elements
+   * that are already in the buffer are ignored (but are included when checking if
+   * the elements fit).
+   *
+   * @param sorted elements in ascending order
+   * @return number of inserted elements or -1 if the elements did not fit (in which case
+   * nothing was inserted)
+   * @throws IllegalArgumentException if the elements are not sorted
+   */
+  public int insertAll(List<? extends A> sorted) {
+    int[] sizes = new int[sorted.size()];
+    int total = 0;
+    for (int j = 0; j < sizes.length; j++) {
+      sizes[j] = elementSize > 0 ? elementSize : codec.byteSize(sorted.get(j));
+      total += sizes[j];
+    }
+    if (!fits(total, sizes.length))
+      return -1;
+    if (elementSize > 0)
+      return insertAllFixed(sorted);
+    reclaim(total + (sizes.length * ptrSize));
+    int[] merged = new int[high + sizes.length];
+    int n = 0, i = 0;
+    int w = capacity - bytesWritten;
+    A prev = null;
+    for (int j = 0; j < sizes.length; j++) {
+      A element = sorted.get(j);
+      if (prev != null) {
+        int cmp = codec.compare(prev, element);
+        if (cmp > 0)
+          throw new IllegalArgumentException("elements are not sorted");
+        else if (cmp == 0)
+          continue;
+      }
+      prev = element;
+      int cmp = -1;
+      while (i < high && (cmp = codec.byteCompare(getPhysicalPos(i), block, element)) < 0)
+        merged[n++] = getPhysicalPos(i++);
+      if (i < high && cmp == 0)
+        continue;
+      w -= sizes[j];
+      block.position(w);
+      codec.to(element, block);
+      merged[n++] = w;
+    }
+    while (i < high)
+      merged[n++] = getPhysicalPos(i++);
+    int inserted = n - high;
+    for (int k = 0; k < n; k++)
+      setPhysicalPos(k, merged[k]);
+    high = n;
+    writeNumElements(high);
+    bytesWritten = capacity - w;
+    writeBytesWritten(bytesWritten);
+    return inserted;
+  }
+
+  private int insertAllFixed(List<? extends A> sorted) {
+    //merge into a temporary array and write it back with one copy
+    byte[] tmp = new byte[(high + sorted.size()) * elementSize];
+    ByteBuffer merged = ByteBuffer.wrap(tmp);
+    int n = 0, i = 0;
+    A prev = null;
+    for (A element : sorted) {
+      if (prev != null) {
+        int cmp = codec.compare(prev, element);
+        if (cmp > 0)
+          throw new IllegalArgumentException("elements are not sorted");
+        else if (cmp == 0)
+          continue;
+      }
+      prev = element;
+      int cmp = -1;
+      while (i < high && (cmp = codec.byteCompare(getPhysicalPos(i), block, element)) < 0) {
+        copyBytes(block, getPhysicalPos(i++), merged, n * elementSize, elementSize);
+        n++;
+      }
+      if (i < high && cmp == 0)
+        continue;
+      merged.position(n * elementSize);
+      codec.to(element, merged);
+      n++;
+    }
+    if (i < high) {
+      copyBytes(block, getPhysicalPos(i), merged, n * elementSize, (high - i) * elementSize);
+      n += high - i;
+    }
+    int inserted = n - high;
+    copyBytes(merged, 0, block, getPhysicalPos(0), n * elementSize);
+    high = n;
+    writeNumElements(high);
+    bytesWritten = n * elementSize;
+    writeBytesWritten(bytesWritten);
+    return inserted;
+  }
+
   /**
    * Inserts an element at the end of this buffer. Observe that
    * this will not guarantee that the block stays sorted
@@ -525,13 +733,20 @@ public class BBuffer<A extends Comparable<? super A>> implements RangeIterable<A
    * @return true if the element was inserted
    */
   public boolean insertUnsorted(A element) {
-    if (!fits(element))
+    int byteSize = elementSize > 0 ? elementSize : codec.byteSize(element);
+    if (!fits(byteSize, 1))
       return false;
-    int pPos = capacity - bytesWritten - codec.byteSize(element);
-    setPhysicalPos(high, pPos);
+    reclaim(byteSize + overhead);
+    int pPos;
+    if (elementSize > 0)
+      pPos = getPhysicalPos(high);
+    else {
+      pPos = capacity - bytesWritten - byteSize;
+      setPhysicalPos(high, pPos);
+    }
     high++;
     writeNumElements(high);
-    bytesWritten += codec.byteSize(element);
+    bytesWritten += byteSize;
     writeBytesWritten(bytesWritten);
     block.position(pPos);
     codec.to(element,block);
@@ -546,6 +761,22 @@ public class BBuffer<A extends Comparable<? super A>> implements RangeIterable<A
     return getNumberOfElements() == 0;
   }
 
+  /**
+   * Check if this buffer uses the fixed width format
+   * @return true if elements are stored without pointers
+   */
+  public boolean isFixedWidth() {
+    return elementSize > 0;
+  }
+
+  /**
+   * Check if compaction of deleted elements is deferred
+   * @return true if compaction is deferred
+   */
+  public boolean isDeferCompaction() {
+    return deferCompaction;
+  }
+
   @Override
   @SuppressWarnings("unchecked")
   public Iterator<A> iterator(boolean descend, A from, boolean fromInclusive,
@@ -555,30 +786,125 @@ public class BBuffer<A extends Comparable<? super A>> implements RangeIterable<A
   }
 
   /**
-   * Merge this buffer with another buffer
+   * Merge this buffer with another buffer. The elements of the other buffer are
+   * copied as one byte range and only their pointers are rebased. Elements in the
+   * other buffer that are already in this buffer are ignored. Any dead space
+   * in the other buffer is compacted first.
    * @param other buffer to merge with
    * @return this buffer
+   * @throws BufferOverflowException if the other buffer does not fit
    */
   public BBuffer<A> merge(BBuffer<A> other) {
-    //rewrite needs to always copy to this buffer
     if(other.isEmpty()) return this;
-
-    else if(isEmpty() || other.getFirst().compareTo(getLast()) > 0){ //all keys in other are large...can insert unsorted
-      for(A key : other){
-        if(!insertUnsorted(key))
-          throw new BufferOverflowException();
-      }
-    } else { //insert as usual
-      for(A key : other){
-        if(insert(key) < 0)
-          throw new BufferOverflowException();
+    if(!fits(other))
+      throw new BufferOverflowException();
+    if(elementSize > 0 || other.elementSize > 0){
+      mergeFixed(other);
+      return this;
+    }
+    other.compact();
+    int len = other.bytesWritten;
+    int oHigh = other.high;
+    reclaim(len + (oHigh * ptrSize));
+    int dst = capacity - bytesWritten - len;
+    int delta = dst - (other.capacity - len);
+    copyBytes(other.block, other.capacity - len, block, dst, len);
+    bytesWritten += len;
+    if(isEmpty() || codec.byteCompare(other.getPhysicalPos(0) + delta, block, getPhysicalPos(high - 1), block) > 0){
+      //all keys in other are larger...append pointers
+      for(int j = 0; j < oHigh; j++)
+        setPhysicalPos(high + j, other.getPhysicalPos(j) + delta);
+      high += oHigh;
+    } else {
+      int[] merged = new int[high + oHigh];
+      int n = 0, i = 0, j = 0, dead = 0;
+      while(i < high && j < oHigh){
+        int mine = getPhysicalPos(i);
+        int theirs = other.getPhysicalPos(j) + delta;
+        int cmp = codec.byteCompare(mine, block, theirs, block);
+        if(cmp <= 0){
+          merged[n++] = mine;
+          i++;
+          if(cmp == 0){
+            dead += byteSize(theirs);
+            j++;
+          }
+        } else {
+          merged[n++] = theirs;
+          j++;
+        }
       }
+      while(i < high)
+        merged[n++] = getPhysicalPos(i++);
+      while(j < oHigh)
+        merged[n++] = other.getPhysicalPos(j++) + delta;
+      for(int k = 0; k < n; k++)
+        setPhysicalPos(k, merged[k]);
+      high = n;
+      if(dead > 0)
+        setDeadBytes(deadBytes < 0 ? -1 : deadBytes + dead);
     }
+    writeNumElements(high);
+    writeBytesWritten(bytesWritten);
+    if(!deferCompaction)
+      compact();
     return this;
   }
 
+  private void mergeFixed(BBuffer<A> other) {
+    if(elementSize > 0 && elementSize == other.elementSize && (isEmpty() ||
+        codec.byteCompare(other.getPhysicalPos(0), other.block, getPhysicalPos(high - 1), block) > 0)){
+      //all keys in other are larger...append
+      copyBytes(other.block, other.getPhysicalPos(0), block, getPhysicalPos(high), other.bytesWritten);
+      high += other.high;
+      bytesWritten += other.bytesWritten;
+      writeNumElements(high);
+      writeBytesWritten(bytesWritten);
+      return;
+    }
+    List<A> elements = new ArrayList<>(other.high);
+    for(A a : other)
+      elements.add(a);
+    if(insertAll(elements) < 0)
+      throw new BufferOverflowException();
+  }
+
+  /**
+   * Remove all elements from index from (inclusive) to index to (exclusive)
+   *
+   * @param from first index to remove
+   * @param to index after the last index to remove
+   * @throws IndexOutOfBoundsException if from or to are out of range
+   */
+  public void removeRange(int from, int to) {
+    if (from < 0 || to > high || from > to)
+      throw new IndexOutOfBoundsException("from: " + from + " to: " + to + " size: " + high);
+    if (from == to)
+      return;
+    if (elementSize > 0) {
+      moveBytes(getPhysicalPos(to), getPhysicalPos(from), (high - to) * elementSize);
+      high -= to - from;
+      writeNumElements(high);
+      bytesWritten = high * elementSize;
+      writeBytesWritten(bytesWritten);
+      return;
+    }
+    int removed = 0;
+    for (int i = from; i < to; i++)
+      removed += byteSize(getPhysicalPos(i));
+    if (to < high)
+      byteBufferCopy(getIndexPos(to), getIndexPos(from), (high - to) * ptrSize);
+    high -= to - from;
+    writeNumElements(high);
+    setDeadBytes(deadBytes < 0 ? -1 : deadBytes + removed);
+    if (!deferCompaction)
+      compact();
+  }
+
   /**
-   * Binary search for element. Same contract as Arrays.binarySearch
+   * Binary search for element. Same contract as Arrays.binarySearch. Elements are
+   * compared with {@link BCodec#byteCompare(int, ByteBuffer, Object)} so a codec
+   * only has to read the part of each element that is compared
    *
    * @param element The element to search for
    * @return index
@@ -587,14 +913,9 @@ public class BBuffer<A extends Comparable<? super A>> implements RangeIterable<A
   public int search(A element) {
     int highSearch = high - 1;
     int low = 0, mid;
-    //Comparable<? super A> e = (Comparable<? super A>) element;
-    A current;
     while (low <= highSearch) {
       mid = (low + highSearch) / 2;
-      block.position(getPhysicalPos(mid));
-      current = codec.from(block);
-      int cmp = current.compareTo(element);
-      //int cmp = e.compareTo(current);
+      int cmp = codec.byteCompare(getPhysicalPos(mid), block, element);
       if (cmp < 0)
         low = mid + 1;
       else if (cmp > 0)
@@ -605,6 +926,109 @@ public class BBuffer<A extends Comparable<? super A>> implements RangeIterable<A
     return -(low + 1);
   }
 
+  /**
+   * Check if the key codec of a codec (see {@link BCodec#keyCodec()}) is a primitive
+   * codec, i.e. if {@link #searchKey(Object)} can be used
+   * @param codec codec to check
+   * @return true if the key codec is a primitive codec
+   */
+  public static boolean hasPrimitiveKeys(BCodec<?> codec) {
+    BCodec<?> kc = codec.keyCodec();
+    return kc instanceof BIntCodec || kc instanceof BLongCodec || kc instanceof BDoubleCodec;
+  }
+
+  /**
+   * Binary search for a key when the key codec is a primitive codec. Same contract
+   * as Arrays.binarySearch
+   *
+   * @param key an Integer, Long or Double depending on the key codec
+   * @return index
+   * @throws UnsupportedOperationException if the key codec is not a primitive codec
+   * @see #hasPrimitiveKeys(BCodec)
+   */
+  public int searchKey(Object key) {
+    BCodec<?> kc = codec.keyCodec();
+    if (kc instanceof BIntCodec)
+      return searchInt((Integer) key);
+    else if (kc instanceof BLongCodec)
+      return searchLong((Long) key);
+    else if (kc instanceof BDoubleCodec)
+      return searchDouble((Double) key);
+    throw new UnsupportedOperationException("key codec is not a primitive codec");
+  }
+
+  /**
+   * Binary search for an int key without boxing. Same contract as Arrays.binarySearch
+   *
+   * @param key key to search for
+   * @return index
+   * @throws ClassCastException if the key codec is not a {@link BIntCodec}
+   */
+  public int searchInt(int key) {
+    BIntCodec kc = (BIntCodec) codec.keyCodec();
+    int low = 0;
+    int highSearch = high - 1, mid;
+    while (low <= highSearch) {
+      mid = (low + highSearch) >>> 1;
+      int cmp = kc.compareInt(codec.keyOffset(getPhysicalPos(mid), block), block, key);
+      if (cmp < 0)
+        low = mid + 1;
+      else if (cmp > 0)
+        highSearch = mid - 1;
+      else
+        return mid;
+    }
+    return -(low + 1);
+  }
+
+  /**
+   * Binary search for a long key without boxing. Same contract as Arrays.binarySearch
+   *
+   * @param key key to search for
+   * @return index
+   * @throws ClassCastException if the key codec is not a {@link BLongCodec}
+   */
+  public int searchLong(long key) {
+    BLongCodec kc = (BLongCodec) codec.keyCodec();
+    int low = 0;
+    int highSearch = high - 1, mid;
+    while (low <= highSearch) {
+      mid = (low + highSearch) >>> 1;
+      int cmp = kc.compareLong(codec.keyOffset(getPhysicalPos(mid), block), block, key);
+      if (cmp < 0)
+        low = mid + 1;
+      else if (cmp > 0)
+        highSearch = mid - 1;
+      else
+        return mid;
+    }
+    return -(low + 1);
+  }
+
+  /**
+   * Binary search for a double key without boxing. Same contract as Arrays.binarySearch
+   *
+   * @param key key to search for
+   * @return index
+   * @throws ClassCastException if the key codec is not a {@link BDoubleCodec}
+   */
+  public int searchDouble(double key) {
+    BDoubleCodec kc = (BDoubleCodec) codec.keyCodec();
+    int low = 0;
+    int highSearch = high - 1, mid;
+    while (low <= highSearch) {
+      mid = (low + highSearch) >>> 1;
+      int cmp = kc.compareDouble(codec.keyOffset(getPhysicalPos(mid), block), block, key);
+      if (cmp < 0)
+        low = mid + 1;
+      else if (cmp > 0)
+        highSearch = mid - 1;
+      else
+        return mid;
+    }
+    return -(low + 1);
+  }
+
   /**
    * Binary search for element by using byte level comparison. Same contract as Arrays.binarySearch
    *
@@ -615,7 +1039,7 @@ public class BBuffer<A extends Comparable<? super A>> implements RangeIterable<A
   public int searchBC(A element) {
     int low = 0;
     int highSearch = high - 1, mid;
-    ByteBuffer bbKey = codec.to(element);
+    ByteBuffer bbKey = codec.to(element, BufferPool.keys());
     while (low <= highSearch) {
       mid = (low + highSearch) / 2;
       int midValOffset = getPhysicalPos(mid);
@@ -630,6 +1054,19 @@ public class BBuffer<A extends Comparable<? super A>> implements RangeIterable<A
     return -(low + 1); // key not found.
   }
 
+  /**
+   * Defer compaction of deleted elements until an insert does not fit in the free
+   * space of this buffer. This makes deletes O(1) (apart from shifting the pointers)
+   * instead of having to move data and update every pointer. The setting is not
+   * persisted
+   *
+   * @param defer true to defer compaction
+   * @see #compact()
+   */
+  public void setDeferCompaction(boolean defer) {
+    this.deferCompaction = defer;
+  }
+
   /**
    * If the elements in this buffer has been inserted unsorted use sort to sort the
    * contents. This method works as follows:<br>
@@ -678,18 +1115,30 @@ public class BBuffer<A extends Comparable<? super A>> implements RangeIterable<A
    * @return buffer with larger elements
    */
   public BBuffer<A> split(BBuffer<A> other) {
-    int half = bytesWritten / 2;
-    A lastKey;
-    int numWritten = 0;
-
-    //TODO: could be more efficient?
-    while (numWritten < half) {
-      //lastKey = getLast();
-      //other.insertKey(lastKey);
-      //deleteKey(lastKey);
-      lastKey = delete(high - 1);
-      other.insert(lastKey);
-      numWritten += codec.byteSize(lastKey);
+    if (elementSize > 0 && other.isEmpty() && other.elementSize == elementSize) {
+      int m = high / 2;
+      int len = (high - m) * elementSize;
+      copyBytes(block, getPhysicalPos(m), other.block, other.getPhysicalPos(0), len);
+      other.high = high - m;
+      other.bytesWritten = len;
+      other.writeNumElements(other.high);
+      other.writeBytesWritten(len);
+      high = m;
+      bytesWritten -= len;
+      writeNumElements(high);
+      writeBytesWritten(bytesWritten);
+    }
+    else if (other.isEmpty() && high > 0 && elementSize == 0 && other.elementSize == 0)
+      splitRaw(other);
+    else {
+      int half = getDataBytes() / 2;
+      A lastKey;
+      int numWritten = 0;
+      while (numWritten < half) {
+        lastKey = delete(high - 1);
+        other.insert(lastKey);
+        numWritten += codec.byteSize(lastKey);
+      }
     }
     // finally copy the reserved space (use tmp buffer for now
     if (tmpArr.length < getReservedSpace()) {
@@ -702,6 +1151,68 @@ public class BBuffer<A extends Comparable<? super A>> implements RangeIterable<A
     return other;
   }
 
+  /**
+   * Split by laying out the elements in sorted order so that the larger half
+   * can be moved to the other buffer as one byte range
+   */
+  private void splitRaw(BBuffer<A> other) {
+    int[] sizes = packSorted();
+    int half = bytesWritten / 2;
+    int m = high, len = 0;
+    while (len < half) {
+      m--;
+      len += sizes[m];
+    }
+    int srcStart = capacity - len;
+    int dst = other.capacity - len;
+    copyBytes(block, srcStart, other.block, dst, len);
+    for (int j = m; j < high; j++)
+      other.setPhysicalPos(j - m, getPhysicalPos(j) - srcStart + dst);
+    other.high = high - m;
+    other.bytesWritten = len;
+    other.writeNumElements(other.high);
+    other.writeBytesWritten(len);
+
+    //move the smaller half to the end of this buffer
+    int rest = bytesWritten - len;
+    moveBytes(capacity - bytesWritten, capacity - rest, rest);
+    for (int i = 0; i < m; i++)
+      setPhysicalPos(i, getPhysicalPos(i) + len);
+    high = m;
+    bytesWritten = rest;
+    writeNumElements(high);
+    writeBytesWritten(bytesWritten);
+  }
+
+  /**
+   * Rewrite the data so that element 0 has the lowest offset and the last
+   * element ends at the end of the buffer. This also removes any dead space
+   * @return byte size of each element
+   */
+  private int[] packSorted() {
+    int[] sizes = new int[high];
+    int live = 0;
+    for (int i = 0; i < high; i++) {
+      sizes[i] = byteSize(getPhysicalPos(i));
+      live += sizes[i];
+    }
+    byte[] tmp = new byte[live];
+    ByteBuffer src = block.duplicate();
+    int w = 0;
+    for (int i = 0; i < high; i++) {
+      src.limit(capacity).position(getPhysicalPos(i));
+      src.get(tmp, w, sizes[i]);
+      setPhysicalPos(i, capacity - live + w);
+      w += sizes[i];
+    }
+    block.position(capacity - live);
+    block.put(tmp);
+    bytesWritten = live;
+    writeBytesWritten(bytesWritten);
+    setDeadBytes(0);
+    return sizes;
+  }
+
   /**
    * The actual storage capacity of this buffer. Observe that each element
    * will store an additional number of bytes for its pointer.
@@ -764,6 +1275,47 @@ public class BBuffer<A extends Comparable<? super A>> implements RangeIterable<A
     return true;
   }
 
+  private int byteSize(int pPos) {
+    block.position(pPos);
+    return codec.byteSize(block);
+  }
+
+  private static void copyBytes(ByteBuffer src, int srcPos, ByteBuffer dst, int dstPos, int length) {
+    if (src.hasArray() && dst.hasArray()) {
+      System.arraycopy(src.array(), src.arrayOffset() + srcPos, dst.array(),
+          dst.arrayOffset() + dstPos, length);
+    } else {
+      ByteBuffer s = src.duplicate();
+      s.limit(srcPos + length).position(srcPos);
+      ByteBuffer d = dst.duplicate();
+      d.position(dstPos);
+      d.put(s);
+    }
+  }
+
+  private void moveBytes(int srcPos, int destPos, int length) {
+    if (block.hasArray())
+      System.arraycopy(block.array(), block.arrayOffset() + srcPos, block.array(),
+          block.arrayOffset() + destPos, length);
+    else
+      byteBufferCopy(srcPos, destPos, length);
+  }
+
+  /**
+   * Compact the buffer if the free space cannot hold the given number of bytes
+   */
+  private void reclaim(int bytes) {
+    if (deadBytes != 0 && reservedSpace + headerSize + bytesWritten + (high * overhead) + bytes > capacity)
+      compact();
+  }
+
+  private void setDeadBytes(int dead) {
+    boolean changed = (deadBytes != 0) != (dead != 0) || deadBytes < 0;
+    deadBytes = dead;
+    if (changed)
+      writePtrSize();
+  }
+
   private void byteBufferCopy(int srcPos, int destPos, int length) {
     if (tmpArr.length < length)
       tmpArr = new byte[length];
@@ -778,7 +1330,8 @@ public class BBuffer<A extends Comparable<? super A>> implements RangeIterable<A
   }
 
   private int getPhysicalPos(int index) {
-    return read(getIndexPos(index));
+    return elementSize > 0 ? reservedSpace + headerSize + (index * elementSize) :
+        read(getIndexPos(index));
   }
 
   private int read(int position) {
@@ -803,7 +1356,7 @@ public class BBuffer<A extends Comparable<? super A>> implements RangeIterable<A
 
   private PtrType readPtrType() {
     byte b = block.get(reservedSpace);
-    return PtrType.from(b);
+    return PtrType.from((byte) (b & ~(DEAD_SPACE | FIXED_WIDTH)));
   }
 
   private short readReservedSpace() {
@@ -820,6 +1373,7 @@ public class BBuffer<A extends Comparable<? super A>> implements RangeIterable<A
       bytesWritten = 0;
       this.ptrType = ptrType;
       this.ptrSize = ptrType.size();
+      this.elementSize = codec.isFixed() ? codec.fixedSize() : 0;
       writeNumElements(0);
       writeBytesWritten(0);
       writeReservedSpaceLength();
@@ -830,8 +1384,11 @@ public class BBuffer<A extends Comparable<? super A>> implements RangeIterable<A
       this.ptrSize = this.ptrType.size();
       high = readNumberOfElements();
       bytesWritten = readBytesWritten();
+      deadBytes = (block.get(this.reservedSpace) & DEAD_SPACE) != 0 ? -1 : 0;
+      elementSize = (block.get(this.reservedSpace) & FIXED_WIDTH) != 0 ? codec.fixedSize() : 0;
     }
     headerSize = (this.ptrSize * 2) + 1;
+    overhead = elementSize > 0 ? 0 : this.ptrSize;
   }
 
   private void setPhysicalPos(int index, int value) {
@@ -861,7 +1418,12 @@ public class BBuffer<A extends Comparable<? super A>> implements RangeIterable<A
   }
 
   private void writePtrSize() {
-    block.put(reservedSpace, ptrType.size());
+    byte b = ptrType.size();
+    if (elementSize > 0)
+      b |= FIXED_WIDTH;
+    if (deadBytes != 0)
+      b |= DEAD_SPACE;
+    block.put(reservedSpace, b);
   }
 
   private void writeReservedSpaceLength() {
@@ -164,6 +164,24 @@ public interface BCodec<A> {
     return byteCompare(offset1, bb1, offset2, ByteBuffer.wrap(b2));
   }
 
+  /**
+   * Compares an object that is represented as bytes in a ByteBuffer with an
+   * object. Default implementation reads the object and calls {@link #compare(Object, Object)}.
+   * <p>
+   * Codecs for composite types should override this to only read the part that
+   * is compared, e.g. the key of a key/value
+   * </p>
+   * @param offset offset in the buffer for the first object
+   * @param bb buffer that holds the first object
+   * @param second the second object
+   * @return a negative integer, zero, or a positive integer as the first
+   *         argument is less than, equal to, or greater than the second.
+   */
+  default int byteCompare(int offset, ByteBuffer bb, A second) {
+    bb.position(offset);
+    return compare(from(bb), second);
+  }
+
   /**
    * Size of serialized instance (including any size indicators)
    * @param a instance to serialize
@@ -202,6 +220,38 @@ public interface BCodec<A> {
    */
   A from(ByteBuffer bb);
 
+  /**
+   * Deserialize only the part of an instance that is used for comparisons, e.g. only
+   * the key of a key/value. The buffer is positioned after the instance. Default
+   * implementation reads the whole instance
+   * @param bb buffer to read from
+   * @return new (possibly partial) instance
+   */
+  default A fromKey(ByteBuffer bb){
+    return from(bb);
+  }
+
+  /**
+   * Codec for the part of this type that is compared, e.g. the key of a key/value.
+   * Defaults to this codec
+   * @return key codec
+   * @see #keyOffset(int, ByteBuffer)
+   */
+  default BCodec<?> keyCodec(){
+    return this;
+  }
+
+  /**
+   * Position of the part that is compared in a serialized object. Defaults to offset
+   * @param offset offset of the serialized object
+   * @param bb buffer that holds the serialized object
+   * @return offset of the serialized key
+   * @see #keyCodec()
+   */
+  default int keyOffset(int offset, ByteBuffer bb){
+    return offset;
+  }
+
   /**
    * Deserialize and return a new instance of
    * this type
@@ -302,6 +352,21 @@ public interface BCodec<A> {
     return bb;
   }
 
+  /**
+   * Serialize instance to a buffer from a pool. The buffer is only valid until the next
+   * use of the pool in the current thread. Default implementation calls
+   * <pre>
+   *   {@code return pool.encode(this, value);}
+   * </pre>
+   * @param value object to serialize
+   * @param pool pool to get the buffer from
+   * @return flipped buffer, i.e. positioned at 0 and with the serialized size as its limit
+   * @see BufferPool
+   */
+  default ByteBuffer to(A value, BufferPool pool) {
+    return pool.encode(this, value);
+  }
+
   /**
    * Serialize instance to byte array
    * @param value object to serialize
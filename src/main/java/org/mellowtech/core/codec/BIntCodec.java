@@ -0,0 +1,56 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mellowtech.core.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A codec for {@code int} values that can read, write and compare values
+ * without boxing them.
+ *
+ * @author Martin Svensson {@literal <msvens@gmail.com>}
+ * @since 4.0.0
+ */
+public interface BIntCodec extends BCodec<Integer> {
+
+  /**
+   * Read a value at an absolute position
+   * @param bb buffer to read from
+   * @param offset position of the value
+   * @return value
+   */
+  int getInt(ByteBuffer bb, int offset);
+
+  /**
+   * Write a value at the buffer's current position
+   * @param value value to write
+   * @param bb buffer to write to
+   */
+  void putInt(int value, ByteBuffer bb);
+
+  /**
+   * Compares a serialized value with a value
+   * @param offset position of the serialized value
+   * @param bb buffer that holds the serialized value
+   * @param value value to compare with
+   * @return a negative integer, zero, or a positive integer as the serialized value
+   *         is less than, equal to, or greater than value
+   */
+  default int compareInt(int offset, ByteBuffer bb, int value) {
+    return Integer.compare(getInt(bb, offset), value);
+  }
+}
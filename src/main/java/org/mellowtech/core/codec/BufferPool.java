@@ -0,0 +1,125 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mellowtech.core.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Thread local pool of reusable ByteBuffers for encoding objects. Each thread has
+ * one buffer per pool that grows as needed (up to a maximum size). A buffer returned
+ * by a pool is only valid until the next call to the same pool from the same thread,
+ * so callers should never hold on to a pooled buffer.
+ * <p>
+ * Buffers larger than the maximum size of the pool are allocated for each call and
+ * never pooled
+ * </p>
+ *
+ * @author Martin Svensson {@literal <msvens@gmail.com>}
+ * @since 4.0.0
+ * @see BCodec#to(Object, BufferPool)
+ */
+public class BufferPool {
+
+  public static final int DEFAULT_MAX_SIZE = 1024 * 64;
+  static final int INITIAL_SIZE = 256;
+
+  private static final BufferPool keyPool = new BufferPool(false, DEFAULT_MAX_SIZE);
+  private static final BufferPool valuePool = new BufferPool(true, DEFAULT_MAX_SIZE * 16);
+
+  private final boolean direct;
+  private final int maxSize;
+  private final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<>();
+
+  /**
+   * Create a new pool
+   * @param direct if true the pool will hold direct (off-heap) buffers
+   * @param maxSize max size of a pooled buffer
+   */
+  public BufferPool(boolean direct, int maxSize) {
+    this.direct = direct;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Shared pool of heap buffers for encoding keys, e.g. for searching
+   * @return key pool
+   */
+  public static BufferPool keys() {
+    return keyPool;
+  }
+
+  /**
+   * Shared pool of direct buffers for encoding values that are written to
+   * file channels
+   * @return value pool
+   */
+  public static BufferPool values() {
+    return valuePool;
+  }
+
+  /**
+   * Get a cleared buffer from this pool with room for at least size bytes. The limit of
+   * the buffer is set to size
+   * @param size number of bytes needed
+   * @return buffer
+   */
+  public ByteBuffer get(int size) {
+    if (size > maxSize)
+      return allocate(size);
+    ByteBuffer bb = buffers.get();
+    if (bb == null || bb.capacity() < size) {
+      bb = allocate(Math.min(maxSize, Math.max(size, bb == null ? INITIAL_SIZE : bb.capacity() * 2)));
+      buffers.set(bb);
+    }
+    bb.clear();
+    bb.limit(size);
+    return bb;
+  }
+
+  /**
+   * Encode a value into a buffer from this pool
+   * @param codec codec for the value
+   * @param value value to encode
+   * @param <A> value type
+   * @return flipped buffer, i.e. positioned at 0 and with the encoded size as its limit
+   */
+  public <A> ByteBuffer encode(BCodec<A> codec, A value) {
+    ByteBuffer bb = get(codec.byteSize(value));
+    codec.to(value, bb);
+    bb.flip();
+    return bb;
+  }
+
+  /**
+   * Check if this pool holds direct buffers
+   * @return true if direct
+   */
+  public boolean isDirect() {
+    return direct;
+  }
+
+  /**
+   * Max size of a pooled buffer
+   * @return max size
+   */
+  public int maxSize() {
+    return maxSize;
+  }
+
+  private ByteBuffer allocate(int size) {
+    return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+  }
+}
@@ -40,6 +40,7 @@ public class Codecs {
   private static CharArrayCodec charArrayCodec = new CharArrayCodec();
   private static ByteArrayCodec byteArrayCodec = new ByteArrayCodec();
   private static BitSetCodec bitSetCodec = new BitSetCodec();
+  private static NormalizedKeyCodec normalizedKeyCodec = new NormalizedKeyCodec();
 
   private static Map<Class,BCodec> classCodecs = new HashMap<>();
 
@@ -109,6 +110,8 @@ public class Codecs {
       return 13;
     else if(codec instanceof BitSetCodec)
       return 14;
+    else if(codec instanceof NormalizedKeyCodec)
+      return 15;
     else
       throw new Error("unknown codec");
   }
@@ -148,6 +151,8 @@ public class Codecs {
         return (BCodec<A>) byteArrayCodec;
       else if(b == 14)
         return (BCodec<A>) bitSetCodec;
+      else if(b == 15)
+        return (BCodec<A>) normalizedKeyCodec;
       else
         throw new Error("codec not found");
   }
@@ -191,6 +196,8 @@ public class Codecs {
       return (BCodec<A>) byteArrayCodec;
     else if(clazz == BitSet.class)
       return (BCodec<A>) bitSetCodec;
+    else if(clazz == NormalizedKey.class)
+      return (BCodec<A>) normalizedKeyCodec;
     else
       throw new Error("codec not found");
   }
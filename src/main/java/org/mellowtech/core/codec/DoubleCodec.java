@@ -22,7 +22,7 @@ import java.nio.ByteBuffer;
  * @author Martin Svensson {@literal <msvens@gmail.com>}
  * @since 4.0.0
  */
-public class DoubleCodec implements BCodec<Double> {
+public class DoubleCodec implements BDoubleCodec {
 
 
   @Override
@@ -57,4 +57,14 @@ public class DoubleCodec implements BCodec<Double> {
     return Double.compare(bb1.getDouble(offset1),bb2.getDouble(offset2));
   }
 
+  @Override
+  public double getDouble(ByteBuffer bb, int offset) {
+    return bb.getDouble(offset);
+  }
+
+  @Override
+  public void putDouble(double value, ByteBuffer bb) {
+    bb.putDouble(value);
+  }
+
 }
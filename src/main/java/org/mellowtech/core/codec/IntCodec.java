@@ -22,7 +22,7 @@ import java.nio.ByteBuffer;
  * @author Martin Svensson {@literal <msvens@gmail.com>}
  * @since 4.0.0
  */
-public class IntCodec implements BCodec<Integer> {
+public class IntCodec implements BIntCodec {
 
 
   @Override
@@ -57,4 +57,19 @@ public class IntCodec implements BCodec<Integer> {
     return Integer.compare(bb1.getInt(offset1),bb2.getInt(offset2));
   }
 
+  @Override
+  public int byteCompare(int offset, ByteBuffer bb, Integer second) {
+    return Integer.compare(bb.getInt(offset), second);
+  }
+
+  @Override
+  public int getInt(ByteBuffer bb, int offset) {
+    return bb.getInt(offset);
+  }
+
+  @Override
+  public void putInt(int value, ByteBuffer bb) {
+    bb.putInt(value);
+  }
+
 }
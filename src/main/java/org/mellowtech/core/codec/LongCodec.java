@@ -22,7 +22,7 @@ import java.nio.ByteBuffer;
  * @author Martin Svensson {@literal <msvens@gmail.com>}
  * @since 4.0.0
  */
-public class LongCodec implements BCodec<Long> {
+public class LongCodec implements BLongCodec {
 
 
   @Override
@@ -56,4 +56,19 @@ public class LongCodec implements BCodec<Long> {
     return Long.compare(bb1.getLong(offset1),bb2.getLong(offset2));
   }
 
+  @Override
+  public int byteCompare(int offset, ByteBuffer bb, Long second) {
+    return Long.compare(bb.getLong(offset), second);
+  }
+
+  @Override
+  public long getLong(ByteBuffer bb, int offset) {
+    return bb.getLong(offset);
+  }
+
+  @Override
+  public void putLong(long value, ByteBuffer bb) {
+    bb.putLong(value);
+  }
+
 }
@@ -27,6 +27,14 @@ import java.util.List;
  */
 public class MixedListCodec implements BCodec<List<Object>>{
 
+  /**
+   * Codec that reads lists encoded by this codec as lazy views
+   * @return view codec
+   */
+  public MixedListViewCodec viewCodec(){
+    return new MixedListViewCodec();
+  }
+
   @SuppressWarnings("unchecked")
   private int internalSize(List<Object> value){
     int size = 4; //num elements
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mellowtech.core.codec;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lazy view of a list encoded by {@link MixedListCodec}. Elements are only decoded when
+ * they are asked for. The first access scans the encoded list (using the byte size of
+ * each element) into a table of element offsets.
+ *
+ * @author Martin Svensson {@literal <msvens@gmail.com>}
+ * @since 4.0.0
+ * @see MixedListCodec#viewCodec()
+ */
+public class MixedListView extends AbstractList<Object> {
+
+  private final ByteBuffer bb;
+  private final int size;
+  private int[] offsets;
+
+  /**
+   * Create a view of an encoded list
+   * @param bb buffer that holds the complete encoded list (including size indicator)
+   *           starting at position 0
+   */
+  MixedListView(ByteBuffer bb) {
+    this.bb = bb;
+    this.size = bb.getInt(4);
+  }
+
+  @Override
+  public Object get(int index) {
+    if (index < 0 || index >= size)
+      throw new IndexOutOfBoundsException("index: " + index + " size: " + size);
+    if (offsets == null)
+      offsets = scan();
+    ByteBuffer b = bb.duplicate();
+    b.position(offsets[index]);
+    return Codecs.fromByte(b.get()).from(b);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Decode the whole list
+   * @return new list
+   */
+  public List<Object> decode() {
+    return new MixedListCodec().from(bb.duplicate());
+  }
+
+  /**
+   * Buffer that holds the encoded list
+   * @return read only buffer
+   */
+  public ByteBuffer buffer() {
+    return bb.asReadOnlyBuffer();
+  }
+
+  /**
+   * Size of the encoded list
+   * @return byte size
+   */
+  public int byteSize() {
+    return bb.limit();
+  }
+
+  private int[] scan() {
+    int[] toRet = new int[size];
+    ByteBuffer b = bb.duplicate();
+    b.position(8);
+    for (int i = 0; i < size; i++) {
+      toRet[i] = b.position();
+      BCodec<?> c = Codecs.fromByte(b.get());
+      b.position(b.position() + c.byteSize(b));
+    }
+    return toRet;
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mellowtech.core.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Codec that reads lists encoded by {@link MixedListCodec} as {@link MixedListView}s. The
+ * encoded bytes are copied but not decoded
+ *
+ * @author Martin Svensson {@literal <msvens@gmail.com>}
+ * @since 4.0.0
+ */
+public class MixedListViewCodec implements BCodec<MixedListView> {
+
+  @Override
+  public int compare(MixedListView first, MixedListView second) {
+    return first.buffer().compareTo(second.buffer());
+  }
+
+  @Override
+  public int byteSize(MixedListView value) {
+    return value.byteSize();
+  }
+
+  @Override
+  public int byteSize(ByteBuffer bb) {
+    return CodecUtil.peekSize4(bb);
+  }
+
+  @Override
+  public MixedListView from(ByteBuffer bb) {
+    ByteBuffer copy = ByteBuffer.allocate(byteSize(bb));
+    int limit = bb.limit();
+    bb.limit(bb.position() + copy.capacity());
+    copy.put(bb);
+    bb.limit(limit);
+    copy.flip();
+    return new MixedListView(copy);
+  }
+
+  @Override
+  public void to(MixedListView value, ByteBuffer bb) {
+    bb.put(value.buffer());
+  }
+}
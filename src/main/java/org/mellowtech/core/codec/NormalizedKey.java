@@ -0,0 +1,277 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mellowtech.core.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A key encoded so that its unsigned byte order is the same as the natural order of the
+ * values it was built from. Normalized keys can be built from ints, longs, floats, doubles
+ * and strings and a key with several values compares as a tuple of those values, e.g.
+ * <pre>
+ * {@code
+ * NormalizedKey key = NormalizedKey.builder().addString("smith").addInt(42).build();
+ * NormalizedKey.Reader r = key.reader();
+ * String name = r.getString();
+ * int age = r.getInt();
+ * }
+ * </pre>
+ * The encodings are:
+ * <ul>
+ *   <li>int and long - big endian with the sign bit flipped</li>
+ *   <li>float and double - big endian IEEE bits with the sign bit flipped for positive
+ *   values and all bits flipped for negative values. This gives the same order as
+ *   {@link Double#compare(double, double)}</li>
+ *   <li>String - each char in one (0x00-0x7E), two (up to 0x407E) or three bytes followed
+ *   by a 0 terminator. This gives the same order as {@link String#compareTo(String)}
+ *   (any {@link StringCodec} locale is not used)</li>
+ * </ul>
+ * Since every value is self delimiting a key never has to be decoded to be compared, see
+ * {@link NormalizedKeyCodec}.
+ *
+ * @author Martin Svensson {@literal <msvens@gmail.com>}
+ * @since 4.0.0
+ */
+public final class NormalizedKey implements Comparable<NormalizedKey> {
+
+  private static final int TWO_BYTE_START = 0x7F;
+  private static final int THREE_BYTE_START = 0x407F;
+
+  private final byte[] bytes;
+
+  NormalizedKey(byte[] bytes) {
+    this.bytes = bytes;
+  }
+
+  /**
+   * Wrap an already normalized key
+   * @param normalized normalized bytes (not copied)
+   * @return key
+   */
+  public static NormalizedKey wrap(byte[] normalized) {
+    return new NormalizedKey(normalized);
+  }
+
+  /**
+   * @param value value
+   * @return key for a single int
+   */
+  public static NormalizedKey of(int value) {
+    return builder().addInt(value).build();
+  }
+
+  /**
+   * @param value value
+   * @return key for a single long
+   */
+  public static NormalizedKey of(long value) {
+    return builder().addLong(value).build();
+  }
+
+  /**
+   * @param value value
+   * @return key for a single double
+   */
+  public static NormalizedKey of(double value) {
+    return builder().addDouble(value).build();
+  }
+
+  /**
+   * @param value value
+   * @return key for a single string
+   */
+  public static NormalizedKey of(String value) {
+    return builder().addString(value).build();
+  }
+
+  /**
+   * @return a builder for (tuple) keys
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * The normalized bytes of this key. The array is not copied
+   * @return bytes
+   */
+  public byte[] bytes() {
+    return bytes;
+  }
+
+  /**
+   * @return number of normalized bytes
+   */
+  public int length() {
+    return bytes.length;
+  }
+
+  /**
+   * @return reader for the values in this key
+   */
+  public Reader reader() {
+    return new Reader(ByteBuffer.wrap(bytes));
+  }
+
+  @Override
+  public int compareTo(NormalizedKey o) {
+    return Arrays.compareUnsigned(bytes, o.bytes);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof NormalizedKey && Arrays.equals(bytes, ((NormalizedKey) o).bytes);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(bytes);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("NormalizedKey[");
+    for (byte b : bytes)
+      sb.append(String.format("%02x", b & 0xFF));
+    return sb.append(']').toString();
+  }
+
+  /**
+   * Builds a key from a number of values
+   */
+  public static final class Builder {
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    private Builder() {}
+
+    public Builder addInt(int value) {
+      value ^= Integer.MIN_VALUE;
+      out.write(value >>> 24);
+      out.write(value >>> 16);
+      out.write(value >>> 8);
+      out.write(value);
+      return this;
+    }
+
+    public Builder addLong(long value) {
+      value ^= Long.MIN_VALUE;
+      for (int shift = 56; shift >= 0; shift -= 8)
+        out.write((int) (value >>> shift));
+      return this;
+    }
+
+    public Builder addFloat(float value) {
+      int bits = Float.floatToIntBits(value);
+      //negative values have all bits flipped (which flips their order)
+      return addInt(bits ^ ((bits >> 31) & Integer.MAX_VALUE));
+    }
+
+    public Builder addDouble(double value) {
+      long bits = Double.doubleToLongBits(value);
+      return addLong(bits ^ ((bits >> 63) & Long.MAX_VALUE));
+    }
+
+    public Builder addString(String value) {
+      for (int i = 0; i < value.length(); i++) {
+        int c = value.charAt(i);
+        if (c < TWO_BYTE_START)
+          out.write(c + 1);
+        else if (c < THREE_BYTE_START) {
+          c -= TWO_BYTE_START;
+          out.write(0x80 | (c >>> 8));
+          out.write(c);
+        } else {
+          out.write(0xC0);
+          out.write(c >>> 8);
+          out.write(c);
+        }
+      }
+      out.write(0);
+      return this;
+    }
+
+    public NormalizedKey build() {
+      return new NormalizedKey(out.toByteArray());
+    }
+  }
+
+  /**
+   * Reads the values of a key in the order they were added
+   */
+  public static final class Reader {
+
+    private final ByteBuffer bb;
+
+    Reader(ByteBuffer bb) {
+      this.bb = bb;
+    }
+
+    /**
+     * @return true if there are more values to read
+     */
+    public boolean hasRemaining() {
+      return bb.hasRemaining();
+    }
+
+    public int getInt() {
+      check(4);
+      return bb.getInt() ^ Integer.MIN_VALUE;
+    }
+
+    public long getLong() {
+      check(8);
+      return bb.getLong() ^ Long.MIN_VALUE;
+    }
+
+    public float getFloat() {
+      int bits = getInt();
+      return Float.intBitsToFloat(bits ^ ((bits >> 31) & Integer.MAX_VALUE));
+    }
+
+    public double getDouble() {
+      long bits = getLong();
+      return Double.longBitsToDouble(bits ^ ((bits >> 63) & Long.MAX_VALUE));
+    }
+
+    public String getString() {
+      StringBuilder sb = new StringBuilder();
+      while (true) {
+        check(1);
+        int b = bb.get() & 0xFF;
+        if (b == 0)
+          return sb.toString();
+        else if (b < 0x80)
+          sb.append((char) (b - 1));
+        else if (b < 0xC0) {
+          check(1);
+          sb.append((char) ((((b & 0x3F) << 8) | (bb.get() & 0xFF)) + TWO_BYTE_START));
+        } else {
+          check(2);
+          sb.append(bb.getChar());
+        }
+      }
+    }
+
+    private void check(int bytes) {
+      if (bb.remaining() < bytes)
+        throw new NoSuchElementException("no more values in key");
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mellowtech.core.codec;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Codec for {@link NormalizedKey}. A key is stored as its length followed by its
+ * normalized bytes so serialized keys are compared with a single unsigned
+ * comparison of two byte ranges without decoding, e.g. when searching a
+ * {@link BBuffer} with {@link BBuffer#searchBC(Comparable)}.
+ *
+ * @author Martin Svensson {@literal <msvens@gmail.com>}
+ * @since 4.0.0
+ */
+public class NormalizedKeyCodec implements BCodec<NormalizedKey> {
+
+  @Override
+  public int byteSize(NormalizedKey key) {
+    return CodecUtil.byteSize(key.length(), true);
+  }
+
+  @Override
+  public int byteSize(ByteBuffer bb) {
+    return CodecUtil.peekSize(bb, true);
+  }
+
+  @Override
+  public void to(NormalizedKey key, ByteBuffer bb) {
+    CodecUtil.putSize(key.length(), bb, true);
+    bb.put(key.bytes());
+  }
+
+  @Override
+  public NormalizedKey from(ByteBuffer bb) {
+    byte[] b = new byte[CodecUtil.getSize(bb, true)];
+    bb.get(b);
+    return new NormalizedKey(b);
+  }
+
+  @Override
+  public int byteCompare(int offset1, ByteBuffer bb1, int offset2, ByteBuffer bb2) {
+    bb1.position(offset1);
+    int len1 = CodecUtil.getSize(bb1, true);
+    int from1 = bb1.position();
+    bb2.position(offset2);
+    int len2 = CodecUtil.getSize(bb2, true);
+    return compare(bb1, from1, len1, bb2, bb2.position(), len2);
+  }
+
+  @Override
+  public int byteCompare(int offset, ByteBuffer bb, NormalizedKey second) {
+    bb.position(offset);
+    int len = CodecUtil.getSize(bb, true);
+    byte[] b = second.bytes();
+    return compare(bb, bb.position(), len, ByteBuffer.wrap(b), 0, b.length);
+  }
+
+  /**
+   * Unsigned comparison of two byte ranges
+   */
+  static int compare(ByteBuffer bb1, int from1, int len1, ByteBuffer bb2, int from2, int len2) {
+    if (bb1.hasArray() && bb2.hasArray()) {
+      int o1 = bb1.arrayOffset() + from1, o2 = bb2.arrayOffset() + from2;
+      return Arrays.compareUnsigned(bb1.array(), o1, o1 + len1, bb2.array(), o2, o2 + len2);
+    }
+    ByteBuffer s1 = bb1.duplicate();
+    s1.limit(from1 + len1).position(from1);
+    ByteBuffer s2 = bb2.duplicate();
+    s2.limit(from2 + len2).position(from2);
+    int i = s1.mismatch(s2);
+    if (i < 0)
+      return 0;
+    if (i == len1 || i == len2)
+      return len1 - len2;
+    return Byte.toUnsignedInt(s1.get(from1 + i)) - Byte.toUnsignedInt(s2.get(from2 + i));
+  }
+}
@@ -20,17 +20,32 @@ package org.mellowtech.core.codec;
 import java.nio.ByteBuffer;
 
 /**
+ * Codec for classes that implement {@link BRecord}. Annotated fields are read and written
+ * through method handles that are created once per record class
+ *
  * @author Martin Svensson {@literal <msvens@gmail.com>}
  * @since 4.0.0
  */
 public class RecordCodec<A extends BRecord> implements BCodec<A> {
 
-  private final ObjectCodec codec = new ObjectCodec();
   private final Class<A> template;
+  private final AutoField fields;
 
   public RecordCodec(Class<A> aClass){
     template = aClass;
-    AutoField.I().parseClass(template);
+    fields = AutoField.of(template);
+  }
+
+  /**
+   * Codec that reads records encoded by this codec as lazy views
+   * @return view codec
+   */
+  public RecordViewCodec<A> viewCodec(){
+    return new RecordViewCodec<>(this);
+  }
+
+  AutoField fields(){
+    return fields;
   }
 
   @Override
@@ -45,19 +60,18 @@ public class RecordCodec<A extends BRecord> implements BCodec<A> {
 
   @Override
   public A from(ByteBuffer bb) {
-    try{
-      A toRet = template.getDeclaredConstructor().newInstance();
-      CodecUtil.getSize(bb, true);
-      short elements = bb.getShort();
-      for(int i = 0; i < elements; i++){
-        short index = bb.getShort();
-        AutoField.I().setField(template, index, codec.from(bb), toRet);
-      }
-      return toRet;
-    }
-    catch(Exception e){
-      throw new CodecException("Could not instantiate new BSAuto", e);
+    A toRet = template.cast(fields.newInstance());
+    CodecUtil.getSize(bb, true);
+    short elements = bb.getShort();
+    for(int i = 0; i < elements; i++){
+      short index = bb.getShort();
+      AutoField.Accessor accessor = fields.accessor(index);
+      if(accessor != null)
+        accessor.set(toRet, accessor.from(bb));
+      else
+        skipField(bb);
     }
+    return toRet;
   }
 
   @Override
@@ -66,25 +80,27 @@ public class RecordCodec<A extends BRecord> implements BCodec<A> {
     int pos = bb.position();
     bb.putShort((short) 0); //num elements;
     int numElems = 0;
-    for(Integer i : AutoField.I().getFieldIndexes(template)){
-      Object toStore = AutoField.I().getField(template, i, value);
+    for(AutoField.Accessor accessor : fields.accessors()){
+      Object toStore = accessor.get(value);
       if(toStore != null){
-        bb.putShort(i.shortValue());
-        codec.to(toStore,bb);
+        accessor.to(toStore, bb);
         numElems++;
       }
     }
     bb.putShort(pos, (short) numElems);
   }
 
+  private void skipField(ByteBuffer bb){
+    int size = CodecUtil.getSize(bb, true);
+    bb.position(bb.position() + size);
+  }
+
   private int internalSize(A value){
     int size = 2; //num elements;
-    for(Integer i : AutoField.I().getFieldIndexes(template)){
-      Object toStore = AutoField.I().getField(template, i, value);
-      if(toStore != null){
-        size += 2; //index;
-        size += codec.byteSize(toStore);
-      }
+    for(AutoField.Accessor accessor : fields.accessors()){
+      Object toStore = accessor.get(value);
+      if(toStore != null)
+        size += accessor.byteSize(toStore);
     }
     return size;
   }
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mellowtech.core.codec;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Lazy view of a record encoded by {@link RecordCodec}. Fields are only decoded when
+ * they are asked for. The first access scans the field headers of the encoded record
+ * (without decoding any values) into a small table of field offsets.
+ * <p>
+ * Use {@link RecordCodec#viewCodec()} to read views instead of records, e.g. as the
+ * value codec of a BTree or BMap that was written with a RecordCodec
+ * </p>
+ *
+ * @author Martin Svensson {@literal <msvens@gmail.com>}
+ * @since 4.0.0
+ * @param <A> record type
+ */
+public class RecordView<A extends BRecord> {
+
+  private final RecordCodec<A> codec;
+  private final AutoField fields;
+  private final ByteBuffer bb;
+  private int[] offsets;
+
+  /**
+   * Create a view of an encoded record
+   * @param codec codec of the record
+   * @param bb buffer that holds the complete encoded record (including size indicator)
+   *           starting at position 0
+   */
+  RecordView(RecordCodec<A> codec, AutoField fields, ByteBuffer bb) {
+    this.codec = codec;
+    this.fields = fields;
+    this.bb = bb;
+  }
+
+  /**
+   * Decode a single field
+   * @param index field index (as given by {@link BField})
+   * @param <T> field type
+   * @return field value or null if the field is null or not part of the record
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T get(int index) {
+    int offset = offset(index);
+    if (offset < 0)
+      return null;
+    ByteBuffer b = bb.duplicate();
+    b.position(offset);
+    return (T) fields.accessor(index).from(b);
+  }
+
+  /**
+   * Check if a field has a value without decoding it
+   * @param index field index
+   * @return true if the field is not null
+   */
+  public boolean has(int index) {
+    return offset(index) >= 0;
+  }
+
+  /**
+   * Decode the whole record
+   * @return new record
+   */
+  public A decode() {
+    return codec.from(bb.duplicate());
+  }
+
+  /**
+   * Buffer that holds the encoded record
+   * @return read only buffer
+   */
+  public ByteBuffer buffer() {
+    return bb.asReadOnlyBuffer();
+  }
+
+  /**
+   * Size of the encoded record
+   * @return byte size
+   */
+  public int byteSize() {
+    return bb.limit();
+  }
+
+  private int offset(int index) {
+    if (offsets == null)
+      offsets = scan();
+    return index >= 0 && index < offsets.length ? offsets[index] : -1;
+  }
+
+  private int[] scan() {
+    int max = -1;
+    for (AutoField.Accessor a : fields.accessors())
+      max = Math.max(max, a.index);
+    int[] toRet = new int[max + 1];
+    Arrays.fill(toRet, -1);
+    ByteBuffer b = bb.duplicate();
+    b.position(0);
+    CodecUtil.getSize(b, true);
+    short elements = b.getShort();
+    for (int i = 0; i < elements; i++) {
+      short index = b.getShort();
+      if (index < toRet.length && fields.accessor(index) != null)
+        toRet[index] = b.position();
+      int size = CodecUtil.getSize(b, true);
+      b.position(b.position() + size);
+    }
+    return toRet;
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mellowtech.core.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Codec that reads records encoded by {@link RecordCodec} as {@link RecordView}s. The
+ * encoded bytes are copied but not decoded, so reading a view is much cheaper than
+ * reading the record when only a few fields are used
+ *
+ * @author Martin Svensson {@literal <msvens@gmail.com>}
+ * @since 4.0.0
+ * @param <A> record type
+ */
+public class RecordViewCodec<A extends BRecord> implements BCodec<RecordView<A>> {
+
+  private final RecordCodec<A> codec;
+  private final AutoField fields;
+
+  public RecordViewCodec(Class<A> aClass) {
+    this(new RecordCodec<>(aClass));
+  }
+
+  RecordViewCodec(RecordCodec<A> codec) {
+    this.codec = codec;
+    this.fields = codec.fields();
+  }
+
+  /**
+   * Create a view of a record
+   * @param record record to view
+   * @return new view
+   */
+  public RecordView<A> view(A record) {
+    ByteBuffer bb = codec.to(record);
+    bb.flip();
+    return new RecordView<>(codec, fields, bb);
+  }
+
+  @Override
+  public int compare(RecordView<A> first, RecordView<A> second) {
+    return first.buffer().compareTo(second.buffer());
+  }
+
+  @Override
+  public int byteSize(RecordView<A> value) {
+    return value.byteSize();
+  }
+
+  @Override
+  public int byteSize(ByteBuffer bb) {
+    return codec.byteSize(bb);
+  }
+
+  @Override
+  public RecordView<A> from(ByteBuffer bb) {
+    ByteBuffer copy = ByteBuffer.allocate(codec.byteSize(bb));
+    int limit = bb.limit();
+    bb.limit(bb.position() + copy.capacity());
+    copy.put(bb);
+    bb.limit(limit);
+    copy.flip();
+    return new RecordView<>(codec, fields, copy);
+  }
+
+  @Override
+  public void to(RecordView<A> value, ByteBuffer bb) {
+    bb.put(value.buffer());
+  }
+}
@@ -56,4 +56,9 @@ public class ShortCodec implements BCodec<Short> {
     return Short.compare(bb1.getShort(offset1),bb2.getShort(offset2));
   }
 
+  @Override
+  public int byteCompare(int offset, ByteBuffer bb, Short second) {
+    return Short.compare(bb.getShort(offset), second);
+  }
+
 }
@@ -62,4 +62,10 @@ public class UUIDCodec implements BCodec<UUID> {
     return cmp != 0 ? cmp : Long.compare(bb1.getLong(offset1+8), bb2.getLong(offset2+8));
   }
 
+  @Override
+  public int byteCompare(int offset, ByteBuffer bb, UUID second) {
+    int cmp = Long.compare(bb.getLong(offset), second.getMostSignificantBits());
+    return cmp != 0 ? cmp : Long.compare(bb.getLong(offset+8), second.getLeastSignificantBits());
+  }
+
 }
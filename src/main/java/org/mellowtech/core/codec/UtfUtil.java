@@ -17,9 +17,14 @@
 package org.mellowtech.core.codec;
 
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
 /**
@@ -32,6 +37,112 @@ import java.util.Arrays;
  */
 public class UtfUtil {
 
+  /**
+   * A long word is pure ascii if none of its bytes have the high bit set
+   */
+  private static final long ASCII_MASK = 0x8080808080808080L;
+
+  private static final VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+  /**
+   * Number of leading bytes that are ascii (i.e. less than 0x80). Bytes are
+   * checked 8 at a time
+   * @param b source array
+   * @param offset offset in array
+   * @param length number of bytes to check
+   * @return number of ascii bytes
+   */
+  static int asciiBytes(final byte[] b, final int offset, final int length) {
+    int i = 0;
+    for (; i + 8 <= length; i += 8) {
+      if (((long) LONG_VIEW.get(b, offset + i) & ASCII_MASK) != 0)
+        break;
+    }
+    for (; i < length; i++) {
+      if (b[offset + i] < 0)
+        break;
+    }
+    return i;
+  }
+
+  /**
+   * Number of leading bytes that are ascii (i.e. less than 0x80). Bytes are
+   * checked 8 at a time. The buffer position is not changed
+   * @param b source buffer
+   * @param offset offset in buffer
+   * @param length number of bytes to check
+   * @return number of ascii bytes
+   */
+  static int asciiBytes(final ByteBuffer b, final int offset, final int length) {
+    int i = 0;
+    for (; i + 8 <= length; i += 8) {
+      if ((b.getLong(offset + i) & ASCII_MASK) != 0)
+        break;
+    }
+    for (; i < length; i++) {
+      if (b.get(offset + i) < 0)
+        break;
+    }
+    return i;
+  }
+
+  /**
+   * Number of leading chars that are encoded in a single byte, i.e. in the
+   * range 0x0001 to 0x007F. Chars are checked 4 at a time
+   * @param str chars to check
+   * @param offset offset in array
+   * @param length number of chars to check
+   * @return number of single byte chars
+   */
+  static int asciiChars(final char[] str, final int offset, final int length) {
+    int i = 0;
+    //c | (0x80 - c) is less than 0x80 only if c is between 0x01 and 0x7F
+    for (; i + 4 <= length; i += 4) {
+      int c0 = str[offset + i], c1 = str[offset + i + 1];
+      int c2 = str[offset + i + 2], c3 = str[offset + i + 3];
+      if (((c0 | (0x80 - c0) | c1 | (0x80 - c1) | c2 | (0x80 - c2) | c3 | (0x80 - c3)) & ~0x7F) != 0)
+        break;
+    }
+    for (; i < length; i++) {
+      int c = str[offset + i];
+      if (c < 0x0001 || c > 0x007F)
+        break;
+    }
+    return i;
+  }
+
+  /**
+   * Number of leading chars that are encoded in a single byte, i.e. in the
+   * range 0x0001 to 0x007F. Chars are checked 4 at a time
+   * @param str string to check
+   * @return number of single byte chars
+   */
+  static int asciiChars(final String str) {
+    int length = str.length();
+    int i = 0;
+    for (; i + 4 <= length; i += 4) {
+      int c0 = str.charAt(i), c1 = str.charAt(i + 1);
+      int c2 = str.charAt(i + 2), c3 = str.charAt(i + 3);
+      if (((c0 | (0x80 - c0) | c1 | (0x80 - c1) | c2 | (0x80 - c2) | c3 | (0x80 - c3)) & ~0x7F) != 0)
+        break;
+    }
+    for (; i < length; i++) {
+      int c = str.charAt(i);
+      if (c < 0x0001 || c > 0x007F)
+        break;
+    }
+    return i;
+  }
+
+  /**
+   * Pack 8 ascii chars into a long word in the byte order of the buffer
+   */
+  private static long asciiWord(int c0, int c1, int c2, int c3, int c4, int c5, int c6, int c7, ByteOrder order) {
+    long w = ((long) c0 << 56) | ((long) c1 << 48) | ((long) c2 << 40) | ((long) c3 << 32) |
+        ((long) c4 << 24) | ((long) c5 << 16) | ((long) c6 << 8) | (long) c7;
+    return order == ByteOrder.BIG_ENDIAN ? w : Long.reverseBytes(w);
+  }
+
   /**
    * Convert an array of chars to an utf-8 encoded byte array
    * @param chars array to convert
@@ -52,8 +163,8 @@ public class UtfUtil {
   public static int utfLength(final String str) {
     int len = str.length();
     int c;
-    int utflen = 0;
-    for (int i = 0; i < len; i++) {
+    int utflen = asciiChars(str);
+    for (int i = utflen; i < len; i++) {
       c = str.charAt(i);
       if ((c >= 0x0001) && (c <= 0x007F)) {
         utflen++;
@@ -84,8 +195,9 @@ public class UtfUtil {
    */
   public static int utfLength(final char[] str, int offset, int length) {
     int c;
-    int utflen = 0;
-    for (int i = 0; i < length; i++) {
+    int utflen = asciiChars(str, offset, length);
+    offset += utflen;
+    for (int i = utflen; i < length; i++) {
       c = str[offset++];
       if ((c >= 0x0001) && (c <= 0x007F)) {
         utflen++;
@@ -132,13 +244,10 @@ public class UtfUtil {
     int len = str.length();
     int c, count = offset;
 
-    int i = 0;
-    for (i = 0; i < len; i++) {
-      c = str.charAt(i);
-      if (!((c >= 0x0001) && (c <= 0x007F)))
-        break;
-      b[count++] = (byte) c;
-    }
+    int i;
+    int ascii = asciiChars(str);
+    for (i = 0; i < ascii; i++)
+      b[count++] = (byte) str.charAt(i);
 
     // difficult case:
     for (; i < len; i++) {
@@ -170,13 +279,10 @@ public class UtfUtil {
     int len = str.length;
     int c, count = offset;
 
-    int i = 0;
-    for (i = 0; i < len; i++) {
-      c = str[i];
-      if (!((c >= 0x0001) && (c <= 0x007F)))
-        break;
-      b[count++] = (byte) c;
-    }
+    int i;
+    int ascii = asciiChars(str, 0, len);
+    for (i = 0; i < ascii; i++)
+      b[count++] = (byte) str[i];
 
     // difficult case:
     for (; i < len; i++) {
@@ -202,20 +308,22 @@ public class UtfUtil {
    * @param b destination buffer
    */
   public static void encode(final String str, final ByteBuffer b) {
-    /*if(b.hasArray()){
-      b.position(b.position()+encode(str, b.array(), b.position()));
-      return;
-    }*/
     int len = str.length();
+    if (b.hasArray() && !b.isReadOnly() && b.remaining() >= len * 3) {
+      b.position(b.position() + encode(str, b.array(), b.arrayOffset() + b.position()));
+      return;
+    }
     int c;
 
-    int i = 0;
-    for (i = 0; i < len; i++) {
-      c = str.charAt(i);
-      if (!((c >= 0x0001) && (c <= 0x007F)))
-        break;
-      b.put((byte) c);
+    int i;
+    int ascii = asciiChars(str);
+    ByteOrder order = b.order();
+    for (i = 0; i + 8 <= ascii; i += 8) {
+      b.putLong(asciiWord(str.charAt(i), str.charAt(i + 1), str.charAt(i + 2), str.charAt(i + 3),
+          str.charAt(i + 4), str.charAt(i + 5), str.charAt(i + 6), str.charAt(i + 7), order));
     }
+    for (; i < ascii; i++)
+      b.put((byte) str.charAt(i));
 
     // difficult case:
     for (; i < len; i++) {
@@ -242,15 +350,21 @@ public class UtfUtil {
   public static void encode(final char[] str, final ByteBuffer b) {
 
     int len = str.length;
+    if (b.hasArray() && !b.isReadOnly() && b.remaining() >= len * 3) {
+      b.position(b.position() + encode(str, b.array(), b.arrayOffset() + b.position()));
+      return;
+    }
     int c;
 
-    int i = 0;
-    for (i = 0; i < len; i++) {
-      c = str[i];
-      if (!((c >= 0x0001) && (c <= 0x007F)))
-        break;
-      b.put((byte) c);
+    int i;
+    int ascii = asciiChars(str, 0, len);
+    ByteOrder order = b.order();
+    for (i = 0; i + 8 <= ascii; i += 8) {
+      b.putLong(asciiWord(str[i], str[i + 1], str[i + 2], str[i + 3],
+          str[i + 4], str[i + 5], str[i + 6], str[i + 7], order));
     }
+    for (; i < ascii; i++)
+      b.put((byte) str[i]);
 
     // difficult case:
     for (; i < len; i++) {
@@ -298,15 +412,13 @@ public class UtfUtil {
   public static String decode(final byte[] b, int offset, int length){
     int count = offset, c_count = 0;
     int c, char2, char3;
+    int ascii = asciiBytes(b, offset, length);
+    if (ascii == length)
+      return new String(b, offset, length, StandardCharsets.ISO_8859_1);
     char arr[] = new char[length];
     int to = offset + length;
-    while (count < to) {
-      c = (int) b[count] & 0xff;
-      if (c > 127)
-        break;
-      count++;
-      arr[c_count++] = (char) c;
-    }
+    for (; c_count < ascii; c_count++)
+      arr[c_count] = (char) b[count++];
 
     // difficult case:
     while (count < to) {
@@ -371,16 +483,14 @@ public class UtfUtil {
     int c, char2, char3;
     char arr[] = new char[length];
     int to = offset + length;
-    while (count < to) {
-      c = (int) b[count] & 0xff;
-      if (c > 127)
-        break;
-      count++;
-      arr[c_count++] = (char) c;
-    }
+    int ascii = asciiBytes(b, offset, length);
+    for (; c_count < ascii; c_count++)
+      arr[c_count] = (char) b[count++];
+    if (ascii == length)
+      return arr;
 
     // difficult case:
-    while (count < length) {
+    while (count < to) {
       c = (int) b[count] & 0xff;
       switch (c >> 4) {
       case 0:
@@ -399,7 +509,7 @@ public class UtfUtil {
       case 13:
         /* 110x xxxx 10xx xxxx */
         count += 2;
-        if (count > length)
+        if (count > to)
           throw new Error(
               "malformed input: partial character at end");
         char2 = (int) b[count - 1];
@@ -411,7 +521,7 @@ public class UtfUtil {
       case 14:
         /* 1110 xxxx 10xx xxxx 10xx xxxx */
         count += 3;
-        if (count > length)
+        if (count > to)
           throw new Error(
               "malformed input: partial character at end");
         char2 = (int) b[count - 2];
@@ -438,24 +548,22 @@ public class UtfUtil {
    * @return string value
    */
   public static String decode(final ByteBuffer b, int length){
-    /*if(b.hasArray()){
-      String toRet = decode(b.array(), b.position(), length);
+    if(b.hasArray()){
+      if(length > b.remaining())
+        throw new BufferUnderflowException();
+      String toRet = decode(b.array(), b.arrayOffset() + b.position(), length);
       b.position(b.position()+length);
-      System.out.println(toRet);
       return toRet;
-    }*/
+    }
     int count = 0, c_count = 0;
     int c, char2, char3;
+    int pos = b.position();
+    int ascii = asciiBytes(b, pos, Math.min(length, b.remaining()));
     char arr[] = new char[length];
-    
-    while (count < length) {
-      c = (int) b.get(b.position()) & 0xff;
-      if (c > 127)
-        break;
-      b.get();
-      count++;
-      arr[c_count++] = (char) c;
-    }
+    for (; c_count < ascii; c_count++)
+      arr[c_count] = (char) b.get(pos + c_count);
+    b.position(pos + ascii);
+    count = ascii;
 
     // difficult case:
     while (count < length) {
@@ -515,21 +623,22 @@ public class UtfUtil {
    * @return char array value
    */
   public static char[] decodeChars(final ByteBuffer b, int length){
-    /*if(b.hasArray()){
-      return decodeChars(b.array(), b.position(), length);
-    }*/
+    if(b.hasArray()){
+      if(length > b.remaining())
+        throw new BufferUnderflowException();
+      char[] toRet = decodeChars(b.array(), b.arrayOffset() + b.position(), length);
+      b.position(b.position()+length);
+      return toRet;
+    }
     int count = 0, c_count = 0;
     int c, char2, char3;
+    int pos = b.position();
+    int ascii = asciiBytes(b, pos, Math.min(length, b.remaining()));
     char arr[] = new char[length];
-    
-    while (count < length) {
-      c = (int) b.get(b.position()) & 0xff;
-      if (c > 127)
-        break;
-      b.get();
-      count++;
-      arr[c_count++] = (char) c;
-    }
+    for (; c_count < ascii; c_count++)
+      arr[c_count] = (char) b.get(pos + c_count);
+    b.position(pos + ascii);
+    count = ascii;
 
     // difficult case:
     while (count < length) {
@@ -584,6 +693,70 @@ public class UtfUtil {
 
 
 
+  /**
+   * Compare two utf8 encoded strings without decoding them. The encoding used in this class
+   * preserves the char order of a string in its byte order, with the exception of the
+   * zero char that is encoded in two bytes (0xC0 0x80). The strings are compared with
+   * {@link Arrays#mismatch(byte[], int, int, byte[], int, int)}
+   * @param b1 first array
+   * @param o1 first array offset
+   * @param length1 number of bytes in the first string
+   * @param b2 second array
+   * @param o2 second array offset
+   * @param length2 number of bytes in the second string
+   * @return a negative integer, zero, or a positive integer as b1 is less than, equal to, or greater than b2.
+   */
+  static int compareBytes(byte[] b1, int o1, int length1, byte[] b2, int o2, int length2) {
+    int i = Arrays.mismatch(b1, o1, o1 + length1, b2, o2, o2 + length2);
+    if (i < 0)
+      return 0;
+    if (i >= length1 || i >= length2)
+      return length1 - length2;
+    return compareUnit(b1[o1 + i] & 0xFF, b2[o2 + i] & 0xFF);
+  }
+
+  /**
+   * Compare two utf8 encoded strings without decoding them. Buffers that are backed
+   * by arrays are compared with {@link #compareBytes(byte[], int, int, byte[], int, int)}, other
+   * buffers are compared 8 bytes at a time
+   * @param b1 first buffer
+   * @param o1 first buffer offset
+   * @param length1 number of bytes in the first string
+   * @param b2 second buffer
+   * @param o2 second buffer offset
+   * @param length2 number of bytes in the second string
+   * @return a negative integer, zero, or a positive integer as b1 is less than, equal to, or greater than b2.
+   */
+  static int compareBytes(ByteBuffer b1, int o1, int length1, ByteBuffer b2, int o2, int length2) {
+    if (b1.hasArray() && b2.hasArray())
+      return compareBytes(b1.array(), b1.arrayOffset() + o1, length1, b2.array(), b2.arrayOffset() + o2, length2);
+    int min = Math.min(length1, length2);
+    int i = 0;
+    for (; i + 8 <= min; i += 8) {
+      if (b1.getLong(o1 + i) != b2.getLong(o2 + i))
+        break;
+    }
+    for (; i < min; i++) {
+      int c1 = b1.get(o1 + i) & 0xFF;
+      int c2 = b2.get(o2 + i) & 0xFF;
+      if (c1 != c2)
+        return compareUnit(c1, c2);
+    }
+    return length1 - length2;
+  }
+
+  /**
+   * Compare the first bytes that differ in two utf8 encoded strings. 0xC0 only starts the
+   * encoded zero char which is less than any other char
+   */
+  private static int compareUnit(int c1, int c2) {
+    if (c1 == 0xC0)
+      return -1;
+    if (c2 == 0xC0)
+      return 1;
+    return c1 - c2;
+  }
+
   /**
    * Compare two utf8 encoded strings. This method assumes that a size indicator
    * is stored first in each array as defined in CBUtil
@@ -597,7 +770,7 @@ public class UtfUtil {
   public static int compare(byte[] b1, int o1, byte[] b2, int o2){
 
 
-    int length1, length2, c1,c2, num = 0, i = 0;
+    int length1, length2, c1, num = 0, i = 0;
     
     // length1
     c1 = (b1[o1++] & 0xFF);
@@ -617,112 +790,7 @@ public class UtfUtil {
       i++;
     }
     length2 = (num |= ((c1 & ~(0x80)) << (7 * i)));
-    //System.out.println(length1+" "+length2);
-    int min = Math.min(length1, length2);
-    int count = 0;
-    while(count < min){
-      c1 = b1[o1] & 0xFF;
-      c2 = b2[o2] & 0xFF;
-      if(c1 > 127 || c2 > 127)
-        break;
-      if(c1 != c2)
-        return c1 - c2;
-      o1++;
-      o2++;
-      count++;
-    }
-    //difficult case
-    //you only have to update count for the char from the first string
-    //since it should be exactly the same as long as the chars are the same
-    char cmp1, cmp2;
-    int char2, char3;
-    while(count < min){
-      //first char
-      c1 = (int) b1[o1] & 0xff;
-      switch (c1 >> 4) {
-      case 0:
-      case 1:
-      case 2:
-      case 3:
-      case 4:
-      case 5:
-      case 6:
-      case 7:
-        //0xxxxxxx
-        count++; o1++;
-        cmp1 = (char) c1;
-        break;
-      case 12:
-      case 13:
-        //110x xxxx 10xx xxxx
-        count += 2;
-        o1 += 2;
-        char2 = (int) b1[o1 - 1];
-        if ((char2 & 0xC0) != 0x80)
-          throw new Error("malformed input around byte "
-              + o1);
-        cmp1 = (char) (((c1 & 0x1F) << 6) | (char2 & 0x3F));
-        break;
-      case 14:
-        //1110 xxxx 10xx xxxx 10xx xxxx
-        count += 3;
-        o1 += 3;
-        char2 = (int) b1[o1 - 2];
-        char3 = (int) b1[o1 - 1];
-        if (((char2 & 0xC0) != 0x80) || ((char3 & 0xC0) != 0x80))
-          throw new Error("malformed input around byte "
-              + (o1 - 1));
-        cmp1 = (char) (((c1 & 0x0F) << 12) | ((char2 & 0x3F) << 6) | ((char3 & 0x3F) << 0));
-        break;
-      default:
-        //10xx xxxx, 1111 xxxx
-        throw new Error("malformed input around byte " + o1);
-      }
-      
-      //second char
-      c1 = (int) b2[o2] & 0xff;
-      switch (c1 >> 4) {
-      case 0:
-      case 1:
-      case 2:
-      case 3:
-      case 4:
-      case 5:
-      case 6:
-      case 7:
-        //0xxxxxxx
-        o2++;
-        cmp2 = (char) c1;
-        break;
-      case 12:
-      case 13:
-        //110x xxxx 10xx xxxx
-        o2 += 2;
-        char2 = (int) b2[o2 - 1];
-        if ((char2 & 0xC0) != 0x80)
-          throw new Error("malformed input around byte "
-              + o2);
-        cmp2 = (char) (((c1 & 0x1F) << 6) | (char2 & 0x3F));
-        break;
-      case 14:
-        //1110 xxxx 10xx xxxx 10xx xxxx
-        o2 += 3;
-        char2 = (int) b2[o2 - 2];
-        char3 = (int) b2[o2 - 1];
-        if (((char2 & 0xC0) != 0x80) || ((char3 & 0xC0) != 0x80))
-          throw new Error("malformed input around byte "
-              + (count - 1));
-        cmp2 = (char) (((c1 & 0x0F) << 12) | ((char2 & 0x3F) << 6) | ((char3 & 0x3F) << 0));
-        break;
-      default:
-        //10xx xxxx, 1111 xxxx
-        throw new Error("malformed input around byte " + count);
-      }
-      if(cmp1 != cmp2)
-        return cmp1 - cmp2;
-    }
-    //the string starts the same (or are actually the same)
-    return length1 - length2;
+    return compareBytes(b1, o1, length1, b2, o2, length2);
   }
 
   /**
@@ -737,7 +805,7 @@ public class UtfUtil {
    */
   public static int compare(ByteBuffer b1, int o1, ByteBuffer b2, int o2){
     
-    int length1, length2, c1,c2, num = 0, i = 0;
+    int length1, length2, c1, num = 0, i = 0;
     
     // length1
     c1 = (b1.get(o1++) & 0xFF);
@@ -757,113 +825,7 @@ public class UtfUtil {
       i++;
     }
     length2 = (num |= ((c1 & ~(0x80)) << (7 * i)));
-    
-    int min = Math.min(length1, length2);
-    int count = 0;
-    while(count < min){
-      c1 = b1.get(o1) & 0xFF;
-      c2 = b2.get(o2) & 0xFF;
-      if(c1 > 127 || c2 > 127)
-        break;
-      if(c1 != c2)
-        return c1 - c2;
-      o1++;
-      o2++;
-      count++;
-    }
-    //difficult case
-    //you only have to update count for the char from the first string
-    //since it should be exactly the same as long as the chars are the same
-    char cmp1, cmp2;
-    int char2, char3;
-    while(count < min){
-      //first char
-      c1 = (int) b1.get(o1) & 0xff;
-      switch (c1 >> 4) {
-      case 0:
-      case 1:
-      case 2:
-      case 3:
-      case 4:
-      case 5:
-      case 6:
-      case 7:
-        //0xxxxxxx
-        count++; o1++;
-        cmp1 = (char) c1;
-        break;
-      case 12:
-      case 13:
-        //110x xxxx 10xx xxxx
-        count += 2;
-        o1 += 2;
-        char2 = (int) b1.get(o1 - 1);
-        if ((char2 & 0xC0) != 0x80)
-          throw new Error("malformed input around byte "
-              + o1);
-        cmp1 = (char) (((c1 & 0x1F) << 6) | (char2 & 0x3F));
-        break;
-      case 14:
-        //1110 xxxx 10xx xxxx 10xx xxxx
-        count += 3;
-        o1 += 3;
-        char2 = (int) b1.get(o1 - 2);
-        char3 = (int) b1.get(o1 - 1);
-        if (((char2 & 0xC0) != 0x80) || ((char3 & 0xC0) != 0x80)) {
-          throw new Error("malformed input around byte "
-              + (o1 - 1));
-        }
-        cmp1 = (char) (((c1 & 0x0F) << 12) | ((char2 & 0x3F) << 6) | ((char3 & 0x3F) << 0));
-        break;
-      default:
-        //10xx xxxx, 1111 xxxx
-        throw new Error("malformed input around byte " + o1);
-      }
-      
-      //second char
-      c1 = (int) b2.get(o2) & 0xff;
-      switch (c1 >> 4) {
-      case 0:
-      case 1:
-      case 2:
-      case 3:
-      case 4:
-      case 5:
-      case 6:
-      case 7:
-        /* 0xxxxxxx */
-        o2++;
-        cmp2 = (char) c1;
-        break;
-      case 12:
-      case 13:
-        /* 110x xxxx 10xx xxxx */
-        o2 += 2;
-        char2 = (int) b2.get(o2 - 1);
-        if ((char2 & 0xC0) != 0x80)
-          throw new Error("malformed input around byte "
-              + o2);
-        cmp2 = (char) (((c1 & 0x1F) << 6) | (char2 & 0x3F));
-        break;
-      case 14:
-        /* 1110 xxxx 10xx xxxx 10xx xxxx */
-        o2 += 3;
-        char2 = (int) b2.get(o2 - 2);
-        char3 = (int) b2.get(o2 - 1);
-        if (((char2 & 0xC0) != 0x80) || ((char3 & 0xC0) != 0x80))
-          throw new Error("malformed input around byte "
-              + (count - 1));
-        cmp2 = (char) (((c1 & 0x0F) << 12) | ((char2 & 0x3F) << 6) | ((char3 & 0x3F) << 0));
-        break;
-      default:
-        /* 10xx xxxx, 1111 xxxx */
-        throw new Error("malformed input around byte " + count);
-      }
-      if(cmp1 != cmp2)
-        return cmp1 - cmp2;
-    }
-    //the string starts the same (or are actually the same)
-    return length1 - length2;
+    return compareBytes(b1, o1, length1, b2, o2, length2);
   }
 
   /**
@@ -1187,115 +1149,7 @@ public class UtfUtil {
    * @see CodecUtil#encodeInt(int, byte[], int)
    */
   public static int cmp(ByteBuffer b1, int o1, ByteBuffer b2, int o2, int length1, int length2){
-
-    int c1,c2, num = 0, i = 0;
-
-
-    int min = Math.min(length1, length2);
-    int count = 0;
-    while(count < min){
-      c1 = b1.get(o1) & 0xFF;
-      c2 = b2.get(o2) & 0xFF;
-      if(c1 > 127 || c2 > 127)
-        break;
-      if(c1 != c2)
-        return c1 - c2;
-      o1++;
-      o2++;
-      count++;
-    }
-    //difficult case
-    //you only have to update count for the char from the first string
-    //since it should be exactly the same as long as the chars are the same
-    char cmp1, cmp2;
-    int char2, char3;
-    while(count < min){
-      //first char
-      c1 = (int) b1.get(o1) & 0xff;
-      switch (c1 >> 4) {
-        case 0:
-        case 1:
-        case 2:
-        case 3:
-        case 4:
-        case 5:
-        case 6:
-        case 7:
-          //0xxxxxxx
-          count++; o1++;
-          cmp1 = (char) c1;
-          break;
-        case 12:
-        case 13:
-          //110x xxxx 10xx xxxx
-          count += 2;
-          o1 += 2;
-          char2 = (int) b1.get(o1 - 1);
-          if ((char2 & 0xC0) != 0x80)
-            throw new Error("malformed input around byte "
-                + o1);
-          cmp1 = (char) (((c1 & 0x1F) << 6) | (char2 & 0x3F));
-          break;
-        case 14:
-          //1110 xxxx 10xx xxxx 10xx xxxx
-          count += 3;
-          o1 += 3;
-          char2 = (int) b1.get(o1 - 2);
-          char3 = (int) b1.get(o1 - 1);
-          if (((char2 & 0xC0) != 0x80) || ((char3 & 0xC0) != 0x80))
-            throw new Error("malformed input around byte "
-                + (o1 - 1));
-          cmp1 = (char) (((c1 & 0x0F) << 12) | ((char2 & 0x3F) << 6) | ((char3 & 0x3F) << 0));
-          break;
-        default:
-          //10xx xxxx, 1111 xxxx
-          throw new Error("malformed input around byte " + o1);
-      }
-
-      //second char
-      c1 = (int) b2.get(o2) & 0xff;
-      switch (c1 >> 4) {
-        case 0:
-        case 1:
-        case 2:
-        case 3:
-        case 4:
-        case 5:
-        case 6:
-        case 7:
-        /* 0xxxxxxx */
-          o2++;
-          cmp2 = (char) c1;
-          break;
-        case 12:
-        case 13:
-        /* 110x xxxx 10xx xxxx */
-          o2 += 2;
-          char2 = (int) b2.get(o2 - 1);
-          if ((char2 & 0xC0) != 0x80)
-            throw new Error("malformed input around byte "
-                + o2);
-          cmp2 = (char) (((c1 & 0x1F) << 6) | (char2 & 0x3F));
-          break;
-        case 14:
-        /* 1110 xxxx 10xx xxxx 10xx xxxx */
-          o2 += 3;
-          char2 = (int) b2.get(o2 - 2);
-          char3 = (int) b2.get(o2 - 1);
-          if (((char2 & 0xC0) != 0x80) || ((char3 & 0xC0) != 0x80))
-            throw new Error("malformed input around byte "
-                + (count - 1));
-          cmp2 = (char) (((c1 & 0x0F) << 12) | ((char2 & 0x3F) << 6) | ((char3 & 0x3F) << 0));
-          break;
-        default:
-        /* 10xx xxxx, 1111 xxxx */
-          throw new Error("malformed input around byte " + count);
-      }
-      if(cmp1 != cmp2)
-        return cmp1 - cmp2;
-    }
-    //the string starts the same (or are actually the same)
-    return length1 - length2;
+    return compareBytes(b1, o1, length1, b2, o2, length2);
   }
 
 
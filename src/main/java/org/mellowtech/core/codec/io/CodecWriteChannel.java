@@ -44,8 +44,22 @@ public class CodecWriteChannel <A> {
    * @see ByteBuffer
    */
   public CodecWriteChannel(WritableByteChannel wbc, BCodec<A> codec) {
+    this(wbc, codec, ByteBuffer.allocate(4096));
+  }
+
+  /**
+   * Initialize to write objects to a given channel using a caller supplied
+   * buffer, e.g. a direct buffer. The buffer is replaced by a larger heap
+   * buffer if an object does not fit in it
+   *
+   * @param wbc channel to write to
+   * @param codec codec to use
+   * @param buffer buffer to use for writing
+   */
+  public CodecWriteChannel(WritableByteChannel wbc, BCodec<A> codec, ByteBuffer buffer) {
     mWbc = wbc;
-    mBuffer = ByteBuffer.allocate(4096);
+    mBuffer = buffer;
+    mBuffer.clear();
     this.codec = codec;
   }
 
@@ -73,8 +87,10 @@ public class CodecWriteChannel <A> {
 
     if (mBuffer.remaining() < bsz) {
       mBuffer.flip();
-      if(mWbc.write(mBuffer) <= 0)
-    	  throw new IOException("Channel closed");
+      while (mBuffer.hasRemaining()) {
+        if (mWbc.write(mBuffer) <= 0)
+          throw new IOException("Channel closed");
+      }
       if (mBuffer.capacity() < bsz)
         mBuffer = ByteBuffer.allocate(bsz + 64);
       mBuffer.clear();
@@ -90,7 +106,8 @@ public class CodecWriteChannel <A> {
    */
   public void flush() throws IOException {
     mBuffer.flip();
-    mWbc.write(mBuffer);
+    while (mBuffer.hasRemaining())
+      mWbc.write(mBuffer);
     mBuffer.clear();
   }
 }
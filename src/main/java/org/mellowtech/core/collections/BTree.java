@@ -83,6 +83,59 @@ public interface BTree <A,B>
    */
   TreePosition getPositionWithMissing(A key) throws IOException;
 
+  /**
+   * Returns the key/value with the least key greater than or equal to the given key.
+   * Default implementation opens a range iterator, implementations should override
+   * this with a search that resolves within a single descent of the tree.
+   *
+   * @param key key to search for
+   * @return key/value or null if there is no such key
+   * @throws IOException if an error occurs
+   */
+  default KeyValue<A,B> ceilingEntry(A key) throws IOException {
+    Iterator<KeyValue<A,B>> iter = iterator(false, key, true, null, false);
+    return iter.hasNext() ? iter.next() : null;
+  }
+
+  /**
+   * Returns the key/value with the greatest key less than or equal to the given key.
+   *
+   * @param key key to search for
+   * @return key/value or null if there is no such key
+   * @throws IOException if an error occurs
+   * @see #ceilingEntry(Object)
+   */
+  default KeyValue<A,B> floorEntry(A key) throws IOException {
+    Iterator<KeyValue<A,B>> iter = iterator(true, key, true, null, false);
+    return iter.hasNext() ? iter.next() : null;
+  }
+
+  /**
+   * Returns the key/value with the least key strictly greater than the given key.
+   *
+   * @param key key to search for
+   * @return key/value or null if there is no such key
+   * @throws IOException if an error occurs
+   * @see #ceilingEntry(Object)
+   */
+  default KeyValue<A,B> higherEntry(A key) throws IOException {
+    Iterator<KeyValue<A,B>> iter = iterator(false, key, false, null, false);
+    return iter.hasNext() ? iter.next() : null;
+  }
+
+  /**
+   * Returns the key/value with the greatest key strictly less than the given key.
+   *
+   * @param key key to search for
+   * @return key/value or null if there is no such key
+   * @throws IOException if an error occurs
+   * @see #ceilingEntry(Object)
+   */
+  default KeyValue<A,B> lowerEntry(A key) throws IOException {
+    Iterator<KeyValue<A,B>> iter = iterator(true, key, false, null, false);
+    return iter.hasNext() ? iter.next() : null;
+  }
+
   @Override
   default Iterator<KeyValue<A,B>> iterator(){
     return iterator(false, null, false, null, false);
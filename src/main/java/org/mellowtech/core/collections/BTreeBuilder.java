@@ -18,12 +18,18 @@ package org.mellowtech.core.collections;
 
 import org.mellowtech.core.codec.BCodec;
 import org.mellowtech.core.codec.Codecs;
+import org.mellowtech.core.codec.IntCodec;
+import org.mellowtech.core.codec.LongCodec;
 import org.mellowtech.core.collections.impl.*;
 import org.mellowtech.core.io.RecordFileBuilder;
 import org.mellowtech.core.io.impl.MultiBlockFile;
+import org.mellowtech.core.sort.IteratorSort;
+import org.mellowtech.core.sort.SortBuilder;
+import org.mellowtech.core.util.Platform;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Iterator;
 
 /**
  * A Builder for sorted disc based maps. There are basically 4 different parameters to consider
@@ -76,13 +82,38 @@ public class BTreeBuilder<A,B> extends CollectionBuilder<A,B,BTreeBuilder<A,B>>{
   private int valueBlockSize = DEFAULT_VALUE_BLOCK;
   private boolean memoryIndex = false;
   private boolean memoryMappedValues = true;
+  private int cacheFrames = 0;
   private int maxBlocks = DEFAULT_MAX_BLOCKS;
   private int maxIndexBlocks = DEFAULT_MAX_INDEX_BLOCKS;
   private boolean blobValues = false;
   private boolean multiFileValues = false;
   private int multiFileSize = 1024*1024*64;
+  private int sortMemorySize = SortBuilder.DEFAULT_MEMORY_SIZE;
+  private Path sortTempDir = Platform.getTempDir();
 
 
+  /**
+   * Create a builder for a tree with int keys. Blocks with int keys
+   * are searched without boxing
+   * @param valueCodec codec for values
+   * @param <B> value type
+   * @return new builder
+   */
+  public static <B> BTreeBuilder<Integer,B> intKeys(BCodec<B> valueCodec){
+    return new BTreeBuilder<Integer,B>().codecs(new IntCodec(), valueCodec);
+  }
+
+  /**
+   * Create a builder for a tree with long keys. Blocks with long keys
+   * are searched without boxing
+   * @param valueCodec codec for values
+   * @param <B> value type
+   * @return new builder
+   */
+  public static <B> BTreeBuilder<Long,B> longKeys(BCodec<B> valueCodec){
+    return new BTreeBuilder<Long,B>().codecs(new LongCodec(), valueCodec);
+  }
+
   /**
    * Based on usage hints calculates block sizes and maximum blocks as well as
    * if this tree should store blobs
@@ -174,6 +205,18 @@ public class BTreeBuilder<A,B> extends CollectionBuilder<A,B,BTreeBuilder<A,B>>{
     return this;
   }
 
+  /**
+   * Read and write key/value blocks through a page cache instead of memory mapping them. This
+   * parameter is ignored for multiFile trees
+   * @param frames number of cached key/value blocks, 0 to not use a cache
+   * @return this
+   * @see org.mellowtech.core.io.impl.PageCache
+   */
+  public BTreeBuilder<A,B> cachedValues(int frames){
+    this.cacheFrames = frames;
+    return this;
+  }
+
   /**
    * Max number of key/value blocks this tree can hold. This will effectively determine the max number of
    * bytes of data stored in this tree (maxBlocks * valueBlockSize). For a multiFile tree this value is
@@ -198,6 +241,51 @@ public class BTreeBuilder<A,B> extends CollectionBuilder<A,B,BTreeBuilder<A,B>>{
     return this;
   }
 
+  /**
+   * Max memory used for sorting key/values in memory when building a tree from
+   * unsorted key/values. Key/values that do not fit are spilled to disc in sorted runs
+   * @param size size in bytes
+   * @return this
+   * @see #build(Iterator)
+   */
+  public BTreeBuilder<A,B> sortMemorySize(int size){
+    this.sortMemorySize = size;
+    return this;
+  }
+
+  /**
+   * Directory for sorted runs when building a tree from unsorted key/values
+   * @param dir temporary directory
+   * @return this
+   * @see #build(Iterator)
+   */
+  public BTreeBuilder<A,B> sortTempDir(Path dir){
+    this.sortTempDir = dir;
+    return this;
+  }
+
+  /**
+   * Build a disc based tree from unsorted key/values. Any existing content of the tree
+   * is replaced. The key/values are sorted in memory and spilled to disc in sorted runs
+   * if they do not fit. The runs are then merged straight into the new tree.
+   * If a key occurs more than once the last key/value wins.
+   * @param keyValues unsorted key/values
+   * @return a new disc based tree
+   * @throws Exception if tree could not be created
+   */
+  public BTree <A,B> build(Iterator<KeyValue<A,B>> keyValues) throws Exception{
+    BTree <A,B> tree = build();
+    IteratorSort<KeyValue<A,B>> sort = new IteratorSort<>(new KeyValueCodec<>(keyCodec, valueCodec),
+        SortBuilder.DEFAULT_BLOCK_SIZE, sortMemorySize, 0, sortTempDir);
+    try(IteratorSort.SortedIterator<KeyValue<A,B>> sorted = sort.sort(keyValues, true)){
+      tree.createTree(sorted);
+    } catch(Exception e){
+      tree.close();
+      throw e;
+    }
+    return tree;
+  }
+
   /**
    * Build (create or open) a disc based tree
    * @return a new disc based tree
@@ -210,6 +298,8 @@ public class BTreeBuilder<A,B> extends CollectionBuilder<A,B,BTreeBuilder<A,B>>{
     vfb.maxBlocks(maxBlocks).blockSize(valueBlockSize).multiFileSize(multiFileSize);
     if(multiFileValues)
       vfb.multi();
+    else if(cacheFrames > 0)
+      vfb.cached().cacheFrames(cacheFrames);
     else if(memoryMappedValues)
       vfb.mem();
     else
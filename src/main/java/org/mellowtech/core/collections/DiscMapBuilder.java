@@ -18,6 +18,8 @@ package org.mellowtech.core.collections;
 
 import org.mellowtech.core.codec.BCodec;
 import org.mellowtech.core.codec.Codecs;
+import org.mellowtech.core.codec.IntCodec;
+import org.mellowtech.core.codec.LongCodec;
 import org.mellowtech.core.collections.impl.DiscBasedHashMap;
 import org.mellowtech.core.collections.impl.DiscBasedMap;
 
@@ -50,6 +52,28 @@ public class DiscMapBuilder<A,B>  extends CollectionBuilder<A,B, DiscMapBuilder<
   private Optional<Integer> maxValueSize = Optional.empty();
 
 
+  /**
+   * Create a builder for a map with int keys. Blocks with int keys
+   * are searched without boxing
+   * @param valueCodec codec for values
+   * @param <B> value type
+   * @return new builder
+   */
+  public static <B> DiscMapBuilder<Integer,B> intKeys(BCodec<B> valueCodec){
+    return new DiscMapBuilder<Integer,B>().codecs(new IntCodec(), valueCodec);
+  }
+
+  /**
+   * Create a builder for a map with long keys. Blocks with long keys
+   * are searched without boxing
+   * @param valueCodec codec for values
+   * @param <B> value type
+   * @return new builder
+   */
+  public static <B> DiscMapBuilder<Long,B> longKeys(BCodec<B> valueCodec){
+    return new DiscMapBuilder<Long,B>().codecs(new LongCodec(), valueCodec);
+  }
+
   public DiscMapBuilder<A,B> bucketSize(int size){
     this.bucketSize = bucketSize;
     return this;
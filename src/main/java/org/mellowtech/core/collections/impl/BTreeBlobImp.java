@@ -17,6 +17,7 @@
 package org.mellowtech.core.collections.impl;
 
 import org.mellowtech.core.codec.BCodec;
+import org.mellowtech.core.codec.BufferPool;
 import org.mellowtech.core.collections.BTree;
 import org.mellowtech.core.collections.KeyValue;
 import org.mellowtech.core.collections.TreePosition;
@@ -102,12 +103,11 @@ public class BTreeBlobImp<A,B> implements BTree<A,B> {
 
   @Override
   public void put(A key, B value) throws IOException {
-    ByteBuffer bb = valueCodec.to(value);
+    ByteBuffer bb = valueCodec.to(value, BufferPool.values());
     long fpos = blobs.size();
-    BlobPointer bp = new BlobPointer(fpos, bb.capacity());
-    bb.flip();
+    BlobPointer bp = new BlobPointer(fpos, bb.limit());
+    writeFully(bb, fpos);
     tree.put(key, bp);
-    blobs.write(bb, fpos);
   }
 
   @Override
@@ -152,6 +152,26 @@ public class BTreeBlobImp<A,B> implements BTree<A,B> {
     return tree.getPositionWithMissing(key);
   }
 
+  @Override
+  public KeyValue<A,B> ceilingEntry(A key) throws IOException {
+    return toKeyValue(tree.ceilingEntry(key));
+  }
+
+  @Override
+  public KeyValue<A,B> floorEntry(A key) throws IOException {
+    return toKeyValue(tree.floorEntry(key));
+  }
+
+  @Override
+  public KeyValue<A,B> higherEntry(A key) throws IOException {
+    return toKeyValue(tree.higherEntry(key));
+  }
+
+  @Override
+  public KeyValue<A,B> lowerEntry(A key) throws IOException {
+    return toKeyValue(tree.lowerEntry(key));
+  }
+
 
   @Override
   public Iterator<KeyValue<A,B>> iterator(boolean descending, A from, boolean inclusive,
@@ -171,6 +191,16 @@ public class BTreeBlobImp<A,B> implements BTree<A,B> {
     return valueCodec.from(bb);
   }
 
+  private void writeFully(ByteBuffer bb, long fpos) throws IOException{
+    while(bb.hasRemaining())
+      fpos += blobs.write(bb, fpos);
+  }
+
+  private KeyValue<A,B> toKeyValue(KeyValue<A,BlobPointer> kv) throws IOException {
+    if(kv == null) return null;
+    return new KeyValue<>(kv.getKey(), kv.getValue() != null ? getValue(kv.getValue()) : null);
+  }
+
   private class BPBlobIterator implements Iterator <KeyValue <A,B>>{
 
     Iterator <KeyValue <A, BlobPointer>> iter;
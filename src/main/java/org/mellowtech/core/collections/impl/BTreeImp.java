@@ -67,6 +67,8 @@ public class BTreeImp<A,B> implements BTree<A,B> {
   private final BCodec<B> valueCodec;
   private final KeyValueCodec<A,B> kvCodec;
   private final BTreeKeyCodec<A> btCodec;
+  //search blocks without creating keys to compare with
+  private final boolean primitiveKeys;
 
   /**
    * Used for reading and writing keys to the index.
@@ -80,6 +82,10 @@ public class BTreeImp<A,B> implements BTree<A,B> {
   //How disc data should be accessed
   private boolean useMappedValue = false;
 
+  //true while the tree is modified. Mapped blocks that are read in the meantime
+  //can be written to and are marked as dirty in their files
+  private boolean writing = false;
+
   public BTreeImp(Path dir, String name, BCodec<A> keyCodec, BCodec<B> valueCodec,
                   int indexBlockSize, int maxIndexBlocks, RecordFileBuilder valueFileBuilder) throws Exception{
 
@@ -87,6 +93,7 @@ public class BTreeImp<A,B> implements BTree<A,B> {
     this.valueCodec = valueCodec;
     this.kvCodec = new KeyValueCodec<>(keyCodec,valueCodec);
     this.btCodec = new BTreeKeyCodec<A>(keyCodec);
+    this.primitiveKeys = BBuffer.hasPrimitiveKeys(keyCodec);
 
     this.dir = dir;
     this.name = name;
@@ -124,6 +131,16 @@ public class BTreeImp<A,B> implements BTree<A,B> {
    */
   @Override
   public void createTree(Iterator<KeyValue<A,B>> iterator) throws IOException {
+    boolean w = writing;
+    writing = true;
+    try {
+      createTreeWriting(iterator);
+    } finally {
+      writing = w;
+    }
+  }
+
+  private void createTreeWriting(Iterator<KeyValue<A,B>> iterator) throws IOException {
     if (!iterator.hasNext()) {
       truncate();
       return;
@@ -135,7 +152,6 @@ public class BTreeImp<A,B> implements BTree<A,B> {
 
     ValueBlock<A,B> vb = newValueBlock();
     rootPage = vb.bNo;
-    int bNo = rootPage;
 
     KeyValue<A,B> tmpKV;
     @SuppressWarnings("unchecked")
@@ -146,11 +162,7 @@ public class BTreeImp<A,B> implements BTree<A,B> {
       if (!vb.sb.fits(tmpKV)) {
         updateValueBlock(vb.bNo, vb.sb);
         BTreeKey<A> sep = generateSeparator(vb.sb, tmpKV);
-        //TODO: This must be a bug...should be leftNode = bNo and rightNode the new node
-        /*sep.leftNode = bNo - 1;
-        insertSeparator(sep, levels, 0, bNo);
-        vb = newValueBlock();*/
-        sep.leftNode = bNo;
+        sep.leftNode = vb.bNo;
         vb = newValueBlock();
         insertSeparator(sep, levels, 0, vb.bNo);
       }
@@ -192,7 +204,7 @@ public class BTreeImp<A,B> implements BTree<A,B> {
       int bNo = blocks.get(curr);
       BBuffer<KeyValue<A,B>> sb = getValueBlock(bNo);
       if (pos < sb.getNumberOfElements()) {
-        return sb.get(pos).getKey();
+        return sb.getKey(pos).getKey();
       }
       pos -= sb.getNumberOfElements();
     }
@@ -223,6 +235,26 @@ public class BTreeImp<A,B> implements BTree<A,B> {
     return searchValueFilePositionNoStrict(key, block);
   }
 
+  @Override
+  public KeyValue<A,B> ceilingEntry(A key) throws IOException {
+    return searchNeighbor(key, true, true);
+  }
+
+  @Override
+  public KeyValue<A,B> floorEntry(A key) throws IOException {
+    return searchNeighbor(key, false, true);
+  }
+
+  @Override
+  public KeyValue<A,B> higherEntry(A key) throws IOException {
+    return searchNeighbor(key, true, false);
+  }
+
+  @Override
+  public KeyValue<A,B> lowerEntry(A key) throws IOException {
+    return searchNeighbor(key, false, false);
+  }
+
   @Override
   public boolean isEmpty() {
     return size < 1;
@@ -247,6 +279,16 @@ public class BTreeImp<A,B> implements BTree<A,B> {
 
   @Override
   public void rebuildIndex() throws IOException {
+    boolean w = writing;
+    writing = true;
+    try {
+      rebuildIndexWriting();
+    } finally {
+      writing = w;
+    }
+  }
+
+  private void rebuildIndexWriting() throws IOException {
     //just return if there are no value blocks
     if (valueFile.size() == 0) {
       truncate();
@@ -261,8 +303,8 @@ public class BTreeImp<A,B> implements BTree<A,B> {
     while (iter.hasNext()) {
       Record r = iter.next();
       tmp = new BBuffer<>(ByteBuffer.wrap(r.data), kvCodec);
-      KeyValue<A,B> first = tmp.getFirst();
-      KeyValue<A,B> last = tmp.getLast();
+      KeyValue<A,B> first = tmp.getKey(0);
+      KeyValue<A,B> last = tmp.getKey(tmp.getNumberOfElements() - 1);
       SmallLarge sl = new SmallLarge<>(first.getKey(), last.getKey(), r.record);
       blocks[i] = sl;
       i++;
@@ -290,6 +332,8 @@ public class BTreeImp<A,B> implements BTree<A,B> {
 
   @Override
   public B remove(A key) {
+    boolean w = writing;
+    writing = true;
     try {
       KeyValue<A,B> kv = new KeyValue<>(key);
       BPlusReturn<A,B> ret;
@@ -317,6 +361,8 @@ public class BTreeImp<A,B> implements BTree<A,B> {
       return null;
     } catch (IOException e) {
       return null;
+    } finally {
+      writing = w;
     }
   }
 
@@ -640,10 +686,11 @@ public class BTreeImp<A,B> implements BTree<A,B> {
       updateValueBlock(bNo, sb);
       return new BPlusReturn<>(BPlusReturn.NONE, deletedKey, null, -1);
     }
-    // reblance...first redistribute:
+    // reblance...first redistribute. Read both siblings with one batched read
+    BBuffer<KeyValue<A,B>>[] sibs = getValueBlocks(leftNo, rightNo);
     BBuffer<KeyValue<A,B>> sib;
     if (leftNo != -1) {
-      sib = getValueBlock(leftNo);
+      sib = sibs[0];
       if (checkUnderflow(sib)) {
         redistributeValueBlocks(sib, sb, leftNo, bNo);
         return new BPlusReturn<>(BPlusReturn.REDISTRIBUTE, deletedKey,
@@ -651,7 +698,7 @@ public class BTreeImp<A,B> implements BTree<A,B> {
       }
     }
     if (rightNo != -1) {
-      sib = getValueBlock(rightNo);
+      sib = sibs[1];
       if (checkUnderflow(sib)) {
         redistributeValueBlocks(sb, sib, bNo, rightNo);
         return new BPlusReturn<>(BPlusReturn.REDISTRIBUTE, deletedKey,
@@ -662,7 +709,7 @@ public class BTreeImp<A,B> implements BTree<A,B> {
     // rebalance (merge):
     // try left:
     if (leftNo != -1) {
-      sib = getValueBlock(leftNo);
+      sib = sibs[0];
       if (sb.fits(sib)) {
         sb.merge(sib);
         valueFile.delete(leftNo);
@@ -671,7 +718,7 @@ public class BTreeImp<A,B> implements BTree<A,B> {
       }
     }
     if (rightNo != -1) {
-      sib = getValueBlock(rightNo);
+      sib = sibs[1];
       if (sib.fits(sb)) {
         sib.merge(sb);
         valueFile.delete(bNo);
@@ -706,7 +753,7 @@ public class BTreeImp<A,B> implements BTree<A,B> {
    */
   private BTreeKey<A> generateSeparator(BBuffer<KeyValue<A,B>> small,
                                              BBuffer<KeyValue<A,B>> large) {
-    return generateSeparator(small.getLast().getKey(), large.getFirst().getKey());
+    return generateSeparator(small.getKey(small.getNumberOfElements() - 1).getKey(), large.getKey(0).getKey());
     /*BTreeKeyCodec<A> nKey = new BTreeKeyCodec<>();
     nKey.get().key = CBUtil.separate(small.getLast().get().getKey(), large.getFirst().get().getKey());
     return nKey;*/
@@ -720,7 +767,7 @@ public class BTreeImp<A,B> implements BTree<A,B> {
    * @return a separator.
    */
   private BTreeKey<A> generateSeparator(BBuffer<KeyValue<A,B>> small, KeyValue<A,B> large) {
-    return generateSeparator(small.getLast().getKey(), large.getKey());
+    return generateSeparator(small.getKey(small.getNumberOfElements() - 1).getKey(), large.getKey());
     /*BTreeKeyCodec<A> nKey = new BTreeKeyCodec<>();
     nKey.get().key = CBUtil.separate(small.getLast().get().getKey(), large.getKey());
     return nKey;*/
@@ -754,11 +801,15 @@ public class BTreeImp<A,B> implements BTree<A,B> {
 
   private BBuffer<BTreeKey<A>> getMappedIndex(int blockNo)
       throws IOException {
+    if (writing)
+      idxFile.markDirty(blockNo);
     return toIndexBlock(idxFile.getMapped(blockNo));
   }
 
   private BBuffer<KeyValue<A,B>> getMappedValue(int blockNo)
       throws IOException {
+    if (writing)
+      valueFile.markDirty(blockNo);
     return toValueBlock(valueFile.getMapped(blockNo));
   }
 
@@ -799,7 +850,18 @@ public class BTreeImp<A,B> implements BTree<A,B> {
    * @return node
    */
   private int getNode(int search, BBuffer<BTreeKey<A>> sb) {
-    int pos = getPos(search);
+    return getChild(getPos(search), sb);
+  }
+
+  /**
+   * Returns the child pointer at a given position in an index block. The position
+   * equal to the number of keys in the block is the last (right most) pointer.
+   *
+   * @param pos position of the child
+   * @param sb  the block to read from
+   * @return node
+   */
+  private int getChild(int pos, BBuffer<BTreeKey<A>> sb) {
     if (pos == sb.getNumberOfElements())
       return getLastPointer(sb);
     return sb.get(pos).leftNode;
@@ -1102,14 +1164,13 @@ public class BTreeImp<A,B> implements BTree<A,B> {
         updateValueBlock(bNo, sb);
         return null;
       }
-      ValueBlock vb = newValueBlock();
+      ValueBlock vb = newValueBlock(false);
       sb.split(vb.sb);
       if (keyValue.compareTo(sb.getLast()) <= 0)
         sb.insert(keyValue);
       else
         vb.sb.insert(keyValue);
-      updateValueBlock(bNo, sb);
-      updateValueBlock(vb.bNo, vb.sb);
+      updateValueBlocks(bNo, sb, vb.bNo, vb.sb);
       return new BPlusReturn<>(BPlusReturn.SPLIT, keyValue, generateSeparator(sb,
           vb.sb), vb.bNo);
     } catch (Exception e) {
@@ -1147,6 +1208,17 @@ public class BTreeImp<A,B> implements BTree<A,B> {
 
   private void insertUpdate(A key, B value, boolean update)
       throws IOException {
+    boolean w = writing;
+    writing = true;
+    try {
+      insertUpdateWriting(key, value, update);
+    } finally {
+      writing = w;
+    }
+  }
+
+  private void insertUpdateWriting(A key, B value, boolean update)
+      throws IOException {
     KeyValue<A,B> kv = new KeyValue<>(key, value);
     if (leafLevel == -1) {
       // no index...to insert directly to value file...in first logical block:
@@ -1169,18 +1241,28 @@ public class BTreeImp<A,B> implements BTree<A,B> {
     BBuffer<BTreeKey<A>> buff;
     bNo = idxFile.insert(null);
     buff = new BBuffer<>(idxFile.getMapped(bNo), btCodec, BBuffer.PtrType.NORMAL, (short) 4);
+    idxFile.markDirty(bNo);
     return new IdxBlock<>(buff, bNo);
   }
 
   private ValueBlock<A,B> newValueBlock() throws IOException {
+    return newValueBlock(true);
+  }
+
+  /**
+   * @param write if false an unmapped block is only allocated in the value file and
+   *              has to be written by the caller
+   */
+  private ValueBlock<A,B> newValueBlock(boolean write) throws IOException {
     int bNo;
     BBuffer<KeyValue<A,B>> buff;
     if (useMappedValue) {
       bNo = valueFile.insert(null);
+      valueFile.markDirty(bNo);
       buff = new BBuffer<>(valueFile.getMapped(bNo), kvCodec, BBuffer.PtrType.NORMAL);
     } else {
       buff = new BBuffer<>(valueFile.getBlockSize(), kvCodec, BBuffer.PtrType.NORMAL);
-      bNo = valueFile.insert(buff.getArray());
+      bNo = valueFile.insert(write ? buff.getArray() : null);
     }
     return new ValueBlock<>(buff, bNo);
   }
@@ -1252,8 +1334,7 @@ public class BTreeImp<A,B> implements BTree<A,B> {
     blocks[0] = small;
     blocks[1] = large;
     BBuffer.redistribute(blocks);
-    updateValueBlock(bSmall, small);
-    updateValueBlock(bLarge, large);
+    updateValueBlocks(bSmall, small, bLarge, large);
   }
 
   /**
@@ -1269,7 +1350,7 @@ public class BTreeImp<A,B> implements BTree<A,B> {
     if (valueFile.size() == 0)
       return null;
     BBuffer<KeyValue<A,B>> sb = getValueBlock(bNo);
-    return sb.get(new KeyValue<>(key));
+    return sb.get(primitiveKeys ? sb.searchKey(key) : sb.search(new KeyValue<>(key)));
   }
 
   /**
@@ -1327,6 +1408,80 @@ public class BTreeImp<A,B> implements BTree<A,B> {
     return new TreePosition(smaller, elements, smallerInBlock, elementsInBlock, exists);
   }
 
+  /**
+   * Find the closest key/value to a given key in one descent of the index. The
+   * path (index block and child position per level) is recorded so that a
+   * neighboring value block can be reached without a new search from the root
+   * when the key/value is not in the block the key maps to.
+   *
+   * @param key       key to search for
+   * @param greater   true to search for larger keys, false for smaller keys
+   * @param inclusive true if a key/value matching key should be returned
+   * @return the key/value or null if there is no such key
+   * @throws IOException if an error occurs
+   */
+  private KeyValue<A,B> searchNeighbor(A key, boolean greater, boolean inclusive)
+      throws IOException {
+    int[] path = new int[leafLevel + 1];
+    int[] pos = new int[leafLevel + 1];
+    BTreeKey<A> searchKey = new BTreeKey<>(key, 0);
+    int bNo = rootPage;
+    for (int level = 0; level <= leafLevel; level++) {
+      BBuffer<BTreeKey<A>> sb = getIndexBlock(bNo);
+      path[level] = bNo;
+      pos[level] = getPos(sb.search(searchKey));
+      bNo = getChild(pos[level], sb);
+    }
+    BBuffer<KeyValue<A,B>> vb = getValueBlock(bNo);
+    int idx = vb.search(new KeyValue<>(key));
+    if (idx >= 0) {
+      if (!inclusive)
+        idx = greater ? idx + 1 : idx - 1;
+    } else {
+      idx = greater ? -(idx + 1) : -(idx + 1) - 1;
+    }
+    while (idx < 0 || idx >= vb.getNumberOfElements()) {
+      bNo = stepLeaf(path, pos, greater);
+      if (bNo == -1)
+        return null;
+      vb = getValueBlock(bNo);
+      idx = greater ? 0 : vb.getNumberOfElements() - 1;
+    }
+    return vb.get(idx);
+  }
+
+  /**
+   * Move a recorded search path to the next (or previous) value block. Walks up
+   * the path until a level that has a sibling in the wanted direction and then
+   * descends along the left most (or right most) pointers.
+   *
+   * @param path index block per level
+   * @param pos  child position per level
+   * @param next true to move to the next block, false for the previous block
+   * @return block number of the value block or -1 if there is no such block
+   * @throws IOException if an error occurs
+   */
+  private int stepLeaf(int[] path, int[] pos, boolean next) throws IOException {
+    int level = path.length - 1;
+    BBuffer<BTreeKey<A>> sb = null;
+    for (; level >= 0; level--) {
+      sb = getIndexBlock(path[level]);
+      if (next ? pos[level] < sb.getNumberOfElements() : pos[level] > 0)
+        break;
+    }
+    if (level < 0)
+      return -1;
+    pos[level] += next ? 1 : -1;
+    int bNo = getChild(pos[level], sb);
+    for (level++; level < path.length; level++) {
+      sb = getIndexBlock(bNo);
+      path[level] = bNo;
+      pos[level] = next ? 0 : sb.getNumberOfElements();
+      bNo = getChild(pos[level], sb);
+    }
+    return bNo;
+  }
+
   private void setHeader() throws IOException {
     //save index info:
     ByteBuffer bb = ByteBuffer.allocate(20);
@@ -1444,6 +1599,44 @@ public class BTreeImp<A,B> implements BTree<A,B> {
       throws IOException {
     if (!useMappedValue)
       valueFile.update(blockNo, sb.getArray());
+    else
+      valueFile.markDirty(blockNo);
+  }
+
+  /**
+   * Write two sibling blocks (after a split or a redistribution) with one batched write
+   */
+  private void updateValueBlocks(int first, BBuffer<KeyValue<A,B>> firstBlock,
+                                 int second, BBuffer<KeyValue<A,B>> secondBlock) throws IOException {
+    if (!useMappedValue)
+      valueFile.updateAll(new int[]{first, second},
+          new ByteBuffer[]{ByteBuffer.wrap(firstBlock.getArray()), ByteBuffer.wrap(secondBlock.getArray())});
+    else {
+      valueFile.markDirty(first);
+      valueFile.markDirty(second);
+    }
+  }
+
+  /**
+   * Read the left and right siblings of a block with one batched read
+   * @param leftNo left sibling or -1
+   * @param rightNo right sibling or -1
+   * @return the left and right sibling, null for a sibling that is -1
+   */
+  @SuppressWarnings("unchecked")
+  private BBuffer<KeyValue<A,B>>[] getValueBlocks(int leftNo, int rightNo) throws IOException {
+    BBuffer<KeyValue<A,B>>[] sibs = (BBuffer<KeyValue<A,B>>[]) new BBuffer[2];
+    if (useMappedValue || leftNo == -1 || rightNo == -1) {
+      if (leftNo != -1) sibs[0] = getValueBlock(leftNo);
+      if (rightNo != -1) sibs[1] = getValueBlock(rightNo);
+      return sibs;
+    }
+    byte[] left = new byte[valueFile.getBlockSize()];
+    byte[] right = new byte[valueFile.getBlockSize()];
+    valueFile.getAll(new int[]{leftNo, rightNo}, new ByteBuffer[]{ByteBuffer.wrap(left), ByteBuffer.wrap(right)});
+    sibs[0] = toValueBlock(ByteBuffer.wrap(left));
+    sibs[1] = toValueBlock(ByteBuffer.wrap(right));
+    return sibs;
   }
 
   private Path valuePath() {
@@ -1510,10 +1703,11 @@ public class BTreeImp<A,B> implements BTree<A,B> {
 
   private int searchBlock(int bNo, BTreeKey<A> key, int level) throws IOException {
     BBuffer<BTreeKey<A>> sb = getIndexBlock(bNo);
+    int search = primitiveKeys ? sb.searchKey(key.key) : sb.search(key);
     if (level == leafLevel) {
-      return getNode(sb.search(key), sb);
+      return getNode(search, sb);
     }
-    return searchBlock(getNode(sb.search(key), sb), key, level + 1);
+    return searchBlock(getNode(search, sb), key, level + 1);
   }
 
   private static class IdxBlock<A> {
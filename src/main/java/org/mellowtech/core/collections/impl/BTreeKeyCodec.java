@@ -37,6 +37,8 @@ import java.nio.ByteBuffer;
 public class BTreeKeyCodec<A> implements BCodec<BTreeKey<A>> {
 
   BCodec<A> codec;
+  //size of the size indicator if it is the same for all keys, otherwise -1
+  private final int sizeBytes;
 
   /**
    * Creates an empty BTreeKeyCodec, needed for the CBytable methods.
@@ -45,6 +47,17 @@ public class BTreeKeyCodec<A> implements BCodec<BTreeKey<A>> {
    */
   BTreeKeyCodec(BCodec<A> codec) {
     this.codec = codec;
+    this.sizeBytes = isFixed() ? CodecUtil.encodeLength(4 + codec.fixedSize()) : -1;
+  }
+
+  @Override
+  public boolean isFixed() {
+    return codec.isFixed();
+  }
+
+  @Override
+  public int fixedSize() {
+    return CodecUtil.byteSize(4 + codec.fixedSize(), true);
   }
 
   @Override
@@ -71,6 +84,30 @@ public class BTreeKeyCodec<A> implements BCodec<BTreeKey<A>> {
     codec.to(key.key,bb);
     bb.putInt(key.leftNode);
   }
+
+  @Override
+  public int byteCompare(int offset1, ByteBuffer bb1, int offset2, ByteBuffer bb2) {
+    return codec.byteCompare(keyOffset(offset1, bb1), bb1, keyOffset(offset2, bb2), bb2);
+  }
+
+  @Override
+  public int byteCompare(int offset, ByteBuffer bb, BTreeKey<A> second) {
+    return codec.byteCompare(keyOffset(offset, bb), bb, second.key);
+  }
+
+  @Override
+  public BCodec<A> keyCodec() {
+    return codec;
+  }
+
+  @Override
+  public int keyOffset(int offset, ByteBuffer bb) {
+    if (sizeBytes > 0)
+      return offset + sizeBytes;
+    bb.position(offset);
+    CodecUtil.getSize(bb, true);
+    return bb.position();
+  }
 }
 
 class BTreeKey<A> implements Comparable<BTreeKey<A>> {
@@ -22,6 +22,7 @@ import java.nio.channels.FileChannel;
 import java.util.Iterator;
 
 import org.mellowtech.core.codec.BCodec;
+import org.mellowtech.core.codec.BufferPool;
 import org.mellowtech.core.collections.KeyValue;
 
 /**
@@ -49,12 +50,12 @@ public class BlobMapCreateIterator <A,B> implements Iterator<KeyValue <A, BlobPo
   public KeyValue<A, BlobPointer> next() {
     KeyValue <A,B> n = iter.next();
     if(n == null) return null;
-    int size = valueCodec.byteSize(n.getValue());
     try{
       long fpos = fc.size();
-      BlobPointer bp = new BlobPointer(fpos, size);
-      ByteBuffer bb = valueCodec.to(n.getValue()); bb.flip();
-      fc.write(bb, fpos);
+      ByteBuffer bb = valueCodec.to(n.getValue(), BufferPool.values());
+      BlobPointer bp = new BlobPointer(fpos, bb.limit());
+      while(bb.hasRemaining())
+        fpos += fc.write(bb, fpos);
       return new KeyValue <>(n.getKey(),bp);
     } catch(IOException e){
       throw new Error("could not store");
@@ -151,14 +151,14 @@ class DescendingMap<A, B> extends AbstractRangeMap<A, B> implements NavigableMap
   @Override
   public Entry<A, B> lastEntry() {
     if (to == null) return map.firstEntry();
-    Entry<A, B> e = toInclusive ? map.ceilingEntry(from) : map.higherEntry(from);
+    Entry<A, B> e = toInclusive ? map.ceilingEntry(to) : map.higherEntry(to);
     return checkOrNull(e);
   }
 
   @Override
   public A lastKey() {
     if (to == null) return map.firstKey();
-    A key = toInclusive ? map.ceilingKey(from) : map.higherKey(from);
+    A key = toInclusive ? map.ceilingKey(to) : map.higherKey(to);
     return checkOrNull(key);
   }
 
@@ -188,12 +188,11 @@ class DescendingMap<A, B> extends AbstractRangeMap<A, B> implements NavigableMap
 
   @Override
   public Entry<A, B> pollLastEntry() {
-    Entry<A, B> firstEntry = firstEntry();
-    if (firstEntry != null) {
-      map.remove(firstEntry.getKey());
+    Entry<A, B> lastEntry = lastEntry();
+    if (lastEntry != null) {
+      map.remove(lastEntry.getKey());
     }
-    return firstEntry;
-
+    return lastEntry;
   }
 
   @Override
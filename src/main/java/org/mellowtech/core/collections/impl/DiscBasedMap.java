@@ -54,35 +54,17 @@ public class DiscBasedMap <A,B> implements SortedDiscMap<A,B> {
   /*************Override NavigableMap Methods**************************/
   @Override
   public java.util.Map.Entry<A,B> ceilingEntry(A key) {
-    A k = this.ceilingKey(key);
-    return k == null ? null : new MapEntry<>(k, this.get(k));
-  }
-
-  @Override
-  public A ceilingKey(A key) {
-    TreePosition tp;
     try {
-      tp = this.btree.getPositionWithMissing(key);
+      return toEntry(btree.ceilingEntry(key));
     } catch (IOException e) {
       logger.warn("",e);
       return null;
     }
-    int pos = tp.getSmaller();
-    /*if(tp.exists())
-      pos = tp.getSmaller();
-    else
-      pos = tp.getSmaller() + 1;*/
-    int higher = this.size() - tp.getSmaller();
-    if(higher > 0){
-      try {
-        //return this.keyMapping.fromByteComparable(this.btree.getKey(pos));
-        return this.btree.getKey(pos);
-      } catch (IOException e) {
-        logger.warn("",e);
-        return null;
-      }
-    }
-    return null;
+  }
+
+  @Override
+  public A ceilingKey(A key) {
+    return keyOrNull(ceilingEntry(key));
   }
 
   @Override
@@ -103,27 +85,19 @@ public class DiscBasedMap <A,B> implements SortedDiscMap<A,B> {
 
   @Override
   public java.util.Map.Entry<A,B> floorEntry(A key) {
-    A k = this.floorKey(key);
-    return k == null ? null : new MapEntry <> (k, this.get(k));
-  }
-
-  @Override
-  public A floorKey(A key) {
     try {
-      TreePosition tp = this.btree.getPositionWithMissing(key);
-      if(tp.isExists())
-        return btree.getKey(tp.getSmaller());
-      else if(tp.getSmaller() > 0)
-        return btree.getKey(tp.getSmaller() - 1);
-      return null;
-      
-    }
-    catch(IOException e){
+      return toEntry(btree.floorEntry(key));
+    } catch (IOException e) {
       logger.warn("",e);
       return null;
     }
   }
 
+  @Override
+  public A floorKey(A key) {
+    return keyOrNull(floorEntry(key));
+  }
+
   @Override
   public SortedMap<A,B> headMap(A toKey) {
     return headMap(toKey, false);
@@ -136,24 +110,8 @@ public class DiscBasedMap <A,B> implements SortedDiscMap<A,B> {
 
   @Override
   public java.util.Map.Entry<A,B> higherEntry(A key) {
-    A k = this.higherKey(key);
-    return k == null ? null : new MapEntry <> (k, this.get(k));
-  }
-
-  @Override
-  public A higherKey(A key) {
-	try {
-      TreePosition tp = btree.getPositionWithMissing(key);
-      if(tp == null) return null;
-      // tp.getSmaller() is the total number of smaller elements than "key", so the number of elements 
-      // higher than "key" is size() - (tp.getSmaller() + 1)
-      //int higher = this.size() - (tp.getSmaller()+1);
-      int pos = tp.exists() ? tp.getSmaller() + 1 : tp.getSmaller();
-      int higher = this.size() - pos;
-      if (higher > 0) {
-        return btree.getKey(pos);
-      }
-      return null;
+    try {
+      return toEntry(btree.higherEntry(key));
     } catch (IOException e) {
       logger.warn("",e);
       return null;
@@ -161,33 +119,31 @@ public class DiscBasedMap <A,B> implements SortedDiscMap<A,B> {
   }
 
   @Override
-  public java.util.Map.Entry<A,B> lastEntry() {
-    A k = this.lastKey();
-    return k == null ? null : new MapEntry <> (k, this.get(k));
+  public A higherKey(A key) {
+    return keyOrNull(higherEntry(key));
   }
 
   @Override
-  public java.util.Map.Entry<A,B> lowerEntry(A key) {
-    A k = this.lowerKey(key);
+  public java.util.Map.Entry<A,B> lastEntry() {
+    A k = this.lastKey();
     return k == null ? null : new MapEntry <> (k, this.get(k));
   }
 
   @Override
-  public A lowerKey(A key) {
+  public java.util.Map.Entry<A,B> lowerEntry(A key) {
     try {
-      TreePosition tp = btree.getPositionWithMissing(key);
-      if(tp.getSmaller() > 0) {
-        return btree.getKey(tp.getSmaller() - 1);
-      }
-      return null;
-      
-    }
-    catch(IOException e){
+      return toEntry(btree.lowerEntry(key));
+    } catch (IOException e) {
       logger.warn("",e);
       return null;
     }
   }
 
+  @Override
+  public A lowerKey(A key) {
+    return keyOrNull(lowerEntry(key));
+  }
+
   @Override
   public NavigableSet<A> navigableKeySet() {
     return new RangeKeySet<>(this, null, false, null, false);
@@ -362,6 +318,14 @@ public class DiscBasedMap <A,B> implements SortedDiscMap<A,B> {
     return 0;
   }
 
+  private java.util.Map.Entry<A,B> toEntry(KeyValue<A,B> kv) {
+    return kv == null ? null : new MapEntry<>(kv.getKey(), kv.getValue());
+  }
+
+  private A keyOrNull(java.util.Map.Entry<A,B> e) {
+    return e == null ? null : e.getKey();
+  }
+
   private class DiscBasedMapIterator implements Iterator<Entry<A,B>>{
 
     Iterator <KeyValue<A,B>> iter;
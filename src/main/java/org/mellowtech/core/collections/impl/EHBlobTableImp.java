@@ -27,6 +27,7 @@ import java.nio.file.Path;
 import java.util.Iterator;
 
 import org.mellowtech.core.codec.BCodec;
+import org.mellowtech.core.codec.BufferPool;
 import org.mellowtech.core.collections.BMap;
 import org.mellowtech.core.collections.KeyValue;
 
@@ -104,13 +105,11 @@ public class EHBlobTableImp <A,B> implements BMap <A,B>{
 
   @Override
   public void put(A key, B value) throws IOException {
-    int size = valueCodec.byteSize(value);
+    ByteBuffer bb = valueCodec.to(value, BufferPool.values());
     long fpos = blobs.size();
-    BlobPointer bp = new BlobPointer(fpos, size);
-    ByteBuffer bb = valueCodec.to(value); bb.flip();
+    BlobPointer bp = new BlobPointer(fpos, bb.limit());
+    writeFully(bb, fpos);
     eht.put(key, bp);
-    blobs.write(bb, fpos);
-    
   }
 
   @Override
@@ -140,6 +139,11 @@ public class EHBlobTableImp <A,B> implements BMap <A,B>{
     bb.flip();
     return valueCodec.from(bb);
   }
+
+  private void writeFully(ByteBuffer bb, long fpos) throws IOException{
+    while(bb.hasRemaining())
+      fpos += blobs.write(bb, fpos);
+  }
   
   private class EHBlobIterator implements Iterator <KeyValue <A,B>>{
 
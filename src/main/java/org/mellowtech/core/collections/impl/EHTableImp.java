@@ -50,6 +50,8 @@ public class EHTableImp <A,B> implements BMap <A,B>{
   private int size = 0;
   private RecordFile bucketFile = null;
   private final KeyValueCodec <A,B> kvCodec;
+  //search buckets without creating keys to compare with
+  private final boolean primitiveKeys;
   private int maxDirectory;
   private final BCodec<A> keyCodec;
   private final BCodec<B> valueCodec;
@@ -73,6 +75,7 @@ public class EHTableImp <A,B> implements BMap <A,B>{
     this.keyCodec = keyCodec;
     this.valueCodec = valueCodec;
     this.kvCodec = new KeyValueCodec<>(keyCodec,valueCodec);
+    this.primitiveKeys = BBuffer.hasPrimitiveKeys(kvCodec);
     this.inMemory = inMemory;
     this.p = path;
     try {
@@ -83,14 +86,19 @@ public class EHTableImp <A,B> implements BMap <A,B>{
   }
   
   public boolean containsKey(A key) throws IOException {
-    return readBucket(key).contains(toKV(key));
+    return search(readBucket(key), key) >= 0;
+  }
+
+  private int search(BBuffer<KeyValue<A,B>> bucket, A key){
+    return primitiveKeys ? bucket.searchKey(key) : bucket.search(toKV(key));
   }
 
   private KeyValue <A,B> toKV(A key){return new KeyValue <> (key);}
   
   @Override
   public final KeyValue<A,B> getKeyValue(A key) throws IOException {
-    return readBucket(key).get(toKV(key));
+    BBuffer<KeyValue<A,B>> bucket = readBucket(key);
+    return bucket.get(search(bucket, key));
   }
   
   public void put(A key, B value) throws IOException{
@@ -231,7 +239,7 @@ public class EHTableImp <A,B> implements BMap <A,B>{
       return -1;
     if (bucketDepth < dirDepth)
       return -1;
-    int sharedAdress = makeAddress(bucketDepth, bucket.getFirst().getKey());
+    int sharedAdress = makeAddress(bucketDepth, bucket.getKey(0).getKey());
     return sharedAdress ^ 1;
   }
 
@@ -280,21 +288,24 @@ public class EHTableImp <A,B> implements BMap <A,B>{
       doubleDir();
     }
     
-    BlockRecord newBucket = createNewBucket();
+    //the new bucket is written together with the old one below
+    BlockRecord newBucket = createNewBucket(false);
     Range r = findRange(bucket);
 
     insertBucket(newBucket.record, r);
     writeBucketDepth(bucket, readBucketDepth(bucket)+1);
     writeBucketDepth(newBucket.block, readBucketDepth(bucket));
     redistribute(bucket, newBucket.block, bucketAddr);
-    writeBucket(bucketAddr, bucket);
-    writeBucket(newBucket.record, newBucket.block);
+    bucketFile.updateAll(new int[]{bucketAddr, newBucket.record},
+        new ByteBuffer[]{ByteBuffer.wrap(bucket.getArray()), ByteBuffer.wrap(newBucket.block.getArray())});
     writeDirectory(directory);
 }
   
   private void redistribute(BBuffer <KeyValue<A,B>> oldBucket,
                             BBuffer <KeyValue<A,B>> newBucket, int oldAddr) {
     KeyValue<A,B> keyValue;
+    //compact once when all moved elements have been removed
+    oldBucket.setDeferCompaction(true);
     for (Iterator <KeyValue <A,B>> it = oldBucket.iterator(); it.hasNext();) {
       keyValue = it.next();
       if (find(keyValue) != oldAddr) {
@@ -302,6 +313,8 @@ public class EHTableImp <A,B> implements BMap <A,B>{
         newBucket.insertUnsorted(keyValue);
       }
     }
+    oldBucket.compact();
+    oldBucket.setDeferCompaction(false);
   }
 
   private void deleteBucket(int rrn) throws IOException {
@@ -348,7 +361,7 @@ public class EHTableImp <A,B> implements BMap <A,B>{
   
   private Range findRange(BBuffer <KeyValue<A,B>> bucket) {
     int depth = this.readBucketDepth(bucket);
-    int shared = makeAddress(depth, bucket.getFirst().getKey());
+    int shared = makeAddress(depth, bucket.getKey(0).getKey());
     int toFill = dirDepth - (depth + 1);
     int newShared = shared << 1;
     newShared = newShared | 1;
@@ -377,11 +390,19 @@ public class EHTableImp <A,B> implements BMap <A,B>{
   }
   
   private BlockRecord createNewBucket() throws IOException {
+    return createNewBucket(true);
+  }
+
+  /**
+   * @param write if false the bucket is only allocated in the bucket file and has
+   *              to be written by the caller
+   */
+  private BlockRecord createNewBucket(boolean write) throws IOException {
     try{
       BBuffer <KeyValue<A,B>> toRet = new BBuffer<>(bucketSize, kvCodec,
           BBuffer.PtrType.NORMAL, (short) 4);
       writeBucketDepth(toRet, 0);
-      int rrn = bucketFile.insert(toRet.getArray());
+      int rrn = bucketFile.insert(write ? toRet.getArray() : null);
       return new BlockRecord(rrn, toRet);
     } catch(IOException e){
       logger.error("could not create new bucker", e);
@@ -0,0 +1,325 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mellowtech.core.collections.impl;
+
+import org.mellowtech.core.codec.BCodec;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * The in-memory index of a {@link HybridTree}. Stores a sorted sequence of
+ * separators and their block pointers. Separator i points to the block holding
+ * keys smaller than separator i (and equal to or larger than separator i-1).
+ * <p>
+ * Separators and pointers are kept in small sorted pages of parallel arrays
+ * (an Object[] of keys and an int[] of pointers) so there is no per entry node
+ * or boxed pointer. Lookups are two binary searches (first the page, then
+ * within the page) and inserts and deletes only shift elements within a page.
+ * Separators are addressed by their position in the sequence as a whole.
+ * </p>
+ *
+ * @param <A> key type
+ * @author Martin Svensson {@literal <msvens@gmail.com>}
+ * @since 4.0.0
+ */
+class HybridIndex<A> {
+
+  static final int PAGE_SIZE = 256;
+
+  private final BCodec<A> keyCodec;
+  private Object[][] keys;
+  private int[][] ptrs;
+  private int[] counts;
+  private int[] starts;
+  private int pages;
+  private int size;
+
+  HybridIndex(BCodec<A> keyCodec) {
+    this.keyCodec = keyCodec;
+    clear();
+  }
+
+  /**
+   * Remove all separators from this index
+   */
+  void clear() {
+    keys = new Object[4][];
+    ptrs = new int[4][];
+    counts = new int[4];
+    starts = new int[4];
+    pages = 0;
+    size = 0;
+  }
+
+  /**
+   * Number of separators in this index
+   *
+   * @return number of separators
+   */
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Position of the first separator strictly larger than key, i.e. the position
+   * of the block pointer to follow to find key.
+   *
+   * @param key key to search for
+   * @return position or size() if all separators are smaller than or equal to key
+   */
+  int higher(A key) {
+    if (size == 0)
+      return 0;
+    //find the last page whose first key is smaller than or equal to key:
+    int low = 0, high = pages - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (compare(keys[mid][0], key) <= 0)
+        low = mid + 1;
+      else
+        high = mid - 1;
+    }
+    int page = high < 0 ? 0 : high;
+    Object[] k = keys[page];
+    low = 0;
+    high = counts[page] - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (compare(k[mid], key) <= 0)
+        low = mid + 1;
+      else
+        high = mid - 1;
+    }
+    return starts[page] + low;
+  }
+
+  /**
+   * Position of separator equal to key
+   *
+   * @param key key to search for
+   * @return position or -1 if key is not a separator in this index
+   */
+  int indexOf(A key) {
+    int pos = higher(key) - 1;
+    return pos >= 0 && compare(key(pos), key) == 0 ? pos : -1;
+  }
+
+  /**
+   * Separator at position
+   *
+   * @param pos position
+   * @return separator
+   */
+  @SuppressWarnings("unchecked")
+  A key(int pos) {
+    int page = page(pos);
+    return (A) keys[page][pos - starts[page]];
+  }
+
+  /**
+   * Block pointer at position
+   *
+   * @param pos position
+   * @return block pointer
+   */
+  int pointer(int pos) {
+    int page = page(pos);
+    return ptrs[page][pos - starts[page]];
+  }
+
+  /**
+   * Replace the separator at position. The new separator has to sort between
+   * its neighbours
+   *
+   * @param pos position
+   * @param key new separator
+   */
+  void setKey(int pos, A key) {
+    int page = page(pos);
+    keys[page][pos - starts[page]] = key;
+  }
+
+  /**
+   * Replace the block pointer at position
+   *
+   * @param pos position
+   * @param ptr new block pointer
+   */
+  void setPointer(int pos, int ptr) {
+    int page = page(pos);
+    ptrs[page][pos - starts[page]] = ptr;
+  }
+
+  /**
+   * Insert a separator at position, shifting any separators at or after
+   * that position one step
+   *
+   * @param pos position between 0 and size()
+   * @param key separator
+   * @param ptr block pointer
+   */
+  void insert(int pos, A key, int ptr) {
+    if (pos < 0 || pos > size)
+      throw new IndexOutOfBoundsException("position: " + pos);
+    if (pages == 0)
+      addPage(0, new Object[PAGE_SIZE], new int[PAGE_SIZE], 0);
+    int page = page(pos);
+    if (counts[page] == PAGE_SIZE) {
+      if (pos == size) { //appending (e.g. when building the index), start a new page
+        addPage(pages, new Object[PAGE_SIZE], new int[PAGE_SIZE], 0);
+        page++;
+      } else {
+        splitPage(page);
+        if (pos - starts[page] > counts[page])
+          page++;
+      }
+    }
+    int slot = pos - starts[page];
+    int move = counts[page] - slot;
+    if (move > 0) {
+      System.arraycopy(keys[page], slot, keys[page], slot + 1, move);
+      System.arraycopy(ptrs[page], slot, ptrs[page], slot + 1, move);
+    }
+    keys[page][slot] = key;
+    ptrs[page][slot] = ptr;
+    counts[page]++;
+    size++;
+    for (int i = page + 1; i < pages; i++)
+      starts[i]++;
+  }
+
+  /**
+   * Remove the separator at position
+   *
+   * @param pos position
+   */
+  void remove(int pos) {
+    if (pos < 0 || pos >= size)
+      throw new IndexOutOfBoundsException("position: " + pos);
+    int page = page(pos);
+    int slot = pos - starts[page];
+    int move = counts[page] - slot - 1;
+    if (move > 0) {
+      System.arraycopy(keys[page], slot + 1, keys[page], slot, move);
+      System.arraycopy(ptrs[page], slot + 1, ptrs[page], slot, move);
+    }
+    counts[page]--;
+    keys[page][counts[page]] = null;
+    size--;
+    for (int i = page + 1; i < pages; i++)
+      starts[i]--;
+    if (counts[page] == 0)
+      removePage(page);
+    else if (page + 1 < pages && counts[page] + counts[page + 1] <= PAGE_SIZE / 2)
+      mergePages(page);
+  }
+
+  /**
+   * All block pointers in separator order
+   *
+   * @return stream of block pointers
+   */
+  IntStream pointers() {
+    return IntStream.range(0, pages).flatMap(p -> Arrays.stream(ptrs[p], 0, counts[p]));
+  }
+
+  @SuppressWarnings("unchecked")
+  private int compare(Object first, A second) {
+    return keyCodec.compare((A) first, second);
+  }
+
+  /**
+   * The page holding position pos. A position equal to size() belongs to the
+   * last page
+   */
+  private int page(int pos) {
+    int low = 0, high = pages - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (starts[mid] <= pos)
+        low = mid + 1;
+      else
+        high = mid - 1;
+    }
+    return high < 0 ? 0 : high;
+  }
+
+  private void addPage(int page, Object[] k, int[] p, int count) {
+    if (pages == keys.length) {
+      int newLength = keys.length * 2;
+      keys = Arrays.copyOf(keys, newLength);
+      ptrs = Arrays.copyOf(ptrs, newLength);
+      counts = Arrays.copyOf(counts, newLength);
+      starts = Arrays.copyOf(starts, newLength);
+    }
+    int move = pages - page;
+    if (move > 0) {
+      System.arraycopy(keys, page, keys, page + 1, move);
+      System.arraycopy(ptrs, page, ptrs, page + 1, move);
+      System.arraycopy(counts, page, counts, page + 1, move);
+      System.arraycopy(starts, page, starts, page + 1, move);
+    }
+    keys[page] = k;
+    ptrs[page] = p;
+    counts[page] = count;
+    starts[page] = page == 0 ? 0 : starts[page - 1] + counts[page - 1];
+    pages++;
+  }
+
+  private void removePage(int page) {
+    if (pages == 1) {
+      //keep one (empty) page around
+      return;
+    }
+    int move = pages - page - 1;
+    if (move > 0) {
+      System.arraycopy(keys, page + 1, keys, page, move);
+      System.arraycopy(ptrs, page + 1, ptrs, page, move);
+      System.arraycopy(counts, page + 1, counts, page, move);
+      System.arraycopy(starts, page + 1, starts, page, move);
+    }
+    pages--;
+    keys[pages] = null;
+    ptrs[pages] = null;
+  }
+
+  private void splitPage(int page) {
+    int half = counts[page] / 2;
+    int rest = counts[page] - half;
+    Object[] k = new Object[PAGE_SIZE];
+    int[] p = new int[PAGE_SIZE];
+    System.arraycopy(keys[page], half, k, 0, rest);
+    System.arraycopy(ptrs[page], half, p, 0, rest);
+    Arrays.fill(keys[page], half, counts[page], null);
+    counts[page] = half;
+    addPage(page + 1, k, p, rest);
+  }
+
+  private void mergePages(int page) {
+    int count = counts[page];
+    int next = counts[page + 1];
+    System.arraycopy(keys[page + 1], 0, keys[page], count, next);
+    System.arraycopy(ptrs[page + 1], 0, ptrs[page], count, next);
+    counts[page] = count + next;
+    removePage(page + 1);
+  }
+}
@@ -11,14 +11,48 @@ import org.mellowtech.core.io.RecordFile;
 import org.mellowtech.core.io.RecordFileBuilder;
 import org.mellowtech.core.util.MapEntry;
 
-import java.io.IOException;
+import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import static java.nio.file.StandardOpenOption.*;
 
 /**
+ * A sorted tree that keeps its index in memory and only its key/value blocks
+ * on disc.
+ * <p>
+ * The index is written to a side file (name.hidx) when the tree is saved or closed
+ * and read back when the tree is opened, so opening a tree does not have to scan
+ * every value block. The side file carries a checksum, a generation number, the
+ * number of value blocks and the size of the value file. The value file's reserved
+ * space belongs to the caller and is not used by the tree. The side file is
+ * removed on the first modification after a save. If it is missing or does not match
+ * the value file the index is rebuilt from the value blocks.
+ * </p>
+ * <p>
+ * The tree is thread safe. Readers and writers share a read lock on the index
+ * and lock the individual value blocks they touch with striped read/write locks, so
+ * readers never block each other and writers to different blocks proceed in parallel.
+ * Only operations that change the index (splits, merges and redistributions of blocks)
+ * and whole tree operations (such as save and truncate) take the exclusive index lock.
+ * Iterators are weakly consistent. They copy one block at a time and find the next
+ * block from the last key returned, so they never fail because of concurrent updates.
+ * </p>
+ *
  * @author Martin Svensson {@literal <msvens@gmail.com>}
  * @since 3.0.7
  */
@@ -26,16 +60,27 @@ public class HybridTree <A,B> implements BTree<A,B> {
 
   protected final Path dir;
   protected final String name;
-  private final TreeMap<A,Integer> idx;
+  private final HybridIndex<A> idx;
   private final RecordFile values;
   private final BCodec<A> keyCodec;
   private final BCodec<B> valueCodec;
   private final BCodec<KeyValue<A,B>> kvCodec;
   private final boolean mapped;
-  private Integer rightPtr;
-  private long size;
+  private final ReadWriteLock structure = new ReentrantReadWriteLock();
+  private final ReadWriteLock[] stripes = new ReadWriteLock[LOCK_STRIPES];
+  private final AtomicLong size = new AtomicLong();
+  private final AtomicLong modCount = new AtomicLong();
+  private int rightPtr;
 
-  private long modCount = 0;
+  private long generation = 0;
+  private volatile boolean indexSaved = false;
+
+  static final int LOCK_STRIPES = 64;
+  //number of value blocks written together when a tree is bulk loaded
+  static final int BULK_BATCH = 64;
+
+  private static final int INDEX_MAGIC = 0x48494458; //HIDX
+  private static final int INDEX_VERSION = 1;
 
 
   public HybridTree(Path dir, String name,
@@ -50,8 +95,13 @@ public class HybridTree <A,B> implements BTree<A,B> {
       this.keyCodec = keyCodec;
       this.valueCodec = valueCodec;
       this.kvCodec = new KeyValueCodec<A, B>(keyCodec,valueCodec);
-      idx = new TreeMap<>();
-      rebuildIndex();
+      idx = new HybridIndex<>(keyCodec);
+      for(int i = 0; i < LOCK_STRIPES; i++)
+        stripes[i] = new ReentrantReadWriteLock();
+      if(!loadIndex()) {
+        Files.deleteIfExists(indexPath());
+        rebuildIndex();
+      }
     } catch(Exception e){
       throw new Error(e);
     }
@@ -59,8 +109,13 @@ public class HybridTree <A,B> implements BTree<A,B> {
 
   @Override
   public void close() throws IOException {
-    values.save();
-    values.close();
+    structure.writeLock().lock();
+    try {
+      save();
+      values.close();
+    } finally {
+      structure.writeLock().unlock();
+    }
   }
 
   @Override
@@ -70,14 +125,26 @@ public class HybridTree <A,B> implements BTree<A,B> {
 
   @Override
   public void createTree(Iterator<KeyValue<A,B>> iterator) throws IOException {
+    structure.writeLock().lock();
+    try {
+      createTreeExclusive(iterator);
+    } finally {
+      structure.writeLock().unlock();
+    }
+  }
+
+  private void createTreeExclusive(Iterator<KeyValue<A,B>> iterator) throws IOException {
     if (!iterator.hasNext()) {
       truncate();
       return;
     }
+    modified();
     values.clear();
     idx.clear();
 
-    HybridTree.Block<A,B> vb = newBlock(mapped);
+    //unmapped blocks are only allocated here and written in batches
+    List<HybridTree.Block<A,B>> filled = new ArrayList<>();
+    HybridTree.Block<A,B> vb = newBulkBlock();
 
     int s = 0;
     KeyValue<A,B> tmpKV;
@@ -85,46 +152,94 @@ public class HybridTree <A,B> implements BTree<A,B> {
     while(iterator.hasNext()){
       tmpKV = iterator.next();
       if(!vb.sb.fits(tmpKV)){
-        updateBlock(vb.bNo, vb.sb);
+        filled.add(vb);
+        if (filled.size() >= BULK_BATCH)
+          writeBlocks(filled);
         A sep = generateSeparator(vb.sb, tmpKV);
-        vb = newBlock(mapped);
+        vb = newBulkBlock();
         int rightNode = vb.bNo;
         addPointer(sep,rightNode);
       }
       s++;
       vb.sb.insertUnsorted(tmpKV);
     }
-    size = s;
-    updateBlock(vb.bNo, vb.sb);
+    size.set(s);
+    filled.add(vb);
+    writeBlocks(filled);
+  }
+
+  private HybridTree.Block<A,B> newBulkBlock() throws IOException {
+    if (mapped)
+      return newBlock(true);
+    int bNo = values.insert(null);
+    return new HybridTree.Block<>(new BBuffer<>(values.getBlockSize(), kvCodec, BBuffer.PtrType.NORMAL), bNo);
+  }
+
+  private void writeBlocks(List<HybridTree.Block<A,B>> blocks) throws IOException {
+    if (mapped) {
+      for (HybridTree.Block<A,B> b : blocks)
+        values.markDirty(b.bNo);
+    } else {
+      int[] records = new int[blocks.size()];
+      ByteBuffer[] from = new ByteBuffer[blocks.size()];
+      for (int i = 0; i < records.length; i++) {
+        records[i] = blocks.get(i).bNo;
+        from[i] = ByteBuffer.wrap(blocks.get(i).sb.getArray());
+      }
+      values.updateAll(records, from);
+    }
+    blocks.clear();
   }
 
   @Override
   public void delete() throws IOException {
-    modCount++;
-    values.remove();
-    rightPtr = null;
-    idx.clear();
+    structure.writeLock().lock();
+    try {
+      modified();
+      values.remove();
+      Files.deleteIfExists(indexPath());
+      rightPtr = -1;
+      idx.clear();
+    } finally {
+      structure.writeLock().unlock();
+    }
   }
 
   @Override
   public A getKey(int position) throws IOException {
-    if (position < 0 || position >= size())
-      throw new IOException("position out of bounds");
-    Iterator <Integer> ptrs = blockPointers().iterator();
-    while(ptrs.hasNext()){
-      Integer bNo = ptrs.next();
-      BBuffer<KeyValue<A,B>> sb = getBlock(bNo);
-      if (position < sb.getNumberOfElements()) {
-        return sb.get(position).getKey();
+    structure.readLock().lock();
+    try {
+      if (position < 0 || position >= size())
+        throw new IOException("position out of bounds");
+      PrimitiveIterator.OfInt ptrs = blockPointers().iterator();
+      while (ptrs.hasNext()) {
+        int bNo = ptrs.nextInt();
+        Lock l = blockLock(bNo).readLock();
+        l.lock();
+        try {
+          BBuffer<KeyValue<A,B>> sb = getBlock(bNo);
+          if (position < sb.getNumberOfElements())
+            return sb.getKey(position).getKey();
+          position -= sb.getNumberOfElements();
+        } finally {
+          l.unlock();
+        }
       }
-      position -= sb.getNumberOfElements();
+      return null;
+    } finally {
+      structure.readLock().unlock();
     }
-    return null;
   }
 
   @Override
   public KeyValue<A,B> getKeyValue(A key){
-    return getBlock(key).get(new KeyValue<>(key));
+    KeyValue<A,B> search = new KeyValue<>(key);
+    structure.readLock().lock();
+    try {
+      return readBlock(findBlock(key), sb -> sb.get(search));
+    } finally {
+      structure.readLock().unlock();
+    }
   }
 
   @Override
@@ -135,10 +250,34 @@ public class HybridTree <A,B> implements BTree<A,B> {
 
   @Override
   public TreePosition getPositionWithMissing(A key) throws IOException {
-    int block = findBlock(key);
-    if(block < 0) return null;
-    TreePosition tp = getFilePositionNoStrict(key, block);
-    return tp;
+    structure.readLock().lock();
+    try {
+      int block = findBlock(key);
+      if (block < 0) return null;
+      return getFilePositionNoStrict(key, block);
+    } finally {
+      structure.readLock().unlock();
+    }
+  }
+
+  @Override
+  public KeyValue<A,B> ceilingEntry(A key) {
+    return searchNeighbor(key, true, true);
+  }
+
+  @Override
+  public KeyValue<A,B> floorEntry(A key) {
+    return searchNeighbor(key, false, true);
+  }
+
+  @Override
+  public KeyValue<A,B> higherEntry(A key) {
+    return searchNeighbor(key, true, false);
+  }
+
+  @Override
+  public KeyValue<A,B> lowerEntry(A key) {
+    return searchNeighbor(key, false, false);
   }
 
   @Override
@@ -160,38 +299,85 @@ public class HybridTree <A,B> implements BTree<A,B> {
   public void put(A key, B value, boolean update) {
     KeyValue<A,B> kv = new KeyValue<>(key,value);
     try {
-      Integer bNo = findBlock(kv.getKey());
-      BBuffer<KeyValue<A,B>> block = getBlock(bNo);
-      modCount++;
-      if (block.contains(kv)) {
-        if (!update)
+      structure.readLock().lock();
+      try {
+        if (putInBlock(kv, update))
           return;
-        else {
-          block.delete(kv);
-          size--;
-        }
+      } finally {
+        structure.readLock().unlock();
       }
-      size++;
-      if (block.fits(kv)) {
-        block.insert(kv);
-        updateBlock(bNo, block);
-        return;
+      //the block has to be split
+      structure.writeLock().lock();
+      try {
+        putExclusive(kv, update);
+      } finally {
+        structure.writeLock().unlock();
       }
-      HybridTree.Block<A,B> vb = newBlock(mapped);
-      block.split(vb.sb);
-      if (kv.compareTo(block.getLast()) <= 0)
-        block.insert(kv);
-      else
-        vb.sb.insert(kv);
-      updateBlock(bNo, block);
-      updateBlock(vb.bNo, vb.sb);
-      A sep = generateSeparator(block, vb.sb);
-      addPointer(sep,vb.bNo);
     } catch (IOException e) {
       throw new Error(e);
     }
   }
 
+  /**
+   * Put a key/value in its block without changing the index. Callers hold the
+   * index read lock
+   *
+   * @return false if the block has to be split
+   */
+  private boolean putInBlock(KeyValue<A,B> kv, boolean update) throws IOException {
+    int bNo = findBlock(kv.getKey());
+    Lock l = blockLock(bNo).writeLock();
+    l.lock();
+    try {
+      BBuffer<KeyValue<A,B>> block = getBlockForUpdate(bNo);
+      boolean exists = block.contains(kv);
+      if (exists && !update)
+        return true;
+      if (!block.fits(kv))
+        return false;
+      modified();
+      if (exists)
+        block.delete(kv);
+      else
+        size.incrementAndGet();
+      block.insert(kv);
+      updateBlock(bNo, block);
+      return true;
+    } finally {
+      l.unlock();
+    }
+  }
+
+  private void putExclusive(KeyValue<A,B> kv, boolean update) throws IOException {
+    int bNo = findBlock(kv.getKey());
+    BBuffer<KeyValue<A,B>> block = getBlockForUpdate(bNo);
+    modified();
+    if (block.contains(kv)) {
+      if (!update)
+        return;
+      else {
+        block.delete(kv);
+        size.decrementAndGet();
+      }
+    }
+    size.incrementAndGet();
+    if (block.fits(kv)) {
+      block.insert(kv);
+      updateBlock(bNo, block);
+      return;
+    }
+    HybridTree.Block<A,B> vb = newBlock(mapped);
+    block.split(vb.sb);
+    if (kv.compareTo(block.getLast()) <= 0)
+      block.insert(kv);
+    else
+      vb.sb.insert(kv);
+    updateBlock(bNo, block);
+    updateBlock(vb.bNo, vb.sb);
+    A sep = generateSeparator(block, vb.sb);
+    addPointer(sep,vb.bNo);
+  }
+
   @Override
   public void putIfNotExists(A key, B value){
     put(key,value,false);
@@ -199,9 +385,18 @@ public class HybridTree <A,B> implements BTree<A,B> {
 
   @Override
   public void rebuildIndex() throws IOException, UnsupportedOperationException {
+    structure.writeLock().lock();
+    try {
+      rebuildIndexExclusive();
+    } finally {
+      structure.writeLock().unlock();
+    }
+  }
+
+  private void rebuildIndexExclusive() throws IOException {
     //just return if there are no value blocks
     if (values.size() == 0) {
-      size = 0;
+      size.set(0);
       rightPtr = newBlock(mapped).bNo;
       idx.clear();
       return;
@@ -220,8 +415,8 @@ public class HybridTree <A,B> implements BTree<A,B> {
       tmp = new BBuffer<>(ByteBuffer.wrap(r.data), kvCodec);
       if(tmp.getNumberOfElements() == 0)
         break;
-      KeyValue<A,B> first = tmp.getFirst();
-      KeyValue<A,B> last = tmp.getLast();
+      KeyValue<A,B> first = tmp.getKey(0);
+      KeyValue<A,B> last = tmp.getKey(tmp.getNumberOfElements() - 1);
       HybridTree.FirstLastKey<A> sl =
           new HybridTree.FirstLastKey<>(first.getKey(), last.getKey(), r.record);
       blocks[i] = sl;
@@ -232,9 +427,8 @@ public class HybridTree <A,B> implements BTree<A,B> {
       return;
     //Sort the blocks and set all initial values
     Arrays.sort(blocks);
-    size = 0;
     rightPtr = blocks[0].bNo;
-    size = s;
+    size.set(s);
 
     for (i = 0; i < blocks.length - 1; i++) {
       HybridTree.FirstLastKey<A> left = blocks[i];
@@ -248,107 +442,157 @@ public class HybridTree <A,B> implements BTree<A,B> {
   @Override
   public B remove(A key) throws IOException {
     try{
-      modCount++;
-      Map.Entry<A,Integer> entry = entry(key);
-      BBuffer<KeyValue<A,B>> block = getBlock(entry.getValue());
-      KeyValue<A,B> deleted = block.delete(new KeyValue<>(key));
-      if(deleted == null) {
-        return null;
-      }
-      size--;
-      //first check if block is not underflowed...
-      if(!isUnderflowed(block)){
-        //System.out.println("no underflow...just return");
-        updateBlock(entry.getValue(), block);
-        return deleted.getValue();
-      }
-      //get left and right sibling
-      Map.Entry<A,Integer> leftSib = leftEntry(key);
-      Map.Entry<A,Integer> rightSib = rightEntry(key);
-      BBuffer<KeyValue<A,B>> left = null;
-      BBuffer<KeyValue<A,B>> right = null;
-
-      //try to redistribute
-      if(leftSib != null){
-        left = getBlock(leftSib.getValue());
-        if(!isUnderflowed(left)){
-          redistributeBlocks(left,block,leftSib.getValue(),entry.getValue());
-          A sep = generateSeparator(left,block);
-          replacePointer(leftSib.getKey(),sep);
-          return deleted.getValue();
+      KeyValue<A,B> deleted;
+      boolean underflowed;
+      structure.readLock().lock();
+      try {
+        int bNo = findBlock(key);
+        Lock l = blockLock(bNo).writeLock();
+        l.lock();
+        try {
+          modified();
+          BBuffer<KeyValue<A,B>> block = getBlockForUpdate(bNo);
+          deleted = block.delete(new KeyValue<>(key));
+          if (deleted == null)
+            return null;
+          size.decrementAndGet();
+          updateBlock(bNo, block);
+          underflowed = isUnderflowed(block);
+        } finally {
+          l.unlock();
         }
+      } finally {
+        structure.readLock().unlock();
       }
-      if(rightSib != null){
-        right = getBlock(rightSib.getValue());
-        if(!isUnderflowed(right)){
-          redistributeBlocks(block,right,entry.getValue(),rightSib.getValue());
-          A sep = generateSeparator(block,right);
-          replacePointer(entry.getKey(), sep);
-          return deleted.getValue();
+      if(underflowed) {
+        structure.writeLock().lock();
+        try {
+          rebalance(key);
+        } finally {
+          structure.writeLock().unlock();
         }
       }
-      //try merge:
-      if(left != null && block.fits(left)){
-        block.merge(left);
-        values.delete(leftSib.getValue());
-        updateBlock(entry.getValue(), block);
-        deletePointer(leftSib);
-        return deleted.getValue();
-      }
-      if(right != null && right.fits(block)){
-        right.merge(block);
-        values.delete(entry.getValue());
-        updateBlock(rightSib.getValue(), right);
-        deletePointer(entry);
-        return deleted.getValue();
-      }
       return deleted.getValue();
     }catch(IOException e){
       throw new Error(e);
     }
+  }
 
+  /**
+   * Redistribute or merge the block holding key with one of its siblings if it is
+   * underflowed. Callers hold the exclusive index lock
+   */
+  private void rebalance(A key) throws IOException {
+    int pos = idx.higher(key);
+    int bNo = blockAt(pos);
+    BBuffer<KeyValue<A,B>> block = getBlockForUpdate(bNo);
+    //some other thread could have rebalanced the block already
+    if(!isUnderflowed(block))
+      return;
+    //get left and right sibling
+    int leftNo = pos > 0 ? idx.pointer(pos - 1) : -1;
+    int rightNo = pos < idx.size() ? blockAt(pos + 1) : -1;
+    BBuffer<KeyValue<A,B>> left = null;
+    BBuffer<KeyValue<A,B>> right = null;
+
+    //try to redistribute
+    if(leftNo != -1){
+      left = getBlockForUpdate(leftNo);
+      if(!isUnderflowed(left)){
+        redistributeBlocks(left,block,leftNo,bNo);
+        idx.setKey(pos - 1, generateSeparator(left,block));
+        return;
+      }
+    }
+    if(rightNo != -1){
+      right = getBlockForUpdate(rightNo);
+      if(!isUnderflowed(right)){
+        redistributeBlocks(block,right,bNo,rightNo);
+        idx.setKey(pos, generateSeparator(block,right));
+        return;
+      }
+    }
+    //try merge:
+    if(left != null && block.fits(left)){
+      block.merge(left);
+      values.delete(leftNo);
+      updateBlock(bNo, block);
+      idx.remove(pos - 1);
+      return;
+    }
+    if(right != null && right.fits(block)){
+      right.merge(block);
+      values.delete(bNo);
+      updateBlock(rightNo, right);
+      idx.remove(pos);
+    }
   }
 
   @Override
   public void save() throws IOException {
-    values.save();
+    structure.writeLock().lock();
+    try {
+      if (indexSaved) {
+        values.save();
+        return;
+      }
+      generation++;
+      values.save();
+      saveIndex();
+      indexSaved = true;
+    } finally {
+      structure.writeLock().unlock();
+    }
   }
 
   @Override
   public int size() throws IOException {
-    return (int) size;
+    return (int) size.get();
   }
 
   @Override
   public void truncate() throws IOException {
-    modCount++;
-    values.clear();
-    size = 0;
-    rightPtr = newBlock(mapped).bNo;
-    idx.clear();
+    structure.writeLock().lock();
+    try {
+      modified();
+      values.clear();
+      size.set(0);
+      rightPtr = newBlock(mapped).bNo;
+      idx.clear();
+    } finally {
+      structure.writeLock().unlock();
+    }
   }
 
 
   //Utility methods
   public void printBlocks(){
-    Iterator<Integer> iter = blockPointers().iterator();
-    while(iter.hasNext()){
-      int blockNo = iter.next();
-      BBuffer<KeyValue<A,B>> block = getBlock(blockNo);
-      KeyValue<A,B> first = block.getFirst();
-      KeyValue<A,B> last = block.getLast();
-      System.out.println("block: "+blockNo+" "+first.getKey()+":::"+last.getKey());
+    structure.writeLock().lock();
+    try {
+      PrimitiveIterator.OfInt iter = blockPointers().iterator();
+      while (iter.hasNext()) {
+        int blockNo = iter.nextInt();
+        BBuffer<KeyValue<A,B>> block = getBlock(blockNo);
+        KeyValue<A,B> first = block.getFirst();
+        KeyValue<A,B> last = block.getLast();
+        System.out.println("block: " + blockNo + " " + first.getKey() + ":::" + last.getKey());
+      }
+    } finally {
+      structure.writeLock().unlock();
     }
   }
 
   public void printTree(){
-    Iterator<Map.Entry<A,Integer>> iter = idx.entrySet().iterator();
     StringBuilder sbuilder = new StringBuilder();
-    while(iter.hasNext()){
-      Map.Entry<A,Integer> e = iter.next();
-      sbuilder.append(e.getValue()).append("::").append(e.getKey()).append("::");
+    structure.readLock().lock();
+    try {
+      for (int i = 0; i < idx.size(); i++) {
+        sbuilder.append(idx.pointer(i)).append("::").append(idx.key(i)).append("::");
+      }
+      sbuilder.append(rightPtr);
+    } finally {
+      structure.readLock().unlock();
     }
-    sbuilder.append(rightPtr);
     System.out.println(sbuilder.toString());
   }
 
@@ -385,65 +629,149 @@ public class HybridTree <A,B> implements BTree<A,B> {
   }
 
   private void addPointer(A sep, int right){
-    if(idx.isEmpty()){
-      idx.put(sep, rightPtr);
-      this.rightPtr = right;
-      return;
+    int pos = idx.higher(sep);
+    if(pos > 0 && keyCodec.compare(idx.key(pos - 1), sep) == 0)
+      throw new Error("node already contains key: "+sep);
+    //the new separator takes over the pointer to the split (left) block
+    idx.insert(pos, sep, blockAt(pos));
+    if(pos + 1 < idx.size())
+      idx.setPointer(pos + 1, right);
+    else
+      rightPtr = right;
+  }
+
+  /**
+   * Block pointer at a position in the index. Position idx.size() is the
+   * right most block
+   */
+  private int blockAt(int pos){
+    return pos < idx.size() ? idx.pointer(pos) : rightPtr;
+  }
+
+  private IntStream blockPointers(){
+    return IntStream.concat(idx.pointers(), IntStream.of(rightPtr));
+  }
+
+  private Path indexPath(){
+    return dir.resolve(name+".hidx");
+  }
+
+  /**
+   * Called before any modification. Removes a saved index since it will no longer
+   * match the value blocks
+   */
+  private void modified() throws IOException {
+    modCount.incrementAndGet();
+    if(indexSaved) {
+      synchronized (this) {
+        if(indexSaved) {
+          Files.deleteIfExists(indexPath());
+          indexSaved = false;
+        }
+      }
     }
-    //add right
-    if(idx.containsKey(sep)) throw new Error("node already contains key: "+sep);
-    Map.Entry<A,Integer> higher = idx.higherEntry(sep);
-    if(higher != null){
-      idx.put(sep, higher.getValue());
-      idx.put(higher.getKey(), right);
-    } else {
-      idx.put(sep, rightPtr);
+  }
+
+  /**
+   * Read the index from its side file.
+   *
+   * @return true if the index was read, false if it is missing or does not match the value file
+   */
+  private boolean loadIndex() {
+    Path p = indexPath();
+    if(!Files.exists(p))
+      return false;
+    try(FileChannel fc = FileChannel.open(p, READ)) {
+      CheckedInputStream cis = new CheckedInputStream(
+          new BufferedInputStream(Channels.newInputStream(fc)), new CRC32C());
+      DataInputStream dis = new DataInputStream(cis);
+      if(dis.readInt() != INDEX_MAGIC || dis.readInt() != INDEX_VERSION)
+        return false;
+      long gen = dis.readLong();
+      if(dis.readInt() != values.size() || dis.readLong() != values.fileSize())
+        return false;
+      long s = dis.readLong();
+      int right = dis.readInt();
+      int count = dis.readInt();
+      idx.clear();
+      byte[] b = new byte[64];
+      for(int i = 0; i < count; i++) {
+        int ptr = dis.readInt();
+        int len = dis.readInt();
+        if(len > b.length)
+          b = new byte[len];
+        dis.readFully(b, 0, len);
+        idx.insert(i, keyCodec.from(b, 0), ptr);
+      }
+      long checksum = cis.getChecksum().getValue();
+      if(dis.readLong() != checksum) {
+        idx.clear();
+        return false;
+      }
+      generation = gen;
+      size.set(s);
       rightPtr = right;
+      indexSaved = true;
+      return true;
+    } catch(IOException | RuntimeException e) {
+      //a damaged index is not fatal, it will be rebuilt
+      idx.clear();
+      return false;
     }
   }
 
-  private Stream<Integer> blockPointers(){
-    return Stream.concat(idx.values().stream(), Stream.of(rightPtr));
+  /**
+   * Write the index to its side file. The index is written to a temporary file
+   * that replaces the side file once it has been forced to disc
+   */
+  private void saveIndex() throws IOException {
+    Path p = indexPath();
+    Path tmp = dir.resolve(name+".hidx.tmp");
+    try(FileChannel fc = FileChannel.open(tmp, CREATE, WRITE, TRUNCATE_EXISTING)) {
+      CheckedOutputStream cos = new CheckedOutputStream(
+          new BufferedOutputStream(Channels.newOutputStream(fc)), new CRC32C());
+      DataOutputStream dos = new DataOutputStream(cos);
+      dos.writeInt(INDEX_MAGIC);
+      dos.writeInt(INDEX_VERSION);
+      dos.writeLong(generation);
+      dos.writeInt(values.size());
+      dos.writeLong(values.fileSize());
+      dos.writeLong(size.get());
+      dos.writeInt(rightPtr);
+      dos.writeInt(idx.size());
+      byte[] b = new byte[64];
+      for(int i = 0; i < idx.size(); i++) {
+        A key = idx.key(i);
+        int len = keyCodec.byteSize(key);
+        if(len > b.length)
+          b = new byte[len];
+        keyCodec.to(key, b, 0);
+        dos.writeInt(idx.pointer(i));
+        dos.writeInt(len);
+        dos.write(b, 0, len);
+      }
+      dos.writeLong(cos.getChecksum().getValue());
+      dos.flush();
+      fc.force(true);
+    }
+    Files.move(tmp, p, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
   }
 
   private MapEntry<Integer, Integer> countKeyValues(int highBlock) {
-    Iterator<Integer> all = blockPointers().iterator();
+    PrimitiveIterator.OfInt all = blockPointers().iterator();
     int cnt = 0;
     int current = 0;
     while(all.hasNext()){
-      current = all.next();
+      current = all.nextInt();
       if(current == highBlock)
         break;
-      cnt += getBlock(current).getNumberOfElements();
+      cnt += readBlock(current, BBuffer::getNumberOfElements);
     }
     return new MapEntry<>(current,cnt);
   }
 
-  /*private MapEntry<Integer,Integer> countKeyValues(int highBlock){
-    int i = 0;
-    int cnt = 0;
-    Iterator<Integer> all = blockPointers().iterator();
-    while(all.hasNext()){
-      if(i == highBlock) break;
-      i++;
-      cnt = cnt + getBlock(all.next()).getNumberOfElements();
-    }
-    return new MapEntry<>(i,cnt);
-  }*/
-
-  private void deletePointer(Map.Entry<A,Integer> entry){
-    if(!idx.containsKey(entry.getKey())) throw new Error("key: "+entry.getKey()+" does not exist");
-    idx.remove(entry.getKey());
-  }
-
-  private Map.Entry<A,Integer> entry(A key){
-    Map.Entry<A,Integer> ptr = idx.higherEntry(key);
-    return ptr != null ? new MapEntry<>(ptr.getKey(), ptr.getValue()) : new MapEntry<>(null, rightPtr);
-  }
-
-  private Integer findBlock(A key){
-    Map.Entry<A,Integer> ptr = idx.higherEntry(key);
-    return ptr != null ? ptr.getValue() : rightPtr;
+  private int findBlock(A key){
+    return blockAt(idx.higher(key));
   }
 
   /**
@@ -458,7 +786,7 @@ public class HybridTree <A,B> implements BTree<A,B> {
    */
   private A generateSeparator(BBuffer<KeyValue<A,B>> small,
                               BBuffer<KeyValue<A,B>> large) {
-    return generateSeparator(small.getLast().getKey(), large.getFirst().getKey());
+    return generateSeparator(small.getKey(small.getNumberOfElements() - 1).getKey(), large.getKey(0).getKey());
   }
 
   /**
@@ -469,15 +797,29 @@ public class HybridTree <A,B> implements BTree<A,B> {
    * @return a separator.
    */
   private A generateSeparator(BBuffer<KeyValue<A,B>> small, KeyValue<A,B> large) {
-    return generateSeparator(small.getLast().getKey(), large.getKey());
+    return generateSeparator(small.getKey(small.getNumberOfElements() - 1).getKey(), large.getKey());
   }
 
   private A generateSeparator(A small, A large) {
     return CodecUtil.separate(small, large, keyCodec);
   }
 
-  private BBuffer<KeyValue<A,B>> getBlock(A key){
-    return getBlock(findBlock(key));
+  private ReadWriteLock blockLock(int bNo){
+    return stripes[(bNo & Integer.MAX_VALUE) % LOCK_STRIPES];
+  }
+
+  /**
+   * Apply a function to a value block while holding its read lock. Callers hold
+   * the index read lock
+   */
+  private <T> T readBlock(int bNo, Function<BBuffer<KeyValue<A,B>>, T> f){
+    Lock l = blockLock(bNo).readLock();
+    l.lock();
+    try {
+      return f.apply(getBlock(bNo));
+    } finally {
+      l.unlock();
+    }
   }
 
   private BBuffer<KeyValue<A,B>> getBlock(int bno) {
@@ -489,20 +831,31 @@ public class HybridTree <A,B> implements BTree<A,B> {
     }
   }
 
+  /**
+   * Get a block that is about to be modified. Mapped blocks are marked as dirty before
+   * they are changed so that the value file never sees a changed block as clean
+   */
+  private BBuffer<KeyValue<A,B>> getBlockForUpdate(int bno) {
+    if (mapped)
+      values.markDirty(bno);
+    return getBlock(bno);
+  }
+
   private TreePosition getFilePositionNoStrict(A key, int bNo)
       throws IOException {
     if (values.size() == 0)
       return null;
-    BBuffer<KeyValue<A,B>> sb = getBlock(bNo);
-    int smallerInBlock = sb.search(new KeyValue<>(key));
+    KeyValue<A,B> search = new KeyValue<>(key);
+    int[] found = readBlock(bNo, sb -> new int[]{sb.search(search), sb.getNumberOfElements()});
+    int smallerInBlock = found[0];
     boolean exists = true;
     if (smallerInBlock < 0) { //not found
       exists = false;
       smallerInBlock = Math.abs(smallerInBlock);
       smallerInBlock--; //readjust
     }
-    int elementsInBlock = sb.getNumberOfElements();
-    int elements = (int) size;
+    int elementsInBlock = found[1];
+    int elements = (int) size.get();
     Map.Entry<Integer, Integer> cnt = countKeyValues(bNo);
     int smaller = cnt.getValue() + smallerInBlock;
     return new TreePosition(smaller, elements, smallerInBlock, elementsInBlock, exists);
@@ -513,15 +866,12 @@ public class HybridTree <A,B> implements BTree<A,B> {
     return sb.getDataAndPointersBytes() < (sb.storageCapacity() / 2);
   }
 
-  private Map.Entry<A,Integer> leftEntry(A key){
-    return idx.floorEntry(key);
-  }
-
   private HybridTree.Block<A,B> newBlock(boolean mapped) throws IOException {
     int bNo;
     BBuffer<KeyValue<A,B>> buff;
     if (mapped) {
       bNo = values.insert(null);
+      values.markDirty(bNo);
       buff = new BBuffer<>(values.getMapped(bNo), kvCodec, BBuffer.PtrType.NORMAL);
     } else {
       buff = new BBuffer<>(values.getBlockSize(), kvCodec, BBuffer.PtrType.NORMAL);
@@ -542,21 +892,49 @@ public class HybridTree <A,B> implements BTree<A,B> {
     updateBlock(bLarge, large);
   }
 
-  private void replacePointer(A oldSep, A newSep){
-    if(!idx.containsKey(oldSep)) throw new Error("oldSep does not exist");
-    Integer ptr = idx.remove(oldSep);
-    idx.put(newSep, ptr);
-  }
-
-  private Map.Entry<A,Integer> rightEntry(A key){
-    A higher = idx.higherKey(key);
-    return higher != null ? new MapEntry<>(higher, findBlock(higher)) : null;
+  /**
+   * Find the closest key/value to a given key. The block is located with one index
+   * lookup and neighboring blocks are only read if the key/value is not in that block.
+   *
+   * @param key       key to search for
+   * @param greater   true to search for larger keys, false for smaller keys
+   * @param inclusive true if a key/value matching key should be returned
+   * @return the key/value or null if there is no such key
+   */
+  private KeyValue<A,B> searchNeighbor(A key, boolean greater, boolean inclusive) {
+    KeyValue<A,B> search = new KeyValue<>(key);
+    structure.readLock().lock();
+    try {
+      int blockPos = idx.higher(key);
+      KeyValue<A,B> found = readBlock(blockAt(blockPos), block -> {
+        int pos = block.search(search);
+        if (pos >= 0) {
+          if (!inclusive)
+            pos = greater ? pos + 1 : pos - 1;
+        } else {
+          pos = greater ? -(pos + 1) : -(pos + 1) - 1;
+        }
+        return pos < 0 || pos >= block.getNumberOfElements() ? null : block.get(pos);
+      });
+      while (found == null) {
+        blockPos += greater ? 1 : -1;
+        if (blockPos < 0 || blockPos > idx.size())
+          return null;
+        found = readBlock(blockAt(blockPos), block -> block.getNumberOfElements() == 0 ? null :
+            greater ? block.getFirst() : block.getLast());
+      }
+      return found;
+    } finally {
+      structure.readLock().unlock();
+    }
   }
 
   private void updateBlock(int blockNo, BBuffer<KeyValue<A,B>> sb)
       throws IOException {
     if (!mapped)
       values.update(blockNo, sb.getArray());
+    else
+      values.markDirty(blockNo);
   }
 
   private static class Block<A,B> {
@@ -592,29 +970,28 @@ public class HybridTree <A,B> implements BTree<A,B> {
     }
   }
 
+  /**
+   * Weakly consistent iterator. Key/values are copied one block at a time and the
+   * next block is found from the last key returned, so blocks that are split or merged
+   * by other threads while iterating are handled.
+   */
   private class HybridTreeIterator implements Iterator<KeyValue<A,B>> {
-    Iterator<KeyValue<A,B>> sbIterator;
-    List<Integer> blocks;
-    boolean inclusive = true;
-    boolean reverse = false;
-    boolean endInclusive = true;
-    KeyValue<A,B> end = null;
-    int currblock = 0;
+    final boolean reverse;
+    final KeyValue<A,B> end;
+    final boolean endInclusive;
+    A from;
+    boolean inclusive;
+    boolean started = false;
+    Iterator<KeyValue<A,B>> current = Collections.emptyIterator();
     KeyValue<A,B> next = null;
 
 
     HybridTreeIterator(boolean reverse, A from, boolean inclusive, A to, boolean endInclusive) {
-      this.inclusive = inclusive;
       this.reverse = reverse;
+      this.from = from;
+      this.inclusive = inclusive;
       this.end = to == null ? null : new KeyValue<A,B>(to, null);
       this.endInclusive = endInclusive;
-      initPtrs();
-      setCurrentBlock(from);
-      nextIter(from);
-      //Hack for now
-      if(sbIterator != null && !sbIterator.hasNext()) //can happen when from not included
-          nextIter(null);
-
       getNext();
     }
 
@@ -625,6 +1002,8 @@ public class HybridTree <A,B> implements BTree<A,B> {
 
     @Override
     public KeyValue<A,B> next() {
+      if (next == null)
+        throw new NoSuchElementException();
       KeyValue<A,B> toRet = next;
       getNext();
       return toRet;
@@ -637,83 +1016,48 @@ public class HybridTree <A,B> implements BTree<A,B> {
     }
 
     private void getNext() {
-      if (sbIterator == null) {
+      if (!current.hasNext())
+        nextBlock();
+      next = current.hasNext() ? current.next() : null;
+      if (next != null && !checkEnd(next))
         next = null;
+      if (next == null) {
+        current = Collections.emptyIterator();
+        from = null;
+        started = true;
         return;
       }
-
-      KeyValue<A,B> toRet = sbIterator.next();
-      if (toRet == null) {
-        sbIterator = null;
-        next = null;
-      } else {
-        if (!checkEnd(toRet)) {
-          sbIterator = null;
-          next = null;
-        } else {
-          next = toRet;
-          if (!sbIterator.hasNext()) {
-            nextIter(null);
-          }
-        }
-      }
-
-    }
-
-    private void initPtrs() {
-      blocks = blockPointers().collect(Collectors.toList());
-    }
-
-    private void nextBlock(A from) {
-      if (currblock >= blocks.size())
-        sbIterator = null;
-      else {
-        sbIterator = from == null ?
-            getBlock(blocks.get(currblock)).iterator() :
-            getBlock(blocks.get(currblock)).iterator(false, new KeyValue<A,B>(from), inclusive, null, false);
-        currblock++;
-      }
+      from = next.getKey();
+      inclusive = false;
+      started = true;
     }
 
-    private void nextIter(A from) {
-      if (reverse)
-        prevBlock(from);
-      else
-        nextBlock(from);
-    }
-
-    @SuppressWarnings("unchecked")
-    private void prevBlock(A from) {
-      if (currblock < 0)
-        sbIterator = null;
-      else {
-        sbIterator = from == null ?
-            getBlock(blocks.get(currblock)).iterator(true) :
-            getBlock(blocks.get(currblock)).iterator(true, new KeyValue(from), inclusive, null, false);
-        currblock--;
-
-      }
-    }
-
-    private void setCurrentBlock(A from) {
-      if (reverse) {
-        this.currblock = blocks.size() - 1;
-        if (from != null) {
-          int bNo = findBlock(from);
-          for (; currblock > 0; currblock--) {
-            if (blocks.get(currblock) == bNo)
-              break;
-          }
-        }
-      } else {
-        this.currblock = 0;
-        if (from != null) {
-          int bNo = findBlock(from);
-          for (; currblock < blocks.size(); currblock++) {
-            if (blocks.get(currblock) == bNo)
-              break;
+    /**
+     * Copy the key/values following from (in iteration order) from the first block
+     * that has any
+     */
+    private void nextBlock() {
+      if (started && from == null)
+        return;
+      structure.readLock().lock();
+      try {
+        int pos = from == null ? (reverse ? idx.size() : 0) : idx.higher(from);
+        KeyValue<A,B> search = from == null ? null : new KeyValue<>(from);
+        for (; pos >= 0 && pos <= idx.size(); pos += reverse ? -1 : 1) {
+          List<KeyValue<A,B>> kvs = readBlock(blockAt(pos), block -> {
+            List<KeyValue<A,B>> l = new ArrayList<>(block.getNumberOfElements());
+            Iterator<KeyValue<A,B>> iter = search == null ? block.iterator(reverse) :
+                block.iterator(reverse, search, inclusive, null, false);
+            iter.forEachRemaining(l::add);
+            return l;
+          });
+          if (!kvs.isEmpty()) {
+            current = kvs.iterator();
+            return;
           }
         }
+      } finally {
+        structure.readLock().unlock();
       }
     }
   }
@@ -30,11 +30,29 @@ public class KeyValueCodec<A,B> implements BCodec<KeyValue<A,B>> {
 
   final BCodec<A> keyCodec;
   final BCodec<B> valueCodec;
+  //size of the size indicator if it is the same for all key/values, otherwise -1
+  private final int sizeBytes;
 
   public KeyValueCodec(BCodec<A> keyCodec, BCodec<B> valueCodec){
     this.keyCodec = keyCodec;
     this.valueCodec = valueCodec;
+    this.sizeBytes = isFixed() ? CodecUtil.encodeLength(keyCodec.fixedSize() + valueCodec.fixedSize()) : -1;
   }
+  /**
+   * A key/value has a fixed size if both the key and value have a fixed size. The
+   * size indicator is still written so the format is the same.
+   */
+  @Override
+  public boolean isFixed() {
+    return keyCodec.isFixed() && valueCodec.isFixed();
+  }
+
+  @Override
+  public int fixedSize() {
+    int size = keyCodec.fixedSize() + valueCodec.fixedSize();
+    return CodecUtil.byteSize(size, true);
+  }
+
   @Override
   public int byteSize(KeyValue<A, B> kv) {
     return CodecUtil.byteSize(keyCodec.byteSize(kv.getKey()) + valueCodec.byteSize(kv.getValue()), true);
@@ -60,6 +78,55 @@ public class KeyValueCodec<A,B> implements BCodec<KeyValue<A,B>> {
     valueCodec.to(kv.getValue(), bb);
   }
 
+  /**
+   * Compares the keys of two serialized key/values without reading their values.
+   */
+  @Override
+  public int byteCompare(int offset1, ByteBuffer bb1, int offset2, ByteBuffer bb2) {
+    return keyCodec.byteCompare(keyOffset(offset1, bb1), bb1, keyOffset(offset2, bb2), bb2);
+  }
+
+  /**
+   * Compares the key of a serialized key/value with the key of a key/value without
+   * reading the serialized value.
+   */
+  @Override
+  public int byteCompare(int offset, ByteBuffer bb, KeyValue<A, B> second) {
+    return keyCodec.byteCompare(keyOffset(offset, bb), bb, second.getKey());
+  }
+
+  /**
+   * Read only the key of a serialized key/value. The buffer is positioned after the
+   * key/value
+   * @param bb buffer to read from
+   * @return key/value without a value
+   */
+  @Override
+  public KeyValue<A, B> fromKey(ByteBuffer bb) {
+    int size = CodecUtil.getSize(bb, true);
+    int end = bb.position() + size;
+    A key = keyCodec.from(bb);
+    bb.position(end);
+    return new KeyValue<>(key);
+  }
+
+  @Override
+  public BCodec<A> keyCodec() {
+    return keyCodec;
+  }
+
+  /**
+   * Offset of the key in a serialized key/value, i.e. the offset after the size indicator
+   */
+  @Override
+  public int keyOffset(int offset, ByteBuffer bb) {
+    if (sizeBytes > 0)
+      return offset + sizeBytes;
+    bb.position(offset);
+    CodecUtil.getSize(bb, true);
+    return bb.position();
+  }
+
 
 //  /*public KeyValueCodec(KeyValue<A,B> keyValue){
 //    super(keyValue);
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mellowtech.core.io;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a block read from a record file does not match its stored checksum,
+ * e.g. after a torn write or silent corruption on disc
+ *
+ * @author Martin Svensson {@literal <msvens@gmail.com>}
+ * @since 4.0.0
+ */
+public class ChecksumException extends IOException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final int record;
+
+  public ChecksumException(int record) {
+    super("checksum mismatch in record " + record);
+    this.record = record;
+  }
+
+  /**
+   * @return the record that failed verification
+   */
+  public int getRecord() {
+    return record;
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mellowtech.core.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves record files asynchronously in a background thread. Save requests are collected
+ * and flushed at most interval milliseconds after the first request, or directly once the
+ * number of bytes reported as written reaches the byte threshold. All requests for the
+ * same file that arrive before a flush are coalesced into a single call to
+ * {@link RecordFile#save()}, i.e. one fsync.
+ * <p>
+ * The block and record file implementations take a lock in {@link RecordFile#save()} that
+ * their write paths share, so a flush never runs concurrently with a write. Files
+ * report the bytes written since their last request through
+ * {@link RecordFile#takeBytesWritten()}.
+ * </p>
+ *
+ * @author Martin Svensson {@literal <msvens@gmail.com>}
+ * @since 4.0.0
+ */
+public class FlushScheduler implements Closeable {
+
+  public static final long DEFAULT_INTERVAL = 1000;
+  public static final long DEFAULT_BYTE_THRESHOLD = 1024 * 1024 * 64;
+
+  private static FlushScheduler defaultScheduler;
+
+  private final Logger logger = LoggerFactory.getLogger(FlushScheduler.class);
+
+  private final ScheduledExecutorService executor;
+  private final long interval;
+  private final long byteThreshold;
+  private final Map<RecordFile, CompletableFuture<Void>> pending = new IdentityHashMap<>();
+  private long pendingBytes = 0;
+  private ScheduledFuture<?> scheduled;
+  private boolean closed = false;
+
+  /**
+   * Create a scheduler with the default interval and byte threshold
+   */
+  public FlushScheduler() {
+    this(DEFAULT_INTERVAL, DEFAULT_BYTE_THRESHOLD);
+  }
+
+  /**
+   * Create a new scheduler
+   *
+   * @param interval      max number of milliseconds between a save request and the flush. If 0
+   *                      every request is flushed directly
+   * @param byteThreshold flush directly when this many bytes have been reported as written
+   */
+  public FlushScheduler(long interval, long byteThreshold) {
+    if (interval < 0 || byteThreshold < 0)
+      throw new IllegalArgumentException("interval and byteThreshold cannot be negative");
+    this.interval = interval;
+    this.byteThreshold = byteThreshold;
+    this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "record-file-flush");
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  /**
+   * Scheduler used by {@link RecordFile#saveAsync()}. It is created on first use and
+   * runs in a daemon thread
+   *
+   * @return default scheduler
+   */
+  public static synchronized FlushScheduler defaultScheduler() {
+    if (defaultScheduler == null)
+      defaultScheduler = new FlushScheduler();
+    return defaultScheduler;
+  }
+
+  public long getInterval() {
+    return interval;
+  }
+
+  public long getByteThreshold() {
+    return byteThreshold;
+  }
+
+  /**
+   * Request that a file is saved
+   *
+   * @param file file to save
+   * @return future that completes when the file has been saved
+   */
+  public CompletableFuture<Void> save(RecordFile file) {
+    return save(file, 0);
+  }
+
+  /**
+   * Request that a file is saved
+   *
+   * @param file  file to save
+   * @param bytes number of bytes written to the file since its last save request
+   * @return future that completes when the file has been saved. Requests for the
+   * same file that are coalesced share the same future
+   */
+  public synchronized CompletableFuture<Void> save(RecordFile file, long bytes) {
+    if (closed) {
+      CompletableFuture<Void> f = new CompletableFuture<>();
+      f.completeExceptionally(new IOException("flush scheduler is closed"));
+      return f;
+    }
+    CompletableFuture<Void> f = pending.computeIfAbsent(file, k -> new CompletableFuture<>());
+    pendingBytes += bytes;
+    schedule(pendingBytes >= byteThreshold ? 0 : interval);
+    return f;
+  }
+
+  /**
+   * Flush all pending requests and stop the scheduler. Any request after this
+   * completes exceptionally
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      if (closed)
+        return;
+      closed = true;
+      if (scheduled != null)
+        scheduled.cancel(false);
+      executor.execute(this::flush);
+    }
+    executor.shutdown();
+    try {
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void schedule(long delay) {
+    if (scheduled != null) {
+      //a flush is already due at least as soon as this one
+      if (delay > 0 || scheduled.getDelay(TimeUnit.MILLISECONDS) <= 0)
+        return;
+      scheduled.cancel(false);
+    }
+    scheduled = executor.schedule(this::flush, delay, TimeUnit.MILLISECONDS);
+  }
+
+  private void flush() {
+    Map<RecordFile, CompletableFuture<Void>> toFlush;
+    synchronized (this) {
+      toFlush = new IdentityHashMap<>(pending);
+      pending.clear();
+      pendingBytes = 0;
+      scheduled = null;
+    }
+    for (Map.Entry<RecordFile, CompletableFuture<Void>> e : toFlush.entrySet()) {
+      RecordFile file = e.getKey();
+      try {
+        if (file.isOpen())
+          file.save();
+        e.getValue().complete(null);
+      } catch (Throwable t) {
+        logger.warn("could not save record file", t);
+        e.getValue().completeExceptionally(t);
+      }
+    }
+  }
+}
@@ -22,6 +22,7 @@ import java.nio.MappedByteBuffer;
 import java.nio.file.Path;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 
 /**
@@ -40,8 +41,28 @@ public interface RecordFile {
 
   void close() throws IOException;
 
+  /**
+   * Rewrite live records so that the file does not hold any dead space. Records
+   * can change record number when they are moved
+   * @return map from old to new record number for every record that was moved. Records that
+   * keep their record number map to themselves
+   * @throws IOException if an error occurs
+   * @see #compact(long)
+   */
   Map<Integer, Integer> compact() throws IOException;
 
+  /**
+   * Incremental version of {@link #compact()} that moves a bounded amount of data per call
+   * so it can be run in the background. Call it repeatedly until it returns an empty map
+   * to fully compact the file. Default implementation calls {@link #compact()}
+   * @param maxBytes max number of bytes to move in this call (at least one record is moved)
+   * @return map from old to new record number for every record that was moved in this call
+   * @throws IOException if an error occurs
+   */
+  default Map<Integer, Integer> compact(long maxBytes) throws IOException {
+    return compact();
+  }
+
   boolean contains(int record) throws IOException;
 
   boolean delete(int record) throws IOException;
@@ -62,6 +83,15 @@ public interface RecordFile {
 
   MappedByteBuffer getMapped(int record) throws UnsupportedOperationException;
 
+  /**
+   * Mark a record that was written through the buffer returned by {@link #getMapped(int)}
+   * so that it is flushed by the next save. Files that force all mapped blocks on save
+   * ignore this. Default implementation does nothing
+   * @param record record that was written to
+   */
+  default void markDirty(int record) {
+  }
+
   boolean get(int record, byte[] buffer) throws IOException;
 
   int getBlockSize();
@@ -102,6 +132,34 @@ public interface RecordFile {
 
   boolean save() throws IOException;
 
+  /**
+   * Save this file asynchronously using the {@link FlushScheduler#defaultScheduler() default scheduler}.
+   * Concurrent requests are coalesced into one save
+   * @return future that completes when the file has been saved
+   */
+  default CompletableFuture<Void> saveAsync() {
+    return saveAsync(FlushScheduler.defaultScheduler());
+  }
+
+  /**
+   * Save this file asynchronously. The bytes written since the last request are
+   * reported to the scheduler so that its byte threshold applies
+   * @param scheduler scheduler that saves the file
+   * @return future that completes when the file has been saved
+   */
+  default CompletableFuture<Void> saveAsync(FlushScheduler scheduler) {
+    return scheduler.save(this, takeBytesWritten());
+  }
+
+  /**
+   * Number of bytes written to this file since the last call. Implementations that
+   * do not count written bytes return 0
+   * @return bytes written
+   */
+  default long takeBytesWritten() {
+    return 0;
+  }
+
   void setReserve(byte[] bytes) throws IOException, UnsupportedOperationException;
 
   /**
@@ -112,6 +170,57 @@ public interface RecordFile {
 
   long fileSize() throws IOException;
 
+  /**
+   * Read several records. Implementations can batch reads of adjacent records. Default
+   * implementation reads one record at a time
+   * @param records records to read
+   * @param into one buffer per record. Bytes are read starting at the buffer's position, at most
+   *             one block (or the record size for files with variable sized records), and the
+   *             position is advanced
+   * @return number of records read. Buffers for records that do not exist are left untouched
+   * @throws IOException if an error occurs
+   */
+  default int getAll(int[] records, ByteBuffer[] into) throws IOException {
+    if(records.length != into.length)
+      throw new IllegalArgumentException("number of records and buffers differ");
+    int n = 0;
+    for(int i = 0; i < records.length; i++){
+      byte[] b = get(records[i]);
+      if(b != null){
+        into[i].put(b, 0, Math.min(b.length, into[i].remaining()));
+        n++;
+      }
+    }
+    return n;
+  }
+
+  /**
+   * Update several records. Implementations can batch writes of adjacent records. Default
+   * implementation updates one record at a time
+   * @param records records to update
+   * @param from one buffer per record. Bytes are written from the buffer's position, at most one
+   *             block (or all remaining bytes for files with variable sized records), and the
+   *             position is advanced
+   * @return number of records updated. Buffers for records that do not exist are left untouched
+   * @throws IOException if an error occurs
+   */
+  default int updateAll(int[] records, ByteBuffer[] from) throws IOException {
+    if(records.length != from.length)
+      throw new IllegalArgumentException("number of records and buffers differ");
+    int n = 0;
+    for(int i = 0; i < records.length; i++){
+      ByteBuffer bb = from[i];
+      int length = getBlockSize() > 0 ? Math.min(getBlockSize(), bb.remaining()) : bb.remaining();
+      byte[] b = new byte[length];
+      bb.duplicate().get(b);
+      if(update(records[i], b)){
+        bb.position(bb.position() + length);
+        n++;
+      }
+    }
+    return n;
+  }
+
   default boolean update(int record, byte[] bytes) throws IOException{
     return update(record, bytes, 0, bytes.length);
   }
@@ -31,7 +31,7 @@ import java.nio.file.Paths;
  */
 public class RecordFileBuilder {
   
-  public enum Strategy {DISC, SPLIT, MEM_SPLIT, DISC_MEM, MULTI}
+  public enum Strategy {DISC, SPLIT, MEM_SPLIT, DISC_MEM, MULTI, CACHED, CACHED_SPLIT}
 
   private boolean spanned = false;
   private Strategy strategy = Strategy.DISC;
@@ -42,6 +42,9 @@ public class RecordFileBuilder {
   private int splitBlockSize = 512;
   private Integer splitMaxBlocks = null;
   private int multiFileSize = 1024*1024*64;
+  private int cacheFrames = PageCache.DEFAULT_FRAMES;
+  private int cacheShards = PageCache.DEFAULT_SHARDS;
+  private boolean checksums = false;
   
   /**
    * Create a new RecordFileBuilder
@@ -84,6 +87,59 @@ public class RecordFileBuilder {
     return this;
   }
 
+  /**
+   * Use a block file that reads and writes blocks through a page cache
+   * @return this
+   * @see #cacheFrames(int)
+   * @see #cacheShards(int)
+   */
+  public RecordFileBuilder cached() {
+    strategy = Strategy.CACHED;
+    return this;
+  }
+
+  /**
+   * Use a split block file that reads and writes its non mapped blocks through a page cache
+   * @return this
+   */
+  public RecordFileBuilder cachedSplit() {
+    strategy = Strategy.CACHED_SPLIT;
+    return this;
+  }
+
+  /**
+   * Number of cached blocks for the CACHED and CACHED_SPLIT strategies
+   * @param frames number of blocks
+   * @return this
+   */
+  public RecordFileBuilder cacheFrames(int frames) {
+    this.cacheFrames = frames;
+    return this;
+  }
+
+  /**
+   * Number of cache shards for the CACHED and CACHED_SPLIT strategies. Blocks are assigned to
+   * shards on record number and each shard is locked separately
+   * @param shards number of shards
+   * @return this
+   */
+  public RecordFileBuilder cacheShards(int shards) {
+    this.cacheShards = shards;
+    return this;
+  }
+
+  /**
+   * Keep a CRC32C checksum for each block that is verified when blocks are read. Supported
+   * by all strategies (for split files the blocks in both regions are checksummed) and by
+   * spanned (variable) record files. Only used when a new file is created
+   * @param checksums true to keep checksums
+   * @return this
+   */
+  public RecordFileBuilder checksums(boolean checksums) {
+    this.checksums = checksums;
+    return this;
+  }
+
   public boolean isMapped(){
     return strategy == Strategy.MEM_SPLIT || strategy == Strategy.DISC_MEM || strategy == Strategy.MULTI;
   }
@@ -126,24 +182,32 @@ public class RecordFileBuilder {
 
   public RecordFile build(Path path) throws IOException{
     if(spanned)
-      return new VariableRecordFile(path,maxBlocks == null ? 0 : maxBlocks,reserve);
+      return new VariableRecordFile(path,maxBlocks == null ? 0 : maxBlocks,reserve,checksums);
+    else if(strategy == Strategy.CACHED)
+      return maxBlocks != null ? new CachedBlockFile(path, blockSize, maxBlocks, reserve, cacheFrames, cacheShards, checksums) :
+          new CachedBlockFile(path, cacheFrames, cacheShards);
+    else if(strategy == Strategy.CACHED_SPLIT)
+      return maxBlocks != null ?
+          new CachedSplitBlockFile(path, blockSize, maxBlocks, reserve, splitMaxBlocks, splitBlockSize, cacheFrames, cacheShards, checksums) :
+          new CachedSplitBlockFile(path, cacheFrames, cacheShards);
     else
-      return RecordFileBuilder.create(strategy, maxBlocks, path, blockSize, reserve, splitMaxBlocks, splitBlockSize, multiFileSize);
+      return RecordFileBuilder.create(strategy, maxBlocks, path, blockSize, reserve, splitMaxBlocks, splitBlockSize, multiFileSize, checksums);
   }
   
   private static RecordFile create(Strategy s, Integer maxBlocks, Path path,
-      int blockSize, int reserve, Integer splitMaxBlocks, Integer splitBlockSize, int multiFileSize) throws IOException {
+      int blockSize, int reserve, Integer splitMaxBlocks, Integer splitBlockSize, int multiFileSize,
+      boolean checksums) throws IOException {
     switch(s) {
       case DISC:
-        return maxBlocks != null ? new BlockFile(path, blockSize, maxBlocks, reserve) : new BlockFile(path);
+        return maxBlocks != null ? new BlockFile(path, blockSize, maxBlocks, reserve, checksums) : new BlockFile(path);
       case SPLIT:
-        return maxBlocks != null ? new SplitBlockFile(path, blockSize, maxBlocks, reserve, splitMaxBlocks, splitBlockSize) : new SplitBlockFile(path);
+        return maxBlocks != null ? new SplitBlockFile(path, blockSize, maxBlocks, reserve, splitMaxBlocks, splitBlockSize, checksums) : new SplitBlockFile(path);
       case MEM_SPLIT :
-        return maxBlocks != null ? new MemSplitBlockFile(path, blockSize, maxBlocks, reserve, splitMaxBlocks, splitBlockSize) : new MemSplitBlockFile(path);
+        return maxBlocks != null ? new MemSplitBlockFile(path, blockSize, maxBlocks, reserve, splitMaxBlocks, splitBlockSize, checksums) : new MemSplitBlockFile(path);
       case DISC_MEM :
-        return maxBlocks != null ? new MemBlockFile(path, blockSize, maxBlocks, reserve) : new MemBlockFile(path);
+        return maxBlocks != null ? new MemBlockFile(path, blockSize, maxBlocks, reserve, checksums) : new MemBlockFile(path);
       case MULTI:
-        return new MultiBlockFile(multiFileSize, blockSize, reserve, path);
+        return new MultiBlockFile(multiFileSize, blockSize, reserve, path, checksums);
     }
     return null;
   }
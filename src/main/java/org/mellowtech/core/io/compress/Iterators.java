@@ -17,7 +17,6 @@
 package org.mellowtech.core.io.compress;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Iterator;
 
@@ -27,40 +26,36 @@ import java.util.Iterator;
  */
 class Iterators {
 
-  static Iterator<BlockPointer> bufferIterator(ByteBuffer  bb, long offset){
-    if(offset >= Integer.MAX_VALUE)
-      throw new IndexOutOfBoundsException("offset out of bounds");
-    return new MappedCompressedFileIterator(bb, (int) offset);
-  }
-
   static Iterator<BlockPointer> fileIterator(FileChannel fc, long offset){
     return new CompressedFileIterator(fc, offset);
   }
 
-  static class CompressedFileIterator implements Iterator<BlockPointer> {
+  static Iterator<BlockPointer> readerIterator(CFileReader reader, long offset, long size){
+    return new ReaderIterator(reader, offset, size);
+  }
 
-    FileChannel fc;
+  static class ReaderIterator implements Iterator<BlockPointer> {
+
+    CFileReader reader;
     long offset;
+    long size;
 
-    public CompressedFileIterator(FileChannel fc, long startOffset) {
-      this.fc = fc;
+    public ReaderIterator(CFileReader reader, long startOffset, long size) {
+      this.reader = reader;
       this.offset = startOffset;
+      this.size = size;
     }
 
     @Override
     public boolean hasNext() {
-      try {
-        return offset < fc.size();
-      } catch (IOException e){
-        throw new Error(e);
-      }
+      return offset < size;
     }
 
     @Override
     public BlockPointer next() {
       if(!hasNext()) return null;
       try{
-        BlockPointer ptr = BlockPointer.read(fc, offset);
+        BlockPointer ptr = reader.get(offset);
         offset += BlockPointer.ByteSize + ptr.getSize();
         return ptr;
       } catch(IOException e){
@@ -69,33 +64,36 @@ class Iterators {
     }
   }
 
-  static class MappedCompressedFileIterator implements Iterator<BlockPointer> {
+  static class CompressedFileIterator implements Iterator<BlockPointer> {
 
-    ByteBuffer buffer;
-    int offset = 0;
-    public MappedCompressedFileIterator(ByteBuffer buffer, int startOffset){
-      this.buffer = buffer;
-      this.offset = startOffset;
+    FileChannel fc;
+    long offset;
 
+    public CompressedFileIterator(FileChannel fc, long startOffset) {
+      this.fc = fc;
+      this.offset = startOffset;
     }
 
     @Override
     public boolean hasNext() {
-      return offset < buffer.capacity();
+      try {
+        return offset < fc.size();
+      } catch (IOException e){
+        throw new Error(e);
+      }
     }
 
     @Override
     public BlockPointer next() {
       if(!hasNext()) return null;
-      try {
-        BlockPointer ptr = BlockPointer.read(buffer, offset, offset);
+      try{
+        BlockPointer ptr = BlockPointer.read(fc, offset);
         offset += BlockPointer.ByteSize + ptr.getSize();
         return ptr;
-      } catch (IOException e){
+      } catch(IOException e){
         throw new Error(e);
       }
     }
   }
 
-
 }
@@ -18,29 +18,37 @@ package org.mellowtech.core.io.compress;
 
 import net.jpountz.lz4.LZ4Factory;
 import net.jpountz.lz4.LZ4FastDecompressor;
+import org.mellowtech.core.io.impl.SegmentedMapper;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.Iterator;
 
 /**
+ * Reads a compressed file that is memory mapped. Files larger than 2GB are mapped in
+ * segments. The few blocks that cross a segment boundary are copied before they are read
  * @author msvens
  * @since 2018-02-13
  */
 public class LZ4MappedCFileReader extends AbstractCFile implements CFileReader {
 
-  private final MappedByteBuffer mbb;
+  private final SegmentedMapper mapper;
   private final LZ4FastDecompressor decomp;
 
   LZ4MappedCFileReader(Path file) throws IOException{
+    this(file, 30);
+  }
+
+  /**
+   * @param file file to read
+   * @param segmentShift map the file in segments of 2^segmentShift bytes
+   */
+  LZ4MappedCFileReader(Path file, int segmentShift) throws IOException{
     super(file, StandardOpenOption.READ);
-    if(fc.size() > Integer.MAX_VALUE)
-      throw new IOException("file to large to map in one buffer");
-    mbb = fc.map(FileChannel.MapMode.READ_ONLY, 0, (int) fc.size());
+    mapper = new SegmentedMapper(fc, FileChannel.MapMode.READ_ONLY, 0, fc.size(), 1, segmentShift);
     decomp = LZ4Factory.unsafeInstance().fastDecompressor();
   }
 
@@ -51,20 +59,31 @@ public class LZ4MappedCFileReader extends AbstractCFile implements CFileReader {
 
   @Override
   public BlockPointer get(long offset) throws IOException{
-    return BlockPointer.read(mbb, (int) offset, offset);
+    if(mapper.inSegment(offset, BlockPointer.ByteSize))
+      return BlockPointer.read(mapper.segment(offset), mapper.position(offset), offset);
+    byte[] b = new byte[BlockPointer.ByteSize];
+    mapper.get(offset, b, 0, b.length);
+    return BlockPointer.read(ByteBuffer.wrap(b), 0, offset);
   }
 
   @Override
   public Iterator<BlockPointer> iterator(long offset) {
-    return Iterators.bufferIterator(mbb, offset);
+    return Iterators.readerIterator(this, offset, mapper.units());
   }
 
   @Override
   public int read(BlockPointer ptr, ByteBuffer bb, int bufferOffset) throws IOException{
     if(bufferOffset + ptr.getOrigSize() > bb.limit())
       throw new IOException("decompressed data can not fit in the buffer");
-    decomp.decompress(mbb, (int) ptr.getOffset()+BlockPointer.ByteSize,
-        bb, bufferOffset, ptr.getOrigSize());
+    long dataOffset = ptr.getDataOffset();
+    if(mapper.inSegment(dataOffset, ptr.getSize())) {
+      decomp.decompress(mapper.segment(dataOffset), mapper.position(dataOffset),
+          bb, bufferOffset, ptr.getOrigSize());
+    } else {
+      byte[] b = new byte[ptr.getSize()];
+      mapper.get(dataOffset, b, 0, b.length);
+      decomp.decompress(ByteBuffer.wrap(b), 0, bb, bufferOffset, ptr.getOrigSize());
+    }
     return ptr.getOrigSize();
   }
 
@@ -28,6 +28,8 @@ import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import org.slf4j.Logger;
@@ -35,7 +37,13 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Format of File
- * MAGIC_MARKER//FILE_VERSION//BLOCK_SIZE//MAX_BLOCKS//RESERVED_SIZE//BITSET_NUM_LONGS//BITSET//RESERVED//BLOCKS
+ * MAGIC_MARKER//FILE_VERSION//BLOCK_SIZE//MAX_BLOCKS//RESERVED_SIZE//FLAGS//BITSET//RESERVED//CHECKSUMS//BLOCKS
+ * <p>
+ * The CHECKSUMS area is only present if the file was created with checksums. It holds
+ * one CRC32C per block that is updated on every write and verified on reads
+ * (see {@link #setVerifyRate(double)}). The checksums are kept apart from the blocks so
+ * that the full block size is available to callers
+ * </p>
  * Created by msvens on 30/10/15.
  */
 abstract class AbstractBlockFile implements RecordFile {
@@ -45,7 +53,9 @@ abstract class AbstractBlockFile implements RecordFile {
   public static String FILE_EXT = ".blf";
   public static int MIN_BLOCK_SIZE = 256;
   public static String MAGIC = "MSBF";
-  public static int FILE_VERSION = 2;
+  public static int FILE_VERSION = 3;
+  public static final int FLAG_CHECKSUMS = 1;
+  static final int COMPACT_BATCH = 64;
   protected Path p;
   protected FileChannel fc;
   protected int maxBlocks;
@@ -57,8 +67,17 @@ abstract class AbstractBlockFile implements RecordFile {
   }
 
   protected MappedByteBuffer bitBuffer;
+  protected BlockChecksums checksumTable;
   private int blockSize;
   private int reserve;
+  private boolean checksums;
+  private double verifyRate = 1.0;
+  //the header has to be written by the next save
+  private boolean headerDirty = true;
+  //the channel has been written to outside of the blocks since the last save
+  protected boolean channelDirty = false;
+  //updates share it, writes that allocate or free records and save take it exclusively
+  protected final FlushLock flushLock = new FlushLock();
 
 
   public AbstractBlockFile(Path p) throws IOException{
@@ -66,6 +85,19 @@ abstract class AbstractBlockFile implements RecordFile {
   }
 
   public AbstractBlockFile(Path p, int blockSize, int maxBlocks, int reserve) throws IOException {
+    this(p, blockSize, maxBlocks, reserve, false);
+  }
+
+  /**
+   * Open or create a block file. If the file exists its own settings are used
+   * @param p path to file
+   * @param blockSize size of blocks
+   * @param maxBlocks max number of blocks
+   * @param reserve size of reserved area
+   * @param checksums if true keep a checksum for each block
+   * @throws IOException if the file could not be opened or created
+   */
+  public AbstractBlockFile(Path p, int blockSize, int maxBlocks, int reserve, boolean checksums) throws IOException {
     try {
       if (openFile(p)) return;
     } catch (IOException e) {
@@ -76,6 +108,7 @@ abstract class AbstractBlockFile implements RecordFile {
     this.reserve = reserve;
     this.maxBlocks = maxBlocks;
     this.blockSize = (blockSize < MIN_BLOCK_SIZE) ? MIN_BLOCK_SIZE : blockSize;
+    this.checksums = checksums;
     this.p = p;
 
     createFile(p);
@@ -84,12 +117,17 @@ abstract class AbstractBlockFile implements RecordFile {
 
   protected void truncate() throws IOException {
     fc.truncate(blocksOffset());
+    channelDirty = true;
   }
 
   @Override
   public void clear() throws IOException {
-    bitSet.clear();
-    //saveBitSet();
+    flushLock.beginExclusive();
+    try {
+      bitSet.clear();
+    } finally {
+      flushLock.endExclusive();
+    }
   }
 
   @Override
@@ -102,7 +140,103 @@ abstract class AbstractBlockFile implements RecordFile {
 
   @Override
   public Map<Integer, Integer> compact() throws IOException {
-    return null;
+    return compact(Long.MAX_VALUE);
+  }
+
+  /**
+   * Moves the records with the highest record numbers to the lowest free records
+   * until all records are stored in 0 to size()-1. The file is then shrunk
+   * @param maxBytes max number of bytes to move in this call (at least one record is moved)
+   * @return map from old to new record number for the records that were moved
+   * @throws IOException if an error occurs
+   */
+  @Override
+  public Map<Integer, Integer> compact(long maxBytes) throws IOException {
+    flushLock.beginExclusive();
+    try {
+      return compactRecords(maxBytes);
+    } finally {
+      flushLock.endExclusive();
+    }
+  }
+
+  private Map<Integer, Integer> compactRecords(long maxBytes) throws IOException {
+    Map<Integer, Integer> moved = new HashMap<>();
+    long bytes = 0;
+    int to = bitSet.nextClearBit(0);
+    int from = bitSet.length() - 1;
+    while (to >= 0 && to < from && (bytes == 0 || bytes < maxBytes)) {
+      //move records in batches so that adjacent records are read and written together
+      int n = (int) Math.max(1, Math.min(COMPACT_BATCH, (maxBytes - bytes) / getBlockSize()));
+      int[] froms = new int[n];
+      int[] tos = new int[n];
+      int m = 0;
+      while (m < n && to >= 0 && to < from) {
+        froms[m] = from;
+        tos[m++] = to;
+        to = bitSet.nextClearBit(to + 1);
+        from = bitSet.previousSetBit(from - 1);
+      }
+      froms = Arrays.copyOf(froms, m);
+      tos = Arrays.copyOf(tos, m);
+      //froms are descending, so ascending records get consecutive windows of one array
+      byte[] batch = new byte[m * getBlockSize()];
+      ByteBuffer[] buffers = new ByteBuffer[m];
+      for (int i = 0; i < m; i++)
+        buffers[i] = ByteBuffer.wrap(batch, (m - 1 - i) * getBlockSize(), getBlockSize()).slice();
+      getAll(froms, buffers);
+      for (int i = 0; i < m; i++) {
+        buffers[i].flip();
+        bitSet.set(tos[i]);
+      }
+      updateAll(tos, buffers);
+      for (int i = 0; i < m; i++) {
+        delete(froms[i]);
+        moved.put(froms[i], tos[i]);
+      }
+      bytes += (long) m * getBlockSize();
+      from = bitSet.length() - 1;
+    }
+    if (to < 0 || to >= from)
+      shrink();
+    return moved;
+  }
+
+  /**
+   * @return true if this file keeps a checksum for each block
+   */
+  public boolean checksums() {
+    return checksums;
+  }
+
+  public double getVerifyRate() {
+    return verifyRate;
+  }
+
+  /**
+   * Fraction of block reads that are verified against their checksum. The rate is
+   * not stored in the file. Has no effect if the file was created without checksums
+   * @param rate between 0 (never verify on read) and 1 (verify every read)
+   */
+  public void setVerifyRate(double rate) {
+    if (rate < 0 || rate > 1)
+      throw new IllegalArgumentException("verify rate has to be between 0 and 1");
+    this.verifyRate = rate;
+  }
+
+  /**
+   * Read a block from disc and check it against its checksum. The verify rate
+   * does not apply
+   * @param record record to verify
+   * @return false if the record exists and does not match its checksum
+   * @throws IOException if the block could not be read
+   * @throws UnsupportedOperationException if the file has no checksums
+   */
+  public boolean verify(int record) throws IOException {
+    if (!checksums)
+      throw new UnsupportedOperationException("file has no checksums");
+    //a writer might have been between the checksum and the block
+    return !bitSet.contains(record) || checksumTable.verify(record, this::checksumCurrent, this::readBlock);
   }
 
   @Override
@@ -112,12 +246,16 @@ abstract class AbstractBlockFile implements RecordFile {
 
   @Override
   public boolean delete(int record) throws IOException {
-    if (bitSet.contains(record)) {
-      bitSet.flip(record);
-      //saveBitSet();
-      return true;
-    } else
-      return false;
+    flushLock.beginExclusive();
+    try {
+      if (bitSet.contains(record)) {
+        bitSet.flip(record);
+        return true;
+      } else
+        return false;
+    } finally {
+      flushLock.endExclusive();
+    }
   }
 
   @Override
@@ -142,9 +280,14 @@ abstract class AbstractBlockFile implements RecordFile {
 
   @Override
   public int insert(byte[] bytes, int offset, int length) throws IOException {
-    int index = bitSet.nextClearBit(0);
-    insert(index, bytes, offset, length);
-    return index;
+    flushLock.beginExclusive();
+    try {
+      int index = bitSet.nextClearBit(0);
+      insert(index, bytes, offset, length);
+      return index;
+    } finally {
+      flushLock.endExclusive();
+    }
   }
 
   @Override
@@ -180,27 +323,63 @@ abstract class AbstractBlockFile implements RecordFile {
     Files.delete(p);
   }
 
+  /**
+   * Flush the file to disc. Only the changed part of the bit set is forced. Files that
+   * write their blocks through mapped buffers (and force them themselves) only force the
+   * channel if the header, reserve or file size changed since the last save
+   */
   @Override
   public boolean save() throws IOException {
-    ByteBuffer bb = ByteBuffer.allocate(headerSize());
-    bb.put(MAGIC.getBytes());
-    bb.putInt(FILE_VERSION);
-    bb.putInt(blockSize);
-    bb.putInt(maxBlocks);
-    bb.putInt(reserve);
-    bb.flip();
-    fc.write(bb, headerOffset());
-    //saveBitSet();
-    bitBuffer.force();
-    fc.force(true);
+    flushLock.beginSave();
+    try {
+      return saveFile();
+    } finally {
+      flushLock.endSave();
+    }
+  }
+
+  @Override
+  public long takeBytesWritten() {
+    return flushLock.takeWritten();
+  }
+
+  private boolean saveFile() throws IOException {
+    if (headerDirty) {
+      ByteBuffer bb = ByteBuffer.allocate(headerSize());
+      bb.put(MAGIC.getBytes());
+      bb.putInt(FILE_VERSION);
+      bb.putInt(blockSize);
+      bb.putInt(maxBlocks);
+      bb.putInt(reserve);
+      bb.putInt(checksums ? FLAG_CHECKSUMS : 0);
+      bb.flip();
+      fc.write(bb, headerOffset());
+      headerDirty = false;
+      channelDirty = true;
+    }
+    int[] range = bitSet.takeDirtyRange();
+    if (range != null)
+      BlockMapper.force(bitBuffer, range[0], range[1]);
+    if (checksumTable != null)
+      checksumTable.force();
+    if (channelDirty || !blocksMapped()) {
+      fc.force(true);
+      channelDirty = false;
+    }
     return true;
   }
 
   @Override
   public void setReserve(byte[] bytes) throws IOException {
-    ByteBuffer bb = ByteBuffer.wrap(bytes);
-    if (bytes.length > reserve) bb.limit(reserve);
-    fc.write(bb, reservedOffset());
+    flushLock.beginWrite();
+    try {
+      ByteBuffer bb = ByteBuffer.wrap(bytes);
+      if (bytes.length > reserve) bb.limit(reserve);
+      fc.write(bb, reservedOffset());
+      channelDirty = true;
+    } finally {
+      flushLock.endWrite(Math.min(bytes.length, reserve));
+    }
   }
 
   @Override
@@ -221,6 +400,14 @@ abstract class AbstractBlockFile implements RecordFile {
     return blockSize;
   }
 
+  /**
+   * @return true if blocks are written through mapped buffers that are forced by the
+   * subclass rather than through the channel
+   */
+  protected boolean blocksMapped() {
+    return false;
+  }
+
   protected int bitSetSize() {
     return MappedBitSet.maxBytesUsed(maxBlocks);
     /*int bytes = (int) Math.ceil((maxBlocks / 8D));
@@ -228,9 +415,95 @@ abstract class AbstractBlockFile implements RecordFile {
   }
 
   protected long blocksOffset() {
+    return checksums ? align(checksumOffset() + checksumSize()) : checksumOffset();
+  }
+
+  protected long checksumOffset() {
     return align(reservedOffset() + reservedSize());
   }
 
+  protected int checksumSize() {
+    return checksums ? BlockChecksums.size(maxBlocks) : 0;
+  }
+
+  /**
+   * Store the checksum of a block
+   * @param record record
+   * @param block full block from position to limit. The position is not changed
+   */
+  protected void putChecksum(int record, ByteBuffer block) {
+    checksumTable.put(record, block);
+  }
+
+  /**
+   * Store the checksum of a block while holding the lock that readers take before
+   * they read a block again
+   * @param record record
+   * @param block full block from position to limit. The position is not changed
+   */
+  protected void updateChecksum(int record, ByteBuffer block) {
+    checksumTable.update(record, block);
+  }
+
+  /**
+   * Check if the stored checksum of a block is up to date. Files that let callers
+   * write blocks directly only update the checksums when they are saved
+   * @param record record
+   * @return true if the block can be verified against its checksum
+   */
+  protected boolean checksumCurrent(int record) {
+    return true;
+  }
+
+  /**
+   * Store the checksum of a block and write it to disc. Readers that see a block that
+   * does not match its checksum take the same lock and read it again
+   * @param record record
+   * @param block full block from position to limit. The position is advanced
+   * @throws IOException if the block could not be written
+   */
+  protected void writeChecked(int record, ByteBuffer block) throws IOException {
+    synchronized (checksumTable.lock(record)) {
+      putChecksum(record, block);
+      long offset = getOffset(record);
+      while (block.hasRemaining())
+        offset += fc.write(block, offset);
+    }
+  }
+
+  /**
+   * Verify a block that was read from disc if the read is sampled by the verify rate.
+   * A block that does not match is read again while holding the lock used by
+   * {@link #writeChecked(int, ByteBuffer)}, since the first read can race with a write
+   * @param record record
+   * @param block full block from position to limit. The position is not changed
+   * @return the verified block, either block or the block read again
+   * @throws IOException if the block does not match its checksum or could not be read
+   */
+  protected ByteBuffer checkBlock(int record, ByteBuffer block) throws IOException {
+    if (!BlockChecksums.sampled(verifyRate))
+      return block;
+    return checksumTable.check(record, block, this::checksumCurrent, this::readBlock);
+  }
+
+  /**
+   * Read a full block from disc. Bytes after the end of file are 0
+   * @param record record to read
+   * @return block with position 0 and limit blockSize
+   * @throws IOException if the block could not be read
+   */
+  protected ByteBuffer readBlock(int record) throws IOException {
+    ByteBuffer bb = ByteBuffer.allocate(blockSize);
+    long offset = getOffset(record);
+    while (bb.hasRemaining()) {
+      int read = fc.read(bb, offset);
+      if (read < 0) break;
+      offset += read;
+    }
+    bb.clear();
+    return bb;
+  }
+
   protected void createFile(Path p) throws IOException {
     fc = FileChannel.open(p, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
     bitBuffer = fc.map(FileChannel.MapMode.READ_WRITE, bitSetOffset(), bitSetSize());
@@ -238,6 +511,19 @@ abstract class AbstractBlockFile implements RecordFile {
     close();
   }
 
+  /**
+   * Called when the file has been fully compacted. Default implementation truncates
+   * the file after the last record
+   * @throws IOException if an error occurs
+   */
+  protected void shrink() throws IOException {
+    long end = getOffset(bitSet.length());
+    if (fc.size() > end) {
+      fc.truncate(end);
+      channelDirty = true;
+    }
+  }
+
   protected long getOffset(int record) {
     return blocksOffset() + ((long)record * (blockSize));
   }
@@ -247,7 +533,7 @@ abstract class AbstractBlockFile implements RecordFile {
   }
 
   protected int headerSize() {
-    return 20;
+    return 24;
   }
 
   protected boolean openFile(Path p) throws IOException {
@@ -272,16 +558,21 @@ abstract class AbstractBlockFile implements RecordFile {
     if (!marker.equals(MAGIC))
       throw new IOException("not a block file");
 
+    //version 2 files have the same layout but no flags
     int fversion = bb.getInt();
-    if (fversion != FILE_VERSION)
+    if (fversion != FILE_VERSION && fversion != 2)
       throw new IOException("wrong version of file: " + fversion);
 
     blockSize = bb.getInt();
     maxBlocks = bb.getInt();
     reserve = bb.getInt();
+    checksums = fversion > 2 && (bb.getInt() & FLAG_CHECKSUMS) != 0;
+    headerDirty = fversion != FILE_VERSION;
 
     bitBuffer = fc.map(FileChannel.MapMode.READ_WRITE, bitSetOffset(), bitSetSize());
     bitSet = new MappedBitSet(bitBuffer);
+    if (checksums)
+      checksumTable = new BlockChecksums(fc.map(FileChannel.MapMode.READ_WRITE, checksumOffset(), checksumSize()));
     return true;
   }
 
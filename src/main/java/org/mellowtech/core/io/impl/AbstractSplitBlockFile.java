@@ -30,6 +30,9 @@ import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 
@@ -44,19 +47,30 @@ import java.util.Map;
  * MAPPED_BLOCK_SIZE (4 bytes)
  * MAX_MAPPED_BLOCKS (4 bytes)
  * RESERVED_SIZE (4 bytes)
+ * FLAGS (4 bytes)
  * MAPPED_BLOCK_BIT_SET (4 bytes + bitset)
  * BLOCK_BIT_SET (4 bytes + bitset)
  * RESERVED
+ * MAPPED_CHECKSUMS
+ * CHECKSUMS
  * MAPPED_BLOCKS
  * BLOCKS
+ * <p>
+ * The two CHECKSUMS areas are only present if the file was created with checksums. They hold
+ * one CRC32C per block in the mapped region and one per block. Region blocks are checksummed
+ * when they are written and blocks handed out by {@link #getRegionMapped(int)} when the file
+ * is saved. Version 2 files have no flags and no checksums
+ * </p>
  * Created by msvens on 30/10/15.
  */
 abstract class AbstractSplitBlockFile implements SplitRecordFile {
 
   public static final String FILE_EXT = ".mlf";
+  static final int COMPACT_BATCH = 64;
   public static final int MIN_BLOCK_SIZE = 256;
   public static final int MAGIC_MARKER = 4444;
-  public static final int VERSION = 2;
+  public static final int VERSION = 3;
+  public static final int FLAG_CHECKSUMS = 1;
   protected Path p;
   protected FileChannel fc;
   protected int maxBlocks;
@@ -69,6 +83,18 @@ abstract class AbstractSplitBlockFile implements SplitRecordFile {
   protected int reserve;
   private int blockSize;
   private int mappedBlockSize;
+  private boolean checksums;
+  private double verifyRate = 1.0;
+  protected BlockChecksums checksumTable;
+  protected BlockChecksums regionChecksumTable;
+  //region blocks that callers can have written to through getRegionMapped since the last save
+  private final BitSet dirtyRegion = new BitSet();
+  //the header has to be written by the next save
+  private boolean headerDirty = true;
+  //the channel has been written to outside of the blocks since the last save
+  protected boolean channelDirty = false;
+  //updates share it, writes that allocate or free records and save take it exclusively
+  protected final FlushLock flushLock = new FlushLock();
 
   final private Logger logger = LoggerFactory.getLogger(AbstractSplitBlockFile.class);
 
@@ -81,6 +107,22 @@ abstract class AbstractSplitBlockFile implements SplitRecordFile {
 
   public AbstractSplitBlockFile(Path path, int blockSize, int maxBlocks,
                         int reserve, int mappedMaxBlocks, int mappedBlockSize) throws IOException {
+    this(path, blockSize, maxBlocks, reserve, mappedMaxBlocks, mappedBlockSize, false);
+  }
+
+  /**
+   * Open or create a split block file. If the file exists its own settings are used
+   * @param path path to file
+   * @param blockSize size of blocks
+   * @param maxBlocks max number of blocks
+   * @param reserve size of reserved area
+   * @param mappedMaxBlocks max number of blocks in the mapped region
+   * @param mappedBlockSize size of blocks in the mapped region
+   * @param checksums if true keep a checksum for each block in both regions
+   * @throws IOException if the file could not be opened or created
+   */
+  public AbstractSplitBlockFile(Path path, int blockSize, int maxBlocks, int reserve,
+                                int mappedMaxBlocks, int mappedBlockSize, boolean checksums) throws IOException {
 
     try {
       if (openFile(path)) return;
@@ -94,6 +136,7 @@ abstract class AbstractSplitBlockFile implements SplitRecordFile {
     this.blockSize = blockSize < MIN_BLOCK_SIZE ? MIN_BLOCK_SIZE : blockSize;
     this.mappedBlockSize = mappedBlockSize;
     this.mappedMaxBlocks = mappedMaxBlocks;
+    this.checksums = checksums;
     this.p = path;
     createFile(path);
     openFile(path);
@@ -101,12 +144,18 @@ abstract class AbstractSplitBlockFile implements SplitRecordFile {
 
   @Override
   public void clear() throws IOException {
-    bitSet.clear();
-    mappedBitSet.clear();
+    flushLock.beginExclusive();
+    try {
+      bitSet.clear();
+      mappedBitSet.clear();
+    } finally {
+      flushLock.endExclusive();
+    }
   }
 
   protected void truncate() throws IOException {
     fc.truncate(blocksOffset());
+    channelDirty = true;
   }
 
   @Override
@@ -124,7 +173,66 @@ abstract class AbstractSplitBlockFile implements SplitRecordFile {
 
   @Override
   public Map<Integer, Integer> compact() throws IOException {
-    return null;
+    return compact(Long.MAX_VALUE);
+  }
+
+  /**
+   * Moves the records with the highest record numbers to the lowest free records
+   * until all records are stored in 0 to size()-1. The file is then shrunk
+   * @param maxBytes max number of bytes to move in this call (at least one record is moved)
+   * @return map from old to new record number for the records that were moved
+   * @throws IOException if an error occurs
+   */
+  @Override
+  public Map<Integer, Integer> compact(long maxBytes) throws IOException {
+    flushLock.beginExclusive();
+    try {
+      return compactRecords(maxBytes);
+    } finally {
+      flushLock.endExclusive();
+    }
+  }
+
+  private Map<Integer, Integer> compactRecords(long maxBytes) throws IOException {
+    Map<Integer, Integer> moved = new HashMap<>();
+    long bytes = 0;
+    int to = bitSet.nextClearBit(0);
+    int from = bitSet.length() - 1;
+    while (to >= 0 && to < from && (bytes == 0 || bytes < maxBytes)) {
+      //move records in batches so that adjacent records are read and written together
+      int n = (int) Math.max(1, Math.min(COMPACT_BATCH, (maxBytes - bytes) / getBlockSize()));
+      int[] froms = new int[n];
+      int[] tos = new int[n];
+      int m = 0;
+      while (m < n && to >= 0 && to < from) {
+        froms[m] = from;
+        tos[m++] = to;
+        to = bitSet.nextClearBit(to + 1);
+        from = bitSet.previousSetBit(from - 1);
+      }
+      froms = Arrays.copyOf(froms, m);
+      tos = Arrays.copyOf(tos, m);
+      //froms are descending, so ascending records get consecutive windows of one array
+      byte[] batch = new byte[m * getBlockSize()];
+      ByteBuffer[] buffers = new ByteBuffer[m];
+      for (int i = 0; i < m; i++)
+        buffers[i] = ByteBuffer.wrap(batch, (m - 1 - i) * getBlockSize(), getBlockSize()).slice();
+      getAll(froms, buffers);
+      for (int i = 0; i < m; i++) {
+        buffers[i].flip();
+        bitSet.set(tos[i]);
+      }
+      updateAll(tos, buffers);
+      for (int i = 0; i < m; i++) {
+        delete(froms[i]);
+        moved.put(froms[i], tos[i]);
+      }
+      bytes += (long) m * getBlockSize();
+      from = bitSet.length() - 1;
+    }
+    if (to < 0 || to >= from)
+      shrink();
+    return moved;
   }
 
   @Override
@@ -139,34 +247,50 @@ abstract class AbstractSplitBlockFile implements SplitRecordFile {
 
   @Override
   public boolean delete(int record) throws IOException {
-    if (bitSet.contains(record)) {
-      bitSet.flip(record);
-      //saveBitSet(bitSet, bitBuffer);
-      return true;
+    flushLock.beginExclusive();
+    try {
+      if (bitSet.contains(record)) {
+        bitSet.flip(record);
+        return true;
+      }
+      return false;
+    } finally {
+      flushLock.endExclusive();
     }
-    return false;
   }
 
   @Override
   public void deleteAll() throws IOException {
-    bitSet.clear();
-    //saveBitSet(bitSet, bitBuffer);
+    flushLock.beginExclusive();
+    try {
+      bitSet.clear();
+    } finally {
+      flushLock.endExclusive();
+    }
   }
 
   @Override
   public boolean deleteRegion(int record) throws IOException {
-    if (mappedBitSet.contains(record)) {
-      mappedBitSet.flip(record);
-      //saveBitSet(mappedBitSet, mappedBitBuffer);
-      return true;
+    flushLock.beginExclusive();
+    try {
+      if (mappedBitSet.contains(record)) {
+        mappedBitSet.flip(record);
+        return true;
+      }
+      return false;
+    } finally {
+      flushLock.endExclusive();
     }
-    return false;
   }
 
   @Override
   public void deleteAllRegion() throws IOException {
-    mappedBitSet.clear();
-    //saveBitSet(mappedBitSet, mappedBitBuffer);
+    flushLock.beginExclusive();
+    try {
+      mappedBitSet.clear();
+    } finally {
+      flushLock.endExclusive();
+    }
   }
 
   @Override
@@ -212,19 +336,27 @@ abstract class AbstractSplitBlockFile implements SplitRecordFile {
   @Override
   public boolean getRegion(int record, byte[] buffer) throws IOException {
     if (mappedBitSet.contains(record)) {
-      mappedBlocks.position(record * getBlockSizeRegion());
-      if (buffer.length > getBlockSizeRegion()) {
-        mappedBlocks.get(buffer, 0, getBlockSizeRegion());
-      } else
-        mappedBlocks.get(buffer);
+      ByteBuffer bb = regionBlock(record);
+      if (checksums && BlockChecksums.sampled(verifyRate))
+        bb = regionChecksumTable.check(record, bb, this::regionChecksumCurrent, this::regionBlock).duplicate();
+      bb.get(buffer, 0, Math.min(buffer.length, getBlockSizeRegion()));
       return true;
     }
     return false;
   }
 
+  /**
+   * Blocks returned by this method are not verified until the file has been saved, since
+   * they can be written to directly
+   */
   @Override
   public MappedByteBuffer getRegionMapped(int record){
     if(mappedBitSet.contains(record)){
+      if (checksums) {
+        synchronized (dirtyRegion) {
+          dirtyRegion.set(record);
+        }
+      }
       MappedByteBuffer bb = (MappedByteBuffer) mappedBlocks.duplicate();
       bb.position(record * getBlockSizeRegion());
       bb.limit(bb.position()+getBlockSizeRegion());
@@ -243,27 +375,31 @@ abstract class AbstractSplitBlockFile implements SplitRecordFile {
 
   @Override
   public int insertRegion(byte[] bytes, int offset, int length) throws IOException {
-    int index = mappedBitSet.nextClearBit(0);
-    if (index >= mappedMaxBlocks)
-      throw new IOException("no blocks left in mapped region");
-    if (bytes != null && bytes.length > 0) {
-      int l = length > getBlockSizeRegion() ? getBlockSizeRegion() : length;
-      mappedBlocks.position(index * getBlockSizeRegion());
-      mappedBlocks.put(bytes, offset, l);
+    flushLock.beginExclusive();
+    try {
+      int index = mappedBitSet.nextClearBit(0);
+      if (index >= mappedMaxBlocks)
+        throw new IOException("no blocks left in mapped region");
+      writeRegion(index, bytes, offset, bytes != null && bytes.length > 0 ? length : 0);
+      mappedBitSet.set(index, true);
+      return index;
+    } finally {
+      flushLock.endExclusive(bytes == null ? 0 : Math.min(length, getBlockSizeRegion()));
     }
-    mappedBitSet.set(index, true);
-    //saveBitSet(mappedBitSet, mappedBitBuffer);
-    return index;
   }
 
   @Override
   public void insertRegion(int record, byte[] bytes, int offset, int length) throws IOException {
-    if (record > mappedMaxBlocks)
-      throw new IOException("record out of bounce");
+    flushLock.beginExclusive();
+    try {
+      if (record > mappedMaxBlocks)
+        throw new IOException("record out of bounce");
 
-    mappedBitSet.set(record, true);
-    //saveBitSet(mappedBitSet, mappedBitBuffer);
-    updateRegion(record, bytes, offset, length);
+      mappedBitSet.set(record, true);
+      updateRegion(record, bytes, offset, length);
+    } finally {
+      flushLock.endExclusive();
+    }
   }
 
   @Override
@@ -298,32 +434,91 @@ abstract class AbstractSplitBlockFile implements SplitRecordFile {
     Files.delete(p);
   }
 
+  /**
+   * Flush the file to disc. Only the changed parts of the bit sets are forced. Files that
+   * write their blocks through mapped buffers (and force them themselves) only force the
+   * channel if the header, reserve or file size changed since the last save
+   */
   @Override
   public boolean save() throws IOException {
-    ByteBuffer bb = ByteBuffer.allocate(headerSize());
-    bb.putInt(MAGIC_MARKER);
-    bb.putInt(VERSION);
-    bb.putInt(blockSize);
-    bb.putInt(maxBlocks);
-    bb.putInt(mappedBlockSize);
-    bb.putInt(mappedMaxBlocks);
-    bb.putInt(reserve);
-    bb.flip();
-    fc.write(bb, 0);
-    //saveBitSet(mappedBitSet, mappedBitBuffer);
-    mappedBitBuffer.force();
-    //saveBitSet(bitSet, bitBuffer);
-    bitBuffer.force();
+    flushLock.beginSave();
+    try {
+      return saveFile();
+    } finally {
+      flushLock.endSave();
+    }
+  }
+
+  @Override
+  public long takeBytesWritten() {
+    return flushLock.takeWritten();
+  }
+
+  private boolean saveFile() throws IOException {
+    if (headerDirty) {
+      ByteBuffer bb = ByteBuffer.allocate(headerSize());
+      bb.putInt(MAGIC_MARKER);
+      bb.putInt(VERSION);
+      bb.putInt(blockSize);
+      bb.putInt(maxBlocks);
+      bb.putInt(mappedBlockSize);
+      bb.putInt(mappedMaxBlocks);
+      bb.putInt(reserve);
+      bb.putInt(checksums ? FLAG_CHECKSUMS : 0);
+      bb.flip();
+      fc.write(bb, 0);
+      headerDirty = false;
+      channelDirty = true;
+    }
+    forceBitSet(mappedBitSet, mappedBitBuffer);
+    forceBitSet(bitSet, bitBuffer);
+    //the tables are not mapped when a new file is first saved
+    if (checksumTable != null) {
+      forceRegionChecksums();
+      regionChecksumTable.force();
+      checksumTable.force();
+    }
     mappedBlocks.force();
-    fc.force(true);
+    if (channelDirty || !blocksMapped()) {
+      fc.force(true);
+      channelDirty = false;
+    }
     return true;
   }
 
+  /**
+   * Update the checksums of the region blocks handed out by getRegionMapped
+   */
+  private void forceRegionChecksums() {
+    BitSet dirty;
+    synchronized (dirtyRegion) {
+      dirty = (BitSet) dirtyRegion.clone();
+    }
+    for (int r = dirty.nextSetBit(0); r >= 0; r = dirty.nextSetBit(r + 1)) {
+      regionChecksumTable.update(r, regionBlock(r));
+      synchronized (dirtyRegion) {
+        dirtyRegion.clear(r);
+      }
+    }
+  }
+
+  private static void forceBitSet(MappedBitSet bits, MappedByteBuffer buffer) {
+    int[] range = bits.takeDirtyRange();
+    if (range != null)
+      BlockMapper.force(buffer, range[0], range[1]);
+  }
+
   @Override
   public void setReserve(byte[] bytes) throws IOException {
-    ByteBuffer bb = ByteBuffer.wrap(bytes);
-    if (bytes.length > reservedSize()) bb.limit(reservedSize());
-    fc.write(bb, reservedOffset());
+    flushLock.beginWrite();
+    try {
+      ByteBuffer bb = ByteBuffer.wrap(bytes);
+      if (bytes.length > reservedSize()) bb.limit(reservedSize());
+      fc.write(bb, reservedOffset());
+      channelDirty = true;
+    } finally {
+      flushLock.endWrite(Math.min(bytes.length, reservedSize()));
+    }
   }
 
   @Override
@@ -347,13 +542,177 @@ abstract class AbstractSplitBlockFile implements SplitRecordFile {
 
   @Override
   public boolean updateRegion(int record, byte[] bytes, int offset, int length) throws IOException {
-    if (!mappedBitSet.contains(record)) return false;
-    mappedBlocks.position(record * getBlockSizeRegion());
+    flushLock.beginWrite();
+    try {
+      if (!mappedBitSet.contains(record)) return false;
+      writeRegion(record, bytes, offset, length);
+      return true;
+    } finally {
+      flushLock.endWrite(Math.min(length, getBlockSizeRegion()));
+    }
+  }
+
+  /**
+   * Write to the start of a region block and update its checksum
+   */
+  private void writeRegion(int record, byte[] bytes, int offset, int length) {
     int l = length > getBlockSizeRegion() ? getBlockSizeRegion() : length;
-    mappedBlocks.put(bytes, offset, l);
+    if (!checksums) {
+      if (l > 0)
+        regionBlock(record).put(bytes, offset, l);
+      return;
+    }
+    synchronized (regionChecksumTable.lock(record)) {
+      if (l > 0)
+        regionBlock(record).put(bytes, offset, l);
+      regionChecksumTable.put(record, regionBlock(record));
+    }
+  }
+
+  /**
+   * View of a region block
+   * @param record region record
+   * @return block with position 0 and limit getBlockSizeRegion()
+   */
+  protected ByteBuffer regionBlock(int record) {
+    ByteBuffer bb = mappedBlocks.duplicate();
+    bb.position(record * getBlockSizeRegion());
+    bb.limit(bb.position() + getBlockSizeRegion());
+    return bb.slice();
+  }
+
+  private boolean regionChecksumCurrent(int record) {
+    synchronized (dirtyRegion) {
+      return !dirtyRegion.get(record);
+    }
+  }
+
+  /**
+   * @return true if this file keeps a checksum for each block
+   */
+  public boolean checksums() {
+    return checksums;
+  }
+
+  public double getVerifyRate() {
+    return verifyRate;
+  }
+
+  /**
+   * Fraction of block reads that are verified against their checksum. The rate is
+   * not stored in the file. Has no effect if the file was created without checksums
+   * @param rate between 0 (never verify on read) and 1 (verify every read)
+   */
+  public void setVerifyRate(double rate) {
+    if (rate < 0 || rate > 1)
+      throw new IllegalArgumentException("verify rate has to be between 0 and 1");
+    this.verifyRate = rate;
+  }
+
+  /**
+   * Read a block from disc and check it against its checksum. The verify rate
+   * does not apply
+   * @param record record to verify
+   * @return false if the record exists and does not match its checksum
+   * @throws IOException if the block could not be read
+   * @throws UnsupportedOperationException if the file has no checksums
+   */
+  public boolean verify(int record) throws IOException {
+    if (!checksums)
+      throw new UnsupportedOperationException("file has no checksums");
+    return !bitSet.contains(record) || checksumTable.verify(record, this::checksumCurrent, this::readBlock);
+  }
+
+  /**
+   * Check a region block against its checksum. The verify rate does not apply
+   * @param record region record to verify
+   * @return false if the region record exists and does not match its checksum
+   * @throws IOException if the block could not be read
+   * @throws UnsupportedOperationException if the file has no checksums
+   */
+  public boolean verifyRegion(int record) throws IOException {
+    if (!checksums)
+      throw new UnsupportedOperationException("file has no checksums");
+    return !mappedBitSet.contains(record) ||
+        regionChecksumTable.verify(record, this::regionChecksumCurrent, this::regionBlock);
+  }
+
+  /**
+   * Store the checksum of a block
+   * @param record record
+   * @param block full block from position to limit. The position is not changed
+   */
+  protected void putChecksum(int record, ByteBuffer block) {
+    checksumTable.put(record, block);
+  }
+
+  /**
+   * Store the checksum of a block while holding the lock that readers take before
+   * they read a block again
+   * @param record record
+   * @param block full block from position to limit. The position is not changed
+   */
+  protected void updateChecksum(int record, ByteBuffer block) {
+    checksumTable.update(record, block);
+  }
+
+  /**
+   * Check if the stored checksum of a block is up to date. Files that let callers
+   * write blocks directly only update the checksums when they are saved
+   * @param record record
+   * @return true if the block can be verified against its checksum
+   */
+  protected boolean checksumCurrent(int record) {
     return true;
   }
 
+  /**
+   * Store the checksum of a block and write it to disc. Readers that see a block that
+   * does not match its checksum take the same lock and read it again
+   * @param record record
+   * @param block full block from position to limit. The position is advanced
+   * @throws IOException if the block could not be written
+   */
+  protected void writeChecked(int record, ByteBuffer block) throws IOException {
+    synchronized (checksumTable.lock(record)) {
+      putChecksum(record, block);
+      long offset = getOffset(record);
+      while (block.hasRemaining())
+        offset += fc.write(block, offset);
+    }
+  }
+
+  /**
+   * Verify a block if the read is sampled by the verify rate
+   * @param record record
+   * @param block full block from position to limit. The position is not changed
+   * @return the verified block, either block or the block read again
+   * @throws IOException if the block does not match its checksum or could not be read
+   */
+  protected ByteBuffer checkBlock(int record, ByteBuffer block) throws IOException {
+    if (!BlockChecksums.sampled(verifyRate))
+      return block;
+    return checksumTable.check(record, block, this::checksumCurrent, this::readBlock);
+  }
+
+  /**
+   * Read a full block from disc. Bytes after the end of file are 0
+   * @param record record to read
+   * @return block with position 0 and limit blockSize
+   * @throws IOException if the block could not be read
+   */
+  protected ByteBuffer readBlock(int record) throws IOException {
+    ByteBuffer bb = ByteBuffer.allocate(blockSize);
+    long offset = getOffset(record);
+    while (bb.hasRemaining()) {
+      int read = fc.read(bb, offset);
+      if (read < 0) break;
+      offset += read;
+    }
+    bb.clear();
+    return bb;
+  }
+
   protected long align(long offset) {
     return offset + (offset % blockSize);
   }
@@ -383,8 +742,29 @@ abstract class AbstractSplitBlockFile implements SplitRecordFile {
     close();
   }
 
+  /**
+   * Called when the file has been fully compacted. Default implementation truncates
+   * the file after the last record
+   * @throws IOException if an error occurs
+   */
+  protected void shrink() throws IOException {
+    long end = getOffset(bitSet.length());
+    if (fc.size() > end) {
+      fc.truncate(end);
+      channelDirty = true;
+    }
+  }
+
+  /**
+   * @return true if blocks are written through mapped buffers that are forced by the
+   * subclass rather than through the channel
+   */
+  protected boolean blocksMapped() {
+    return false;
+  }
+
   protected long getOffset(int record) {
-    return blocksOffset() + (record * blockSize);
+    return blocksOffset() + ((long) record * blockSize);
   }
 
   protected long headerOffset() {
@@ -392,7 +772,7 @@ abstract class AbstractSplitBlockFile implements SplitRecordFile {
   }
 
   protected int headerSize() {
-    return 28;
+    return 32;
   }
 
   protected boolean openFile(Path p) throws IOException {
@@ -407,13 +787,17 @@ abstract class AbstractSplitBlockFile implements SplitRecordFile {
     bb.flip();
     if (bb.limit() < headerSize()) throw new IOException("not a split block file");
     if (bb.getInt() != MAGIC_MARKER) throw new IOException("magic marker not present");
+    //version 2 files have the same layout without flags and checksums
     int fversion = bb.getInt();
-    if (fversion != VERSION) throw new IOException("file version dont match: " + fversion + "::" + VERSION);
+    if (fversion != VERSION && fversion != 2)
+      throw new IOException("file version dont match: " + fversion + "::" + VERSION);
     blockSize = bb.getInt();
     maxBlocks = bb.getInt();
     mappedBlockSize = bb.getInt();
     mappedMaxBlocks = bb.getInt();
     reserve = bb.getInt();
+    checksums = fversion > 2 && (bb.getInt() & FLAG_CHECKSUMS) != 0;
+    headerDirty = fversion != VERSION;
 
     //bitsets
     mappedBitBuffer = fc.map(FileChannel.MapMode.READ_WRITE, regionBitSetOffset(), regionBitSetSize());
@@ -430,6 +814,12 @@ abstract class AbstractSplitBlockFile implements SplitRecordFile {
     bitSet = BitSet.valueOf(lb);*/
     bitSet = new MappedBitSet(bitBuffer);
 
+    if (checksums) {
+      regionChecksumTable = new BlockChecksums(fc.map(FileChannel.MapMode.READ_WRITE,
+          regionChecksumOffset(), regionChecksumSize()));
+      checksumTable = new BlockChecksums(fc.map(FileChannel.MapMode.READ_WRITE, checksumOffset(), checksumSize()));
+    }
+
     //region blocks
     mappedBlocks = fc.map(FileChannel.MapMode.READ_WRITE, regionBlocksOffset(),
         regionBlocksSize());
@@ -449,9 +839,25 @@ abstract class AbstractSplitBlockFile implements SplitRecordFile {
   }
 
   protected long regionBlocksOffset() {
+    return checksums ? align(checksumOffset() + checksumSize()) : regionChecksumOffset();
+  }
+
+  protected long regionChecksumOffset() {
     return align(reservedOffset() + reservedSize());
   }
 
+  protected int regionChecksumSize() {
+    return checksums ? BlockChecksums.size(mappedMaxBlocks) : 0;
+  }
+
+  protected long checksumOffset() {
+    return regionChecksumOffset() + regionChecksumSize();
+  }
+
+  protected int checksumSize() {
+    return checksums ? BlockChecksums.size(maxBlocks) : 0;
+  }
+
   /*protected void saveBitSet(BitSet toSave, ByteBuffer bb) throws IOException {
     bb.clear();
     byte[] bits = toSave.toByteArray();
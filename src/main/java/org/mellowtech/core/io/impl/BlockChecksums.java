@@ -0,0 +1,160 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mellowtech.core.io.impl;
+
+import org.mellowtech.core.io.ChecksumException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntPredicate;
+import java.util.zip.CRC32C;
+
+/**
+ * A mapped table with one CRC32C per block. Writers store a checksum while holding the
+ * lock of its record, and readers that see a block that does not match take the same
+ * lock and read the block again before reporting it as corrupt
+ *
+ * @author Martin Svensson {@literal <msvens@gmail.com>}
+ * @since 4.0.0
+ */
+class BlockChecksums {
+
+  static final int LOCKS = 64;
+
+  /**
+   * Reads a full block of a record
+   */
+  interface BlockReader {
+    ByteBuffer read(int record) throws IOException;
+  }
+
+  private final MappedByteBuffer table;
+  private final Object[] locks = new Object[LOCKS];
+  {
+    for (int i = 0; i < locks.length; i++)
+      locks[i] = new Object();
+  }
+
+  /**
+   * @param table mapped area that holds 4 bytes per block
+   */
+  BlockChecksums(MappedByteBuffer table) {
+    this.table = table;
+  }
+
+  /**
+   * Size in bytes of a table
+   * @param blocks number of blocks
+   * @return size of table
+   */
+  static int size(int blocks) {
+    return blocks * 4;
+  }
+
+  /**
+   * Check if a read should be verified
+   * @param rate fraction of reads to verify
+   * @return true if this read should be verified
+   */
+  static boolean sampled(double rate) {
+    return rate >= 1 || (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate);
+  }
+
+  static int crc(ByteBuffer block) {
+    CRC32C crc = new CRC32C();
+    crc.update(block.duplicate());
+    return (int) crc.getValue();
+  }
+
+  /**
+   * Store the checksum of a block
+   * @param record record
+   * @param block full block from position to limit. The position is not changed
+   */
+  void put(int record, ByteBuffer block) {
+    table.putInt(record * 4, crc(block));
+  }
+
+  /**
+   * Store the checksum of a block while holding the lock of its record
+   * @param record record
+   * @param block full block from position to limit. The position is not changed
+   */
+  void update(int record, ByteBuffer block) {
+    synchronized (lock(record)) {
+      put(record, block);
+    }
+  }
+
+  boolean matches(int record, ByteBuffer block) {
+    return table.getInt(record * 4) == crc(block);
+  }
+
+  /**
+   * The lock held while a block and its checksum are written
+   * @param record record
+   * @return lock object
+   */
+  Object lock(int record) {
+    return locks[record & (LOCKS - 1)];
+  }
+
+  /**
+   * Check a block against its checksum. A block that does not match is read again
+   * while holding the lock of its record, since the first read can race with a write
+   * @param record record
+   * @param block full block from position to limit. The position is not changed
+   * @param current true if the checksum of a record is up to date
+   * @param reader reads the block again
+   * @return the verified block, either block or the block read again
+   * @throws IOException if the block does not match its checksum or could not be read
+   */
+  ByteBuffer check(int record, ByteBuffer block, IntPredicate current, BlockReader reader) throws IOException {
+    if (!current.test(record) || matches(record, block))
+      return block;
+    synchronized (lock(record)) {
+      if (!current.test(record))
+        return block;
+      ByteBuffer again = reader.read(record);
+      if (!matches(record, again))
+        throw new ChecksumException(record);
+      return again;
+    }
+  }
+
+  /**
+   * Read a block and check it against its checksum
+   * @param record record
+   * @param current true if the checksum of a record is up to date
+   * @param reader reads the block
+   * @return false if the block does not match its checksum
+   * @throws IOException if the block could not be read
+   */
+  boolean verify(int record, IntPredicate current, BlockReader reader) throws IOException {
+    if (!current.test(record) || matches(record, reader.read(record)))
+      return true;
+    synchronized (lock(record)) {
+      return !current.test(record) || matches(record, reader.read(record));
+    }
+  }
+
+  void force() {
+    table.force();
+  }
+}
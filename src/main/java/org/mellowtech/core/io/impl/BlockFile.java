@@ -40,15 +40,38 @@ public class BlockFile extends AbstractBlockFile {
     super(p, blockSize, maxBlocks, reserve);
   }
 
+  /**
+   * Open or create a block file
+   * @param p path to file
+   * @param blockSize size of blocks
+   * @param maxBlocks max number of blocks
+   * @param reserve size of reserved area
+   * @param checksums if true keep a CRC32C checksum for each block
+   * @throws IOException if the file could not be opened or created
+   */
+  public BlockFile(Path p, int blockSize, int maxBlocks, int reserve, boolean checksums) throws IOException {
+    super(p, blockSize, maxBlocks, reserve, checksums);
+  }
+
   @Override
   public void clear() throws IOException{
-    super.clear();
-    truncate();
+    flushLock.beginExclusive();
+    try {
+      super.clear();
+      truncate();
+    } finally {
+      flushLock.endExclusive();
+    }
   }
 
   @Override
   public boolean get(int record, byte[] buffer) throws IOException {
     if (bitSet.contains(record)) {
+      if (checksums()) {
+        ByteBuffer block = checkBlock(record, readBlock(record));
+        block.get(buffer, 0, Math.min(buffer.length, getBlockSize()));
+        return true;
+      }
       ByteBuffer bb = ByteBuffer.wrap(buffer);
       long offset = getOffset(record);
       fc.read(bb, offset);
@@ -58,12 +81,46 @@ public class BlockFile extends AbstractBlockFile {
   }
 
 
+  /**
+   * Reads adjacent records with a single scattering read
+   */
+  @Override
+  public int getAll(int[] records, ByteBuffer[] into) throws IOException {
+    if (checksums())
+      return super.getAll(records, into);
+    return VectoredIO.read(fc, this::getOffset, bitSet::contains, getBlockSize(), records, into);
+  }
+
+  /**
+   * Writes adjacent records with a single gathering write
+   */
+  @Override
+  public int updateAll(int[] records, ByteBuffer[] from) throws IOException {
+    if (checksums())
+      return super.updateAll(records, from);
+    int n = 0;
+    flushLock.beginWrite();
+    try {
+      n = VectoredIO.write(fc, this::getOffset, bitSet::contains, getBlockSize(), records, from);
+      return n;
+    } finally {
+      flushLock.endWrite((long) n * getBlockSize());
+    }
+  }
+
   @Override
   public void insert(int record, byte[] bytes, int offset, int length) throws IOException {
     if (record >= maxBlocks) throw new IOException("record out of block range");
-    bitSet.set(record, true);
-    update(record, bytes, offset, length);
-    //saveBitSet();
+    flushLock.beginExclusive();
+    try {
+      bitSet.set(record, true);
+      if (checksums())
+        writeBlock(record, bytes, offset, bytes == null ? 0 : length);
+      else
+        update(record, bytes, offset, length);
+    } finally {
+      flushLock.endExclusive(checksums() ? getBlockSize() : 0);
+    }
   }
 
   @Override
@@ -75,13 +132,36 @@ public class BlockFile extends AbstractBlockFile {
 
   @Override
   public boolean update(int record, byte[] bytes, int offset, int length) throws IOException {
-    if (bitSet.contains(record) && bytes != null && bytes.length > 0) {
-      long off = getOffset(record);
-      ByteBuffer bb = ByteBuffer.wrap(bytes, offset, length > getBlockSize() ? getBlockSize() : length);
-      fc.write(bb, off);
-      return true;
+    long written = 0;
+    flushLock.beginWrite();
+    try {
+      if (bitSet.contains(record) && bytes != null && bytes.length > 0) {
+        if (checksums()) {
+          writeBlock(record, bytes, offset, length);
+          written = getBlockSize();
+          return true;
+        }
+        long off = getOffset(record);
+        ByteBuffer bb = ByteBuffer.wrap(bytes, offset, length > getBlockSize() ? getBlockSize() : length);
+        written = fc.write(bb, off);
+        return true;
+      }
+      return false;
+    } finally {
+      flushLock.endWrite(written);
     }
-    return false;
+  }
+
+  /**
+   * Write a full block and its checksum. A block that is partially updated is
+   * first read from disc
+   */
+  private void writeBlock(int record, byte[] bytes, int offset, int length) throws IOException {
+    length = Math.min(length, getBlockSize());
+    ByteBuffer block = length < getBlockSize() ? readBlock(record) : ByteBuffer.allocate(getBlockSize());
+    if (length > 0)
+      block.put(bytes, offset, length).clear();
+    writeChecked(record, block);
   }
 
 }
@@ -18,20 +18,42 @@
 package org.mellowtech.core.io.impl;
 
 import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntConsumer;
 
 
 /**
- * Description...
+ * Maps the blocks of a file in regions of blocksToMap blocks.
+ * <p>
+ * Blocks that are written are marked as dirty, per region and at block granularity.
+ * Callers that write to a block through a mapped slice have to mark it with
+ * {@link #markDirty(int)}. Blocks can be marked from several threads while a force
+ * is running. force() only flushes regions with dirty blocks and,
+ * when the platform supports ranged force (Java 13+), only the runs of adjacent dirty blocks
+ * within them, so the cost of a save is proportional to what was written rather than
+ * to the size of the file.
+ * </p>
  * Created by msvens on 29/10/15.
  */
 public class BlockMapper {
 
-  private final List<MappedByteBuffer> blocks = new ArrayList<>();
+  //MappedByteBuffer.force(int,int) or null if not available
+  private static final MethodHandle RANGED_FORCE = rangedForce();
+
+  //regions are read without locking, added and removed under the mapper's lock.
+  //A region's dirty words are added before and removed after the region itself
+  private final List<MappedByteBuffer> blocks = new CopyOnWriteArrayList<>();
+  private final List<AtomicLongArray> dirty = new CopyOnWriteArrayList<>();
   private int blockSize;
   private int maxBlocks;
   private int blocksToMap;
@@ -46,12 +68,14 @@ public class BlockMapper {
     this.blocksToMap = calcBlocksToMap();
   }
 
-  public void expand(int toIndex) throws IOException {
+  public synchronized void expand(int toIndex) throws IOException {
     long pos = getBufferPos(toIndex);
     for (int i = blocks.size(); i <= pos; i++) {
-      long filePos = offset + (pos * blockSize * blocksToMap);
+      long filePos = offset + ((long) i * blockSize * blocksToMap);
       //System.out.println("expanding: "+filePos+" "+(blockSize*blocksToMap));
-      blocks.add(fc.map(FileChannel.MapMode.READ_WRITE, filePos, blockSize * blocksToMap));
+      MappedByteBuffer bb = fc.map(FileChannel.MapMode.READ_WRITE, filePos, blockSize * blocksToMap);
+      dirty.add(newDirty());
+      blocks.add(bb);
     }
     //System.out.println("expanded to record "+toIndex+" "+blocks.size());
   }
@@ -60,6 +84,39 @@ public class BlockMapper {
     return blocks.get(getBufferPos(record));
   }
 
+  /**
+   * Mark a block as modified so that it is flushed by the next force
+   * @param record block that was written to
+   */
+  public void markDirty(int record) {
+    AtomicLongArray d = dirty.get(getBufferPos(record));
+    int r = truncate(record);
+    long bit = 1L << r;
+    int idx = r >>> 6;
+    long w = d.get(idx);
+    while ((w & bit) == 0 && !d.compareAndSet(idx, w, w | bit))
+      w = d.get(idx);
+  }
+
+  /**
+   * Number of blocks that have been modified since the last force
+   * @return number of dirty blocks
+   */
+  public int dirtyBlocks() {
+    int n = 0;
+    for (AtomicLongArray d : dirty) {
+      for (int i = 0; i < d.length(); i++)
+        n += Long.bitCount(d.get(i));
+    }
+    return n;
+  }
+
+  /**
+   * Slice of a single block. Writes through the slice are not tracked, callers
+   * that write to it have to call {@link #markDirty(int)}
+   * @param record block to slice
+   * @return mapped block
+   */
   public MappedByteBuffer slice(int record){
     MappedByteBuffer bb = (MappedByteBuffer) find(record).duplicate();
     int r = truncate(record);
@@ -68,22 +125,90 @@ public class BlockMapper {
     return (MappedByteBuffer) bb.slice();
   }
 
+  /**
+   * Check if a block has been modified since the last force
+   * @param record block to check
+   * @return true if the block is dirty
+   */
+  public boolean isDirty(int record) {
+    int pos = getBufferPos(record);
+    if (pos >= dirty.size())
+      return false;
+    int r = truncate(record);
+    return (dirty.get(pos).get(r >>> 6) & (1L << r)) != 0;
+  }
+
+  /**
+   * Flush all dirty blocks to disc. Adjacent dirty blocks are flushed together.
+   * Blocks that are marked while the force is running are flushed by the next force
+   */
   public void force() {
-    for (MappedByteBuffer mpp : blocks) {
-      mpp.force();
+    force(null);
+  }
+
+  /**
+   * Flush all dirty blocks to disc and call beforeForce with each dirty block before
+   * it is flushed. The block is still marked as dirty when beforeForce is called,
+   * so {@link #isDirty(int)} does not report it as clean until it has been handled
+   * @param beforeForce called with each dirty record, can be null
+   */
+  public void force(IntConsumer beforeForce) {
+    List<MappedByteBuffer> regions;
+    List<AtomicLongArray> dirtyRegions;
+    synchronized (this) {
+      regions = new ArrayList<>(blocks);
+      dirtyRegions = new ArrayList<>(dirty);
     }
+    for (int i = 0; i < regions.size(); i++) {
+      //take the dirty bits before forcing so that new writes are not lost
+      AtomicLongArray d = dirtyRegions.get(i);
+      long[] taken = new long[d.length()];
+      boolean any = false;
+      for (int w = 0; w < taken.length; w++) {
+        long seen = d.get(w);
+        if (seen == 0)
+          continue;
+        if (beforeForce != null)
+          visit(beforeForce, i, w, seen);
+        taken[w] = d.getAndSet(w, 0);
+        //blocks marked after the visit
+        if (beforeForce != null && (taken[w] & ~seen) != 0)
+          visit(beforeForce, i, w, taken[w] & ~seen);
+        any = true;
+      }
+      if (!any)
+        continue;
+      MappedByteBuffer mpp = regions.get(i);
+      if (RANGED_FORCE == null) {
+        mpp.force();
+      } else {
+        BitSet bs = BitSet.valueOf(taken);
+        for (int from = bs.nextSetBit(0); from >= 0; from = bs.nextSetBit(from)) {
+          int to = bs.nextClearBit(from);
+          force(mpp, from * blockSize, (to - from) * blockSize);
+          from = to;
+        }
+      }
+    }
+  }
+
+  private void visit(IntConsumer c, int region, int word, long bits) {
+    int base = region * blocksToMap + (word << 6);
+    for (; bits != 0; bits &= bits - 1)
+      c.accept(base + Long.numberOfTrailingZeros(bits));
   }
 
   public int getBufferPos(int record) {
     return record / blocksToMap;
   }
 
-  public void map(long end) throws IOException {
+  public synchronized void map(long end) throws IOException {
     int region = blockSize * blocksToMap;
     long current = offset;
     while (current < end) {
       MappedByteBuffer bb = fc.map(FileChannel.MapMode.READ_WRITE, current, region);
       current += region;
+      dirty.add(newDirty());
       blocks.add(bb);
     }
   }
@@ -94,17 +219,26 @@ public class BlockMapper {
     }
   }
 
-  public void shrink(int lastRecord) throws IOException {
+  /**
+   * Unmap and truncate the regions after the one holding lastRecord
+   *
+   * @param lastRecord last record in use
+   * @return true if the file was truncated
+   * @throws IOException if the file could not be truncated
+   */
+  public synchronized boolean shrink(int lastRecord) throws IOException {
     int blockNo = getBufferPos(lastRecord);
     boolean removed = false;
     for (int i = blocks.size() - 1; i > blockNo; i--) {
       blocks.remove(i);
+      dirty.remove(i);
       removed = true;
     }
     if (removed) {
       long region =  ((long) blockSize) * blocksToMap;
       fc.truncate(offset + ((blockNo + 1) * region));
     }
+    return removed;
   }
 
   public String toString(){
@@ -118,6 +252,40 @@ public class BlockMapper {
     return record - (getBufferPos(record) * blocksToMap);
   }
 
+  /**
+   * Force a range of a mapped buffer. The whole buffer is forced if the platform
+   * does not support ranged force
+   * @param mpp buffer to force
+   * @param index start of range
+   * @param length length of range
+   */
+  static void force(MappedByteBuffer mpp, int index, int length) {
+    if (RANGED_FORCE == null) {
+      mpp.force();
+      return;
+    }
+    try {
+      MappedByteBuffer ignore = (MappedByteBuffer) RANGED_FORCE.invokeExact(mpp, index, length);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new Error(t);
+    }
+  }
+
+  private static MethodHandle rangedForce() {
+    try {
+      return MethodHandles.publicLookup().findVirtual(MappedByteBuffer.class, "force",
+          MethodType.methodType(MappedByteBuffer.class, int.class, int.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      return null;
+    }
+  }
+
+  private AtomicLongArray newDirty() {
+    return new AtomicLongArray((blocksToMap + 63) >>> 6);
+  }
+
   private int calcBlocksToMap() {
     int region4 = 1024 * 1024 * 4;
     int region8 = region4 * 2;
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mellowtech.core.io.impl;
+
+import org.mellowtech.core.io.RecordFile;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Walks the used blocks of a block file that keeps checksums and verifies each block
+ * against its checksum. The number of bytes read per second can be bounded so that
+ * a scrub can run in the background without starving other readers.
+ * <p>
+ * Blocks are verified without blocking writers. A block that does not match its checksum
+ * is read again under the lock that the file holds while writing a block and its
+ * checksum, so a scrub that races with an update does not report false corruption.
+ * </p>
+ *
+ * @author Martin Svensson {@literal <msvens@gmail.com>}
+ * @since 4.0.0
+ */
+public class BlockScrubber implements Closeable {
+
+  private final AbstractBlockFile file;
+  private final long bytesPerSecond;
+  private final ExecutorService executor;
+  private volatile boolean closed = false;
+  private volatile long verified = 0;
+
+  /**
+   * Create a new scrubber
+   *
+   * @param file           file to scrub. Has to be a block file with checksums
+   * @param bytesPerSecond max number of bytes to read per second. If 0 there is no limit
+   */
+  public BlockScrubber(RecordFile file, long bytesPerSecond) {
+    if (!(file instanceof AbstractBlockFile) || !((AbstractBlockFile) file).checksums())
+      throw new IllegalArgumentException("file does not keep block checksums");
+    if (bytesPerSecond < 0)
+      throw new IllegalArgumentException("bytesPerSecond cannot be negative");
+    this.file = (AbstractBlockFile) file;
+    this.bytesPerSecond = bytesPerSecond;
+    this.executor = Executors.newSingleThreadExecutor(r -> {
+      Thread t = new Thread(r, "block-file-scrub");
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  /**
+   * @return number of blocks verified so far
+   */
+  public long getVerified() {
+    return verified;
+  }
+
+  /**
+   * Verify all used blocks in the calling thread
+   *
+   * @return records that did not match their checksum
+   * @throws IOException if a block could not be read
+   */
+  public List<Integer> scrub() throws IOException {
+    List<Integer> corrupt = new ArrayList<>();
+    long start = System.nanoTime();
+    long bytes = 0;
+    int record = 0;
+    while (!closed) {
+      if (!file.isOpen())
+        break;
+      record = file.bitSet.nextSetBit(record);
+      if (record < 0)
+        break;
+      if (!file.verify(record))
+        corrupt.add(record);
+      verified++;
+      record++;
+      bytes += file.getBlockSize();
+      throttle(start, bytes);
+    }
+    return corrupt;
+  }
+
+  /**
+   * Verify all used blocks in a background thread
+   *
+   * @return future that completes with the records that did not match their checksum
+   */
+  public CompletableFuture<List<Integer>> scrubAsync() {
+    CompletableFuture<List<Integer>> f = new CompletableFuture<>();
+    if (closed) {
+      f.completeExceptionally(new IOException("scrubber is closed"));
+      return f;
+    }
+    executor.execute(() -> {
+      try {
+        f.complete(scrub());
+      } catch (Throwable t) {
+        f.completeExceptionally(t);
+      }
+    });
+    return f;
+  }
+
+  /**
+   * Stop any running scrub. A running scrub completes with the corrupt
+   * records found so far
+   */
+  @Override
+  public void close() {
+    closed = true;
+    executor.shutdown();
+    try {
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void throttle(long start, long bytes) {
+    if (bytesPerSecond == 0)
+      return;
+    long ahead = (long) (bytes * 1e9 / bytesPerSecond) - (System.nanoTime() - start);
+    if (ahead <= 0)
+      return;
+    try {
+      TimeUnit.NANOSECONDS.sleep(ahead);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      closed = true;
+    }
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mellowtech.core.io.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Block file that reads and writes blocks through a {@link PageCache}. Dirty blocks
+ * are written back when they are evicted from the cache or when the file is saved.
+ * The file format is the same as for {@link BlockFile}
+ *
+ * @author Martin Svensson {@literal <msvens@gmail.com>}
+ * @since 4.0.0
+ */
+public class CachedBlockFile extends AbstractBlockFile {
+
+  private final PageCache cache;
+
+  public CachedBlockFile(Path p, int frames, int shards) throws IOException {
+    super(p);
+    cache = new PageCache(frames, shards, getBlockSize(), new BlockIO());
+  }
+
+  public CachedBlockFile(Path p, int blockSize, int maxBlocks, int reserve, int frames, int shards) throws IOException {
+    this(p, blockSize, maxBlocks, reserve, frames, shards, false);
+  }
+
+  /**
+   * Open or create a cached block file. Checksums are verified when a block is read into
+   * the cache and updated when a block is written back
+   * @param p path to file
+   * @param blockSize size of blocks
+   * @param maxBlocks max number of blocks
+   * @param reserve size of reserved area
+   * @param frames number of cached blocks
+   * @param shards number of cache shards
+   * @param checksums if true keep a CRC32C checksum for each block
+   * @throws IOException if the file could not be opened or created
+   */
+  public CachedBlockFile(Path p, int blockSize, int maxBlocks, int reserve, int frames, int shards,
+                         boolean checksums) throws IOException {
+    super(p, blockSize, maxBlocks, reserve, checksums);
+    cache = new PageCache(frames, shards, getBlockSize(), new BlockIO());
+  }
+
+  /**
+   * The cache used by this file
+   * @return page cache
+   */
+  public PageCache getCache() {
+    return cache;
+  }
+
+  @Override
+  public void clear() throws IOException{
+    flushLock.beginExclusive();
+    try {
+      cache.clear();
+      super.clear();
+      truncate();
+    } finally {
+      flushLock.endExclusive();
+    }
+  }
+
+  @Override
+  public boolean delete(int record) throws IOException {
+    flushLock.beginExclusive();
+    try {
+      if (super.delete(record)) {
+        cache.invalidate(record);
+        return true;
+      }
+      return false;
+    } finally {
+      flushLock.endExclusive();
+    }
+  }
+
+  @Override
+  public boolean get(int record, byte[] buffer) throws IOException {
+    if (bitSet.contains(record)) {
+      cache.read(record, buffer);
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  public void insert(int record, byte[] bytes, int offset, int length) throws IOException {
+    if (record >= maxBlocks) throw new IOException("record out of block range");
+    flushLock.beginExclusive();
+    try {
+      bitSet.set(record, true);
+      if (checksums()) {
+        //write a full block so that the stale contents of a new record are never verified
+        byte[] block = new byte[getBlockSize()];
+        if (bytes != null)
+          System.arraycopy(bytes, offset, block, 0, Math.min(length, block.length));
+        cache.write(record, block, 0, block.length);
+      } else
+        update(record, bytes, offset, length);
+    } finally {
+      flushLock.endExclusive(checksums() ? getBlockSize() : 0);
+    }
+  }
+
+  @Override
+  public CachedBlockFile move(Path to) throws IOException {
+    close();
+    Files.move(p, to);
+    return new CachedBlockFile(to, cache.frames(), cache.shards());
+  }
+
+  @Override
+  public boolean save() throws IOException {
+    flushLock.beginSave();
+    try {
+      //the cache is not created when a new file is first saved
+      if (cache != null)
+        cache.flush();
+      return super.save();
+    } finally {
+      flushLock.endSave();
+    }
+  }
+
+  @Override
+  public boolean update(int record, byte[] bytes, int offset, int length) throws IOException {
+    long written = 0;
+    flushLock.beginWrite();
+    try {
+      if (bitSet.contains(record) && bytes != null && bytes.length > 0) {
+        cache.write(record, bytes, offset, length);
+        written = Math.min(length, getBlockSize());
+        return true;
+      }
+      return false;
+    } finally {
+      flushLock.endWrite(written);
+    }
+  }
+
+  private class BlockIO implements PageCache.PageIO {
+    @Override
+    public void read(int record, ByteBuffer bb) throws IOException {
+      ByteBuffer page = bb.duplicate();
+      long offset = getOffset(record);
+      while (bb.hasRemaining()) {
+        int read = fc.read(bb, offset);
+        if (read < 0) break;
+        offset += read;
+      }
+      if (checksums() && bitSet.contains(record)) {
+        ByteBuffer checked = checkBlock(record, page);
+        if (checked != page)
+          page.duplicate().put(checked);
+      }
+    }
+
+    @Override
+    public void write(int record, ByteBuffer bb) throws IOException {
+      if (checksums()) {
+        writeChecked(record, bb);
+        return;
+      }
+      long offset = getOffset(record);
+      while (bb.hasRemaining())
+        offset += fc.write(bb, offset);
+    }
+  }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mellowtech.core.io.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Split block file that reads and writes its (non mapped) blocks through a {@link PageCache}.
+ * The region blocks are memory mapped just as in {@link SplitBlockFile} and the file format
+ * is the same
+ *
+ * @author Martin Svensson {@literal <msvens@gmail.com>}
+ * @since 4.0.0
+ */
+public class CachedSplitBlockFile extends AbstractSplitBlockFile {
+
+  private final PageCache cache;
+
+  public CachedSplitBlockFile(Path path, int frames, int shards) throws IOException {
+    super(path);
+    cache = new PageCache(frames, shards, getBlockSize(), new BlockIO());
+  }
+
+  public CachedSplitBlockFile(Path path, int blockSize, int maxBlocks, int reserve,
+                              int mappedMaxBlocks, int mappedBlockSize, int frames, int shards) throws IOException {
+    this(path, blockSize, maxBlocks, reserve, mappedMaxBlocks, mappedBlockSize, frames, shards, false);
+  }
+
+  /**
+   * Open or create a cached split block file. Checksums of blocks are verified when a block
+   * is read into the cache and updated when a block is written back
+   * @param path path to file
+   * @param blockSize size of blocks
+   * @param maxBlocks max number of blocks
+   * @param reserve size of reserved area
+   * @param mappedMaxBlocks max number of blocks in the mapped region
+   * @param mappedBlockSize size of blocks in the mapped region
+   * @param frames number of cached blocks
+   * @param shards number of cache shards
+   * @param checksums if true keep a CRC32C checksum for each block in both regions
+   * @throws IOException if the file could not be opened or created
+   */
+  public CachedSplitBlockFile(Path path, int blockSize, int maxBlocks, int reserve, int mappedMaxBlocks,
+                              int mappedBlockSize, int frames, int shards, boolean checksums) throws IOException {
+    super(path, blockSize, maxBlocks, reserve, mappedMaxBlocks, mappedBlockSize, checksums);
+    cache = new PageCache(frames, shards, getBlockSize(), new BlockIO());
+  }
+
+  /**
+   * The cache used by this file
+   * @return page cache
+   */
+  public PageCache getCache() {
+    return cache;
+  }
+
+  @Override
+  public void clear() throws IOException {
+    flushLock.beginExclusive();
+    try {
+      cache.clear();
+      super.clear();
+      truncate();
+    } finally {
+      flushLock.endExclusive();
+    }
+  }
+
+  @Override
+  public boolean delete(int record) throws IOException {
+    flushLock.beginExclusive();
+    try {
+      if (super.delete(record)) {
+        cache.invalidate(record);
+        return true;
+      }
+      return false;
+    } finally {
+      flushLock.endExclusive();
+    }
+  }
+
+  @Override
+  public void deleteAll() throws IOException {
+    flushLock.beginExclusive();
+    try {
+      cache.clear();
+      super.deleteAll();
+    } finally {
+      flushLock.endExclusive();
+    }
+  }
+
+  @Override
+  public boolean get(int record, byte[] buffer) throws IOException {
+    if (bitSet.contains(record)) {
+      cache.read(record, buffer);
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  public void insert(int record, byte[] bytes, int offset, int length) throws IOException {
+    flushLock.beginExclusive();
+    try {
+      if (record >= maxBlocks)
+        throw new IOException("record out of bounce");
+      bitSet.set(record, true);
+      if (checksums())
+        writeBlock(record, bytes, offset, length);
+      else
+        update(record, bytes, offset, length);
+    } finally {
+      flushLock.endExclusive(checksums() ? getBlockSize() : 0);
+    }
+  }
+
+  @Override
+  public int insert(byte[] bytes, int offset, int length) throws IOException {
+    flushLock.beginExclusive();
+    try {
+      if (getFreeBlocks() < 1) throw new IOException("no free blocks");
+      int index = bitSet.nextClearBit(0);
+      if (index >= maxBlocks)
+        throw new IOException("no blocks left");
+      bitSet.set(index, true);
+      if (checksums())
+        writeBlock(index, bytes, offset, length);
+      else if (bytes != null && length > 0)
+        cache.write(index, bytes, offset, length);
+      return index;
+    } finally {
+      flushLock.endExclusive(checksums() ? getBlockSize() : bytes == null ? 0 : Math.min(length, getBlockSize()));
+    }
+  }
+
+  /**
+   * Write a full block so that the stale contents of a new record are never verified
+   */
+  private void writeBlock(int record, byte[] bytes, int offset, int length) throws IOException {
+    byte[] block = new byte[getBlockSize()];
+    if (bytes != null)
+      System.arraycopy(bytes, offset, block, 0, Math.min(length, block.length));
+    cache.write(record, block, 0, block.length);
+  }
+
+  @Override
+  public CachedSplitBlockFile move(Path to) throws IOException {
+    close();
+    Files.move(p, to);
+    return new CachedSplitBlockFile(to, cache.frames(), cache.shards());
+  }
+
+  @Override
+  public boolean save() throws IOException {
+    flushLock.beginSave();
+    try {
+      //the cache is not created when a new file is first saved
+      if (cache != null)
+        cache.flush();
+      return super.save();
+    } finally {
+      flushLock.endSave();
+    }
+  }
+
+  @Override
+  public boolean update(int record, byte[] bytes, int offset, int length) throws IOException {
+    flushLock.beginWrite();
+    try {
+      if (!bitSet.contains(record)) return false;
+      cache.write(record, bytes, offset, length);
+      return true;
+    } finally {
+      flushLock.endWrite(Math.min(length, getBlockSize()));
+    }
+  }
+
+  private class BlockIO implements PageCache.PageIO {
+    @Override
+    public void read(int record, ByteBuffer bb) throws IOException {
+      ByteBuffer page = bb.duplicate();
+      long offset = getOffset(record);
+      while (bb.hasRemaining()) {
+        int read = fc.read(bb, offset);
+        if (read < 0) break;
+        offset += read;
+      }
+      if (checksums() && bitSet.contains(record)) {
+        ByteBuffer checked = checkBlock(record, page);
+        if (checked != page)
+          page.duplicate().put(checked);
+      }
+    }
+
+    @Override
+    public void write(int record, ByteBuffer bb) throws IOException {
+      if (checksums()) {
+        writeChecked(record, bb);
+        return;
+      }
+      long offset = getOffset(record);
+      while (bb.hasRemaining())
+        offset += fc.write(bb, offset);
+    }
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mellowtech.core.io.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Lock that orders the write paths of a record file against its save. Writers that only
+ * change the content of existing records share the lock and can run concurrently with
+ * each other. Writers that allocate or free records (and so change the bit set or free
+ * list of the file) and saves take it exclusively, so two inserts never get the same
+ * record and a save never sees a half done write. The lock also counts the bytes written
+ * since they were last reported to a {@link org.mellowtech.core.io.FlushScheduler}
+ *
+ * @author Martin Svensson {@literal <msvens@gmail.com>}
+ * @since 4.0.0
+ */
+final class FlushLock {
+
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private final AtomicLong written = new AtomicLong();
+
+  void beginWrite() {
+    lock.readLock().lock();
+  }
+
+  void endWrite() {
+    lock.readLock().unlock();
+  }
+
+  void endWrite(long bytes) {
+    written.addAndGet(bytes);
+    lock.readLock().unlock();
+  }
+
+  void beginExclusive() {
+    lock.writeLock().lock();
+  }
+
+  void endExclusive() {
+    lock.writeLock().unlock();
+  }
+
+  void endExclusive(long bytes) {
+    written.addAndGet(bytes);
+    lock.writeLock().unlock();
+  }
+
+  void beginSave() {
+    lock.writeLock().lock();
+  }
+
+  void endSave() {
+    lock.writeLock().unlock();
+  }
+
+  long takeWritten() {
+    return written.getAndSet(0);
+  }
+}
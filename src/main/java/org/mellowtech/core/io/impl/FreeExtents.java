@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mellowtech.core.io.impl;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Best fit allocator of free extents (offset and size) in a file. Freed extents are
+ * coalesced with adjacent free extents. Allocations take the smallest free extent that
+ * fits and return the remainder to the free extents
+ *
+ * @author Martin Svensson {@literal <msvens@gmail.com>}
+ * @since 4.0.0
+ */
+class FreeExtents {
+
+  //offset -> size
+  private final TreeMap<Long, Long> byOffset = new TreeMap<>();
+  //{offset, size} ordered by size and then offset
+  private final TreeSet<long[]> bySize = new TreeSet<>((o1, o2) -> {
+    int cmp = Long.compare(o1[1], o2[1]);
+    return cmp != 0 ? cmp : Long.compare(o1[0], o2[0]);
+  });
+  private long freeBytes = 0;
+
+  /**
+   * Allocate an extent from the smallest free extent that fits
+   * @param size bytes to allocate
+   * @return offset of the allocated extent or -1 if no free extent is large enough
+   */
+  long allocate(long size) {
+    long[] e = bySize.ceiling(new long[]{-1, size});
+    if (e == null)
+      return -1;
+    remove(e[0], e[1]);
+    if (e[1] > size)
+      add(e[0] + size, e[1] - size);
+    return e[0];
+  }
+
+  /**
+   * Remove the last free extent if it ends at the end of the file, so that a
+   * record can be appended starting at the free extent
+   * @param end end of file
+   * @return offset of the last free extent or -1 if no free extent ends at end
+   */
+  long allocateTail(long end) {
+    Map.Entry<Long, Long> last = byOffset.lastEntry();
+    if (last == null || last.getKey() + last.getValue() != end)
+      return -1;
+    remove(last.getKey(), last.getValue());
+    return last.getKey();
+  }
+
+  /**
+   * Free an extent and merge it with adjacent free extents
+   * @param offset offset of extent
+   * @param size size of extent
+   */
+  void free(long offset, long size) {
+    if (size <= 0)
+      return;
+    Map.Entry<Long, Long> prev = byOffset.floorEntry(offset);
+    if (prev != null && prev.getKey() + prev.getValue() == offset) {
+      remove(prev.getKey(), prev.getValue());
+      offset = prev.getKey();
+      size += prev.getValue();
+    }
+    Long next = byOffset.get(offset + size);
+    if (next != null) {
+      remove(offset + size, next);
+      size += next;
+    }
+    add(offset, size);
+  }
+
+  void clear() {
+    byOffset.clear();
+    bySize.clear();
+    freeBytes = 0;
+  }
+
+  /**
+   * @return number of free extents
+   */
+  int extents() {
+    return byOffset.size();
+  }
+
+  /**
+   * @return total number of free bytes
+   */
+  long freeBytes() {
+    return freeBytes;
+  }
+
+  private void add(long offset, long size) {
+    byOffset.put(offset, size);
+    bySize.add(new long[]{offset, size});
+    freeBytes += size;
+  }
+
+  private void remove(long offset, long size) {
+    byOffset.remove(offset);
+    bySize.remove(new long[]{offset, size});
+    freeBytes -= size;
+  }
+}
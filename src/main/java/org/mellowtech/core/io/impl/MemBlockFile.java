@@ -38,18 +38,84 @@ public class MemBlockFile extends AbstractBlockFile {
   }
 
   public MemBlockFile(Path p, int blockSize, int maxBlocks, int reserve) throws IOException {
-    super(p, blockSize, maxBlocks, reserve);
+    this(p, blockSize, maxBlocks, reserve, false);
+  }
+
+  /**
+   * Create a new mapped block file. Blocks can be written directly through the mapped
+   * buffers so checksums are computed when the file is saved, for the blocks that are
+   * dirty. A dirty block is not verified until it has been saved
+   *
+   * @param p path to the file
+   * @param blockSize size of each block
+   * @param maxBlocks maximum number of blocks
+   * @param reserve size of the reserved area
+   * @param checksums if true keep a checksum for each block
+   * @throws IOException if the file could not be created
+   */
+  public MemBlockFile(Path p, int blockSize, int maxBlocks, int reserve, boolean checksums) throws IOException {
+    super(p, blockSize, maxBlocks, reserve, checksums);
     bmap = new BlockMapper(fc, blocksOffset(), blockSize, maxBlocks);
     bmap.map(fc.size());
   }
 
   @Override
   public void clear() throws IOException{
-    super.clear();
-    bmap = null;
-    truncate();
-    bmap = new BlockMapper(fc, blocksOffset(), getBlockSize(), maxBlocks);
-    bmap.map(fc.size());
+    flushLock.beginExclusive();
+    try {
+      super.clear();
+      bmap = null;
+      truncate();
+      bmap = new BlockMapper(fc, blocksOffset(), getBlockSize(), maxBlocks);
+      bmap.map(fc.size());
+    } finally {
+      flushLock.endExclusive();
+    }
+  }
+
+  /**
+   * Copies adjacent records with a single bulk copy
+   */
+  @Override
+  public int getAll(int[] records, ByteBuffer[] into) throws IOException {
+    if (checksums())
+      return super.getAll(records, into);
+    return VectoredIO.copy(bmap::find, r -> bmap.truncate(r) * getBlockSize(), bitSet::contains,
+        getBlockSize(), records, into);
+  }
+
+  @Override
+  public int updateAll(int[] records, ByteBuffer[] from) {
+    VectoredIO.checkLengths(records, from);
+    int n = 0;
+    long written = 0;
+    flushLock.beginWrite();
+    try {
+      for (int i = 0; i < records.length; i++) {
+        if (!bitSet.contains(records[i])) continue;
+        bmap.markDirty(records[i]);
+        ByteBuffer bb = from[i].duplicate();
+        bb.limit(bb.position() + Math.min(getBlockSize(), bb.remaining()));
+        written += bb.remaining();
+        block(records[i], bb.remaining()).put(bb);
+        from[i].position(bb.position());
+        n++;
+      }
+      return n;
+    } finally {
+      flushLock.endWrite(written);
+    }
+  }
+
+  /**
+   * View of the first bytes of a block
+   */
+  private ByteBuffer block(int record, int length) {
+    ByteBuffer bb = bmap.find(record).duplicate();
+    int pos = bmap.truncate(record) * getBlockSize();
+    bb.limit(pos + Math.min(getBlockSize(), length));
+    bb.position(pos);
+    return bb;
   }
 
   @Override
@@ -57,17 +123,18 @@ public class MemBlockFile extends AbstractBlockFile {
     return bitSet.contains(record) ? bmap.slice(record) : null;
   }
 
+  @Override
+  public void markDirty(int record) {
+    bmap.markDirty(record);
+  }
+
   @Override
   public boolean get(int record, byte[] buffer) throws IOException {
     if (bitSet.contains(record)) {
-      //ByteBuffer bb = findBuffer(record);
-      ByteBuffer bb = bmap.find(record);
-      record = bmap.truncate(record);
-      bb.position(record * getBlockSize());
-      if (buffer.length > getBlockSize())
-        bb.get(buffer, 0, getBlockSize());
-      else
-        bb.get(buffer);
+      ByteBuffer bb = block(record, getBlockSize());
+      if (checksums())
+        bb = checkBlock(record, bb).duplicate();
+      bb.get(buffer, 0, Math.min(buffer.length, getBlockSize()));
       return true;
     }
     return false;
@@ -77,11 +144,16 @@ public class MemBlockFile extends AbstractBlockFile {
   public void insert(int record, byte[] bytes, int offset, int length) throws IOException {
     if (record >= maxBlocks)
       throw new IOException("record out of range");
-    bmap.maybeExpand(record);
-    bitSet.set(record, true);
-    //saveBitSet();
-    if(bytes != null && length > 0)
-      update(record, bytes, offset, length);
+    flushLock.beginExclusive();
+    try {
+      bmap.maybeExpand(record);
+      bmap.markDirty(record);
+      bitSet.set(record, true);
+      if (bytes != null && length > 0)
+        update(record, bytes, offset, length);
+    } finally {
+      flushLock.endExclusive();
+    }
   }
 
   @Override
@@ -93,28 +165,69 @@ public class MemBlockFile extends AbstractBlockFile {
 
   @Override
   public boolean update(int record, byte[] bytes, int offset, int length) throws IOException {
-    if (!bitSet.contains(record)) return false;
-    ByteBuffer bb = bmap.find(record);
-    record = bmap.truncate(record);
-    bb.position(record * getBlockSize());
-    bb.put(bytes, offset, length > getBlockSize() ? getBlockSize() : length);
-    return true;
+    int n = length > getBlockSize() ? getBlockSize() : length;
+    flushLock.beginWrite();
+    try {
+      if (!bitSet.contains(record)) {
+        n = 0;
+        return false;
+      }
+      bmap.markDirty(record);
+      ByteBuffer bb = bmap.find(record).duplicate();
+      record = bmap.truncate(record);
+      bb.position(record * getBlockSize());
+      bb.put(bytes, offset, n);
+      return true;
+    } finally {
+      flushLock.endWrite(n);
+    }
   }
 
   @Override
   public boolean save() throws IOException {
-    if (bmap != null) bmap.force();
-    super.save();
+    flushLock.beginSave();
+    try {
+      if (bmap != null) bmap.force(checksums() ? this::updateChecksum : null);
+      super.save();
+      return true;
+    } finally {
+      flushLock.endSave();
+    }
+  }
+
+  private void updateChecksum(int record) {
+    if (bitSet.contains(record))
+      updateChecksum(record, block(record, getBlockSize()));
+  }
+
+  @Override
+  protected boolean checksumCurrent(int record) {
+    return !bmap.isDirty(record);
+  }
+
+  @Override
+  protected boolean blocksMapped() {
     return true;
   }
 
+  @Override
+  protected void shrink() {
+    //the mapped regions are shrunk on delete
+  }
+
   @Override
   public boolean delete(int record) throws IOException {
-    if (super.delete(record)) {
-      bmap.shrink(getLastRecord());
-      return true;
+    flushLock.beginExclusive();
+    try {
+      if (super.delete(record)) {
+        if (bmap.shrink(getLastRecord()))
+          channelDirty = true;
+        return true;
+      }
+      return false;
+    } finally {
+      flushLock.endExclusive();
     }
-    return false;
   }
 
   protected int getLastRecord() {
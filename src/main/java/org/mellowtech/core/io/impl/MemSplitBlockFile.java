@@ -40,51 +40,136 @@ public class MemSplitBlockFile extends AbstractSplitBlockFile {
 
   public MemSplitBlockFile(Path path, int blockSize, int maxBlocks,
                            int reserve, int mappedMaxBlocks, int mappedBlockSize) throws IOException{
-    super(path, blockSize, maxBlocks, reserve, mappedMaxBlocks, mappedBlockSize);
+    this(path, blockSize, maxBlocks, reserve, mappedMaxBlocks, mappedBlockSize, false);
+  }
+
+  /**
+   * Create a new split file where both regions are mapped. Blocks can be written directly
+   * through the mapped buffers so checksums of blocks are computed when the file is saved,
+   * for the blocks that are dirty. A dirty block is not verified until it has been saved
+   *
+   * @param path path to the file
+   * @param blockSize size of each block
+   * @param maxBlocks maximum number of blocks
+   * @param reserve size of the reserved area
+   * @param mappedMaxBlocks max number of blocks in the mapped region
+   * @param mappedBlockSize size of blocks in the mapped region
+   * @param checksums if true keep a checksum for each block in both regions
+   * @throws IOException if the file could not be created
+   */
+  public MemSplitBlockFile(Path path, int blockSize, int maxBlocks, int reserve,
+                           int mappedMaxBlocks, int mappedBlockSize, boolean checksums) throws IOException{
+    super(path, blockSize, maxBlocks, reserve, mappedMaxBlocks, mappedBlockSize, checksums);
     bmap = new BlockMapper(fc, blocksOffset(), getBlockSize(), maxBlocks);
     bmap.map(fc.size());
-
   }
 
   @Override
   public void clear() throws IOException {
-    super.clear();
-    bmap = null;
-    truncate();
-    bmap = new BlockMapper(fc, blocksOffset(), getBlockSize(), maxBlocks);
-    bmap.map(fc.size());
+    flushLock.beginExclusive();
+    try {
+      super.clear();
+      bmap = null;
+      truncate();
+      bmap = new BlockMapper(fc, blocksOffset(), getBlockSize(), maxBlocks);
+      bmap.map(fc.size());
+    } finally {
+      flushLock.endExclusive();
+    }
+  }
+
+  @Override
+  protected boolean blocksMapped() {
+    return true;
+  }
+
+  @Override
+  protected void shrink() {
+    //the mapped regions are shrunk on delete
   }
 
   @Override
   public boolean delete(int record) throws IOException {
-    if (super.delete(record)) {
-      bmap.shrink(getLastRecord());
-      return true;
+    flushLock.beginExclusive();
+    try {
+      if (super.delete(record)) {
+        if (bmap.shrink(getLastRecord()))
+          channelDirty = true;
+        return true;
+      }
+      return false;
+    } finally {
+      flushLock.endExclusive();
     }
-    return false;
   }
 
   @Override
   public boolean get(int record, byte[] buffer) throws IOException{
     if(bitSet.contains(record)){
-      ByteBuffer bb = bmap.find(record);
-      record = bmap.truncate(record);
-      bb.position(record * getBlockSize());
-      if(buffer.length > getBlockSize()){
-        bb.get(buffer, 0, getBlockSize());
-      }
-      else
-        bb.get(buffer);
+      ByteBuffer bb = block(record, getBlockSize());
+      if (checksums())
+        bb = checkBlock(record, bb).duplicate();
+      bb.get(buffer, 0, Math.min(buffer.length, getBlockSize()));
       return true;
     }
     return false;
   }
 
+  /**
+   * Copies adjacent records with a single bulk copy
+   */
+  @Override
+  public int getAll(int[] records, ByteBuffer[] into) throws IOException {
+    if (checksums())
+      return super.getAll(records, into);
+    return VectoredIO.copy(bmap::find, r -> bmap.truncate(r) * getBlockSize(), bitSet::contains,
+        getBlockSize(), records, into);
+  }
+
+  @Override
+  public int updateAll(int[] records, ByteBuffer[] from) {
+    VectoredIO.checkLengths(records, from);
+    int n = 0;
+    long written = 0;
+    flushLock.beginWrite();
+    try {
+      for (int i = 0; i < records.length; i++) {
+        if (!bitSet.contains(records[i])) continue;
+        bmap.markDirty(records[i]);
+        ByteBuffer bb = from[i].duplicate();
+        bb.limit(bb.position() + Math.min(getBlockSize(), bb.remaining()));
+        written += bb.remaining();
+        block(records[i], bb.remaining()).put(bb);
+        from[i].position(bb.position());
+        n++;
+      }
+      return n;
+    } finally {
+      flushLock.endWrite(written);
+    }
+  }
+
+  /**
+   * View of the first bytes of a block
+   */
+  private ByteBuffer block(int record, int length) {
+    ByteBuffer bb = bmap.find(record).duplicate();
+    int pos = bmap.truncate(record) * getBlockSize();
+    bb.limit(pos + Math.min(getBlockSize(), length));
+    bb.position(pos);
+    return bb;
+  }
+
   @Override
   public MappedByteBuffer getMapped(int record){
     return bitSet.contains(record) ? bmap.slice(record) : null;
   }
 
+  @Override
+  public void markDirty(int record) {
+    bmap.markDirty(record);
+  }
+
   public int getLastMappedRecord(){
     return mappedBitSet.length() - 1;
   }
@@ -95,35 +180,43 @@ public class MemSplitBlockFile extends AbstractSplitBlockFile {
 
   @Override
   public int insert(byte[] bytes, int offset, int length) throws IOException {
-    if (size() >= maxBlocks)
-      throw new IOException("no blocks left");
+    flushLock.beginExclusive();
+    try {
+      if (size() >= maxBlocks)
+        throw new IOException("no blocks left");
 
-    int index = bitSet.nextClearBit(0);
+      int index = bitSet.nextClearBit(0);
 
-    bmap.maybeExpand(index);
+      bmap.maybeExpand(index);
+      //a new block is dirty even if nothing is written so that its checksum is updated
+      bmap.markDirty(index);
 
-    if (bytes != null && length > 0) {
-      ByteBuffer bb = bmap.find(index);
-      int record = bmap.truncate(index);
-      bb.position(record * getBlockSize());
-      bb.put(bytes, offset, length > getBlockSize() ? getBlockSize() : length);
+      if (bytes != null && length > 0) {
+        ByteBuffer bb = bmap.find(index).duplicate();
+        int record = bmap.truncate(index);
+        bb.position(record * getBlockSize());
+        bb.put(bytes, offset, length > getBlockSize() ? getBlockSize() : length);
+      }
+      bitSet.set(index, true);
+      return index;
+    } finally {
+      flushLock.endExclusive(bytes == null ? 0 : Math.min(length, getBlockSize()));
     }
-    bitSet.set(index, true);
-    //saveBitSet(bitSet, bitBuffer);
-    return index;
-
   }
 
   @Override
   public void insert(int record, byte[] bytes, int offset, int length) throws IOException {
-    if (record >= maxBlocks)
-      throw new IOException("record out of range");
-    bmap.maybeExpand(record);
-
-    bitSet.set(record, true);
-    //saveBitSet(bitSet, bitBuffer);
-    update(record, bytes, offset, length);
+    flushLock.beginExclusive();
+    try {
+      if (record >= maxBlocks)
+        throw new IOException("record out of range");
+      bmap.maybeExpand(record);
 
+      bitSet.set(record, true);
+      update(record, bytes, offset, length);
+    } finally {
+      flushLock.endExclusive();
+    }
   }
 
   @Override
@@ -136,20 +229,46 @@ public class MemSplitBlockFile extends AbstractSplitBlockFile {
 
   @Override
   public boolean save() throws IOException{
-    if (bmap != null) bmap.force();
-    super.save();
-    return true;
+    flushLock.beginSave();
+    try {
+      if (bmap != null) bmap.force(checksums() ? this::updateChecksum : null);
+      super.save();
+      return true;
+    } finally {
+      flushLock.endSave();
+    }
   }
 
 
+  private void updateChecksum(int record) {
+    if (bitSet.contains(record))
+      updateChecksum(record, block(record, getBlockSize()));
+  }
+
+  @Override
+  protected boolean checksumCurrent(int record) {
+    return !bmap.isDirty(record);
+  }
+
+  @Override
+  protected ByteBuffer readBlock(int record) {
+    return block(record, getBlockSize()).slice();
+  }
+
   @Override
   public boolean update(int record, byte[] bytes, int offset, int length) throws IOException {
-    if (!bitSet.contains(record)) return false;
-    ByteBuffer bb = bmap.find(record);
-    record = bmap.truncate(record);
-    bb.position(record * getBlockSize());
-    bb.put(bytes, offset, length > getBlockSize() ? getBlockSize() : length);
-    return true;
+    flushLock.beginWrite();
+    try {
+      if (!bitSet.contains(record)) return false;
+      bmap.markDirty(record);
+      ByteBuffer bb = bmap.find(record).duplicate();
+      record = bmap.truncate(record);
+      bb.position(record * getBlockSize());
+      bb.put(bytes, offset, length > getBlockSize() ? getBlockSize() : length);
+      return true;
+    } finally {
+      flushLock.endWrite(Math.min(length, getBlockSize()));
+    }
   }
 
 
@@ -16,6 +16,7 @@
 
 package org.mellowtech.core.io.impl;
 
+import org.mellowtech.core.io.ChecksumException;
 import org.mellowtech.core.io.Record;
 import org.mellowtech.core.io.RecordFile;
 
@@ -31,6 +32,14 @@ import java.util.*;
  * upper limit on the number of blocks it can handle. This implementation does not use a bitset
  * to keep track of blocks but instead use a magic marker for deleted blocks. New blocks are always
  * appended at the end of the file
+ * <p>
+ * Data files created with checksums start with a header that is followed by one CRC32C per block:
+ * MAGIC_MARKER (4 bytes), VERSION (4 bytes), BLOCK_SIZE (4 bytes), FLAGS (4 bytes), CHECKSUMS.
+ * The blocks start at the first block boundary after the checksums. Blocks are written through
+ * mapped buffers so their checksums are computed when a data file is saved, for the blocks that
+ * have been written since the last save. A dirty block is not verified until it has been saved.
+ * Data files without checksums have no header
+ * </p>
  * @author Martin Svensson
  *
  * @since 3.0.7
@@ -38,6 +47,10 @@ import java.util.*;
 public class MultiBlockFile implements RecordFile {
 
   private static final int DELETED_BLOCK = 687997538;
+  public static final int MAGIC_MARKER = 5555;
+  public static final int VERSION = 1;
+  public static final int FLAG_CHECKSUMS = 1;
+  static final int HEADER_SIZE = 16;
   final Path dir;
   final String name;
 
@@ -50,9 +63,27 @@ public class MultiBlockFile implements RecordFile {
   private boolean opened = false;
   private final int reserve;
   private FileChannel fc = null;
+  private boolean checksums;
+  private double verifyRate = 1.0;
+  //updates share it, inserts, deletes and save take it exclusively
+  private final FlushLock flushLock = new FlushLock();
 
   public MultiBlockFile(int fileSize, int blockSize, int reserve, Path name) throws IOException{
+    this(fileSize, blockSize, reserve, name, false);
+  }
+
+  /**
+   * Open or create a multi block file. If data files exist their own checksum setting is used
+   * @param fileSize size of the blocks in each data file
+   * @param blockSize size of blocks
+   * @param reserve size of reserved area
+   * @param name path to the file
+   * @param checksums if true keep a CRC32C checksum for each block in the header of each data file
+   * @throws IOException if the file could not be opened or created
+   */
+  public MultiBlockFile(int fileSize, int blockSize, int reserve, Path name, boolean checksums) throws IOException{
     files = new TreeMap <> ();
+    this.checksums = checksums;
     this.dir = name.getParent();
     this.name = name.getFileName().toString();
     this.fileSize = fileSize;
@@ -64,12 +95,17 @@ public class MultiBlockFile implements RecordFile {
 
   @Override
   public void clear() throws IOException {
-    for(FileRecord fr : files.values()){
-      fr.delete();
+    flushLock.beginExclusive();
+    try {
+      for(FileRecord fr : files.values()){
+        fr.delete();
+      }
+      files.clear();
+      files.put(0, createDataFile(0));
+      high = 0;
+    } finally {
+      flushLock.endExclusive();
     }
-    files.clear();
-    files.put(0, createDataFile(0));
-    high = 0;
   }
 
   @Override
@@ -96,11 +132,16 @@ public class MultiBlockFile implements RecordFile {
 
   @Override
   public boolean delete(int record) throws IOException {
-    ByteBuffer bb = getMapped(record);
-    if(bb == null)
-      return false;
-    bb.putInt(0, DELETED_BLOCK);
-    return true;
+    flushLock.beginExclusive();
+    try {
+      ByteBuffer bb = getMapped(record);
+      if(bb == null)
+        return false;
+      bb.putInt(0, DELETED_BLOCK);
+      return true;
+    } finally {
+      flushLock.endExclusive();
+    }
   }
 
   @Override
@@ -136,6 +177,16 @@ public class MultiBlockFile implements RecordFile {
   public boolean get(int record, byte[] buffer) throws IOException {
     ByteBuffer bb = getMapped(record);
     if(bb == null) return false;
+    if (checksums && BlockChecksums.sampled(verifyRate)) {
+      FileIdRec fid = new FileIdRec(record);
+      FileRecord fr = files.get(fid.fileId);
+      try {
+        bb = fr.table.check(fid.rec, bb, fr::checksumCurrent, fr::slice).duplicate();
+      } catch (ChecksumException e) {
+        //the table only knows the record within the data file
+        throw new ChecksumException(record);
+      }
+    }
     if (buffer.length > getBlockSize())
       bb.get(buffer, 0, getBlockSize());
     else
@@ -148,6 +199,53 @@ public class MultiBlockFile implements RecordFile {
     return blockSize;
   }
 
+  /**
+   * @return true if this file keeps a checksum for each block
+   */
+  public boolean checksums() {
+    return checksums;
+  }
+
+  public double getVerifyRate() {
+    return verifyRate;
+  }
+
+  /**
+   * Fraction of block reads that are verified against their checksum. The rate is
+   * not stored in the file. Has no effect if the file was created without checksums
+   * @param rate between 0 (never verify on read) and 1 (verify every read)
+   */
+  public void setVerifyRate(double rate) {
+    if (rate < 0 || rate > 1)
+      throw new IllegalArgumentException("verify rate has to be between 0 and 1");
+    this.verifyRate = rate;
+  }
+
+  /**
+   * Check a block against its checksum. The verify rate does not apply
+   * @param record record to verify
+   * @return false if the record exists and does not match its checksum
+   * @throws IOException if the block could not be read
+   * @throws UnsupportedOperationException if the file has no checksums
+   */
+  public boolean verify(int record) throws IOException {
+    if (!checksums)
+      throw new UnsupportedOperationException("file has no checksums");
+    if (getMapped(record) == null)
+      return true;
+    FileIdRec fid = new FileIdRec(record);
+    FileRecord fr = files.get(fid.fileId);
+    return fr.table.verify(fid.rec, fr::checksumCurrent, fr::slice);
+  }
+
+  @Override
+  public void markDirty(int record) {
+    if (!checksums || record >= high)
+      return;
+    FileIdRec fid = new FileIdRec(record);
+    files.get(fid.fileId).markDirty(fid.rec);
+  }
+
   @Override
   public int getFirstRecord() {
     Iterator <Record> iter = iterator();
@@ -172,28 +270,39 @@ public class MultiBlockFile implements RecordFile {
 
   @Override
   public int insert(byte[] bytes, int offset, int length) throws IOException {
-    int rec = high;
-    insert(rec, bytes, offset, length);
-    return rec;
+    flushLock.beginExclusive();
+    try {
+      int rec = high;
+      insert(rec, bytes, offset, length);
+      return rec;
+    } finally {
+      flushLock.endExclusive();
+    }
   }
 
   @Override
   public void insert(int record, byte[] bytes, int offset, int length) throws IOException {
-    FileIdRec fid = new FileIdRec(record);
-    while(fid.fileId > files.lastKey()){
-      int newFile = files.lastKey() + blocksPerFile;
-      files.put(newFile, createDataFile(newFile));
-    }
-    FileRecord fr = files.get(fid.fileId);
-    ByteBuffer bb = fr.slice(fid.rec);
-    if(bytes != null && length > 0) {
-      bb.put(bytes, offset, length > getBlockSize() ? getBlockSize() : length);
-    }
-    else { //just override the deleted marker
-      bb.putInt(Integer.MAX_VALUE);
+    flushLock.beginExclusive();
+    try {
+      FileIdRec fid = new FileIdRec(record);
+      while(fid.fileId > files.lastKey()){
+        int newFile = files.lastKey() + blocksPerFile;
+        files.put(newFile, createDataFile(newFile));
+      }
+      FileRecord fr = files.get(fid.fileId);
+      fr.markDirty(fid.rec);
+      ByteBuffer bb = fr.slice(fid.rec);
+      if(bytes != null && length > 0) {
+        bb.put(bytes, offset, length > getBlockSize() ? getBlockSize() : length);
+      }
+      else { //just override the deleted marker
+        bb.putInt(Integer.MAX_VALUE);
+      }
+      if(record >= high)
+        high = record + 1;
+    } finally {
+      flushLock.endExclusive(bytes == null ? 0 : Math.min(length, getBlockSize()));
     }
-    if(record >= high)
-      high = record + 1;
   }
 
   @Override
@@ -247,9 +356,19 @@ public class MultiBlockFile implements RecordFile {
 
   @Override
   public boolean save() throws IOException {
-    for(FileRecord fr : files.values())
-      fr.save();
-    return true;
+    flushLock.beginSave();
+    try {
+      for(FileRecord fr : files.values())
+        fr.save();
+      return true;
+    } finally {
+      flushLock.endSave();
+    }
+  }
+
+  @Override
+  public long takeBytesWritten() {
+    return flushLock.takeWritten();
   }
 
   @Override
@@ -270,19 +389,25 @@ public class MultiBlockFile implements RecordFile {
 
   @Override
   public long fileSize() throws IOException {
-    return files.size() * fileSize;
+    return files.size() * ((long) fileSize + blocksOffset());
   }
 
   @Override
   public boolean update(int record, byte[] bytes, int offset, int length) throws IOException {
-    if(record >= high)
-      return false;
-    FileIdRec fid = new FileIdRec(record);
-    FileRecord fr = files.get(fid.fileId);
-    ByteBuffer bb = fr.slice(fid.rec);
-    if(bytes != null && length > 0)
-      bb.put(bytes, offset, length > getBlockSize() ? getBlockSize() : length);
-    return true;
+    flushLock.beginWrite();
+    try {
+      if(record >= high)
+        return false;
+      FileIdRec fid = new FileIdRec(record);
+      FileRecord fr = files.get(fid.fileId);
+      fr.markDirty(fid.rec);
+      ByteBuffer bb = fr.slice(fid.rec);
+      if(bytes != null && length > 0)
+        bb.put(bytes, offset, length > getBlockSize() ? getBlockSize() : length);
+      return true;
+    } finally {
+      flushLock.endWrite(bytes == null ? 0 : Math.min(length, getBlockSize()));
+    }
   }
 
   private void open() throws IOException {
@@ -298,7 +423,11 @@ public class MultiBlockFile implements RecordFile {
       }
     }
     try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*-"+name)) {
+      boolean first = true;
       for(Path p : ds){
+        if(first)
+          checksums = readChecksums(p);
+        first = false;
         String fname = p.getFileName().toString();
         fname = fname.substring(0,fname.length()-1-name.length());
         Integer rec = Integer.parseInt(fname);
@@ -324,6 +453,38 @@ public class MultiBlockFile implements RecordFile {
 
 
 
+  /**
+   * Read the checksum setting of an existing data file. Only data files with
+   * checksums have a header
+   */
+  private boolean readChecksums(Path p) throws IOException {
+    if(Files.size(p) <= fileSize)
+      return false;
+    try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+      ByteBuffer bb = ByteBuffer.allocate(HEADER_SIZE);
+      ch.read(bb, 0);
+      bb.flip();
+      if(bb.limit() < HEADER_SIZE || bb.getInt() != MAGIC_MARKER)
+        throw new IOException(p+" is not a multi block data file");
+      int version = bb.getInt();
+      if(version != VERSION)
+        throw new IOException("wrong version of data file: "+version);
+      if(bb.getInt() != blockSize)
+        throw new IOException(p+" has a different block size");
+      return (bb.getInt() & FLAG_CHECKSUMS) != 0;
+    }
+  }
+
+  /**
+   * Offset of the first block in a data file
+   */
+  long blocksOffset() {
+    if(!checksums)
+      return 0;
+    long end = HEADER_SIZE + BlockChecksums.size(blocksPerFile);
+    return ((end + blockSize - 1) / blockSize) * blockSize;
+  }
+
   private int getLastBlockInDataFile(FileRecord fr) throws IOException {
     MappedByteBuffer bb = fr.get();
     int blockNo = -1;
@@ -426,6 +587,9 @@ public class MultiBlockFile implements RecordFile {
     final Path path;
     MappedByteBuffer fileBuffer;
     FileChannel fc;
+    BlockChecksums table;
+    //blocks written since the last save
+    final BitSet dirty = new BitSet();
     final int size;
 
     FileRecord(final Path p, final boolean open, final int fileSize) throws IOException{
@@ -476,10 +640,40 @@ public class MultiBlockFile implements RecordFile {
 
     public void save() {
       if(fc != null && fileBuffer != null){
+        if(table != null)
+          updateChecksums();
         fileBuffer.force();
       }
     }
 
+    void markDirty(int record) {
+      if(!checksums)
+        return;
+      synchronized (dirty) {
+        dirty.set(record);
+      }
+    }
+
+    boolean checksumCurrent(int record) {
+      synchronized (dirty) {
+        return !dirty.get(record);
+      }
+    }
+
+    private void updateChecksums() {
+      BitSet toUpdate;
+      synchronized (dirty) {
+        toUpdate = (BitSet) dirty.clone();
+      }
+      for(int r = toUpdate.nextSetBit(0); r >= 0; r = toUpdate.nextSetBit(r + 1)) {
+        table.update(r, slice(r));
+        synchronized (dirty) {
+          dirty.clear(r);
+        }
+      }
+      table.force();
+    }
+
     private boolean isClosed() {
       return fc == null || !fc.isOpen();
     }
@@ -487,10 +681,26 @@ public class MultiBlockFile implements RecordFile {
     private void open() throws IOException{
       if(Files.notExists(path)){
         fc = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if(checksums)
+          writeHeader();
       } else {
         fc = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
       }
-      fileBuffer = fc.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      if(checksums)
+        table = new BlockChecksums(fc.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE,
+            BlockChecksums.size(blocksPerFile)));
+      fileBuffer = fc.map(FileChannel.MapMode.READ_WRITE, blocksOffset(), size);
+    }
+
+    private void writeHeader() throws IOException {
+      ByteBuffer bb = ByteBuffer.allocate(HEADER_SIZE);
+      bb.putInt(MAGIC_MARKER);
+      bb.putInt(VERSION);
+      bb.putInt(blockSize);
+      bb.putInt(FLAG_CHECKSUMS);
+      bb.flip();
+      while(bb.hasRemaining())
+        fc.write(bb, bb.position());
     }
 
   }
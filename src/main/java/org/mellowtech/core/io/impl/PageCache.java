@@ -0,0 +1,382 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mellowtech.core.io.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+/**
+ * Buffer pool of fixed size pages for record files that are not memory mapped. The
+ * pool holds a fixed number of direct frames that are split into shards on record
+ * number. Each shard has its own lock and its own CLOCK eviction policy, i.e. a frame
+ * is evicted when the clock hand passes it twice without it being used.
+ * <p>
+ * Pages are pinned while they are used and pinned pages are never evicted. A page that
+ * has been changed is marked as dirty when it is unpinned and is written back when
+ * it is evicted or when the cache is flushed
+ * </p>
+ *
+ * @author Martin Svensson {@literal <msvens@gmail.com>}
+ * @since 4.0.0
+ */
+public class PageCache {
+
+  public static final int DEFAULT_FRAMES = 1024;
+  public static final int DEFAULT_SHARDS = 8;
+
+  /**
+   * Reads and writes pages from the underlying file
+   */
+  public interface PageIO {
+    /**
+     * Read a page. Bytes after the end of file should be left as is
+     * @param record page to read
+     * @param bb buffer to read into
+     * @throws IOException if the page could not be read
+     */
+    void read(int record, ByteBuffer bb) throws IOException;
+
+    /**
+     * Write a page
+     * @param record page to write
+     * @param bb buffer to write from
+     * @throws IOException if the page could not be written
+     */
+    void write(int record, ByteBuffer bb) throws IOException;
+  }
+
+  /**
+   * A page in the cache
+   */
+  public static final class Page {
+    private final ByteBuffer data;
+    private int record = -1;
+    private int pins = 0;
+    private boolean dirty = false;
+    private boolean referenced = false;
+
+    Page(ByteBuffer data) {
+      this.data = data;
+    }
+
+    /**
+     * @return record of this page
+     */
+    public int record() {
+      return record;
+    }
+
+    /**
+     * The contents of this page. Only valid while the page is pinned
+     * @return buffer with position 0 and limit the page size
+     */
+    public ByteBuffer buffer() {
+      ByteBuffer bb = data.duplicate();
+      bb.clear();
+      return bb;
+    }
+  }
+
+  private final PageIO io;
+  private final int pageSize;
+  private final int frames;
+  private final Shard[] shards;
+  private final byte[] zeros;
+
+  /**
+   * Create a new cache
+   * @param frames total number of frames (pages) in the cache
+   * @param shards number of shards
+   * @param pageSize size of each page
+   * @param io reader and writer of pages
+   */
+  public PageCache(int frames, int shards, int pageSize, PageIO io) {
+    if (frames < 1 || shards < 1)
+      throw new IllegalArgumentException("frames and shards has to be positive");
+    shards = Math.min(shards, frames);
+    this.io = io;
+    this.pageSize = pageSize;
+    this.frames = frames;
+    this.zeros = new byte[pageSize];
+    this.shards = new Shard[shards];
+    for (int i = 0; i < shards; i++)
+      this.shards[i] = new Shard(frames / shards + (i < frames % shards ? 1 : 0));
+  }
+
+  /**
+   * Pin a page. The page is read from the underlying file if it is not in the cache
+   * @param record page to pin
+   * @return pinned page
+   * @throws IOException if the page could not be read or all frames in its shard are pinned
+   */
+  public Page pin(int record) throws IOException {
+    return shard(record).pin(record, true);
+  }
+
+  /**
+   * Unpin a page
+   * @param page page to unpin
+   * @param dirty true if the page has been changed
+   */
+  public void unpin(Page page, boolean dirty) {
+    shard(page.record).unpin(page, dirty);
+  }
+
+  /**
+   * Copy a page into an array
+   * @param record page to read
+   * @param buffer array to copy into (at most page size bytes are copied)
+   * @throws IOException if the page could not be read
+   */
+  public void read(int record, byte[] buffer) throws IOException {
+    Shard s = shard(record);
+    Page p = s.pin(record, true);
+    try {
+      p.buffer().get(buffer, 0, Math.min(buffer.length, pageSize));
+    } finally {
+      s.unpin(p, false);
+    }
+  }
+
+  /**
+   * Write bytes to the beginning of a page. The page is only read from the underlying file if
+   * it is not completely overwritten
+   * @param record page to write
+   * @param bytes array to copy from
+   * @param offset offset in array
+   * @param length number of bytes to copy (at most page size)
+   * @throws IOException if the page could not be read
+   */
+  public void write(int record, byte[] bytes, int offset, int length) throws IOException {
+    length = Math.min(length, pageSize);
+    Shard s = shard(record);
+    Page p = s.pin(record, length < pageSize);
+    try {
+      p.buffer().put(bytes, offset, length);
+    } finally {
+      s.unpin(p, true);
+    }
+  }
+
+  /**
+   * Remove a page from the cache without writing it
+   * @param record page to remove
+   */
+  public void invalidate(int record) {
+    shard(record).invalidate(record);
+  }
+
+  /**
+   * Write all dirty pages to the underlying file
+   * @throws IOException if a page could not be written
+   */
+  public void flush() throws IOException {
+    for (Shard s : shards)
+      s.flush();
+  }
+
+  /**
+   * Remove all pages from the cache without writing them
+   */
+  public void clear() {
+    for (Shard s : shards)
+      s.clear();
+  }
+
+  /**
+   * @return total number of frames
+   */
+  public int frames() {
+    return frames;
+  }
+
+  /**
+   * @return number of shards
+   */
+  public int shards() {
+    return shards.length;
+  }
+
+  /**
+   * @return number of page requests that were found in the cache
+   */
+  public long hits() {
+    long n = 0;
+    for (Shard s : shards)
+      n += s.hits();
+    return n;
+  }
+
+  /**
+   * @return number of page requests that were not found in the cache
+   */
+  public long misses() {
+    long n = 0;
+    for (Shard s : shards)
+      n += s.misses();
+    return n;
+  }
+
+  /**
+   * @return number of pages that has been evicted from the cache
+   */
+  public long evictions() {
+    long n = 0;
+    for (Shard s : shards)
+      n += s.evictions();
+    return n;
+  }
+
+  /**
+   * @return number of dirty pages that has been written to the underlying file
+   */
+  public long writeBacks() {
+    long n = 0;
+    for (Shard s : shards)
+      n += s.writeBacks();
+    return n;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("frames: %d shards: %d hits: %d misses: %d evictions: %d writeBacks: %d",
+        frames, shards.length, hits(), misses(), evictions(), writeBacks());
+  }
+
+  private Shard shard(int record) {
+    return shards[(record & Integer.MAX_VALUE) % shards.length];
+  }
+
+  private final class Shard {
+    private final Page[] pages;
+    private final HashMap<Integer, Page> table;
+    private int hand = 0;
+    private long hits, misses, evictions, writeBacks;
+
+    Shard(int frames) {
+      ByteBuffer block = ByteBuffer.allocateDirect(frames * pageSize);
+      pages = new Page[frames];
+      table = new HashMap<>(frames * 2);
+      for (int i = 0; i < frames; i++) {
+        block.limit((i + 1) * pageSize).position(i * pageSize);
+        pages[i] = new Page(block.slice());
+      }
+    }
+
+    synchronized Page pin(int record, boolean load) throws IOException {
+      Page p = table.get(record);
+      if (p != null) {
+        hits++;
+      } else {
+        misses++;
+        p = victim();
+        if (p.record > -1) {
+          if (p.dirty)
+            writeBack(p);
+          table.remove(p.record);
+          evictions++;
+        }
+        p.record = record;
+        p.dirty = false;
+        if (load) {
+          ByteBuffer bb = p.buffer();
+          bb.put(zeros);
+          bb.clear();
+          try {
+            io.read(record, bb);
+          } catch (IOException e) {
+            p.record = -1;
+            throw e;
+          }
+        }
+        table.put(record, p);
+      }
+      p.referenced = true;
+      p.pins++;
+      return p;
+    }
+
+    synchronized void unpin(Page p, boolean dirty) {
+      if (p.pins > 0)
+        p.pins--;
+      if (dirty && p.record > -1)
+        p.dirty = true;
+    }
+
+    synchronized void invalidate(int record) {
+      Page p = table.remove(record);
+      if (p != null)
+        reset(p);
+    }
+
+    synchronized void flush() throws IOException {
+      for (Page p : pages) {
+        if (p.record > -1 && p.dirty)
+          writeBack(p);
+      }
+    }
+
+    synchronized void clear() {
+      table.clear();
+      for (Page p : pages)
+        reset(p);
+    }
+
+    synchronized long hits() {
+      return hits;
+    }
+
+    synchronized long misses() {
+      return misses;
+    }
+
+    synchronized long evictions() {
+      return evictions;
+    }
+
+    synchronized long writeBacks() {
+      return writeBacks;
+    }
+
+    private void reset(Page p) {
+      p.record = -1;
+      p.dirty = false;
+      p.referenced = false;
+      p.pins = 0;
+    }
+
+    private void writeBack(Page p) throws IOException {
+      io.write(p.record, p.buffer());
+      p.dirty = false;
+      writeBacks++;
+    }
+
+    private Page victim() throws IOException {
+      for (int i = 0; i < pages.length * 2; i++) {
+        Page p = pages[hand];
+        hand = (hand + 1) % pages.length;
+        if (p.pins > 0)
+          continue;
+        if (p.record > -1 && p.referenced)
+          p.referenced = false;
+        else
+          return p;
+      }
+      throw new IOException("all frames in shard are pinned");
+    }
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mellowtech.core.io.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Maps a region of a file that can be larger than 2GB as a number of segments.
+ * The region is divided into units (e.g. bytes or fixed size index entries) and
+ * each segment holds 2^shift units, so a unit never spans two segments and
+ * finding the segment and the position within it is a shift and a mask.
+ *
+ * @author Martin Svensson {@literal <msvens@gmail.com>}
+ * @since 4.0.0
+ */
+public class SegmentedMapper {
+
+  /**
+   * Max number of bytes in a single mapping
+   */
+  public static final int MAX_SEGMENT_SIZE = 1 << 30;
+
+  private final MappedByteBuffer[] segments;
+  private final int unitSize;
+  private final int shift;
+  private final long mask;
+  private final long units;
+
+  /**
+   * Map a region of a file. The region is mapped in as few segments as possible
+   *
+   * @param fc       file to map
+   * @param mode     map mode
+   * @param offset   start of the region in the file
+   * @param units    number of units in the region
+   * @param unitSize bytes per unit
+   * @throws IOException if the file could not be mapped
+   */
+  public SegmentedMapper(FileChannel fc, FileChannel.MapMode mode, long offset,
+                         long units, int unitSize) throws IOException {
+    this(fc, mode, offset, units, unitSize, maxShift(unitSize));
+  }
+
+  /**
+   * Map a region of a file
+   *
+   * @param fc       file to map
+   * @param mode     map mode
+   * @param offset   start of the region in the file
+   * @param units    number of units in the region
+   * @param unitSize bytes per unit
+   * @param shift    each segment (except the last) holds 2^shift units
+   * @throws IOException if the file could not be mapped
+   */
+  public SegmentedMapper(FileChannel fc, FileChannel.MapMode mode, long offset,
+                         long units, int unitSize, int shift) throws IOException {
+    if (unitSize < 1 || ((long) unitSize << shift) > MAX_SEGMENT_SIZE)
+      throw new IllegalArgumentException("segment larger than " + MAX_SEGMENT_SIZE + " bytes");
+    this.unitSize = unitSize;
+    this.shift = shift;
+    this.mask = (1L << shift) - 1;
+    this.units = units;
+    int num = (int) ((units + mask) >>> shift);
+    segments = new MappedByteBuffer[num];
+    long segmentBytes = (long) unitSize << shift;
+    for (int i = 0; i < num; i++) {
+      long start = (long) i << shift;
+      long size = Math.min(units - start, 1L << shift) * unitSize;
+      segments[i] = fc.map(mode, offset + (i * segmentBytes), size);
+    }
+  }
+
+  private static int maxShift(int unitSize) {
+    return 31 - Integer.numberOfLeadingZeros(MAX_SEGMENT_SIZE / unitSize);
+  }
+
+  /**
+   * Segment that holds a unit. Use {@link #position(long)} to find the
+   * unit in the segment
+   *
+   * @param unit unit index
+   * @return segment
+   */
+  public MappedByteBuffer segment(long unit) {
+    return segments[(int) (unit >>> shift)];
+  }
+
+  /**
+   * Byte position of a unit within its segment
+   *
+   * @param unit unit index
+   * @return position in segment
+   */
+  public int position(long unit) {
+    return (int) (unit & mask) * unitSize;
+  }
+
+  /**
+   * Check if a number of units are all stored in the same segment
+   *
+   * @param unit  first unit
+   * @param count number of units
+   * @return true if the units do not cross a segment boundary
+   */
+  public boolean inSegment(long unit, int count) {
+    return count <= 1 || (unit >>> shift) == ((unit + count - 1) >>> shift);
+  }
+
+  /**
+   * Copy units that can span several segments
+   *
+   * @param unit   first unit to copy
+   * @param dst    buffer to copy to
+   * @param offset offset in dst
+   * @param count  number of units to copy
+   */
+  public void get(long unit, byte[] dst, int offset, int count) {
+    while (count > 0) {
+      ByteBuffer bb = segment(unit).duplicate();
+      int pos = position(unit);
+      int n = (int) Math.min(count, (mask + 1) - (unit & mask));
+      bb.position(pos);
+      bb.get(dst, offset, n * unitSize);
+      unit += n;
+      offset += n * unitSize;
+      count -= n;
+    }
+  }
+
+  public int getInt(long unit, int offset) {
+    return segment(unit).getInt(position(unit) + offset);
+  }
+
+  public long getLong(long unit, int offset) {
+    return segment(unit).getLong(position(unit) + offset);
+  }
+
+  public void putInt(long unit, int offset, int value) {
+    segment(unit).putInt(position(unit) + offset, value);
+  }
+
+  public void putLong(long unit, int offset, long value) {
+    segment(unit).putLong(position(unit) + offset, value);
+  }
+
+  public void force() {
+    for (MappedByteBuffer segment : segments)
+      segment.force();
+  }
+
+  public int segments() {
+    return segments.length;
+  }
+
+  public long units() {
+    return units;
+  }
+
+  public int unitSize() {
+    return unitSize;
+  }
+}
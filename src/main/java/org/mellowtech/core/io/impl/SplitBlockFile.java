@@ -36,15 +36,41 @@ public class SplitBlockFile extends AbstractSplitBlockFile {
     //System.out.println(mappedMaxBlocks+" "+maxBlocks);
   }
 
+  /**
+   * Open or create a split block file
+   * @param path path to file
+   * @param blockSize size of blocks
+   * @param maxBlocks max number of blocks
+   * @param reserve size of reserved area
+   * @param mappedMaxBlocks max number of blocks in the mapped region
+   * @param mappedBlockSize size of blocks in the mapped region
+   * @param checksums if true keep a CRC32C checksum for each block in both regions
+   * @throws IOException if the file could not be opened or created
+   */
+  public SplitBlockFile(Path path, int blockSize, int maxBlocks, int reserve,
+                        int mappedMaxBlocks, int mappedBlockSize, boolean checksums) throws IOException {
+    super(path, blockSize, maxBlocks, reserve, mappedMaxBlocks, mappedBlockSize, checksums);
+  }
+
   @Override
   public void clear() throws IOException {
-    super.clear();
-    truncate();
+    flushLock.beginExclusive();
+    try {
+      super.clear();
+      truncate();
+    } finally {
+      flushLock.endExclusive();
+    }
   }
 
   @Override
   public boolean get(int record, byte[] buffer) throws IOException {
     if (bitSet.contains(record)) {
+      if (checksums()) {
+        ByteBuffer block = checkBlock(record, readBlock(record));
+        block.get(buffer, 0, Math.min(buffer.length, getBlockSize()));
+        return true;
+      }
       ByteBuffer bb = ByteBuffer.wrap(buffer);
       long offset = getOffset(record);
       fc.read(bb, offset);
@@ -53,29 +79,70 @@ public class SplitBlockFile extends AbstractSplitBlockFile {
     return false;
   }
 
+  /**
+   * Reads adjacent records with a single scattering read
+   */
+  @Override
+  public int getAll(int[] records, ByteBuffer[] into) throws IOException {
+    if (checksums())
+      return super.getAll(records, into);
+    return VectoredIO.read(fc, this::getOffset, bitSet::contains, getBlockSize(), records, into);
+  }
+
+  /**
+   * Writes adjacent records with a single gathering write
+   */
+  @Override
+  public int updateAll(int[] records, ByteBuffer[] from) throws IOException {
+    if (checksums())
+      return super.updateAll(records, from);
+    int n = 0;
+    flushLock.beginWrite();
+    try {
+      n = VectoredIO.write(fc, this::getOffset, bitSet::contains, getBlockSize(), records, from);
+      return n;
+    } finally {
+      flushLock.endWrite((long) n * getBlockSize());
+    }
+  }
+
   @Override
   public void insert(int record, byte[] bytes, int offset, int length) throws IOException {
-    if (record >= maxBlocks)
-      throw new IOException("record out of bounce");
-    bitSet.set(record, true);
-    //saveBitSet(bitSet, bitBuffer);
-    update(record, bytes, offset, length);
+    flushLock.beginExclusive();
+    try {
+      if (record >= maxBlocks)
+        throw new IOException("record out of bounce");
+      bitSet.set(record, true);
+      if (checksums())
+        writeBlock(record, bytes, offset, bytes == null ? 0 : length);
+      else
+        update(record, bytes, offset, length);
+    } finally {
+      flushLock.endExclusive(checksums() ? getBlockSize() : 0);
+    }
   }
 
   @Override
   public int insert(byte[] bytes, int offset, int length) throws IOException {
-    if (getFreeBlocks() < 1) throw new IOException("no free blocks");
-    int index = bitSet.nextClearBit(0);
-    if (index >= maxBlocks)
-      throw new IOException("no blocks left");
-    if (bytes != null && length > 0) {
-      long off = getOffset(index);
-      ByteBuffer data = ByteBuffer.wrap(bytes, offset, length > getBlockSize() ? getBlockSize() : length);
-      fc.write(data, off);
+    flushLock.beginExclusive();
+    try {
+      if (getFreeBlocks() < 1) throw new IOException("no free blocks");
+      int index = bitSet.nextClearBit(0);
+      if (index >= maxBlocks)
+        throw new IOException("no blocks left");
+      if (checksums()) {
+        //the checksum covers the full block, including stale bytes after the new data
+        writeBlock(index, bytes, offset, bytes == null ? 0 : length);
+      } else if (bytes != null && length > 0) {
+        long off = getOffset(index);
+        ByteBuffer data = ByteBuffer.wrap(bytes, offset, length > getBlockSize() ? getBlockSize() : length);
+        fc.write(data, off);
+      }
+      bitSet.set(index, true);
+      return index;
+    } finally {
+      flushLock.endExclusive(checksums() ? getBlockSize() : bytes == null ? 0 : Math.min(length, getBlockSize()));
     }
-    bitSet.set(index, true);
-    //saveBitSet(bitSet, bitBuffer);
-    return index;
   }
 
   @Override
@@ -87,11 +154,32 @@ public class SplitBlockFile extends AbstractSplitBlockFile {
 
   @Override
   public boolean update(int record, byte[] bytes, int offset, int length) throws IOException {
-    if (!bitSet.contains(record)) return false;
-    long off = getOffset(record);
-    ByteBuffer bb = ByteBuffer.wrap(bytes, offset, length > getBlockSize() ? getBlockSize() : length);
-    fc.write(bb, off);
-    return true;
+    flushLock.beginWrite();
+    try {
+      if (!bitSet.contains(record)) return false;
+      if (checksums()) {
+        writeBlock(record, bytes, offset, length);
+        return true;
+      }
+      long off = getOffset(record);
+      ByteBuffer bb = ByteBuffer.wrap(bytes, offset, length > getBlockSize() ? getBlockSize() : length);
+      fc.write(bb, off);
+      return true;
+    } finally {
+      flushLock.endWrite(checksums() ? getBlockSize() : Math.min(length, getBlockSize()));
+    }
+  }
+
+  /**
+   * Write a full block and its checksum. A block that is partially updated is
+   * first read from disc
+   */
+  private void writeBlock(int record, byte[] bytes, int offset, int length) throws IOException {
+    length = Math.min(length, getBlockSize());
+    ByteBuffer block = length < getBlockSize() ? readBlock(record) : ByteBuffer.allocate(getBlockSize());
+    if (length > 0)
+      block.put(bytes, offset, length).clear();
+    writeChecked(record, block);
   }
 
 }
@@ -17,42 +17,84 @@
 
 package org.mellowtech.core.io.impl;
 
+import org.mellowtech.core.io.ChecksumException;
 import org.mellowtech.core.io.Record;
 import org.mellowtech.core.io.RecordFile;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.IntBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.zip.CRC32C;
 
 /**
  *
  * Format
- * MAGIC_MARKER//FILE_VERSION//NUM_RECORDS//RESERVED_SIZE//RESERVED//RECORD_INDEX//BLOCKS
+ * MAGIC_MARKER//FILE_VERSION//NUM_RECORDS//RESERVED_SIZE//FLAGS//RESERVED//RECORD_INDEX//BLOCKS
+ * <p>
+ * Each index entry holds the offset and size of a record. From file version 2 the offset
+ * is a long so records can be stored anywhere in files larger than 4GB. Version 1 files
+ * (with unsigned int offsets) can still be opened. The index is mapped in segments
+ * so it can be larger than 2GB as well.
+ * </p>
+ * <p>
+ * A version 2 file can be created with checksums, in which case each index entry also
+ * holds a CRC32C of its record. Records are verified when they are read and a record
+ * that does not match its checksum fails with a {@link ChecksumException}
+ * </p>
+ * <p>
+ * Space left by deleted records, and by records that are updated to a new size, is kept as
+ * free extents that inserts and updates reuse (best fit) before the file is grown.
+ * Updates that fit in the current extent of a record are done in place. The free
+ * extents are not stored in the file but derived from the index when the file is opened.
+ * </p>
  * Created by msvens on 26/10/15.
  */
 public class VariableRecordFile implements RecordFile {
 
 
   public static final int MAGIC_MARKER = 3333;
-  public static final int FILE_VERSION = 1;
+  public static final int FILE_VERSION = 2;
 
+  /**
+   * Max record offset in version 1 files
+   */
   public static final Long MAX_OFFSET_START = 4294967295L;
 
+  /**
+   * Header flag set if each index entry holds a checksum of its record
+   */
+  public static final int FLAG_CHECKSUMS = 1;
+
+  private static final int LOCKS = 64;
+  private static final int CRC_OFFSET = 12;
+
 
   private Path p;
   private FileChannel fc;
   private int numRecords;
   private int reserved;
 
-  private IntBuffer indexBuffer;
-  private MappedByteBuffer mbb;
+  private int version = FILE_VERSION;
+  private boolean checksums;
+  private SegmentedMapper index;
+  private final FreeExtents free = new FreeExtents();
+  //setReserve shares it, record writes (which may allocate) and save take it exclusively
+  private final FlushLock flushLock = new FlushLock();
+  //held while a record and its index entry are written
+  private final Object[] locks = new Object[LOCKS];
+  {
+    for (int i = 0; i < locks.length; i++)
+      locks[i] = new Object();
+  }
 
   public VariableRecordFile(Path path) throws IOException{
     if(!open(path))
@@ -60,38 +102,152 @@ public class VariableRecordFile implements RecordFile {
   }
 
   public VariableRecordFile(Path path, int initialRecords, int reserve) throws IOException{
+    this(path, initialRecords, reserve, false);
+  }
+
+  /**
+   * Open a file or create it if it does not exist
+   * @param path path to the file
+   * @param initialRecords number of records
+   * @param reserve size of the reserved area
+   * @param checksums if true keep a checksum of each record. Ignored if the file exists
+   * @throws IOException if the file could not be opened or created
+   */
+  public VariableRecordFile(Path path, int initialRecords, int reserve, boolean checksums) throws IOException{
     if(open(path)) return;
     p = path;
+    this.checksums = checksums;
     //fc = FileChannel.open(p, StandardOpenOption.READ, StandardOpenOption.WRITE);
     fc = FileChannel.open(p, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
     numRecords = initialRecords;
     reserved = reserve;
 
     //map the record buffer
-    mbb = fc.map(FileChannel.MapMode.READ_WRITE, indexOffset(), indexSize());
-    indexBuffer = mbb.asIntBuffer();
+    mapIndex();
   }
 
   @Override
   public void clear() throws IOException {
-    for(int i = 0; i < numRecords; i++){
-      delete(i);
+    flushLock.beginExclusive();
+    try {
+      for(int i = 0; i < numRecords; i++){
+        delete(i);
+      }
+      fc.truncate(indexOffset()+indexSize());
+      free.clear();
+    } finally {
+      flushLock.endExclusive();
     }
-    fc.truncate(indexOffset()+indexSize());
   }
 
   @Override
   public void close() throws IOException {
     if(isOpen()) {
       save();
-      mbb.force();
+      index.force();
       fc.close();
     }
   }
 
   @Override
   public Map<Integer, Integer> compact() throws IOException {
-    return null;
+    return compact(Long.MAX_VALUE);
+  }
+
+  /**
+   * Rewrites live records contiguously, in offset order, directly after the index so
+   * that space left by deleted and updated records is reclaimed. The file is truncated
+   * once all records have been moved. Records keep their record numbers.
+   * A moved record is forced to disc before the index points to it, and a record whose
+   * new extent overlaps its old one is first copied past the end of the file, so an
+   * interrupted compaction never leaves the index pointing to a partially written record.
+   * Other writers are blocked while the records are moved
+   * @param maxBytes max number of bytes to move in this call (at least one record is moved)
+   * @return map from each moved record to itself
+   * @throws IOException if an error occurs
+   */
+  @Override
+  public Map<Integer, Integer> compact(long maxBytes) throws IOException {
+    //moves extents and rebuilds the free list so no other writer can run
+    flushLock.beginExclusive();
+    try {
+      return compactRecords(maxBytes);
+    } finally {
+      flushLock.endExclusive();
+    }
+  }
+
+  private Map<Integer, Integer> compactRecords(long maxBytes) throws IOException {
+    Map<Integer, Integer> moved = new HashMap<>();
+    Integer[] records = liveRecords();
+    Arrays.sort(records, Comparator.comparingLong(this::offset));
+    //moves that are written but not yet in the index
+    Map<Integer, Idx> pending = new HashMap<>();
+    //lowest offset that a pending move still reads from
+    long limit = Long.MAX_VALUE;
+    long pos = blocksOffset();
+    long bytes = 0;
+    boolean done = true;
+    for (int record : records) {
+      Idx idx = getIdx(record);
+      //records inserted as null have a negative size
+      idx.size = Math.max(0, idx.size);
+      if (idx.offset != pos) {
+        if (bytes > 0 && bytes >= maxBytes) {
+          done = false;
+          break;
+        }
+        if (pos + idx.size > Math.min(limit, idx.offset)) {
+          //the target overlaps a record that the index still points to
+          commitMoves(pending);
+          limit = Long.MAX_VALUE;
+          if (pos + idx.size > idx.offset) {
+            //first move the record past the end of the file so that its only copy
+            //is never overwritten
+            long tail = fc.size();
+            copy(idx, tail);
+            pending.put(record, new Idx(tail, idx.size, idx.crc));
+            commitMoves(pending);
+            idx.offset = tail;
+          }
+        }
+        copy(idx, pos);
+        limit = Math.min(limit, idx.offset);
+        pending.put(record, new Idx(pos, idx.size, idx.crc));
+        moved.put(record, record);
+        bytes += idx.size;
+      }
+      pos += idx.size;
+    }
+    commitMoves(pending);
+    if (done && fc.size() > pos)
+      fc.truncate(pos);
+    findFree();
+    return moved;
+  }
+
+  private void copy(Idx from, long to) throws IOException {
+    ByteBuffer bb = ByteBuffer.allocate(from.size);
+    readFully(bb, from.offset);
+    bb.flip();
+    writeFully(bb, to);
+  }
+
+  /**
+   * Force moved records to disc before the index points to them, and the index
+   * before their old extents can be overwritten
+   */
+  private void commitMoves(Map<Integer, Idx> pending) throws IOException {
+    if (pending.isEmpty())
+      return;
+    fc.force(false);
+    for (Map.Entry<Integer, Idx> e : pending.entrySet()) {
+      synchronized (lock(e.getKey())) {
+        updateIdx(e.getKey(), e.getValue());
+      }
+    }
+    index.force();
+    pending.clear();
   }
 
   @Override
@@ -101,6 +257,13 @@ public class VariableRecordFile implements RecordFile {
     return new VariableRecordFile(to);
   }
 
+  /**
+   * @return true if this file keeps a checksum of each record
+   */
+  public boolean checksums() {
+    return checksums;
+  }
+
   @Override
   public boolean contains(int record) throws IOException {
     return getIdx(record) != null;
@@ -108,11 +271,18 @@ public class VariableRecordFile implements RecordFile {
 
   @Override
   public boolean delete(int record) throws IOException {
-    if(contains(record)) {
-      updateIdx(record, new NoIdx());
-      return true;
+    flushLock.beginExclusive();
+    try {
+      Idx idx = getIdx(record);
+      if(idx != null) {
+        free.free(idx.offset, idx.size);
+        updateIdx(record, new NoIdx());
+        return true;
+      }
+      return false;
+    } finally {
+      flushLock.endExclusive();
     }
-    return false;
   }
 
   @Override
@@ -126,11 +296,29 @@ public class VariableRecordFile implements RecordFile {
     if(idx == null) return null;
     ByteBuffer bb = ByteBuffer.allocate(idx.size);
     fc.read(bb, idx.offset);
+    if(checksums && !matches(idx, bb.array())) {
+      //a writer or a compaction might have moved the record while it was read
+      synchronized (lock(record)) {
+        idx = getIdx(record);
+        if(idx == null) return null;
+        bb = ByteBuffer.allocate(idx.size);
+        fc.read(bb, idx.offset);
+        if(!matches(idx, bb.array()))
+          throw new ChecksumException(record);
+      }
+    }
     return bb.array();
   }
 
   @Override
   public boolean get(int record, byte[] buffer) throws IOException {
+    if(checksums) {
+      //the whole record is needed to verify it
+      byte[] b = get(record);
+      if(b == null) return false;
+      System.arraycopy(b, 0, buffer, 0, Math.min(b.length, buffer.length));
+      return true;
+    }
     Idx idx = getIdx(record);
     if(idx == null) return false;
     ByteBuffer bb = ByteBuffer.wrap(buffer);
@@ -148,8 +336,7 @@ public class VariableRecordFile implements RecordFile {
   @Override
   public int getFirstRecord() {
     for(int i = 0; i < numRecords; i++){
-      int r = indexBuffer.get(i*2);
-      if(r > 0) return i;
+      if(offset(i) != 0) return i;
     }
     return -1;
   }
@@ -174,30 +361,32 @@ public class VariableRecordFile implements RecordFile {
 
   @Override
   public int insert(byte[] bytes, int offset, int length) throws IOException {
-    int record = nextFreeRecord();
-    Idx idx = new Idx(nextRecordOffset(), length);
-    if(length > 0) {
-      ByteBuffer bb = ByteBuffer.wrap(bytes, offset, length);
-      fc.write(bb, idx.offset);
+    flushLock.beginExclusive();
+    try {
+      int record = nextFreeRecord();
+      if(record < 0)
+        throw new IOException("no free records");
+      write(record, new Idx(allocate(length), length), bytes, offset);
+      return record;
+    } finally {
+      flushLock.endExclusive(length);
     }
-    updateIdx(record, idx);
-    return record;
   }
 
   @Override
   public void insert(int record, byte[] bytes, int offset, int length) throws IOException {
-    if(record >= numRecords)
-      throw new IOException("record out of range");
-    Idx idx = getIdx(record);
-    if(idx != null){
-      update(record, bytes);
-    } else {
-      idx = new Idx(nextRecordOffset(), bytes.length);
-      if(length > 0) {
-        ByteBuffer bb = ByteBuffer.wrap(bytes, offset, length);
-        fc.write(bb, idx.offset);
+    flushLock.beginExclusive();
+    try {
+      if(record >= numRecords)
+        throw new IOException("record out of range");
+      Idx idx = getIdx(record);
+      if(idx != null){
+        update(record, bytes, offset, length);
+      } else {
+        write(record, new Idx(allocate(length), length), bytes, offset);
       }
-      updateIdx(record, idx);
+    } finally {
+      flushLock.endExclusive();
     }
   }
 
@@ -230,28 +419,44 @@ public class VariableRecordFile implements RecordFile {
 
   @Override
   public boolean save() throws IOException {
-    ByteBuffer bb = ByteBuffer.allocate(20);
-    bb.putInt(MAGIC_MARKER);
-    bb.putInt(FILE_VERSION);
-    bb.putInt(numRecords);
-    bb.putInt(reserved);
-    bb.flip();
-    fc.write(bb, headerOffset());
-    return true;
+    flushLock.beginSave();
+    try {
+      ByteBuffer bb = ByteBuffer.allocate(20);
+      bb.putInt(MAGIC_MARKER);
+      bb.putInt(version);
+      bb.putInt(numRecords);
+      bb.putInt(reserved);
+      bb.putInt(checksums ? FLAG_CHECKSUMS : 0);
+      bb.flip();
+      fc.write(bb, headerOffset());
+      return true;
+    } finally {
+      flushLock.endSave();
+    }
+  }
+
+  @Override
+  public long takeBytesWritten() {
+    return flushLock.takeWritten();
   }
 
   @Override
   public void setReserve(byte[] bytes) throws IOException {
-    ByteBuffer bb = ByteBuffer.wrap(bytes);
-    if (bytes.length > reserved) bb.limit(reserved);
-    fc.write(bb, reservedOffset());
+    flushLock.beginWrite();
+    try {
+      ByteBuffer bb = ByteBuffer.wrap(bytes);
+      if (bytes.length > reserved) bb.limit(reserved);
+      fc.write(bb, reservedOffset());
+    } finally {
+      flushLock.endWrite(Math.min(bytes.length, reserved));
+    }
   }
 
   @Override
   public int size() {
     int s = 0;
     for(int i = 0; i < numRecords; i++){
-      if(indexBuffer.get(i*2) != 0)
+      if(offset(i) != 0)
         s++;
     }
     return s;
@@ -259,16 +464,23 @@ public class VariableRecordFile implements RecordFile {
 
   @Override
   public boolean update(int record, byte[] bytes, int offset, int length) throws IOException {
-    Idx idx = getIdx(record);
-    if(idx == null) return false;
-    ByteBuffer bb = ByteBuffer.wrap(bytes, offset, length);
-    if(length > idx.size) {
-      idx.offset = nextRecordOffset();
+    flushLock.beginExclusive();
+    try {
+      Idx idx = getIdx(record);
+      if(idx == null) return false;
+      if(length > idx.size) {
+        free.free(idx.offset, idx.size);
+        idx.offset = allocate(length);
+      } else {
+        //update in place and keep the rest of the extent
+        free.free(idx.offset + length, idx.size - length);
+      }
+      idx.size = length;
+      write(record, idx, bytes, offset);
+      return true;
+    } finally {
+      flushLock.endExclusive(length);
     }
-    idx.size = length;
-    fc.write(bb, idx.offset);
-    updateIdx(record, idx);
-    return true;
   }
 
   protected long blocksOffset(){
@@ -294,24 +506,64 @@ public class VariableRecordFile implements RecordFile {
       throw new IOException("file marker does not match");
 
     int fversion = bb.getInt();
-    if(fversion != FILE_VERSION)
+    if(fversion != FILE_VERSION && fversion != 1)
       throw new IOException("file version does not match: "+fversion+"::"+FILE_VERSION);
 
     numRecords = bb.getInt();
     reserved = bb.getInt();
+    //older version 2 files have 0 here
+    checksums = fversion != 1 && (bb.getInt() & FLAG_CHECKSUMS) != 0;
+
+    version = fversion;
 
     //map the record buffer
-    mbb = fc.map(FileChannel.MapMode.READ_WRITE, indexOffset(), indexSize());
-    indexBuffer = mbb.asIntBuffer();
+    mapIndex();
+    findFree();
 
     return true;
   }
 
   private Idx getIdx(int record){
-    int idxrecord = record * 2;
-    long offset = Integer.toUnsignedLong(indexBuffer.get(idxrecord));
+    long offset = offset(record);
     if(offset == 0) return null;
-    return new Idx(offset, indexBuffer.get(idxrecord+1));
+    return new Idx(offset, index.getInt(record, sizeOffset()),
+        checksums ? index.getInt(record, CRC_OFFSET) : 0);
+  }
+
+  private Integer[] liveRecords(){
+    Integer[] records = new Integer[size()];
+    int j = 0;
+    for(int i = 0; i < numRecords; i++){
+      if(offset(i) != 0)
+        records[j++] = i;
+    }
+    return records;
+  }
+
+  private void readFully(ByteBuffer bb, long offset) throws IOException {
+    while(bb.hasRemaining()){
+      int read = fc.read(bb, offset);
+      if(read < 0)
+        throw new IOException("unexpected end of file");
+      offset += read;
+    }
+  }
+
+  private void writeFully(ByteBuffer bb, long offset) throws IOException {
+    while(bb.hasRemaining())
+      offset += fc.write(bb, offset);
+  }
+
+  private long offset(int record){
+    return version == 1 ? Integer.toUnsignedLong(index.getInt(record, 0)) : index.getLong(record, 0);
+  }
+
+  private int entrySize(){return version == 1 ? 8 : checksums ? 16 : 12;}
+
+  private int sizeOffset(){return version == 1 ? 4 : 8;}
+
+  private void mapIndex() throws IOException {
+    index = new SegmentedMapper(fc, FileChannel.MapMode.READ_WRITE, indexOffset(), numRecords, entrySize());
   }
 
   private int headerOffset(){return 0;}
@@ -320,19 +572,49 @@ public class VariableRecordFile implements RecordFile {
 
   private int indexOffset(){return reservedOffset() + reservedSize();}
 
-  private int indexSize() {return 8 * numRecords;}
+  private long indexSize() {return (long) entrySize() * numRecords;}
 
   private int nextFreeRecord() {
     for(int i = 0; i < numRecords; i++){
-      int r = indexBuffer.get(i*2);
-      if(r == 0) return i;
+      if(offset(i) == 0) return i;
     }
     return -1;
   }
 
+  /**
+   * Find an offset for a new record, reusing free space if possible
+   */
+  private long allocate(int length) throws IOException {
+    if(length > 0) {
+      long offset = free.allocate(length);
+      if(offset < 0)
+        offset = free.allocateTail(fc.size());
+      if(offset >= 0)
+        return offset;
+    }
+    return nextRecordOffset();
+  }
+
+  /**
+   * Rebuild the free extents from the gaps between live records
+   */
+  private void findFree() throws IOException {
+    free.clear();
+    Integer[] records = liveRecords();
+    Arrays.sort(records, Comparator.comparingLong(this::offset));
+    long pos = blocksOffset();
+    for (int record : records) {
+      Idx idx = getIdx(record);
+      if (idx.offset > pos)
+        free.free(pos, idx.offset - pos);
+      pos = Math.max(pos, idx.offset + Math.max(0, idx.size));
+    }
+    free.free(pos, fc.size() - pos);
+  }
+
   private long nextRecordOffset() throws IOException {
     long pos = fc.size();
-    if(pos > MAX_OFFSET_START)
+    if(version == 1 && pos > MAX_OFFSET_START)
       throw new IOException("file offset to large");
     return pos;
   }
@@ -342,19 +624,56 @@ public class VariableRecordFile implements RecordFile {
   private int reservedSize(){return reserved;}
 
   private void updateIdx(int record, Idx idx){
-    int idxrecord = record * 2;
-    indexBuffer.put(idxrecord, (int) idx.offset);
-    indexBuffer.put(idxrecord+1, idx.size);
+    if(version == 1)
+      index.putInt(record, 0, (int) idx.offset);
+    else
+      index.putLong(record, 0, idx.offset);
+    index.putInt(record, sizeOffset(), idx.size);
+    if(checksums)
+      index.putInt(record, CRC_OFFSET, idx.crc);
+  }
+
+  /**
+   * Write a record and then its index entry
+   */
+  private void write(int record, Idx idx, byte[] bytes, int offset) throws IOException {
+    synchronized (lock(record)) {
+      if(idx.size > 0) {
+        if(checksums)
+          idx.crc = crc(bytes, offset, idx.size);
+        writeFully(ByteBuffer.wrap(bytes, offset, idx.size), idx.offset);
+      }
+      updateIdx(record, idx);
+    }
+  }
+
+  private Object lock(int record) {
+    return locks[record & (LOCKS - 1)];
+  }
 
+  private static boolean matches(Idx idx, byte[] bytes) {
+    return idx.size <= 0 || idx.crc == crc(bytes, 0, idx.size);
+  }
+
+  private static int crc(byte[] bytes, int offset, int length) {
+    CRC32C crc = new CRC32C();
+    crc.update(bytes, offset, length);
+    return (int) crc.getValue();
   }
 
   class Idx {
     long offset;
     int size;
+    int crc;
 
     public Idx(long offset, int size){
+      this(offset, size, 0);
+    }
+
+    public Idx(long offset, int size, int crc){
       this.offset = offset;
       this.size = size;
+      this.crc = crc;
     }
   }
 
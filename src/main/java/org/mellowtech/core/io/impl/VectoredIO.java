@@ -0,0 +1,204 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mellowtech.core.io.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+import java.util.function.IntToLongFunction;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Batch reads and writes of fixed size blocks. Records are sorted and runs of adjacent
+ * records are transferred with a single scattering read or gathering write, or for
+ * mapped blocks with a single bulk copy
+ *
+ * @author Martin Svensson {@literal <msvens@gmail.com>}
+ * @since 4.0.0
+ */
+final class VectoredIO {
+
+  /**
+   * Max number of buffers in one scattering read or gathering write
+   */
+  static final int MAX_RUN = 1024;
+
+  private VectoredIO() {
+  }
+
+  /**
+   * Read blocks into buffers. At most blockSize bytes are read into each buffer and its
+   * position is advanced
+   *
+   * @param fc        channel to read from
+   * @param offset    file offset of a record
+   * @param contains  test if a record exists
+   * @param blockSize size of a block
+   * @param records   records to read
+   * @param into      one buffer per record
+   * @return number of records that exist
+   * @throws IOException if the channel throws an exception
+   */
+  static int read(FileChannel fc, IntToLongFunction offset, IntPredicate contains, int blockSize,
+                  int[] records, ByteBuffer[] into) throws IOException {
+    return transfer(fc, offset, contains, blockSize, records, into, false);
+  }
+
+  /**
+   * Write buffers to blocks. At most blockSize bytes are written from each buffer and its
+   * position is advanced
+   *
+   * @param fc        channel to write to
+   * @param offset    file offset of a record
+   * @param contains  test if a record exists
+   * @param blockSize size of a block
+   * @param records   records to write
+   * @param from      one buffer per record
+   * @return number of records that exist
+   * @throws IOException if the channel throws an exception
+   */
+  static int write(FileChannel fc, IntToLongFunction offset, IntPredicate contains, int blockSize,
+                   int[] records, ByteBuffer[] from) throws IOException {
+    return transfer(fc, offset, contains, blockSize, records, from, true);
+  }
+
+  /**
+   * Copy mapped blocks into buffers. At most blockSize bytes are copied into each buffer
+   * and its position is advanced. A run of adjacent records in the same region is copied
+   * with one bulk get if the buffers are consecutive windows of the same array, and
+   * otherwise from one view of the region
+   *
+   * @param region    mapped region holding a record
+   * @param position  position of a record in its region
+   * @param contains  test if a record exists
+   * @param blockSize size of a block
+   * @param records   records to read
+   * @param into      one buffer per record
+   * @return number of records that exist
+   */
+  static int copy(IntFunction<ByteBuffer> region, IntUnaryOperator position, IntPredicate contains,
+                  int blockSize, int[] records, ByteBuffer[] into) {
+    checkLengths(records, into);
+    Integer[] order = sort(records);
+    int n = 0;
+    int i = 0;
+    while (i < order.length) {
+      int first = records[order[i]];
+      if (!contains.test(first)) {
+        i++;
+        continue;
+      }
+      boolean contiguous = into[order[i]].hasArray();
+      int j = i + 1;
+      while (j < order.length &&
+          records[order[j]] == records[order[j - 1]] + 1 &&
+          position.applyAsInt(records[order[j]]) == position.applyAsInt(records[order[j - 1]]) + blockSize &&
+          contains.test(records[order[j]])) {
+        ByteBuffer prev = into[order[j - 1]];
+        ByteBuffer next = into[order[j]];
+        contiguous = contiguous && prev.remaining() >= blockSize && next.hasArray() &&
+            next.array() == prev.array() &&
+            next.arrayOffset() + next.position() == prev.arrayOffset() + prev.position() + blockSize;
+        j++;
+      }
+      ByteBuffer view = region.apply(first).duplicate();
+      int pos = position.applyAsInt(first);
+      if (contiguous) {
+        ByteBuffer head = into[order[i]];
+        int length = (j - i - 1) * blockSize + Math.min(blockSize, into[order[j - 1]].remaining());
+        view.limit(pos + length).position(pos);
+        view.get(head.array(), head.arrayOffset() + head.position(), length);
+        for (int k = i; k < j; k++) {
+          ByteBuffer bb = into[order[k]];
+          bb.position(bb.position() + Math.min(blockSize, bb.remaining()));
+        }
+      } else {
+        for (int k = i; k < j; k++, pos += blockSize) {
+          ByteBuffer bb = into[order[k]];
+          view.limit(pos + Math.min(blockSize, bb.remaining())).position(pos);
+          bb.put(view);
+        }
+      }
+      n += j - i;
+      i = j;
+    }
+    return n;
+  }
+
+  static void checkLengths(int[] records, ByteBuffer[] buffers) {
+    if (records.length != buffers.length)
+      throw new IllegalArgumentException("number of records and buffers differ");
+  }
+
+  private static int transfer(FileChannel fc, IntToLongFunction offset, IntPredicate contains, int blockSize,
+                              int[] records, ByteBuffer[] buffers, boolean write) throws IOException {
+    checkLengths(records, buffers);
+    Integer[] order = sort(records);
+    int n = 0;
+    int i = 0;
+    while (i < order.length) {
+      if (!contains.test(records[order[i]])) {
+        i++;
+        continue;
+      }
+      //a block can only be followed by the next if its buffer holds a full block
+      int j = i + 1;
+      while (j < order.length && j - i < MAX_RUN &&
+          records[order[j]] == records[order[j - 1]] + 1 &&
+          buffers[order[j - 1]].remaining() >= blockSize &&
+          contains.test(records[order[j]]))
+        j++;
+      ByteBuffer[] run = new ByteBuffer[j - i];
+      for (int k = 0; k < run.length; k++) {
+        ByteBuffer bb = buffers[order[i + k]].duplicate();
+        bb.limit(bb.position() + Math.min(blockSize, bb.remaining()));
+        run[k] = bb;
+      }
+      fc.position(offset.applyAsLong(records[order[i]]));
+      ByteBuffer last = run[run.length - 1];
+      if (write) {
+        while (last.hasRemaining())
+          fc.write(run);
+      } else {
+        while (last.hasRemaining()) {
+          if (fc.read(run) < 0)
+            break;
+        }
+      }
+      for (int k = 0; k < run.length; k++)
+        buffers[order[i + k]].position(run[k].position());
+      n += run.length;
+      i = j;
+    }
+    return n;
+  }
+
+  /**
+   * @return indexes of records in record order
+   */
+  private static Integer[] sort(int[] records) {
+    Integer[] order = new Integer[records.length];
+    for (int i = 0; i < order.length; i++)
+      order[i] = i;
+    Arrays.sort(order, Comparator.comparingInt(i -> records[i]));
+    return order;
+  }
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mellowtech.core.sort;
+
+import org.mellowtech.core.codec.BCodec;
+import org.mellowtech.core.codec.CodecUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Sorts an iterator of objects and returns the result as an iterator. Objects are
+ * serialized into one large byte buffer that is sorted on a byte level (just as
+ * in {@link EDiscBasedSort}). When the buffer is full it is spilled to disc as a
+ * sorted run. The runs (and whatever is left in memory) are then merged as the
+ * sorted iterator is consumed, so the sorted result is never written to an output
+ * file.
+ * <p>
+ * The sort is stable, i.e. objects that compare equal are returned in the order they
+ * were read from the input. If the sort is distinct only the last of a group of
+ * equal objects is returned.
+ * </p>
+ *
+ * @param <A> type of objects to sort
+ * @author Martin Svensson {@literal <msvens@gmail.com>}
+ * @since 4.0.0
+ */
+public class IteratorSort<A> {
+
+  static final String SORT_RUN_FILE = "iterator_sort_run.";
+  static final int INITIAL_MEMORY_SIZE = 1024 * 1024;
+
+  private final BCodec<A> codec;
+  private final int blockSize;
+  private final int memorySize;
+  private final int complevel;
+  private final Path tempDir;
+
+  private final Logger logger = LoggerFactory.getLogger(IteratorSort.class);
+
+  /**
+   * Create a new sorter
+   *
+   * @param codec      codec for the objects to sort
+   * @param blockSize  size of each read from a sorted run
+   * @param memorySize max number of bytes to sort in memory
+   * @param complevel  the level of compression for runs from 0 (no compression) to 9 (highest compression)
+   * @param tempDir    temporary directory for sort runs
+   */
+  public IteratorSort(BCodec<A> codec, int blockSize, int memorySize, int complevel, Path tempDir) {
+    if (tempDir == null || !Files.isDirectory(tempDir))
+      throw new IllegalArgumentException("tempdir is null or not a directory");
+    if (memorySize <= blockSize)
+      throw new IllegalArgumentException("memorysize must be greater than blocksize");
+    this.codec = codec;
+    this.blockSize = blockSize;
+    this.memorySize = memorySize;
+    this.complevel = complevel;
+    this.tempDir = tempDir;
+  }
+
+  /**
+   * Sort all objects in an iterator.
+   *
+   * @param input    objects to sort
+   * @param distinct if true only the last of objects that compare equal is returned
+   * @return sorted iterator. Close it to remove any sort runs if it is not fully consumed
+   * @throws IOException if a sort run could not be written
+   */
+  public SortedIterator<A> sort(Iterator<A> input, boolean distinct) throws IOException {
+    List<Run<A>> runs = new ArrayList<>();
+    byte[] buffer = new byte[Math.min(memorySize, INITIAL_MEMORY_SIZE)];
+    Integer[] offsets = new Integer[1024];
+    int numOffsets = 0;
+    int pos = 0;
+    try {
+      while (input.hasNext()) {
+        A a = input.next();
+        int size = codec.byteSize(a);
+        if (size > memorySize)
+          throw new IOException("object larger than sort memory: " + size);
+        if (pos + size > buffer.length && buffer.length < memorySize)
+          buffer = Arrays.copyOf(buffer, (int) Math.min(memorySize, Math.max(buffer.length * 2L, pos + size)));
+        if (pos + size > buffer.length) {
+          runs.add(spill(buffer, offsets, numOffsets, runs.size()));
+          numOffsets = 0;
+          pos = 0;
+        }
+        if (numOffsets == offsets.length)
+          offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        offsets[numOffsets++] = pos;
+        pos += codec.to(a, buffer, pos);
+      }
+      Arrays.sort(offsets, 0, numOffsets, new BComparatorArray<>(codec, buffer));
+      runs.add(new MemoryRun<>(codec, buffer, offsets, numOffsets));
+    } catch (IOException | RuntimeException e) {
+      for (Run<A> r : runs)
+        r.close();
+      throw e;
+    }
+    logger.debug("sorted input in {} runs", runs.size());
+    return new SortedIterator<>(codec, runs, distinct);
+  }
+
+  private Run<A> spill(byte[] buffer, Integer[] offsets, int numOffsets, int run) throws IOException {
+    //Arrays.sort is stable so equal objects keep their input order
+    Arrays.sort(offsets, 0, numOffsets, new BComparatorArray<>(codec, buffer));
+    Path fRun = Files.createTempFile(tempDir, SORT_RUN_FILE, "." + run);
+    ByteBuffer bb = ByteBuffer.wrap(buffer);
+    try (WritableByteChannel fc = complevel > 0 ?
+        Channels.newChannel(new DeflaterOutputStream(Files.newOutputStream(fRun), new Deflater(complevel))) :
+        FileChannel.open(fRun, WRITE)) {
+      ByteBuffer output = ByteBuffer.allocate(blockSize);
+      for (int i = 0; i < numOffsets; i++) {
+        bb.limit(bb.capacity());
+        bb.position(offsets[i]);
+        int size = codec.byteSize(bb);
+        bb.limit(offsets[i] + size);
+        if (size > output.remaining()) {
+          output.flip();
+          while (output.hasRemaining())
+            fc.write(output);
+          output.clear();
+        }
+        if (size > output.capacity()) {
+          while (bb.hasRemaining())
+            fc.write(bb);
+        } else
+          output.put(bb);
+      }
+      output.flip();
+      while (output.hasRemaining())
+        fc.write(output);
+    }
+    logger.debug("spilled sort run {} with {} objects", fRun, numOffsets);
+    ReadableByteChannel rc = complevel > 0 ?
+        Channels.newChannel(new InflaterInputStream(Files.newInputStream(fRun), new Inflater())) :
+        FileChannel.open(fRun, READ);
+    return new DiscRun<>(codec, rc, fRun, blockSize);
+  }
+
+  /**
+   * A sorted run that is merged
+   */
+  private interface Run<A> extends Closeable {
+    /**
+     * @return next object or null if there are no more objects
+     */
+    A next() throws IOException;
+  }
+
+  private static class MemoryRun<A> implements Run<A> {
+    final BCodec<A> codec;
+    final byte[] buffer;
+    final Integer[] offsets;
+    final int numOffsets;
+    int current = 0;
+
+    MemoryRun(BCodec<A> codec, byte[] buffer, Integer[] offsets, int numOffsets) {
+      this.codec = codec;
+      this.buffer = buffer;
+      this.offsets = offsets;
+      this.numOffsets = numOffsets;
+    }
+
+    @Override
+    public A next() {
+      return current < numOffsets ? codec.from(buffer, offsets[current++]) : null;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  private static class DiscRun<A> implements Run<A> {
+    final BCodec<A> codec;
+    final ReadableByteChannel channel;
+    final Path file;
+    ByteBuffer buffer;
+    boolean eof = false;
+
+    DiscRun(BCodec<A> codec, ReadableByteChannel channel, Path file, int blockSize) {
+      this.codec = codec;
+      this.channel = channel;
+      this.file = file;
+      this.buffer = ByteBuffer.allocate(blockSize);
+      this.buffer.flip();
+    }
+
+    @Override
+    public A next() throws IOException {
+      while (true) {
+        if (eof)
+          return buffer.hasRemaining() ? codec.from(buffer) : null;
+        int slack = CodecUtil.slackOrSize(buffer, codec);
+        if (slack > 0)
+          return codec.from(buffer);
+        slack = -slack;
+        if (slack > buffer.capacity() - 4) {
+          //the next object does not fit in the buffer
+          ByteBuffer tmp = ByteBuffer.allocate(buffer.capacity() * 2);
+          tmp.put(buffer);
+          buffer = tmp;
+        } else
+          CodecUtil.copyToBeginning(buffer, slack);
+        while (buffer.hasRemaining()) {
+          if (channel.read(buffer) < 0) {
+            eof = true;
+            break;
+          }
+        }
+        buffer.flip();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+      Files.deleteIfExists(file);
+    }
+  }
+
+  /**
+   * Iterator over the merged sort runs. Closing it removes all sort runs
+   *
+   * @param <A> type of objects
+   */
+  public static class SortedIterator<A> implements Iterator<A>, Closeable {
+
+    private final BCodec<A> codec;
+    private final List<Run<A>> runs;
+    private final PriorityQueue<Head<A>> heap;
+    private final boolean distinct;
+    private A next;
+
+    SortedIterator(BCodec<A> codec, List<Run<A>> runs, boolean distinct) throws IOException {
+      this.codec = codec;
+      this.runs = runs;
+      this.distinct = distinct;
+      //ties are broken on run number so equal objects are returned in input order
+      this.heap = new PriorityQueue<>(Math.max(1, runs.size()), (o1, o2) -> {
+        int cmp = codec.compare(o1.value, o2.value);
+        return cmp != 0 ? cmp : Integer.compare(o1.run, o2.run);
+      });
+      for (int i = 0; i < runs.size(); i++)
+        advance(i);
+      getNext();
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public A next() {
+      if (next == null)
+        throw new NoSuchElementException();
+      A toRet = next;
+      getNext();
+      return toRet;
+    }
+
+    @Override
+    public void close() throws IOException {
+      heap.clear();
+      next = null;
+      for (Run<A> r : runs)
+        r.close();
+    }
+
+    private void getNext() {
+      try {
+        next = poll();
+        if (distinct) {
+          while (next != null && !heap.isEmpty() && codec.compare(next, heap.peek().value) == 0)
+            next = poll();
+        }
+        if (next == null)
+          close();
+      } catch (IOException e) {
+        throw new Error("could not read sort run", e);
+      }
+    }
+
+    private A poll() throws IOException {
+      Head<A> low = heap.poll();
+      if (low == null)
+        return null;
+      advance(low.run);
+      return low.value;
+    }
+
+    private void advance(int run) throws IOException {
+      A a = runs.get(run).next();
+      if (a != null)
+        heap.add(new Head<>(a, run));
+    }
+  }
+
+  private static class Head<A> {
+    final A value;
+    final int run;
+
+    Head(A value, int run) {
+      this.value = value;
+      this.run = run;
+    }
+  }
+}
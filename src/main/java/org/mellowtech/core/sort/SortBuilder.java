@@ -81,6 +81,16 @@ public class SortBuilder <A extends Comparable<A>> {
     }
   }
 
+  /**
+   * Build a sort that reads from and returns an iterator
+   * @return a new iterator sort
+   */
+  public IteratorSort<A> buildIteratorSort(){
+    if(codec == null)
+      throw new NullPointerException("codec cannot be null");
+    return new IteratorSort<>(codec,blockSize,memorySize,compression,tempPath);
+  }
+
 
 
 
@@ -22,9 +22,23 @@ import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.Iterator;
 
 /**
+ * A bit set backed by a (possibly memory mapped) LongBuffer.
+ * <p>
+ * To make finding free (clear) bits fast, e.g. when allocating blocks in a block file,
+ * the set keeps an in-memory summary with one bit per word that is set when the word
+ * is full, and a low-water mark below which all words are full. nextClearBit skips
+ * full words 64 at a time using the summary and starts searching from the low-water mark.
+ * </p>
+ * <p>
+ * The number of set bits is kept incrementally, both in total and per group of 64 words,
+ * so cardinality is constant time and rank/select only have to count bits within a
+ * single group. The counts are derived from the words when a set is opened so the
+ * format of the backing buffer is only the words themselves.
+ * </p>
  * @author msvens
  * @since 24/04/16
  */
@@ -38,6 +52,16 @@ public class MappedBitSet implements Iterable<Integer> {
   private LongBuffer words;
   private int wordsInUse;
   private final int max;
+  //bit i is set if word i is full
+  private long[] fullWords;
+  //all words before lowWater are full
+  private int lowWater;
+  //number of set bits in each group of 64 words
+  private int[] groupCounts;
+  private int count;
+  //range of words changed since the last call to takeDirtyRange
+  private int dirtyFrom = Integer.MAX_VALUE;
+  private int dirtyTo = -1;
 
   public MappedBitSet(int n) {
     checkLow(n-1);
@@ -45,6 +69,7 @@ public class MappedBitSet implements Iterable<Integer> {
     words = LongBuffer.allocate(len);
     wordsInUse = 0;
     max = words.capacity() * 64;
+    initSummary();
   }
 
   public MappedBitSet(LongBuffer lb) {
@@ -52,6 +77,7 @@ public class MappedBitSet implements Iterable<Integer> {
     wordsInUse = lb.capacity();
     recalculateWordsInUse();
     max = words.capacity() * 64;
+    initSummary();
   }
 
   public MappedBitSet(ByteBuffer bb) {
@@ -79,6 +105,26 @@ public class MappedBitSet implements Iterable<Integer> {
       throw new Error(e);
     }
     max = words.capacity() * 64;
+    initSummary();
+  }
+
+  /**
+   * Byte range of the underlying buffer that has changed since the last call, e.g.
+   * to only force the changed part of a mapped bit set
+   * @return {offset, length} in bytes or null if no bits have changed
+   */
+  public int[] takeDirtyRange() {
+    if (dirtyTo < 0)
+      return null;
+    int[] range = {dirtyFrom * 8, (dirtyTo - dirtyFrom + 1) * 8};
+    dirtyFrom = Integer.MAX_VALUE;
+    dirtyTo = -1;
+    return range;
+  }
+
+  private void touch(int idx) {
+    if (idx < dirtyFrom) dirtyFrom = idx;
+    if (idx > dirtyTo) dirtyTo = idx;
   }
 
   public static int maxWordsUsed(int n){
@@ -94,10 +140,51 @@ public class MappedBitSet implements Iterable<Integer> {
   }
 
   public int cardinality() {
+    return count;
+  }
+
+  /**
+   * Number of set bits before a given index
+   * @param n index (exclusive)
+   * @return number of set bits in [0, n)
+   */
+  public int rank(int n) {
+    checkLow(n);
+    if (n >= length())
+      return count;
+    int idx = wordIdx(n);
+    int group = idx >> ADDRESS_BITS_PER_WORD;
     int sum = 0;
-    for (int i = 0; i < wordsInUse; i++)
+    for (int i = 0; i < group; i++)
+      sum += groupCounts[i];
+    for (int i = group << ADDRESS_BITS_PER_WORD; i < idx; i++)
       sum += Long.bitCount(words.get(i));
-    return sum;
+    return sum + Long.bitCount(words.get(idx) & ~(WORD_MASK << n));
+  }
+
+  /**
+   * Index of the k:th (starting at 0) set bit, i.e. the bit for which rank(bit) == k
+   * @param k number of set bits to skip
+   * @return index of the set bit or -1 if k is greater or equal to cardinality()
+   */
+  public int select(int k) {
+    checkLow(k);
+    if (k >= count)
+      return -1;
+    int group = 0;
+    while (k >= groupCounts[group])
+      k -= groupCounts[group++];
+    int idx = group << ADDRESS_BITS_PER_WORD;
+    long word = words.get(idx);
+    int bits;
+    while (k >= (bits = Long.bitCount(word))) {
+      k -= bits;
+      word = words.get(++idx);
+    }
+    //clear the k lowest set bits
+    for (; k > 0; k--)
+      word &= word - 1;
+    return (idx * BITS_PER_WORD) + Long.numberOfTrailingZeros(word);
   }
 
   public int capacity() {
@@ -108,15 +195,30 @@ public class MappedBitSet implements Iterable<Integer> {
     check(n);
     int idx = wordIdx(n);
     if (idx >= wordsInUse) return;
-    long l = words.get(idx) & ~(1L << n);
+    long old = words.get(idx);
+    long l = old & ~(1L << n);
+    if (l == old) return;
     words.put(idx, l);
-    recalculateWordsInUse();
+    touch(idx);
+    updateCount(idx, -1);
+    updateSummary(idx, l);
+    if (l == 0 && idx == wordsInUse - 1)
+      recalculateWordsInUse();
   }
 
   public void clear() {
     for (int i = 0; i < wordsInUse; i++) {
       words.put(i, 0);
     }
+    if (wordsInUse > 0) {
+      touch(0);
+      touch(wordsInUse - 1);
+    }
+    Arrays.fill(fullWords, 0);
+    Arrays.fill(groupCounts, 0);
+    lowWater = 0;
+    count = 0;
+    wordsInUse = 0;
   }
 
   public boolean contains(int n) {
@@ -129,9 +231,14 @@ public class MappedBitSet implements Iterable<Integer> {
   public void flip(int n) {
     check(n);
     int idx = wordIdx(n);
+    expandWordsInUse(idx);
     long l = words.get(idx) ^ (1L << n);
     words.put(idx, l);
-    recalculateWordsInUse();
+    touch(idx);
+    updateCount(idx, (l & (1L << n)) != 0 ? 1 : -1);
+    updateSummary(idx, l);
+    if (l == 0 && idx == wordsInUse - 1)
+      recalculateWordsInUse();
   }
 
   public LongBuffer getBuffer() {
@@ -150,18 +257,26 @@ public class MappedBitSet implements Iterable<Integer> {
   public int nextClearBit(int from) {
     check(from);
     int idx = wordIdx(from);
+    if (idx < lowWater) {
+      idx = lowWater;
+      from = idx * BITS_PER_WORD;
+    }
+    //only move the low-water mark if the whole word was searched
+    boolean fromLow = idx == lowWater && (from & BIT_INDEX_MASK) == 0;
     if (idx >= wordsInUse)
-      return from;
+      return from >= max ? -1 : from;
     long word = ~(words.get(idx)) & (WORD_MASK << from);
-    while (true) {
-      if (word != 0)
-        return (idx * BITS_PER_WORD) + Long.numberOfTrailingZeros(word);
-      if (++idx == wordsInUse) {
-        int ret = wordsInUse * BITS_PER_WORD;
+    if (word == 0) {
+      idx = nextNonFullWord(idx + 1);
+      if (fromLow)
+        lowWater = idx;
+      if (idx >= wordsInUse) {
+        int ret = idx * BITS_PER_WORD;
         return ret >= max ? -1 : ret;
       }
       word = ~(words.get(idx));
     }
+    return (idx * BITS_PER_WORD) + Long.numberOfTrailingZeros(word);
   }
 
   public int nextSetBit(int from) {
@@ -231,8 +346,13 @@ public class MappedBitSet implements Iterable<Integer> {
     check(n);
     int idx = wordIdx(n);
     expandWordsInUse(idx);
-    long l = words.get(idx) | (1L << n);
+    long old = words.get(idx);
+    long l = old | (1L << n);
+    if (l == old) return;
     words.put(idx, l);
+    touch(idx);
+    updateCount(idx, 1);
+    updateSummary(idx, l);
   }
 
   public void set(int n, boolean value){
@@ -272,6 +392,59 @@ public class MappedBitSet implements Iterable<Integer> {
     }
   }
 
+  /**
+   * Index of the first word at or after idx that is not full, using the summary
+   * to skip 64 full words at a time
+   */
+  private int nextNonFullWord(int idx) {
+    int numWords = words.capacity();
+    if (idx >= numWords)
+      return numWords;
+    int u = idx >> ADDRESS_BITS_PER_WORD;
+    long summary = ~fullWords[u] & (WORD_MASK << idx);
+    while (true) {
+      if (summary != 0)
+        return Math.min(numWords, (u * BITS_PER_WORD) + Long.numberOfTrailingZeros(summary));
+      if (++u == fullWords.length)
+        return numWords;
+      summary = ~fullWords[u];
+    }
+  }
+
+  private void updateSummary(int idx, long word) {
+    if (word == WORD_MASK) {
+      fullWords[idx >> ADDRESS_BITS_PER_WORD] |= (1L << idx);
+    } else {
+      fullWords[idx >> ADDRESS_BITS_PER_WORD] &= ~(1L << idx);
+      if (idx < lowWater)
+        lowWater = idx;
+    }
+  }
+
+  private void updateCount(int idx, int delta) {
+    groupCounts[idx >> ADDRESS_BITS_PER_WORD] += delta;
+    count += delta;
+  }
+
+  private void initSummary() {
+    fullWords = new long[(words.capacity() + BITS_PER_WORD - 1) / BITS_PER_WORD];
+    groupCounts = new int[fullWords.length];
+    count = 0;
+    lowWater = -1;
+    for (int i = 0; i < wordsInUse; i++) {
+      long w = words.get(i);
+      int bits = Long.bitCount(w);
+      groupCounts[i >> ADDRESS_BITS_PER_WORD] += bits;
+      count += bits;
+      if (w == WORD_MASK)
+        fullWords[i >> ADDRESS_BITS_PER_WORD] |= (1L << i);
+      else if (lowWater < 0)
+        lowWater = i;
+    }
+    if (lowWater < 0)
+      lowWater = wordsInUse;
+  }
+
   private void recalculateWordsInUse() {
     // Traverse the bitset until a used word is found
     int i;
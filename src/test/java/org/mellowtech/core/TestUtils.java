@@ -23,6 +23,7 @@ import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.function.LongSupplier;
 import org.mellowtech.core.codec.StringCodec;
 import org.mellowtech.core.util.DelDir;
 import org.mellowtech.core.util.Platform;
@@ -35,6 +36,28 @@ import org.mellowtech.core.util.Platform;
  */
 public class TestUtils {
 
+  //results of timed operations, kept so that the operations are not optimized away
+  private static volatile long sink;
+
+  /**
+   * Time an operation for the comparisons in tests tagged as slow. The operation is run
+   * as many times before it is measured, so that it is compiled
+   * @param iterations number of measured runs
+   * @param op operation to time, returns any value derived from its result
+   * @return average nanos per run
+   */
+  public static double nanosPerOp(int iterations, LongSupplier op){
+    long s = 0;
+    for(int i = 0; i < iterations; i++)
+      s += op.getAsLong();
+    long start = System.nanoTime();
+    for(int i = 0; i < iterations; i++)
+      s += op.getAsLong();
+    long elapsed = System.nanoTime() - start;
+    sink += s;
+    return elapsed / (double) iterations;
+  }
+
   /**
    *
    * @param chars
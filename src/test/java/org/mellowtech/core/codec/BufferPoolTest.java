@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mellowtech.core.codec;
+
+import org.junit.jupiter.api.*;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author msvens
+ * @since 4.0.0
+ */
+@DisplayName("A BufferPool")
+class BufferPoolTest {
+
+  @Test
+  @DisplayName("should reuse its buffer in the same thread")
+  void reuse() {
+    BufferPool pool = new BufferPool(false, 1024);
+    ByteBuffer bb = pool.get(10);
+    assertEquals(10, bb.limit());
+    assertEquals(0, bb.position());
+    assertSame(bb, pool.get(20));
+    assertEquals(20, bb.limit());
+  }
+
+  @Test
+  @DisplayName("should grow its buffer up to max size")
+  void grow() {
+    BufferPool pool = new BufferPool(false, 1024);
+    ByteBuffer bb = pool.get(BufferPool.INITIAL_SIZE + 1);
+    assertTrue(bb.capacity() > BufferPool.INITIAL_SIZE);
+    assertSame(bb, pool.get(BufferPool.INITIAL_SIZE + 1));
+    ByteBuffer large = pool.get(1025);
+    assertEquals(1025, large.capacity());
+    assertNotSame(large, pool.get(1025));
+  }
+
+  @Test
+  @DisplayName("should hold direct buffers if direct")
+  void direct() {
+    assertTrue(new BufferPool(true, 1024).get(10).isDirect());
+    assertFalse(new BufferPool(false, 1024).get(10).isDirect());
+    assertFalse(BufferPool.keys().isDirect());
+  }
+
+  @Test
+  @DisplayName("should have one buffer per thread")
+  void threads() throws Exception {
+    BufferPool pool = new BufferPool(false, 1024);
+    ByteBuffer bb = pool.get(10);
+    ByteBuffer other[] = new ByteBuffer[1];
+    Thread t = new Thread(() -> other[0] = pool.get(10));
+    t.start();
+    t.join();
+    assertNotNull(other[0]);
+    assertNotSame(bb, other[0]);
+  }
+
+  @Test
+  @DisplayName("should encode values")
+  void encode() {
+    StringCodec codec = new StringCodec();
+    ByteBuffer bb = BufferPool.keys().encode(codec, "pooled");
+    assertEquals(codec.byteSize("pooled"), bb.remaining());
+    assertEquals("pooled", codec.from(bb));
+  }
+}
@@ -122,4 +122,22 @@ abstract  class CodecCompareTemplate<A> extends CodecTemplate<A> {
     assertTrue(codec().byteCompare(0, size(0), tmpBuff) < 0);
   }
 
+  @Test
+  void testByteCompareSameIBBA(){
+    ByteBuffer a = codec().to(val(0));
+    assertEquals(0, codec().byteCompare(0, a, val(0)));
+  }
+
+  @Test
+  void testByteCompareLessIBBA(){
+    ByteBuffer a = codec().to(val(0));
+    assertTrue(codec().byteCompare(0, a, val(1)) < 0);
+  }
+
+  @Test
+  void testByteCompareGreaterIBBA(){
+    ByteBuffer a = codec().to(val(1));
+    assertTrue(codec().byteCompare(0, a, val(0)) > 0);
+  }
+
 }
@@ -101,6 +101,19 @@ public abstract class CodecTemplate<A> {
     assertEquals(size(0), bb.capacity());
   }
 
+  @Test
+  void testToPool() throws Exception {
+    A a = val(0);
+    ByteBuffer expected = codec().to(a);
+    expected.flip();
+    for(BufferPool pool : new BufferPool[]{new BufferPool(false, 1024), new BufferPool(true, 1024), new BufferPool(false, 0)}) {
+      ByteBuffer bb = codec().to(a, pool);
+      assertEquals(0, bb.position());
+      assertEquals(size(0), bb.limit());
+      assertEquals(expected, bb);
+    }
+  }
+
   @Test
   void testToArray() throws Exception {
     A a = val(0);
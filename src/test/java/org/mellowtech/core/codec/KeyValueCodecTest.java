@@ -0,0 +1,63 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mellowtech.core.codec;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.mellowtech.core.collections.KeyValue;
+import org.mellowtech.core.collections.impl.KeyValueCodec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Values sort in the opposite order of keys so comparisons that read values
+ * would fail
+ *
+ * @author msvens
+ * @since 4.0.0
+ */
+public class KeyValueCodecTest extends CodecCompareTemplate<KeyValue<Integer, String>> {
+
+  @Override
+  public KeyValue<Integer, String> val(int idx) {
+    return idx == 0 ? new KeyValue<>(0, "b") : new KeyValue<>(1, "a");
+  }
+
+  @Override
+  public int size(int idx) {
+    return 1 + 4 + 2;
+  }
+
+  @Override
+  public KeyValueCodec<Integer, String> codec() {
+    return new KeyValueCodec<>(new IntCodec(), new StringCodec());
+  }
+
+  @Test
+  void testFromKey(){
+    ByteBuffer bb = ByteBuffer.allocate(size(0) + size(1));
+    codec().to(val(0), bb);
+    codec().to(val(1), bb);
+    bb.flip();
+    KeyValue<Integer, String> kv = codec().fromKey(bb);
+    assertEquals(0, (int) kv.getKey());
+    assertNull(kv.getValue());
+    assertEquals(size(0), bb.position());
+    assertEquals(val(1).getValue(), codec().from(bb).getValue());
+  }
+}
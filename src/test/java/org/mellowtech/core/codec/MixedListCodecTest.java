@@ -16,9 +16,15 @@
 
 package org.mellowtech.core.codec;
 
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
+import static org.junit.jupiter.api.Assertions.*;
+
 /**
  * @author msvens
  * @since 2017-01-29
@@ -46,4 +52,23 @@ public class MixedListCodecTest extends CodecTemplate<List<Object>> {
   public BCodec<List<Object>> codec() {
     return new MixedListCodec();
   }
+
+  @Test
+  @DisplayName("decode single elements from a view")
+  void listView(){
+    MixedListCodec codec = new MixedListCodec();
+    List<Object> l = new ArrayList<>(val(1));
+    l.add(3L);
+    l.add("three");
+    ByteBuffer bb = codec.to(l);
+    bb.flip();
+    MixedListView view = codec.viewCodec().from(bb);
+    assertFalse(bb.hasRemaining());
+    assertEquals(4, view.size());
+    assertEquals("three", view.get(3));
+    assertEquals(2, view.get(0));
+    assertEquals(l, view);
+    assertEquals(l, view.decode());
+    assertThrows(IndexOutOfBoundsException.class, () -> view.get(4));
+  }
 }
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mellowtech.core.codec;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * @author msvens
+ * @since 4.0.0
+ */
+public class NormalizedKeyCodecTest extends CodecCompareTemplate<NormalizedKey> {
+
+  @Override
+  public NormalizedKey val(int idx) {
+    return NormalizedKey.builder().addString(idx == 0 ? "abc" : "abd").addInt(-idx).build();
+  }
+
+  @Override
+  public int size(int idx) {
+    return 1 + 4 + 4;
+  }
+
+  @Override
+  public NormalizedKeyCodec codec() {
+    return new NormalizedKeyCodec();
+  }
+
+  private static int sign(int cmp) {
+    return Integer.signum(cmp);
+  }
+
+  private int byteCompare(NormalizedKey k1, NormalizedKey k2) {
+    ByteBuffer bb = ByteBuffer.allocateDirect(codec().byteSize(k1) + codec().byteSize(k2));
+    codec().to(k1, bb);
+    codec().to(k2, bb);
+    return codec().byteCompare(0, bb, codec().byteSize(k1), bb);
+  }
+
+  @Test
+  void orderInts() {
+    Random r = new Random(1);
+    int[] edge = {Integer.MIN_VALUE, -1, 0, 1, Integer.MAX_VALUE};
+    for (int i = 0; i < 1000; i++) {
+      int a = i < 25 ? edge[i / 5] : r.nextInt();
+      int b = i < 25 ? edge[i % 5] : r.nextInt();
+      assertEquals(sign(Integer.compare(a, b)), sign(NormalizedKey.of(a).compareTo(NormalizedKey.of(b))));
+      assertEquals(a, NormalizedKey.of(a).reader().getInt());
+    }
+  }
+
+  @Test
+  void orderLongs() {
+    Random r = new Random(1);
+    for (int i = 0; i < 1000; i++) {
+      long a = r.nextLong(), b = r.nextLong();
+      assertEquals(sign(Long.compare(a, b)), sign(NormalizedKey.of(a).compareTo(NormalizedKey.of(b))));
+      assertEquals(a, NormalizedKey.of(a).reader().getLong());
+    }
+  }
+
+  @Test
+  void orderDoubles() {
+    double[] values = {Double.NEGATIVE_INFINITY, -Double.MAX_VALUE, -1.5, -Double.MIN_VALUE, -0.0, 0.0,
+        Double.MIN_VALUE, 1.5, Double.MAX_VALUE, Double.POSITIVE_INFINITY, Double.NaN};
+    for (double a : values) {
+      for (double b : values)
+        assertEquals(sign(Double.compare(a, b)), sign(NormalizedKey.of(a).compareTo(NormalizedKey.of(b))));
+      assertEquals(Double.doubleToLongBits(a), Double.doubleToLongBits(NormalizedKey.of(a).reader().getDouble()));
+      float f = (float) a;
+      NormalizedKey k = NormalizedKey.builder().addFloat(f).build();
+      assertEquals(Float.floatToIntBits(f), Float.floatToIntBits(k.reader().getFloat()));
+    }
+  }
+
+  @Test
+  void orderStrings() {
+    Random r = new Random(1);
+    char[] chars = {'\u0000', 'a', 'b', '~', '\u007f', 'å', '䁾', '䁿', '\ud800', '￿'};
+    for (int i = 0; i < 2000; i++) {
+      String a = randomString(r, chars), b = randomString(r, chars);
+      assertEquals(sign(a.compareTo(b)), sign(NormalizedKey.of(a).compareTo(NormalizedKey.of(b))));
+      assertEquals(sign(a.compareTo(b)), sign(byteCompare(NormalizedKey.of(a), NormalizedKey.of(b))));
+      assertEquals(a, NormalizedKey.of(a).reader().getString());
+    }
+  }
+
+  @Test
+  void orderTuples() {
+    NormalizedKey k1 = NormalizedKey.builder().addString("a").addLong(10).build();
+    NormalizedKey k2 = NormalizedKey.builder().addString("a").addLong(-10).build();
+    NormalizedKey k3 = NormalizedKey.builder().addString("ab").addLong(-10).build();
+    assertTrue(k2.compareTo(k1) < 0);
+    assertTrue(k1.compareTo(k3) < 0);
+    assertTrue(byteCompare(k1, k3) < 0);
+    assertTrue(byteCompare(k1, k2) > 0);
+    NormalizedKey.Reader reader = k3.reader();
+    assertEquals("ab", reader.getString());
+    assertEquals(-10, reader.getLong());
+    assertFalse(reader.hasRemaining());
+  }
+
+  @Test
+  void searchBC() {
+    BBuffer<NormalizedKey> sb = new BBuffer<>(1024, codec(), BBuffer.PtrType.NORMAL);
+    for (int i = 0; i < 50; i++)
+      sb.insert(NormalizedKey.of(i * 2 - 50));
+    for (int i = -51; i < 51; i++)
+      assertEquals(sb.search(NormalizedKey.of(i)), sb.searchBC(NormalizedKey.of(i)));
+  }
+
+  private static String randomString(Random r, char[] chars) {
+    char[] c = new char[r.nextInt(4)];
+    for (int i = 0; i < c.length; i++)
+      c[i] = chars[r.nextInt(chars.length)];
+    return new String(c);
+  }
+}
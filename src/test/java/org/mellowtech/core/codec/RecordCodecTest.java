@@ -16,6 +16,14 @@
 
 package org.mellowtech.core.codec;
 
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
 /**
  * @author msvens
  * @since 2017-01-28
@@ -37,4 +45,85 @@ public class RecordCodecTest extends CodecTemplate<TestRecord> {
     return new RecordCodec<>(TestRecord.class);
   }
 
+  public static class MixedRecord implements BRecord {
+    @BField(1) private Integer i;
+    @BField(2) String s;
+    @BField(4) private Long l;
+    @BField(7) UUID uuid;
+    private Double d;
+
+    @BField(5)
+    public Double getD() {return d;}
+    public void setD(Double d) {this.d = d;}
+  }
+
+  @Test
+  @DisplayName("encode and decode private, method and null fields")
+  void mixedRecord(){
+    RecordCodec<MixedRecord> codec = new RecordCodec<>(MixedRecord.class);
+    MixedRecord r = new MixedRecord();
+    r.i = 1; r.s = "one"; r.l = 2L; r.setD(3.0);
+    MixedRecord r1 = codec.deepCopy(r);
+    assertEquals(r.i, r1.i);
+    assertEquals(r.s, r1.s);
+    assertEquals(r.l, r1.l);
+    assertEquals(r.d, r1.d);
+    assertNull(r1.uuid);
+    r.uuid = UUID.randomUUID();
+    r.s = null;
+    r1 = codec.deepCopy(r);
+    assertEquals(r.uuid, r1.uuid);
+    assertNull(r1.s);
+  }
+
+  @Test
+  @DisplayName("store fields in the ObjectCodec format")
+  void objectCodecFormat(){
+    RecordCodec<MixedRecord> codec = new RecordCodec<>(MixedRecord.class);
+    ObjectCodec oc = new ObjectCodec();
+    MixedRecord r = new MixedRecord();
+    r.i = 10; r.s = "ten";
+    ByteBuffer bb = codec.to(r);
+    assertEquals(codec.byteSize(r), bb.position());
+    bb.flip();
+    CodecUtil.getSize(bb, true);
+    assertEquals(2, bb.getShort());
+    assertEquals(1, bb.getShort());
+    assertEquals(10, oc.from(bb));
+    assertEquals(2, bb.getShort());
+    assertEquals("ten", oc.from(bb));
+    assertFalse(bb.hasRemaining());
+  }
+
+  @Test
+  @DisplayName("decode single fields from a view")
+  void recordView(){
+    RecordCodec<MixedRecord> codec = new RecordCodec<>(MixedRecord.class);
+    RecordViewCodec<MixedRecord> viewCodec = codec.viewCodec();
+    MixedRecord r = new MixedRecord();
+    r.i = 1; r.s = "one"; r.setD(3.0);
+    ByteBuffer bb = ByteBuffer.allocate(100);
+    bb.position(7);
+    codec.to(r, bb);
+    bb.position(7);
+    RecordView<MixedRecord> view = viewCodec.from(bb);
+    assertEquals(codec.byteSize(r), bb.position() - 7);
+    assertEquals(codec.byteSize(r), view.byteSize());
+    assertEquals(Integer.valueOf(1), view.get(1));
+    assertEquals("one", view.get(2));
+    assertEquals(Double.valueOf(3.0), view.get(5));
+    assertTrue(view.has(2));
+    assertFalse(view.has(4));
+    assertNull(view.get(4));
+    assertNull(view.get(3));
+    assertNull(view.get(100));
+    MixedRecord r1 = view.decode();
+    assertEquals(r.s, r1.s);
+    //views are written as the encoded record
+    ByteBuffer copy = viewCodec.to(view);
+    copy.flip();
+    assertEquals("one", codec.from(copy).s);
+    assertEquals(Integer.valueOf(1), viewCodec.view(r).get(1));
+  }
+
 }
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mellowtech.core.codec;
+
+import org.junit.jupiter.api.*;
+import org.mellowtech.core.TestUtils;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares the word at a time encode/decode paths in UtfUtil with the char at a time
+ * code they replaced, for ascii, latin-1 and cjk input. Run with -DexcludeTags=none
+ *
+ * @author msvens
+ * @since 4.0.0
+ */
+@Tag("slow")
+@DisplayName("UtfUtil encode and decode compared to char at a time coding")
+class UtfUtilBenchmarkTest {
+
+  static final int WORDS = 1000;
+  static final int WORD_LENGTH = 32;
+  static final int ITERATIONS = 5000;
+
+  static final String ASCII = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+  //mostly ascii with some 2 byte chars
+  static final String LATIN1 = "abcdefghijklmnopqrstuvwxyzåäöéü";
+  static final String CJK = "一二三四五六七八九十";
+
+  @Test
+  @DisplayName("ascii")
+  void ascii() {
+    compare("ascii", words(ASCII));
+  }
+
+  @Test
+  @DisplayName("latin-1")
+  void latin1() {
+    compare("latin-1", words(LATIN1));
+  }
+
+  @Test
+  @DisplayName("cjk")
+  void cjk() {
+    compare("cjk", words(CJK));
+  }
+
+  static String[] words(String chars) {
+    Random r = new Random(4711);
+    String[] words = new String[WORDS];
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < WORDS; i++) {
+      sb.setLength(0);
+      for (int j = 0; j < WORD_LENGTH; j++)
+        sb.append(chars.charAt(r.nextInt(chars.length())));
+      words[i] = sb.toString();
+    }
+    return words;
+  }
+
+  static void compare(String name, String[] words) {
+    byte[][] encoded = new byte[words.length][];
+    for (int i = 0; i < words.length; i++) {
+      encoded[i] = new byte[perCharLength(words[i])];
+      assertEquals(encoded[i].length, UtfUtil.utfLength(words[i]));
+      perCharEncode(words[i], encoded[i], 0);
+      assertArrayEquals(encoded[i], UtfUtil.encode(words[i]));
+      assertEquals(words[i], UtfUtil.decode(encoded[i], 0, encoded[i].length));
+      assertEquals(words[i], perCharDecode(encoded[i], 0, encoded[i].length));
+    }
+    byte[] buffer = new byte[WORD_LENGTH * 3];
+    double oldLength = TestUtils.nanosPerOp(ITERATIONS, () -> {
+      long n = 0;
+      for (String w : words) n += perCharLength(w);
+      return n;
+    });
+    double newLength = TestUtils.nanosPerOp(ITERATIONS, () -> {
+      long n = 0;
+      for (String w : words) n += UtfUtil.utfLength(w);
+      return n;
+    });
+    double oldEncode = TestUtils.nanosPerOp(ITERATIONS, () -> {
+      long n = 0;
+      for (String w : words) n += perCharEncode(w, buffer, 0);
+      return n;
+    });
+    double newEncode = TestUtils.nanosPerOp(ITERATIONS, () -> {
+      long n = 0;
+      for (String w : words) n += UtfUtil.encode(w, buffer, 0);
+      return n;
+    });
+    double oldDecode = TestUtils.nanosPerOp(ITERATIONS, () -> {
+      long n = 0;
+      for (byte[] b : encoded) n += perCharDecode(b, 0, b.length).length();
+      return n;
+    });
+    double newDecode = TestUtils.nanosPerOp(ITERATIONS, () -> {
+      long n = 0;
+      for (byte[] b : encoded) n += UtfUtil.decode(b, 0, b.length).length();
+      return n;
+    });
+    report(name, "utfLength", oldLength, newLength);
+    report(name, "encode", oldEncode, newEncode);
+    report(name, "decode", oldDecode, newDecode);
+  }
+
+  static void report(String input, String op, double old, double current) {
+    System.out.printf("%s %s: char at a time %.1f ns, fast path %.1f ns per word (%.2fx)%n",
+        input, op, old / WORDS, current / WORDS, old / current);
+  }
+
+  /* the char at a time code from before the fast paths */
+
+  static int perCharLength(String str) {
+    int len = str.length();
+    int c;
+    int utflen = 0;
+    for (int i = 0; i < len; i++) {
+      c = str.charAt(i);
+      if ((c >= 0x0001) && (c <= 0x007F)) {
+        utflen++;
+      } else if (c > 0x07FF) {
+        utflen += 3;
+      } else {
+        utflen += 2;
+      }
+    }
+    return utflen;
+  }
+
+  static int perCharEncode(String str, byte[] b, int offset) {
+    int len = str.length();
+    int c, count = offset;
+    int i;
+    for (i = 0; i < len; i++) {
+      c = str.charAt(i);
+      if (!((c >= 0x0001) && (c <= 0x007F)))
+        break;
+      b[count++] = (byte) c;
+    }
+    for (; i < len; i++) {
+      c = str.charAt(i);
+      if ((c >= 0x0001) && (c <= 0x007F)) {
+        b[count++] = (byte) c;
+      } else if (c > 0x07FF) {
+        b[count++] = (byte) (0xE0 | ((c >> 12) & 0x0F));
+        b[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        b[count++] = (byte) (0x80 | (c & 0x3F));
+      } else {
+        b[count++] = (byte) (0xC0 | ((c >> 6) & 0x1F));
+        b[count++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+    return count - offset;
+  }
+
+  static String perCharDecode(byte[] b, int offset, int length) {
+    int count = offset, cCount = 0;
+    int c, char2, char3;
+    char[] arr = new char[length];
+    int to = offset + length;
+    while (count < to) {
+      c = (int) b[count] & 0xff;
+      if (c > 127)
+        break;
+      count++;
+      arr[cCount++] = (char) c;
+    }
+    while (count < to) {
+      c = (int) b[count] & 0xff;
+      switch (c >> 4) {
+        case 0: case 1: case 2: case 3: case 4: case 5: case 6: case 7:
+          count++;
+          arr[cCount++] = (char) c;
+          break;
+        case 12:
+        case 13:
+          count += 2;
+          if (count > to)
+            throw new Error("malformed input: partial character at end");
+          char2 = (int) b[count - 1];
+          if ((char2 & 0xC0) != 0x80)
+            throw new Error("malformed input around byte " + count);
+          arr[cCount++] = (char) (((c & 0x1F) << 6) | (char2 & 0x3F));
+          break;
+        case 14:
+          count += 3;
+          if (count > to)
+            throw new Error("malformed input: partial character at end");
+          char2 = (int) b[count - 2];
+          char3 = (int) b[count - 1];
+          if (((char2 & 0xC0) != 0x80) || ((char3 & 0xC0) != 0x80))
+            throw new Error("malformed input around byte " + (count - 1));
+          arr[cCount++] = (char) (((c & 0x0F) << 12) | ((char2 & 0x3F) << 6) | (char3 & 0x3F));
+          break;
+        default:
+          throw new Error("malformed input around byte " + count);
+      }
+    }
+    return new String(arr, 0, cCount);
+  }
+}
@@ -76,6 +76,88 @@ class UtfUtilTest {
   }
 
 
+  @Nested
+  @DisplayName("ascii fast paths should")
+  class FastPath{
+
+    final String ascii = "the quick brown fox jumps over the lazy dog";
+    final String latin = "smörgåsbord på svenska är gött";
+    final String cjk = "日本語のテキスト";
+    final String mixed = ascii + two + ascii + three + "\u0000" + ascii;
+
+    void roundTrip(String str){
+      byte[] enc = UtfUtil.encode(str);
+      assertEquals(UtfUtil.utfLength(str), enc.length);
+      assertEquals(UtfUtil.utfLength(str.toCharArray()), enc.length);
+      assertArrayEquals(enc, UtfUtil.encode(str.toCharArray()));
+      assertEquals(str, UtfUtil.decode(enc));
+      assertArrayEquals(str.toCharArray(), UtfUtil.decodeChars(enc));
+      //offset into a larger array
+      byte[] padded = new byte[enc.length + 10];
+      assertEquals(enc.length, UtfUtil.encode(str, padded, 5));
+      assertEquals(str, UtfUtil.decode(padded, 5, enc.length));
+      assertArrayEquals(str.toCharArray(), UtfUtil.decodeChars(padded, 5, enc.length));
+      //heap and direct buffers
+      for(ByteBuffer bb : new ByteBuffer[]{ByteBuffer.allocate(enc.length + 3), ByteBuffer.allocateDirect(enc.length + 3)}){
+        bb.position(3);
+        UtfUtil.encode(str, bb);
+        assertEquals(enc.length + 3, bb.position());
+        bb.position(3);
+        assertEquals(str, UtfUtil.decode(bb, enc.length));
+        assertEquals(enc.length + 3, bb.position());
+        bb.clear().position(3);
+        UtfUtil.encode(str.toCharArray(), bb);
+        bb.position(3);
+        assertArrayEquals(str.toCharArray(), UtfUtil.decodeChars(bb, enc.length));
+        assertEquals(enc.length + 3, bb.position());
+      }
+    }
+
+    @Test
+    @DisplayName("round trip ascii strings")
+    void asciiRoundTrip(){
+      roundTrip(ascii);
+      assertEquals(ascii.length(), UtfUtil.utfLength(ascii));
+    }
+
+    @Test
+    @DisplayName("round trip latin-1 strings")
+    void latinRoundTrip(){
+      roundTrip(latin);
+    }
+
+    @Test
+    @DisplayName("round trip cjk strings")
+    void cjkRoundTrip(){
+      roundTrip(cjk);
+      assertEquals(cjk.length() * 3, UtfUtil.utfLength(cjk));
+    }
+
+    @Test
+    @DisplayName("fall back at the first non ascii char after a long ascii run")
+    void mixedRoundTrip(){
+      roundTrip(mixed);
+      for(int i = 0; i < 20; i++)
+        roundTrip(ascii.substring(0, i) + two + ascii.substring(i));
+    }
+
+    @Test
+    @DisplayName("encode the zero char in two bytes")
+    void zeroChar(){
+      assertEquals(ascii.length() + 2, UtfUtil.utfLength(ascii + "\u0000"));
+      assertEquals(10, UtfUtil.utfLength("\u0000\u0000\u0000\u0000\u0000".toCharArray()));
+    }
+
+    @Test
+    @DisplayName("count leading ascii bytes")
+    void asciiBytes(){
+      byte[] enc = UtfUtil.encode(mixed);
+      assertEquals(ascii.length(), UtfUtil.asciiBytes(enc, 0, enc.length));
+      assertEquals(ascii.length(), UtfUtil.asciiBytes(ByteBuffer.wrap(enc), 0, enc.length));
+      assertEquals(ascii.length(), UtfUtil.asciiChars(mixed));
+    }
+  }
+
   @Nested
   @DisplayName("encoded should")
   class Encode{
@@ -202,6 +284,56 @@ class UtfUtilTest {
     }
   }
 
+  @Nested
+  @DisplayName("byte compare should")
+  class ByteCompare{
+    StringCodec codec = new StringCodec();
+    final String[] strs = {"", "\u0000", "\u0000a", "a", "a\u0000", "ab", "abcdefghijklmnop",
+        "abcdefghijklmnoq", "abcdefghijklmnop" + two, "abcdefghijklmnop" + three, two, two + one,
+        three, "\u00ff", "\u0100", "\u07ff", "\u0800", "\ud83d\ude00", "\uffff", "日本語", "日本"};
+
+    int sign(int v){
+      return Integer.signum(v);
+    }
+
+    @Test
+    @DisplayName("order encoded strings as String.compareTo")
+    void stringOrder(){
+      for(String s1 : strs){
+        for(String s2 : strs){
+          int expected = sign(s1.compareTo(s2));
+          byte[] b1 = codec.to(s1).array();
+          byte[] b2 = codec.to(s2).array();
+          assertEquals(expected, sign(UtfUtil.compare(b1, 0, b2, 0)), s1+" "+s2);
+          assertEquals(expected, sign(UtfUtil.compare(ByteBuffer.wrap(b1), 0, ByteBuffer.wrap(b2), 0)));
+          ByteBuffer d1 = ByteBuffer.allocateDirect(b1.length).put(b1);
+          ByteBuffer d2 = ByteBuffer.allocateDirect(b2.length).put(b2);
+          assertEquals(expected, sign(UtfUtil.compare(d1, 0, d2, 0)), s1+" "+s2);
+          assertEquals(expected, sign(UtfUtil.compare(d1, 0, ByteBuffer.wrap(b2), 0)));
+          byte[] u1 = UtfUtil.encode(s1), u2 = UtfUtil.encode(s2);
+          assertEquals(expected, sign(UtfUtil.cmp(ByteBuffer.wrap(u1), 0, ByteBuffer.wrap(u2), 0, u1.length, u2.length)));
+          d1 = ByteBuffer.allocateDirect(u1.length).put(u1);
+          d2 = ByteBuffer.allocateDirect(u2.length).put(u2);
+          assertEquals(expected, sign(UtfUtil.cmp(d1, 0, d2, 0, null, u1.length, u2.length)));
+        }
+      }
+    }
+
+    @Test
+    @DisplayName("compare strings at an offset")
+    void offsetOrder(){
+      ByteBuffer bb = ByteBuffer.allocate(100);
+      int o1 = 3;
+      bb.position(o1);
+      codec.to("abcdefghijklmnop" + three, bb);
+      int o2 = bb.position();
+      codec.to("abcdefghijklmnop" + two, bb);
+      assertTrue(UtfUtil.compare(bb, o1, bb, o2) > 0);
+      assertTrue(UtfUtil.compare(bb.array(), o2, bb.array(), o1) < 0);
+      assertEquals(0, UtfUtil.compare(bb.array(), o1, bb.array(), o1));
+    }
+  }
+
   @Nested
   @DisplayName("byte[] compare should")
   class ByteArrayCompare{
@@ -24,7 +24,9 @@ import org.mellowtech.core.codec.StringCodec;
 
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 
 /**
  * Created by msvens on 25/11/15.
@@ -641,4 +643,105 @@ public class BBufferTest {
     }
   }
 
+  @Nested
+  @DisplayName("A buffer with bulk operations")
+  class Bulk {
+
+    private void verify(BBuffer<String> b, List<String> expected){
+      assertEquals(expected.size(), b.getNumberOfElements());
+      for(int i = 0; i < expected.size(); i++)
+        assertEquals(expected.get(i), b.get(i));
+      int bytes = 0;
+      for(String str : expected)
+        bytes += codec.byteSize(str);
+      assertEquals(bytes, b.getDataBytes());
+    }
+
+    @Test
+    void insertAllEmpty() {
+      assertEquals(10, sb.insertAll(Arrays.asList(ascend)));
+      verify(sb, Arrays.asList(ascend));
+    }
+
+    @Test
+    void insertAllInterleaved() {
+      for(int i = 0; i < ascend.length; i += 2)
+        sb.insert(ascend[i]);
+      assertEquals(4, sb.insertAll(Arrays.asList(ascend[1], ascend[3], ascend[5], ascend[7])));
+      sb.insertAll(Arrays.asList(ascend[9]));
+      verify(sb, Arrays.asList(ascend));
+    }
+
+    @Test
+    void insertAllNoFit() {
+      putFirst();
+      assertEquals(-1, sb.insertAll(Arrays.asList(ascend[1], new String(new char[wordLen]))));
+      verify(sb, Arrays.asList(ascend[0]));
+    }
+
+    @Test
+    void insertAllUnsorted() {
+      assertThrows(IllegalArgumentException.class, () -> sb.insertAll(Arrays.asList(descend)));
+    }
+
+    @Test
+    void removeRange() {
+      putTen();
+      sb.removeRange(2, 5);
+      verify(sb, Arrays.asList("alpha", "bravo", "foxtrot", "golf", "hotel", "india", "juliet"));
+      sb.removeRange(0, sb.getNumberOfElements());
+      assertTrue(sb.isEmpty());
+      assertEquals(0, sb.getDataBytes());
+    }
+
+    @Test
+    void deferCompaction() {
+      putTen();
+      sb.setDeferCompaction(true);
+      sb.delete(ascend[0]);
+      sb.delete(ascend[9]);
+      verify(sb, Arrays.asList(ascend).subList(1, 9));
+      assertTrue(sb.fits(ascend[0]));
+      assertTrue(sb.insert(ascend[0]) >= 0);
+      assertTrue(sb.insert(ascend[9]) >= 0);
+      verify(sb, Arrays.asList(ascend));
+    }
+
+    @Test
+    void deferCompactionReopen() {
+      putTen();
+      sb.setDeferCompaction(true);
+      sb.removeRange(0, 5);
+      BBuffer<String> other = new BBuffer<>(sb.getBlock(), new StringCodec());
+      verify(other, Arrays.asList(ascend).subList(5, 10));
+      other.compact();
+      verify(new BBuffer<>(sb.getBlock(), new StringCodec()), Arrays.asList(ascend).subList(5, 10));
+    }
+
+    @Test
+    void splitAndMerge() {
+      putTen();
+      sb.delete(ascend[3]);
+      BBuffer<String> nb = sb.split();
+      assertEquals(ascend[9], nb.getLast());
+      assertTrue(sb.getLast().compareTo(nb.getFirst()) < 0);
+      assertEquals(9, sb.getNumberOfElements() + nb.getNumberOfElements());
+      nb.merge(sb);
+      assertEquals(9, nb.getNumberOfElements());
+      assertTrue(nb.isSorted());
+      nb.insert(ascend[3]);
+      verify(nb, Arrays.asList(ascend));
+    }
+
+    @Test
+    void mergeInterleaved() {
+      BBuffer<String> other = newBlock();
+      for(int i = 0; i < ascend.length; i++){
+        if(i % 2 == 0) sb.insert(ascend[i]);
+        else other.insert(ascend[i]);
+      }
+      sb.merge(other);
+      verify(sb, Arrays.asList(ascend));
+    }
+  }
 }
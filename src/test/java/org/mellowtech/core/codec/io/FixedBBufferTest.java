@@ -0,0 +1,183 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mellowtech.core.codec.io;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.mellowtech.core.codec.BBuffer;
+import org.mellowtech.core.codec.IntCodec;
+import org.mellowtech.core.codec.LongCodec;
+import org.mellowtech.core.codec.StringCodec;
+import org.mellowtech.core.collections.KeyValue;
+import org.mellowtech.core.collections.impl.KeyValueCodec;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author msvens
+ * @since 4.0.0
+ */
+@DisplayName("A fixed width BBuffer")
+class FixedBBufferTest {
+
+  static final int MAX = 100;
+  static final int BLOCK_SIZE = BBuffer.bytesNeeded(0, BBuffer.PtrType.NORMAL) + (MAX * 4);
+
+  BBuffer<Integer> sb;
+
+  BBuffer<Integer> newBlock() {
+    ByteBuffer bb = ByteBuffer.allocateDirect(BLOCK_SIZE);
+    return new BBuffer<>(bb, new IntCodec(), BBuffer.PtrType.NORMAL, (short) 0);
+  }
+
+  @BeforeEach
+  void before() {
+    sb = newBlock();
+  }
+
+  private void putEven() {
+    for (int i = MAX - 2; i >= 0; i -= 2)
+      assertTrue(sb.insert(i) >= 0);
+  }
+
+  private void verify(BBuffer<Integer> b, List<Integer> expected) {
+    assertEquals(expected.size(), b.getNumberOfElements());
+    assertEquals(expected.size() * 4, b.getDataBytes());
+    assertEquals(expected.size() * 4, b.getDataAndPointersBytes());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i), b.get(i));
+      assertEquals(i, b.search(expected.get(i)));
+      assertEquals(i, b.searchBC(expected.get(i)));
+    }
+  }
+
+  private List<Integer> range(int from, int to, int step) {
+    List<Integer> l = new ArrayList<>();
+    for (int i = from; i < to; i += step)
+      l.add(i);
+    return l;
+  }
+
+  @Test
+  void fixedWidth() {
+    assertTrue(sb.isFixedWidth());
+    assertEquals(MAX * 4, sb.storageCapacity());
+  }
+
+  @Test
+  void insertAndSearch() {
+    putEven();
+    verify(sb, range(0, MAX, 2));
+    assertEquals(-2, sb.search(1));
+    assertEquals(-(MAX / 2) - 1, sb.search(MAX));
+  }
+
+  @Test
+  void fitsWithoutPointers() {
+    for (int i = 0; i < MAX; i++)
+      assertTrue(sb.insertUnsorted(i));
+    assertFalse(sb.fits(MAX));
+    verify(sb, range(0, MAX, 1));
+  }
+
+  @Test
+  void delete() {
+    putEven();
+    assertEquals(10, (int) sb.delete((Integer) 10));
+    assertEquals(0, (int) sb.delete(0));
+    List<Integer> expected = range(2, MAX, 2);
+    expected.remove((Integer) 10);
+    verify(sb, expected);
+  }
+
+  @Test
+  void insertAll() {
+    putEven();
+    assertEquals(MAX / 2, sb.insertAll(range(1, MAX, 2)));
+    verify(sb, range(0, MAX, 1));
+  }
+
+  @Test
+  void removeRange() {
+    putEven();
+    sb.removeRange(10, 20);
+    List<Integer> expected = range(0, MAX, 2);
+    expected.subList(10, 20).clear();
+    verify(sb, expected);
+  }
+
+  @Test
+  void splitAndMerge() {
+    putEven();
+    BBuffer<Integer> other = sb.split();
+    verify(sb, range(0, MAX / 2, 2));
+    verify(other, range(MAX / 2, MAX, 2));
+    sb.merge(other);
+    verify(sb, range(0, MAX, 2));
+  }
+
+  @Test
+  void mergeInterleaved() {
+    putEven();
+    BBuffer<Integer> other = newBlock();
+    other.insertAll(Arrays.asList(1, 3, 5));
+    sb.merge(other);
+    List<Integer> expected = range(0, MAX, 2);
+    expected.addAll(Arrays.asList(1, 3, 5));
+    expected.sort(null);
+    verify(sb, expected);
+  }
+
+  @Test
+  void reopen() {
+    putEven();
+    BBuffer<Integer> other = new BBuffer<>(sb.getBlock(), new IntCodec());
+    assertTrue(other.isFixedWidth());
+    verify(other, range(0, MAX, 2));
+  }
+
+  @Test
+  void primitiveSearch() {
+    putEven();
+    assertTrue(BBuffer.hasPrimitiveKeys(new IntCodec()));
+    for (int i = 0; i < MAX; i++) {
+      assertEquals(sb.search(i), sb.searchInt(i));
+      assertEquals(sb.search(i), sb.searchKey(i));
+    }
+    assertEquals(sb.search(-1), sb.searchInt(-1));
+  }
+
+  @Test
+  void primitiveSearchKeyValues() {
+    KeyValueCodec<Long, String> codec = new KeyValueCodec<>(new LongCodec(), new StringCodec());
+    BBuffer<KeyValue<Long, String>> kvb = new BBuffer<>(4096, codec, BBuffer.PtrType.NORMAL);
+    assertTrue(BBuffer.hasPrimitiveKeys(codec));
+    assertFalse(kvb.isFixedWidth());
+    for (long l = 0; l < MAX; l += 2)
+      kvb.insert(new KeyValue<>(l, Long.toString(l)));
+    for (long l = -1; l <= MAX; l++) {
+      assertEquals(kvb.search(new KeyValue<>(l)), kvb.searchLong(l));
+      assertEquals(kvb.search(new KeyValue<>(l)), kvb.searchKey(l));
+    }
+    assertThrows(UnsupportedOperationException.class, () ->
+        new BBuffer<>(128, new StringCodec(), BBuffer.PtrType.NORMAL).searchKey("a"));
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mellowtech.core.codec.io;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.mellowtech.core.TestUtils;
+import org.mellowtech.core.codec.BBuffer;
+import org.mellowtech.core.codec.LongCodec;
+import org.mellowtech.core.codec.StringCodec;
+import org.mellowtech.core.collections.KeyValue;
+import org.mellowtech.core.collections.impl.KeyValueCodec;
+
+/**
+ * Compares boxed and primitive lookups in a block. Run with -DexcludeTags=none
+ *
+ * @author msvens
+ * @since 4.0.0
+ */
+@Tag("slow")
+@DisplayName("Primitive block searches compared to boxed searches")
+class PrimitiveSearchBenchmarkTest {
+
+  static final int BLOCK_SIZE = 16 * 1024;
+  static final int ITERATIONS = 1000;
+
+  @Test
+  @DisplayName("should find long keys in a fixed width block")
+  void longs() {
+    BBuffer<Long> sb = new BBuffer<>(BLOCK_SIZE, new LongCodec(), BBuffer.PtrType.NORMAL);
+    long n = 0;
+    while (sb.fits(n))
+      sb.insert(2 * n++);
+    int elements = sb.getNumberOfElements();
+    double boxed = TestUtils.nanosPerOp(ITERATIONS, () -> {
+      long found = 0;
+      for (long k = 0; k < 2 * elements; k++)
+        found += sb.search(k);
+      return found;
+    });
+    double primitive = TestUtils.nanosPerOp(ITERATIONS, () -> {
+      long found = 0;
+      for (long k = 0; k < 2 * elements; k++)
+        found += sb.searchLong(k);
+      return found;
+    });
+    report("long", 2 * elements, boxed, primitive);
+    for (long k = 0; k < 2 * elements; k++)
+      assertEquals(sb.search(k), sb.searchLong(k));
+  }
+
+  @Test
+  @DisplayName("should find long keys in a block of key/values")
+  void longKeyValues() {
+    KeyValueCodec<Long, String> codec = new KeyValueCodec<>(new LongCodec(), new StringCodec());
+    BBuffer<KeyValue<Long, String>> sb = new BBuffer<>(BLOCK_SIZE, codec, BBuffer.PtrType.NORMAL);
+    long n = 0;
+    while (sb.fits(new KeyValue<>(2 * n, "value" + n))) {
+      sb.insert(new KeyValue<>(2 * n, "value" + n));
+      n++;
+    }
+    int elements = sb.getNumberOfElements();
+    double boxed = TestUtils.nanosPerOp(ITERATIONS, () -> {
+      long found = 0;
+      for (long k = 0; k < 2 * elements; k++)
+        found += sb.search(new KeyValue<>(k));
+      return found;
+    });
+    double primitive = TestUtils.nanosPerOp(ITERATIONS, () -> {
+      long found = 0;
+      for (long k = 0; k < 2 * elements; k++)
+        found += sb.searchLong(k);
+      return found;
+    });
+    report("long/string", 2 * elements, boxed, primitive);
+    for (long k = 0; k < 2 * elements; k++)
+      assertEquals(sb.search(new KeyValue<>(k)), sb.searchLong(k));
+  }
+
+  static void report(String name, int lookups, double boxed, double primitive) {
+    System.out.printf("%s lookups: boxed %.1f ns, primitive %.1f ns (%.2fx)%n",
+        name, boxed / lookups, primitive / lookups, boxed / primitive);
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mellowtech.core.codec.io;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.mellowtech.core.TestUtils;
+import org.mellowtech.core.codec.BBuffer;
+import org.mellowtech.core.codec.StringCodec;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * Compares searchBC on string keys using the byte compare in UtfUtil with the char
+ * at a time compare it replaced. Run with -DexcludeTags=none
+ *
+ * @author msvens
+ * @since 4.0.0
+ */
+@Tag("slow")
+@DisplayName("String block searches compared to char at a time compares")
+class StringSearchBenchmarkTest {
+
+  static final int BLOCK_SIZE = 16 * 1024;
+  static final int ITERATIONS = 1000;
+
+  @Test
+  @DisplayName("should find ascii keys with a shared prefix in a heap block")
+  void asciiHeap() {
+    compare("ascii heap", i -> String.format("customer/orders/%08d", i), false);
+  }
+
+  @Test
+  @DisplayName("should find ascii keys with a shared prefix in a direct block")
+  void asciiDirect() {
+    compare("ascii direct", i -> String.format("customer/orders/%08d", i), true);
+  }
+
+  @Test
+  @DisplayName("should find cjk keys in a heap block")
+  void cjkHeap() {
+    compare("cjk heap", i -> "顧客注文" + (char) ('一' + i / 100) + String.format("%02d", i % 100), false);
+  }
+
+  static void compare(String name, IntFunction<String> key, boolean direct) {
+    BBuffer<String> current = block(new StringCodec(), direct);
+    BBuffer<String> old = block(new PerCharStringCodec(), direct);
+    List<String> keys = new ArrayList<>();
+    for (int i = 0; current.fits(key.apply(i)); i++) {
+      String k = key.apply(i);
+      current.insert(k);
+      old.insert(k);
+      keys.add(k);
+    }
+    for (String k : keys)
+      assertEquals(old.searchBC(k), current.searchBC(k));
+    double perChar = TestUtils.nanosPerOp(ITERATIONS, () -> {
+      long found = 0;
+      for (String k : keys)
+        found += old.searchBC(k);
+      return found;
+    });
+    double bytes = TestUtils.nanosPerOp(ITERATIONS, () -> {
+      long found = 0;
+      for (String k : keys)
+        found += current.searchBC(k);
+      return found;
+    });
+    System.out.printf("%s searchBC: char at a time %.1f ns, byte compare %.1f ns (%.2fx)%n",
+        name, perChar / keys.size(), bytes / keys.size(), perChar / bytes);
+  }
+
+  static BBuffer<String> block(StringCodec codec, boolean direct) {
+    return direct ? new BBuffer<>(ByteBuffer.allocateDirect(BLOCK_SIZE), codec, BBuffer.PtrType.NORMAL) :
+        new BBuffer<>(BLOCK_SIZE, codec, BBuffer.PtrType.NORMAL);
+  }
+
+  /**
+   * StringCodec with the char at a time buffer compare from before the byte compare
+   */
+  static class PerCharStringCodec extends StringCodec {
+
+    @Override
+    public int byteCompare(int offset1, ByteBuffer bb1, int offset2, ByteBuffer bb2) {
+      return perCharCompare(bb1, offset1, bb2, offset2);
+    }
+
+    static int perCharCompare(ByteBuffer b1, int o1, ByteBuffer b2, int o2) {
+      int length1, length2, c1, c2, num = 0, i = 0;
+      c1 = (b1.get(o1++) & 0xFF);
+      while ((c1 & 0x80) == 0) {
+        num |= (c1 << (7 * i));
+        c1 = (b1.get(o1++) & 0xFF);
+        i++;
+      }
+      length1 = (num |= ((c1 & ~(0x80)) << (7 * i)));
+      num = 0;
+      i = 0;
+      c1 = (b2.get(o2++) & 0xFF);
+      while ((c1 & 0x80) == 0) {
+        num |= (c1 << (7 * i));
+        c1 = (b2.get(o2++) & 0xFF);
+        i++;
+      }
+      length2 = (num |= ((c1 & ~(0x80)) << (7 * i)));
+
+      int min = Math.min(length1, length2);
+      int count = 0;
+      while (count < min) {
+        c1 = b1.get(o1) & 0xFF;
+        c2 = b2.get(o2) & 0xFF;
+        if (c1 > 127 || c2 > 127)
+          break;
+        if (c1 != c2)
+          return c1 - c2;
+        o1++;
+        o2++;
+        count++;
+      }
+      char cmp1, cmp2;
+      int char2, char3;
+      while (count < min) {
+        c1 = (int) b1.get(o1) & 0xff;
+        switch (c1 >> 4) {
+          case 0: case 1: case 2: case 3: case 4: case 5: case 6: case 7:
+            count++;
+            o1++;
+            cmp1 = (char) c1;
+            break;
+          case 12:
+          case 13:
+            count += 2;
+            o1 += 2;
+            char2 = (int) b1.get(o1 - 1);
+            if ((char2 & 0xC0) != 0x80)
+              throw new Error("malformed input around byte " + o1);
+            cmp1 = (char) (((c1 & 0x1F) << 6) | (char2 & 0x3F));
+            break;
+          case 14:
+            count += 3;
+            o1 += 3;
+            char2 = (int) b1.get(o1 - 2);
+            char3 = (int) b1.get(o1 - 1);
+            if (((char2 & 0xC0) != 0x80) || ((char3 & 0xC0) != 0x80))
+              throw new Error("malformed input around byte " + (o1 - 1));
+            cmp1 = (char) (((c1 & 0x0F) << 12) | ((char2 & 0x3F) << 6) | (char3 & 0x3F));
+            break;
+          default:
+            throw new Error("malformed input around byte " + o1);
+        }
+        c1 = (int) b2.get(o2) & 0xff;
+        switch (c1 >> 4) {
+          case 0: case 1: case 2: case 3: case 4: case 5: case 6: case 7:
+            o2++;
+            cmp2 = (char) c1;
+            break;
+          case 12:
+          case 13:
+            o2 += 2;
+            char2 = (int) b2.get(o2 - 1);
+            if ((char2 & 0xC0) != 0x80)
+              throw new Error("malformed input around byte " + o2);
+            cmp2 = (char) (((c1 & 0x1F) << 6) | (char2 & 0x3F));
+            break;
+          case 14:
+            o2 += 3;
+            char2 = (int) b2.get(o2 - 2);
+            char3 = (int) b2.get(o2 - 1);
+            if (((char2 & 0xC0) != 0x80) || ((char3 & 0xC0) != 0x80))
+              throw new Error("malformed input around byte " + (o2 - 1));
+            cmp2 = (char) (((c1 & 0x0F) << 12) | ((char2 & 0x3F) << 6) | (char3 & 0x3F));
+            break;
+          default:
+            throw new Error("malformed input around byte " + o2);
+        }
+        if (cmp1 != cmp2)
+          return cmp1 - cmp2;
+      }
+      return length1 - length2;
+    }
+  }
+}
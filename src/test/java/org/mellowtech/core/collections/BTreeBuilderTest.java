@@ -0,0 +1,173 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mellowtech.core.collections;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.mellowtech.core.TestUtils;
+import org.mellowtech.core.codec.BField;
+import org.mellowtech.core.codec.BRecord;
+import org.mellowtech.core.codec.IntCodec;
+import org.mellowtech.core.codec.RecordCodec;
+import org.mellowtech.core.codec.RecordView;
+import org.mellowtech.core.codec.StringCodec;
+
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * @author msvens
+ * @since 4.0.0
+ */
+@DisplayName("A BTreeBuilder")
+class BTreeBuilderTest {
+
+  static final String dir = "btreebuildertests";
+  static final int NUM = 10000;
+
+  @BeforeEach
+  void setup() {
+    TestUtils.createTempDir(dir);
+  }
+
+  @AfterEach
+  void after() {
+    TestUtils.deleteTempDir(dir);
+  }
+
+  private BTreeBuilder<String, Integer> builder(boolean memoryIndex, boolean blobs, int cacheFrames) {
+    BTreeBuilder<String, Integer> builder = new BTreeBuilder<>();
+    builder.codecs(new StringCodec(), new IntCodec()).filePath(TestUtils.getAbsolutePath(dir + "/bulk"));
+    builder.valueBlockSize(1024).indexBlockSize(1024).maxBlocks(1024).maxIndexBlocks(64);
+    builder.memoryIndex(memoryIndex).blobValues(blobs).cachedValues(cacheFrames).sortMemorySize(16 * 1024);
+    builder.sortTempDir(TestUtils.getAbsolutePath(dir));
+    return builder;
+  }
+
+  private void bulkBuild(boolean memoryIndex, boolean blobs) throws Exception {
+    bulkBuild(memoryIndex, blobs, 0);
+  }
+
+  private void bulkBuild(boolean memoryIndex, boolean blobs, int cacheFrames) throws Exception {
+    Random r = new Random(1);
+    List<KeyValue<String, Integer>> input = new ArrayList<>();
+    TreeMap<String, Integer> expected = new TreeMap<>();
+    for (int i = 0; i < NUM; i++) {
+      String key = Integer.toString(r.nextInt(NUM), 36);
+      input.add(new KeyValue<>(key, i));
+      expected.put(key, i);
+    }
+    BTree<String, Integer> tree = builder(memoryIndex, blobs, cacheFrames).build(input.iterator());
+    try {
+      assertEquals(expected.size(), tree.size());
+      Iterator<KeyValue<String, Integer>> iter = tree.iterator();
+      for (Map.Entry<String, Integer> e : expected.entrySet()) {
+        KeyValue<String, Integer> kv = iter.next();
+        assertEquals(e.getKey(), kv.getKey());
+        assertEquals(e.getValue(), kv.getValue());
+      }
+      assertFalse(iter.hasNext());
+    } finally {
+      tree.close();
+      tree.delete();
+    }
+  }
+
+  @Test
+  @DisplayName("should bulk build a tree from unsorted key/values")
+  void bulkBuild() throws Exception {
+    bulkBuild(false, false);
+  }
+
+  @Test
+  @DisplayName("should bulk build a tree with an in-memory index")
+  void bulkBuildMemoryIndex() throws Exception {
+    bulkBuild(true, false);
+  }
+
+  @Test
+  @DisplayName("should bulk build a tree with blob values")
+  void bulkBuildBlobs() throws Exception {
+    bulkBuild(false, true);
+  }
+
+  @Test
+  @DisplayName("should bulk build a tree with cached values")
+  void bulkBuildCached() throws Exception {
+    bulkBuild(false, false, 16);
+    bulkBuild(true, false, 16);
+  }
+
+  @Test
+  @DisplayName("should build a tree with long keys")
+  void longKeys() throws Exception {
+    BTree<Long, Integer> tree = BTreeBuilder.longKeys(new IntCodec())
+        .filePath(TestUtils.getAbsolutePath(dir + "/longkeys"))
+        .valueBlockSize(1024).indexBlockSize(1024).maxBlocks(1024).maxIndexBlocks(64).build();
+    try {
+      for (int i = 0; i < NUM; i++)
+        tree.put((long) i * 3, i);
+      assertEquals(NUM, tree.size());
+      for (int i = 0; i < NUM; i++) {
+        assertEquals(i, (int) tree.get((long) i * 3));
+        assertFalse(tree.containsKey((long) i * 3 + 1));
+      }
+    } finally {
+      tree.close();
+      tree.delete();
+    }
+  }
+
+  public static class Rec implements BRecord {
+    @BField(1) public Integer id;
+    @BField(2) public String name;
+  }
+
+  @Test
+  @DisplayName("should read record values as lazy views")
+  void recordViews() throws Exception {
+    RecordCodec<Rec> codec = new RecordCodec<>(Rec.class);
+    Path path = TestUtils.getAbsolutePath(dir + "/records");
+    BTree<Integer, Rec> tree = BTreeBuilder.intKeys(codec).filePath(path)
+        .valueBlockSize(1024).indexBlockSize(1024).maxBlocks(1024).maxIndexBlocks(64).build();
+    for (int i = 0; i < 1000; i++) {
+      Rec r = new Rec();
+      r.id = i;
+      r.name = "name" + i;
+      tree.put(i, r);
+    }
+    tree.close();
+    BTree<Integer, RecordView<Rec>> views = BTreeBuilder.intKeys(codec.viewCodec()).filePath(path)
+        .valueBlockSize(1024).indexBlockSize(1024).maxBlocks(1024).maxIndexBlocks(64).build();
+    try {
+      assertEquals(1000, views.size());
+      assertEquals("name10", views.get(10).get(2));
+      assertEquals("name20", views.getKeyValue(20).getValue().get(2));
+      int i = 0;
+      Iterator<KeyValue<Integer, RecordView<Rec>>> iter = views.iterator();
+      while (iter.hasNext()) {
+        assertEquals(Integer.valueOf(i), iter.next().getValue().get(1));
+        i++;
+      }
+      assertEquals(1000, i);
+    } finally {
+      views.close();
+      views.delete();
+    }
+  }
+}
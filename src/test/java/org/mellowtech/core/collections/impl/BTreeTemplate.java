@@ -78,6 +78,14 @@ abstract class BTreeTemplate extends BMapTemplate{
     void emptyGetPositionWithMissing() throws IOException {
       assertEquals(0, btree().getPositionWithMissing(firstWord).getSmaller());
     }
+
+    @Test
+    void emptyNeighborEntries() throws IOException {
+      assertNull(btree().ceilingEntry(firstWord));
+      assertNull(btree().floorEntry(firstWord));
+      assertNull(btree().higherEntry(firstWord));
+      assertNull(btree().lowerEntry(firstWord));
+    }
   }
 
 
@@ -248,6 +256,37 @@ abstract class BTreeTemplate extends BMapTemplate{
       tenPut();
       assertEquals(3, btree().getPositionWithMissing(forthWord).getSmaller());
     }
+
+    @Test
+    void tenCeilingEntry() throws IOException {
+      tenPut();
+      assertEquals(ascend[3], btree().ceilingEntry(ascend[3]).getKey());
+      assertEquals(ascend[4], btree().ceilingEntry("dz").getKey());
+      assertEquals(val(ascend[4]), btree().ceilingEntry("dz").getValue());
+      assertNull(btree().ceilingEntry("k"));
+    }
+
+    @Test
+    void tenFloorEntry() throws IOException {
+      tenPut();
+      assertEquals(ascend[3], btree().floorEntry(ascend[3]).getKey());
+      assertEquals(ascend[3], btree().floorEntry("dz").getKey());
+      assertNull(btree().floorEntry("a"));
+    }
+
+    @Test
+    void tenHigherEntry() throws IOException {
+      tenPut();
+      assertEquals(ascend[4], btree().higherEntry(ascend[3]).getKey());
+      assertNull(btree().higherEntry(ascend[9]));
+    }
+
+    @Test
+    void tenLowerEntry() throws IOException {
+      tenPut();
+      assertEquals(ascend[2], btree().lowerEntry(ascend[3]).getKey());
+      assertNull(btree().lowerEntry(ascend[0]));
+    }
   }
 
   @Nested
@@ -374,6 +413,29 @@ abstract class BTreeTemplate extends BMapTemplate{
       assertEquals(0, btree().getPositionWithMissing(manySmaller).getSmaller());
       assertEquals(tree.size(), btree().getPositionWithMissing(manyLarger).getSmaller());
     }
+
+    @Test
+    void manyNeighborEntries() throws IOException {
+      manyPut();
+      TreeMap<String, Integer> m = getManyTree();
+      for (String w : mAscend) {
+        assertEquals(m.ceilingKey(w), key(btree().ceilingEntry(w)));
+        assertEquals(m.floorKey(w), key(btree().floorEntry(w)));
+        assertEquals(m.higherKey(w), key(btree().higherEntry(w)));
+        assertEquals(m.lowerKey(w), key(btree().lowerEntry(w)));
+        String missing = w + "z";
+        assertEquals(m.ceilingKey(missing), key(btree().ceilingEntry(missing)));
+        assertEquals(m.lowerKey(missing), key(btree().lowerEntry(missing)));
+      }
+      assertEquals(m.firstKey(), key(btree().ceilingEntry(manySmaller)));
+      assertNull(btree().floorEntry(manySmaller));
+      assertEquals(m.lastKey(), key(btree().floorEntry(manyLarger)));
+      assertNull(btree().higherEntry(manyLarger));
+    }
+
+    private String key(KeyValue<String, Integer> kv) {
+      return kv == null ? null : kv.getKey();
+    }
   }
 
 
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mellowtech.core.collections.impl;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.mellowtech.core.codec.IntCodec;
+
+import java.util.*;
+
+/**
+ * @author msvens
+ * @since 4.0.0
+ */
+@DisplayName("A HybridIndex")
+class HybridIndexTest {
+
+  private static int MANY = HybridIndex.PAGE_SIZE * 10;
+
+  private HybridIndex<Integer> idx;
+
+  @BeforeEach
+  void setup(){
+    idx = new HybridIndex<>(new IntCodec());
+  }
+
+  private void append(int num){
+    for(int i = 0; i < num; i++)
+      idx.insert(idx.size(), i * 2, i);
+  }
+
+  @Test
+  @DisplayName("that is empty")
+  void empty(){
+    assertTrue(idx.isEmpty());
+    assertEquals(0, idx.higher(10));
+    assertEquals(-1, idx.indexOf(10));
+    assertEquals(0, idx.pointers().count());
+  }
+
+  @Test
+  @DisplayName("with appended separators")
+  void appended(){
+    append(MANY);
+    assertEquals(MANY, idx.size());
+    for(int i = 0; i < MANY; i++){
+      assertEquals(i * 2, (int) idx.key(i));
+      assertEquals(i, idx.pointer(i));
+      assertEquals(i + 1, idx.higher(i * 2));
+      assertEquals(i + 1, idx.higher(i * 2 + 1));
+      assertEquals(i, idx.indexOf(i * 2));
+      assertEquals(-1, idx.indexOf(i * 2 + 1));
+    }
+    assertEquals(0, idx.higher(-1));
+    assertArrayEquals(idx.pointers().toArray(), java.util.stream.IntStream.range(0, MANY).toArray());
+  }
+
+  @Test
+  @DisplayName("with random inserts and removes")
+  void random(){
+    TreeMap<Integer, Integer> m = new TreeMap<>();
+    Random r = new Random(1);
+    for(int i = 0; i < MANY * 2; i++){
+      int key = r.nextInt(MANY * 4);
+      if(m.containsKey(key)) continue;
+      m.put(key, i);
+      idx.insert(idx.higher(key), key, i);
+    }
+    verify(m);
+    List<Integer> keys = new ArrayList<>(m.keySet());
+    Collections.shuffle(keys, r);
+    for(int i = 0; i < keys.size() - 10; i++){
+      int key = keys.get(i);
+      idx.remove(idx.indexOf(key));
+      m.remove(key);
+    }
+    verify(m);
+  }
+
+  @Test
+  @DisplayName("that replaces keys and pointers")
+  void replace(){
+    append(MANY);
+    idx.setKey(10, 21);
+    idx.setPointer(10, 1000);
+    assertEquals(10, idx.indexOf(21));
+    assertEquals(1000, idx.pointer(idx.higher(21) - 1));
+    assertEquals(9, idx.pointer(idx.higher(20) - 1));
+  }
+
+  private void verify(TreeMap<Integer,Integer> m){
+    assertEquals(m.size(), idx.size());
+    int i = 0;
+    for(Map.Entry<Integer,Integer> e : m.entrySet()){
+      assertEquals(e.getKey(), idx.key(i));
+      assertEquals((int) e.getValue(), idx.pointer(i));
+      assertEquals(i + 1, idx.higher(e.getKey()));
+      i++;
+    }
+  }
+}
@@ -17,12 +17,30 @@
 package org.mellowtech.core.collections.impl;
 
 import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
 import org.mellowtech.core.codec.IntCodec;
 import org.mellowtech.core.codec.StringCodec;
 import org.mellowtech.core.collections.BMap;
+import org.mellowtech.core.collections.KeyValue;
+import org.mellowtech.core.io.RecordFile;
 import org.mellowtech.core.io.RecordFileBuilder;
+import org.mellowtech.core.TestUtils;
 
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
 
 /**
  * @author msvens
@@ -47,4 +65,211 @@ class HybridTreeTest extends BTreeTemplate {
 
   }
 
+  private Path fileName(){
+    return TestUtils.getAbsolutePath(dir + "/" + fName());
+  }
+
+  private Path indexFile(){
+    return getDir(fileName()).resolve(fName() + ".hidx");
+  }
+
+  private void reopen() throws Exception {
+    tree.close();
+    tree = reopen(fileName(), BUCKET_SIZE, MAX_BUCKETS, INDEX_BLOCK_SIZE, VALUE_BLOCK_SIZE,
+        MAX_INDEX_BLOCKS, MAX_VALUE_BLOCKS);
+  }
+
+  private void verifyMany() throws Exception {
+    assertEquals(manyWords.length, tree.size());
+    for (String w : manyWords)
+      assertEquals(val(w), tree.get(w));
+  }
+
+  @Nested
+  @DisplayName("with a saved index")
+  class SavedIndex {
+
+    @Test
+    @DisplayName("should write the index when closed")
+    void writeOnClose() throws Exception {
+      manyPut();
+      assertFalse(Files.exists(indexFile()));
+      reopen();
+      assertTrue(Files.exists(indexFile()));
+      verifyMany();
+    }
+
+    @Test
+    @DisplayName("should remove the index on modification")
+    void removeOnModification() throws Exception {
+      manyPut();
+      tree.save();
+      assertTrue(Files.exists(indexFile()));
+      tree.remove(manyWords[0]);
+      assertFalse(Files.exists(indexFile()));
+      tree.put(manyWords[0], val(manyWords[0]));
+      reopen();
+      verifyMany();
+    }
+
+    @Test
+    @DisplayName("should rebuild a damaged index")
+    void rebuildDamaged() throws Exception {
+      manyPut();
+      tree.close();
+      try (FileChannel fc = FileChannel.open(indexFile(), StandardOpenOption.WRITE)) {
+        fc.write(ByteBuffer.wrap(new byte[]{1, 2, 3, 4}), fc.size() / 2);
+      }
+      tree = reopen(fileName(), BUCKET_SIZE, MAX_BUCKETS, INDEX_BLOCK_SIZE, VALUE_BLOCK_SIZE,
+          MAX_INDEX_BLOCKS, MAX_VALUE_BLOCKS);
+      verifyMany();
+    }
+
+    @Test
+    @DisplayName("should rebuild a missing index")
+    void rebuildMissing() throws Exception {
+      manyPut();
+      tree.close();
+      Files.delete(indexFile());
+      tree = reopen(fileName(), BUCKET_SIZE, MAX_BUCKETS, INDEX_BLOCK_SIZE, VALUE_BLOCK_SIZE,
+          MAX_INDEX_BLOCKS, MAX_VALUE_BLOCKS);
+      verifyMany();
+    }
+
+    @Test
+    @DisplayName("should not use the value file's reserved space")
+    void keepReserve() throws Exception {
+      Path d = getDir(fileName());
+      RecordFileBuilder builder = new RecordFileBuilder().mem().blockSize(VALUE_BLOCK_SIZE)
+          .maxBlocks(MAX_VALUE_BLOCKS).reserve(64);
+      HybridTree<String, Integer> t = new HybridTree<>(d, "reservetree", new StringCodec(), new IntCodec(), builder);
+      t.put(manyWords[0], val(manyWords[0]));
+      t.close();
+      byte[] reserve = new byte[64];
+      for (int i = 0; i < reserve.length; i++)
+        reserve[i] = (byte) (i + 1);
+      RecordFile values = builder.build(d.resolve("reservetree.val"));
+      values.setReserve(reserve);
+      values.close();
+      t = new HybridTree<>(d, "reservetree", new StringCodec(), new IntCodec(), builder);
+      t.put(manyWords[1], val(manyWords[1]));
+      t.save();
+      t.close();
+      values = builder.build(d.resolve("reservetree.val"));
+      assertArrayEquals(reserve, values.getReserve());
+      values.close();
+      t = new HybridTree<>(d, "reservetree", new StringCodec(), new IntCodec(), builder);
+      assertEquals(val(manyWords[1]), t.get(manyWords[1]));
+      t.delete();
+    }
+  }
+
+  @Nested
+  @DisplayName("with concurrent access")
+  class Concurrent {
+
+    static final int WRITERS = 4;
+    static final int READERS = 2;
+
+    @Test
+    @DisplayName("should put from many threads while iterating")
+    void concurrentPut() throws Exception {
+      ExecutorService executor = Executors.newFixedThreadPool(WRITERS + READERS);
+      AtomicBoolean writing = new AtomicBoolean(true);
+      try {
+        List<Future<?>> writers = new ArrayList<>();
+        for (int t = 0; t < WRITERS; t++) {
+          final int offset = t;
+          writers.add(executor.submit(() -> {
+            for (int i = offset; i < manyWords.length; i += WRITERS)
+              tree.put(manyWords[i], val(manyWords[i]));
+            return null;
+          }));
+        }
+        List<Future<?>> readers = new ArrayList<>();
+        for (int t = 0; t < READERS; t++) {
+          readers.add(executor.submit(() -> {
+            while (writing.get()) {
+              Iterator<KeyValue<String, Integer>> iter = btree().iterator();
+              String prev = null;
+              while (iter.hasNext()) {
+                KeyValue<String, Integer> kv = iter.next();
+                assertEquals(val(kv.getKey()), kv.getValue());
+                if (prev != null)
+                  assertTrue(prev.compareTo(kv.getKey()) < 0);
+                prev = kv.getKey();
+              }
+            }
+            return null;
+          }));
+        }
+        for (Future<?> f : writers)
+          f.get();
+        writing.set(false);
+        for (Future<?> f : readers)
+          f.get();
+      } finally {
+        writing.set(false);
+        executor.shutdown();
+      }
+      verifyMany();
+    }
+
+    @Test
+    @DisplayName("should save a mapped value file while putting from many threads")
+    void concurrentSave() throws Exception {
+      ExecutorService executor = Executors.newFixedThreadPool(WRITERS + 1);
+      AtomicBoolean writing = new AtomicBoolean(true);
+      try {
+        List<Future<?>> writers = new ArrayList<>();
+        for (int t = 0; t < WRITERS; t++) {
+          final int offset = t;
+          writers.add(executor.submit(() -> {
+            for (int i = offset; i < manyWords.length; i += WRITERS)
+              tree.put(manyWords[i], val(manyWords[i]));
+            return null;
+          }));
+        }
+        Future<?> saver = executor.submit(() -> {
+          while (writing.get())
+            tree.save();
+          return null;
+        });
+        for (Future<?> f : writers)
+          f.get();
+        writing.set(false);
+        saver.get();
+      } finally {
+        writing.set(false);
+        executor.shutdown();
+      }
+      reopen();
+      verifyMany();
+    }
+
+    @Test
+    @DisplayName("should remove from many threads")
+    void concurrentRemove() throws Exception {
+      manyPut();
+      ExecutorService executor = Executors.newFixedThreadPool(WRITERS);
+      try {
+        List<Future<?>> writers = new ArrayList<>();
+        for (int t = 0; t < WRITERS; t++) {
+          final int offset = t;
+          writers.add(executor.submit(() -> {
+            for (int i = offset; i < manyWords.length; i += WRITERS)
+              assertEquals(val(manyWords[i]), tree.remove(manyWords[i]));
+            return null;
+          }));
+        }
+        for (Future<?> f : writers)
+          f.get();
+      } finally {
+        executor.shutdown();
+      }
+      assertEquals(0, tree.size());
+      assertFalse(btree().iterator().hasNext());
+    }
+  }
+
 }
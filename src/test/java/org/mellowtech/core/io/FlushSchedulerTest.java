@@ -0,0 +1,212 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mellowtech.core.io;
+
+import org.junit.jupiter.api.*;
+import org.mellowtech.core.TestUtils;
+import org.mellowtech.core.io.impl.BlockFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author msvens
+ * @since 4.0.0
+ */
+@DisplayName("A FlushScheduler")
+class FlushSchedulerTest {
+
+  /**
+   * BlockFile that counts saves
+   */
+  static class CountingFile extends BlockFile {
+    //the constructor saves the file before fields are initialized
+    AtomicInteger saves;
+
+    CountingFile(Path p) throws IOException {
+      super(p, 1024, 10, 0);
+      saves = new AtomicInteger();
+    }
+
+    @Override
+    public boolean save() throws IOException {
+      if (saves != null)
+        saves.incrementAndGet();
+      return super.save();
+    }
+  }
+
+  /**
+   * BlockFile that counts saves that overlap a write
+   */
+  static class WatchedFile extends BlockFile {
+    AtomicInteger saves;
+    AtomicInteger overlaps;
+    volatile boolean writing;
+
+    WatchedFile(Path p) throws IOException {
+      super(p, 1024, 10, 0);
+      saves = new AtomicInteger();
+      overlaps = new AtomicInteger();
+    }
+
+    @Override
+    protected long getOffset(int record) {
+      //called by update while sharing the flush lock with other writers
+      writing = true;
+      try {
+        Thread.sleep(1);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      writing = false;
+      return super.getOffset(record);
+    }
+
+    @Override
+    protected boolean blocksMapped() {
+      //called by save while holding the flush lock exclusively
+      if (saves != null) {
+        saves.incrementAndGet();
+        if (writing)
+          overlaps.incrementAndGet();
+      }
+      return super.blocksMapped();
+    }
+  }
+
+  Path path;
+  CountingFile file;
+
+  @BeforeEach
+  void setup() throws IOException {
+    path = TestUtils.getAbsolutePath("flushSchedulerTest.blf");
+    Files.deleteIfExists(path);
+    file = new CountingFile(path);
+  }
+
+  @AfterEach
+  void after() throws IOException {
+    file.remove();
+  }
+
+  @Test
+  void saveAsync() throws Exception {
+    FlushScheduler scheduler = new FlushScheduler(0, 0);
+    file.insert(new byte[]{1, 2, 3});
+    file.saveAsync(scheduler).get(10, TimeUnit.SECONDS);
+    assertTrue(file.saves.get() >= 1);
+    scheduler.close();
+  }
+
+  @Test
+  void coalesce() throws Exception {
+    FlushScheduler scheduler = new FlushScheduler(TimeUnit.HOURS.toMillis(1), Long.MAX_VALUE);
+    CompletableFuture<Void> f1 = scheduler.save(file);
+    CompletableFuture<Void> f2 = scheduler.save(file);
+    CompletableFuture<Void> f3 = file.saveAsync(scheduler);
+    assertSame(f1, f2);
+    assertSame(f1, f3);
+    assertFalse(f1.isDone());
+    scheduler.close();
+    assertTrue(f1.isDone());
+    assertEquals(1, file.saves.get());
+  }
+
+  @Test
+  void byteThreshold() throws Exception {
+    FlushScheduler scheduler = new FlushScheduler(TimeUnit.HOURS.toMillis(1), 1000);
+    CompletableFuture<Void> f1 = scheduler.save(file, 500);
+    assertFalse(f1.isDone());
+    CompletableFuture<Void> f2 = scheduler.save(file, 500);
+    f2.get(10, TimeUnit.SECONDS);
+    assertTrue(f1.isDone());
+    assertEquals(1, file.saves.get());
+    scheduler.close();
+  }
+
+  @Test
+  void saveAsyncByteThreshold() throws Exception {
+    FlushScheduler scheduler = new FlushScheduler(TimeUnit.HOURS.toMillis(1), 2048);
+    file.insert(new byte[1024]);
+    CompletableFuture<Void> f1 = file.saveAsync(scheduler);
+    assertFalse(f1.isDone());
+    file.insert(new byte[1024]);
+    file.saveAsync(scheduler).get(10, TimeUnit.SECONDS);
+    assertTrue(f1.isDone());
+    assertEquals(1, file.saves.get());
+    scheduler.close();
+  }
+
+  @Test
+  void writeDuringSaveAsync() throws Exception {
+    Path p = TestUtils.getAbsolutePath("flushSchedulerWriteTest.blf");
+    Files.deleteIfExists(p);
+    WatchedFile watched = new WatchedFile(p);
+    for (int i = 0; i < 10; i++)
+      watched.insert(new byte[1024]);
+    FlushScheduler scheduler = new FlushScheduler(0, 0);
+    AtomicBoolean done = new AtomicBoolean();
+    Thread writer = new Thread(() -> {
+      byte[] block = new byte[1024];
+      try {
+        for (int i = 0; i < 500; i++) {
+          Arrays.fill(block, (byte) i);
+          watched.update(i % 10, block);
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      } finally {
+        done.set(true);
+      }
+    });
+    writer.start();
+    while (!done.get())
+      watched.saveAsync(scheduler).get(10, TimeUnit.SECONDS);
+    writer.join();
+    scheduler.close();
+    assertEquals(0, watched.overlaps.get());
+    assertTrue(watched.saves.get() > 0);
+    watched.remove();
+  }
+
+  @Test
+  void interval() throws Exception {
+    FlushScheduler scheduler = new FlushScheduler(10, Long.MAX_VALUE);
+    scheduler.save(file).get(10, TimeUnit.SECONDS);
+    scheduler.save(file).get(10, TimeUnit.SECONDS);
+    assertEquals(2, file.saves.get());
+    scheduler.close();
+  }
+
+  @Test
+  void saveAfterClose() {
+    FlushScheduler scheduler = new FlushScheduler();
+    scheduler.close();
+    CompletableFuture<Void> f = scheduler.save(file);
+    ExecutionException e = assertThrows(ExecutionException.class, f::get);
+    assertTrue(e.getCause() instanceof IOException);
+  }
+}
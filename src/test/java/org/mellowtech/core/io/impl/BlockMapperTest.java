@@ -0,0 +1,187 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mellowtech.core.io.impl;
+
+import org.junit.jupiter.api.*;
+import org.mellowtech.core.TestUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.nio.file.StandardOpenOption.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author msvens
+ * @since 4.0.0
+ */
+@DisplayName("A BlockMapper")
+class BlockMapperTest {
+
+  static final int BLOCK_SIZE = 64;
+  static final int MAX_BLOCKS = 100;
+
+  Path path;
+  FileChannel fc;
+  BlockMapper bmap;
+
+  @BeforeEach
+  void setup() throws IOException {
+    path = TestUtils.getAbsolutePath("blockMapperTest.blf");
+    Files.deleteIfExists(path);
+    fc = FileChannel.open(path, CREATE, READ, WRITE);
+    bmap = new BlockMapper(fc, 0, BLOCK_SIZE, MAX_BLOCKS);
+    bmap.maybeExpand(MAX_BLOCKS - 1);
+  }
+
+  @AfterEach
+  void after() throws IOException {
+    fc.close();
+    Files.deleteIfExists(path);
+  }
+
+  @Test
+  void cleanAfterMap() {
+    assertEquals(0, bmap.dirtyBlocks());
+  }
+
+  @Test
+  void markDirty() {
+    bmap.markDirty(1);
+    bmap.markDirty(2);
+    bmap.markDirty(2);
+    bmap.markDirty(50);
+    assertEquals(3, bmap.dirtyBlocks());
+  }
+
+  @Test
+  void sliceIsNotDirty() {
+    bmap.slice(10).getInt(0);
+    assertEquals(0, bmap.dirtyBlocks());
+  }
+
+  @Test
+  void concurrentMarkDirty() throws Exception {
+    int threads = 4;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        final int offset = t;
+        futures.add(executor.submit(() -> {
+          for (int i = offset; i < MAX_BLOCKS; i += threads) {
+            bmap.markDirty(i);
+            if (i % 10 == 0)
+              bmap.force();
+          }
+        }));
+      }
+      for (Future<?> f : futures)
+        f.get();
+    } finally {
+      executor.shutdown();
+    }
+    //blocks are only cleared by a force after they were marked
+    assertTrue(bmap.dirtyBlocks() <= MAX_BLOCKS);
+    for (int i = 0; i < MAX_BLOCKS; i++)
+      bmap.markDirty(i);
+    assertEquals(MAX_BLOCKS, bmap.dirtyBlocks());
+    bmap.force();
+    assertEquals(0, bmap.dirtyBlocks());
+  }
+
+  @Test
+  void forceClearsDirty() throws IOException {
+    for (int i = 10; i < 20; i++) {
+      bmap.slice(i).putInt(0, i);
+      bmap.markDirty(i);
+    }
+    bmap.slice(40).putInt(0, 40);
+    bmap.markDirty(40);
+    bmap.force();
+    assertEquals(0, bmap.dirtyBlocks());
+    ByteBuffer bb = ByteBuffer.allocate(4);
+    fc.read(bb, 40 * BLOCK_SIZE);
+    assertEquals(40, bb.getInt(0));
+  }
+
+  @Test
+  void forceVisitsDirtyBlocks() {
+    bmap.markDirty(3);
+    bmap.markDirty(70);
+    List<Integer> visited = new ArrayList<>();
+    bmap.force(r -> {
+      assertTrue(bmap.isDirty(r));
+      visited.add(r);
+    });
+    assertEquals(List.of(3, 70), visited);
+    assertFalse(bmap.isDirty(3));
+    assertFalse(bmap.isDirty(70));
+  }
+
+  @Test
+  void concurrentExpand() throws Exception {
+    //1MB blocks in 64MB regions
+    int blockSize = 1024 * 1024;
+    BlockMapper large = new BlockMapper(fc, 0, blockSize, 1000);
+    int regionBlocks = 64;
+    int regions = 4;
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < 2; t++) {
+        futures.add(executor.submit(() -> {
+          for (int r = 0; r < regions; r++) {
+            int record = r * regionBlocks;
+            large.maybeExpand(record);
+            large.markDirty(record);
+            large.find(record).put(0, (byte) 1);
+          }
+          return null;
+        }));
+      }
+      futures.add(executor.submit(() -> {
+        for (int i = 0; i < 20; i++)
+          large.force();
+        return null;
+      }));
+      for (Future<?> f : futures)
+        f.get();
+    } finally {
+      executor.shutdown();
+    }
+    for (int r = 0; r < regions; r++)
+      assertEquals(1, large.find(r * regionBlocks).get(0));
+    large.force();
+    assertEquals(0, large.dirtyBlocks());
+    assertEquals((long) regions * regionBlocks * blockSize, fc.size());
+  }
+
+  @Test
+  void shrinkKeepsDirty() throws IOException {
+    bmap.markDirty(5);
+    bmap.shrink(10);
+    assertEquals(1, bmap.dirtyBlocks());
+  }
+}
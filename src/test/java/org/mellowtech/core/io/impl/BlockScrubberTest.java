@@ -0,0 +1,151 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mellowtech.core.io.impl;
+
+import org.junit.jupiter.api.*;
+import org.mellowtech.core.TestUtils;
+import org.mellowtech.core.io.ChecksumException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author msvens
+ * @since 4.0.0
+ */
+@DisplayName("A BlockScrubber")
+class BlockScrubberTest {
+
+  static final int BLOCK_SIZE = 256;
+  static final int BLOCKS = 20;
+
+  Path path;
+  AbstractBlockFile file;
+
+  @BeforeEach
+  void setup() throws Exception {
+    path = TestUtils.getAbsolutePath("blockScrubberTest.blf");
+    Files.deleteIfExists(path);
+    file = new BlockFile(path, BLOCK_SIZE, BLOCKS * 2, 0, true);
+    byte[] b = new byte[BLOCK_SIZE];
+    for (int i = 0; i < BLOCKS; i++) {
+      Arrays.fill(b, (byte) i);
+      file.insert(b);
+    }
+    file.delete(4);
+  }
+
+  @AfterEach
+  void after() throws Exception {
+    file.remove();
+  }
+
+  @Test
+  @DisplayName("should find no corrupt blocks in an intact file")
+  void intact() throws Exception {
+    BlockScrubber scrubber = new BlockScrubber(file, 0);
+    assertTrue(scrubber.scrub().isEmpty());
+    assertEquals(BLOCKS - 1, scrubber.getVerified());
+    scrubber.close();
+  }
+
+  @Test
+  @DisplayName("should report corrupt blocks")
+  void corrupt() throws Exception {
+    ChecksumBlockFileTest.corrupt(file, 2, 0);
+    ChecksumBlockFileTest.corrupt(file, 11, BLOCK_SIZE - 1);
+    BlockScrubber scrubber = new BlockScrubber(file, 0);
+    assertEquals(List.of(2, 11), scrubber.scrubAsync().get(10, TimeUnit.SECONDS));
+    scrubber.close();
+  }
+
+  @Test
+  @DisplayName("should not report blocks that are updated during the scrub")
+  void concurrentUpdates() throws Exception {
+    //large blocks widen the window between writing a checksum and its block
+    int blockSize = 1 << 16;
+    file.remove();
+    file = new BlockFile(path, blockSize, 4, 0, true);
+    for (int i = 0; i < 4; i++)
+      file.insert(new byte[blockSize]);
+    AtomicBoolean done = new AtomicBoolean();
+    Thread writer = new Thread(() -> {
+      byte[] b = new byte[blockSize];
+      try {
+        for (int i = 0; !done.get(); i++) {
+          Arrays.fill(b, (byte) i);
+          file.update(i % 4, b);
+        }
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    });
+    writer.start();
+    BlockScrubber scrubber = new BlockScrubber(file, 0);
+    try {
+      for (int i = 0; i < 500; i++)
+        assertTrue(scrubber.scrub().isEmpty());
+    } finally {
+      done.set(true);
+      writer.join();
+      scrubber.close();
+    }
+  }
+
+  @Test
+  @DisplayName("should bound the read rate")
+  void rate() throws Exception {
+    //19 blocks of 256 bytes at 25600 bytes per second takes at least 180ms
+    BlockScrubber scrubber = new BlockScrubber(file, BLOCK_SIZE * 100);
+    long start = System.nanoTime();
+    scrubber.scrub();
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(180));
+    scrubber.close();
+  }
+
+  @Test
+  @DisplayName("should scrub a cached block file")
+  void cached() throws Exception {
+    file.remove();
+    file = new CachedBlockFile(path, BLOCK_SIZE, BLOCKS, 0, 4, 1, true);
+    byte[] b = new byte[BLOCK_SIZE];
+    for (int i = 0; i < BLOCKS; i++) {
+      Arrays.fill(b, (byte) i);
+      file.insert(b);
+    }
+    file.save();
+    ChecksumBlockFileTest.corrupt(file, 1, 5);
+    BlockScrubber scrubber = new BlockScrubber(file, 0);
+    assertEquals(List.of(1), scrubber.scrub());
+    scrubber.close();
+    //record 1 has been evicted from the cache
+    assertThrows(ChecksumException.class, () -> file.get(1));
+  }
+
+  @Test
+  @DisplayName("should reject files without checksums")
+  void noChecksums() throws Exception {
+    file.remove();
+    file = new BlockFile(path, BLOCK_SIZE, BLOCKS, 0);
+    assertThrows(IllegalArgumentException.class, () -> new BlockScrubber(file, 0));
+  }
+}
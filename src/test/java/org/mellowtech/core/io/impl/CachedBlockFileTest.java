@@ -0,0 +1,55 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mellowtech.core.io.impl;
+
+import org.junit.jupiter.api.DisplayName;
+import org.mellowtech.core.io.RecordFile;
+
+import java.nio.file.Path;
+
+/**
+ * @author msvens
+ * @since 4.0.0
+ */
+@DisplayName("A CachedBlockFile")
+public class CachedBlockFileTest extends RecordFileTemplate {
+
+  //small cache to force evictions
+  static final int FRAMES = 4;
+  static final int SHARDS = 2;
+
+  @Override
+  public String fname() {return "cachedBlockFileTest.blf";}
+
+  @Override
+  public String fnameMoved() {return "cachedBlockFileTestMoved.blf";}
+
+  @Override
+  public long blocksOffset() {
+    return ((CachedBlockFile) rf).blocksOffset();
+  }
+
+  @Override
+  public RecordFile reopen(Path fname) throws Exception {
+    return new CachedBlockFile(fname, FRAMES, SHARDS);
+  }
+
+  @Override
+  public RecordFile init(int blockSize, int reserve, int maxBlocks, Path fname) throws Exception {
+    return new CachedBlockFile(fname, blockSize, maxBlocks, reserve, FRAMES, SHARDS);
+  }
+
+}
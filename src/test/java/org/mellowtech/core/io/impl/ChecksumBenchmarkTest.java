@@ -0,0 +1,157 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mellowtech.core.io.impl;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.mellowtech.core.TestUtils;
+import org.mellowtech.core.io.RecordFile;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+/**
+ * Compares block reads and writes with checksums on and off. Run with -DexcludeTags=none
+ *
+ * @author msvens
+ * @since 4.0.0
+ */
+@Tag("slow")
+@DisplayName("Block files with checksums compared to block files without")
+class ChecksumBenchmarkTest {
+
+  static final String DIR = "checksumbenchmark";
+  static final int BLOCK_SIZE = 4096;
+  static final int BLOCKS = 256;
+  static final int ITERATIONS = 200;
+
+  interface FileFactory {
+    RecordFile create(Path path, boolean checksums) throws IOException;
+  }
+
+  @BeforeAll
+  static void createDir() {
+    TestUtils.deleteTempDir(DIR);
+    TestUtils.createTempDir(DIR);
+  }
+
+  @AfterAll
+  static void rmDir() {
+    TestUtils.deleteTempDir(DIR);
+  }
+
+  @Test
+  @DisplayName("BlockFile")
+  void blockFile() throws Exception {
+    compare("BlockFile", (p, c) -> new BlockFile(p, BLOCK_SIZE, BLOCKS, 0, c));
+  }
+
+  @Test
+  @DisplayName("MemBlockFile")
+  void memBlockFile() throws Exception {
+    compare("MemBlockFile", (p, c) -> new MemBlockFile(p, BLOCK_SIZE, BLOCKS, 0, c));
+  }
+
+  @Test
+  @DisplayName("SplitBlockFile")
+  void splitBlockFile() throws Exception {
+    compare("SplitBlockFile", (p, c) -> new SplitBlockFile(p, BLOCK_SIZE, BLOCKS, 0, BLOCKS, BLOCK_SIZE, c));
+  }
+
+  @Test
+  @DisplayName("MultiBlockFile")
+  void multiBlockFile() throws Exception {
+    compare("MultiBlockFile", (p, c) -> new MultiBlockFile(BLOCK_SIZE * 64, BLOCK_SIZE, 0, p, c));
+  }
+
+  static void compare(String name, FileFactory factory) throws Exception {
+    RecordFile plain = factory.create(TestUtils.getAbsolutePath(DIR + "/" + name + "plain"), false);
+    RecordFile checked = factory.create(TestUtils.getAbsolutePath(DIR + "/" + name + "checked"), true);
+    try {
+      byte[] block = new byte[BLOCK_SIZE];
+      Arrays.fill(block, (byte) 'a');
+      for (int i = 0; i < BLOCKS; i++) {
+        plain.insert(block);
+        checked.insert(block);
+      }
+      plain.save();
+      checked.save();
+      report(name, "get", ITERATIONS, () -> readAll(plain), () -> readAll(checked));
+      report(name, "update", ITERATIONS, () -> updateAll(plain, block), () -> updateAll(checked, block));
+      report(name, "update+save", ITERATIONS / 10, () -> updateAndSave(plain, block),
+          () -> updateAndSave(checked, block));
+      for (int i = 0; i < BLOCKS; i++)
+        assertArrayEquals(plain.get(i), checked.get(i));
+    } finally {
+      plain.remove();
+      checked.remove();
+    }
+  }
+
+  static long readAll(RecordFile rf) {
+    try {
+      byte[] buffer = new byte[BLOCK_SIZE];
+      long n = 0;
+      for (int i = 0; i < BLOCKS; i++)
+        if (rf.get(i, buffer)) n += buffer[i % BLOCK_SIZE];
+      return n;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  static long updateAll(RecordFile rf, byte[] block) {
+    try {
+      long n = 0;
+      for (int i = 0; i < BLOCKS; i++) {
+        block[0] = (byte) i;
+        if (rf.update(i, block)) n++;
+      }
+      return n;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  static long updateAndSave(RecordFile rf, byte[] block) {
+    try {
+      long n = updateAll(rf, block);
+      rf.save();
+      return n;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Time both operations twice, alternating between them, and report the second round
+   * so that neither side pays for the first page faults or compilation
+   */
+  static void report(String file, String op, int iterations, LongSupplier plainOp, LongSupplier checkedOp) {
+    double plain = 0, checked = 0;
+    for (int round = 0; round < 2; round++) {
+      plain = TestUtils.nanosPerOp(iterations, plainOp);
+      checked = TestUtils.nanosPerOp(iterations, checkedOp);
+    }
+    System.out.printf("%s %s: no checksums %.0f ns, checksums %.0f ns per block (%.2fx)%n",
+        file, op, plain / BLOCKS, checked / BLOCKS, checked / plain);
+  }
+}
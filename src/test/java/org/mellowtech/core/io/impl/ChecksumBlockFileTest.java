@@ -0,0 +1,147 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mellowtech.core.io.impl;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.mellowtech.core.TestUtils;
+import org.mellowtech.core.io.ChecksumException;
+import org.mellowtech.core.io.RecordFile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author msvens
+ * @since 4.0.0
+ */
+@DisplayName("A BlockFile with checksums")
+public class ChecksumBlockFileTest extends RecordFileTemplate {
+
+  @Override
+  public String fname() {return "checksumBlockFileTest.blf";}
+
+  @Override
+  public String fnameMoved() {return "checksumBlockFileTestMoved.blf";}
+
+  @Override
+  public long blocksOffset() {
+    return ((BlockFile) rf).blocksOffset();
+  }
+
+  @Override
+  public RecordFile reopen(Path fname) throws Exception {
+    return new BlockFile(fname);
+  }
+
+  @Override
+  public RecordFile init(int blockSize, int reserve, int maxBlocks, Path fname) throws Exception {
+    return new BlockFile(fname, blockSize, maxBlocks, reserve, true);
+  }
+
+  static void corrupt(AbstractBlockFile file, int record, int offset) throws IOException {
+    try (FileChannel fc = FileChannel.open(file.p, StandardOpenOption.WRITE)) {
+      fc.write(ByteBuffer.wrap(new byte[]{(byte) 0xFF}), file.getOffset(record) + offset);
+    }
+  }
+
+  @Nested
+  @DisplayName("when a block is corrupted ")
+  class Corrupted {
+
+    @Test
+    @DisplayName("should throw when the block is read")
+    void get() throws Exception {
+      fillFile();
+      corrupt((BlockFile) rf, 3, 100);
+      ChecksumException e = assertThrows(ChecksumException.class, () -> rf.get(3));
+      assertEquals(3, e.getRecord());
+      assertArrayEquals(testBlock, rf.get(2));
+    }
+
+    @Test
+    @DisplayName("should fail verification")
+    void verify() throws Exception {
+      fillFile();
+      BlockFile bf = (BlockFile) rf;
+      assertTrue(bf.verify(5));
+      corrupt(bf, 5, 0);
+      assertFalse(bf.verify(5));
+      assertTrue(bf.verify(maxBlocks + 1));
+    }
+
+    @Test
+    @DisplayName("should not throw if reads are not verified")
+    void verifyRate() throws Exception {
+      fillFile();
+      BlockFile bf = (BlockFile) rf;
+      corrupt(bf, 3, 0);
+      bf.setVerifyRate(0);
+      assertNotNull(rf.get(3));
+      assertThrows(IllegalArgumentException.class, () -> bf.setVerifyRate(2));
+    }
+
+    @Test
+    @DisplayName("should be repaired by a full update")
+    void update() throws Exception {
+      fillFile();
+      corrupt((BlockFile) rf, 3, 0);
+      rf.update(3, testBlock);
+      assertArrayEquals(testBlock, rf.get(3));
+    }
+
+    @Test
+    @DisplayName("should be detected after reopen")
+    void reopenFile() throws Exception {
+      fillFile();
+      rf.close();
+      rf = reopen(TestUtils.getAbsolutePath(dir + "/" + fname()));
+      assertTrue(((BlockFile) rf).checksums());
+      corrupt((BlockFile) rf, 7, 10);
+      assertThrows(ChecksumException.class, () -> rf.get(7));
+    }
+  }
+
+  @Test
+  @DisplayName("should keep the checksum of partially updated blocks")
+  void partialUpdate() throws Exception {
+    rf.insert(testBlock);
+    rf.update(0, new byte[]{1, 2, 3});
+    byte[] b = rf.get(0);
+    assertEquals(3, b[2]);
+    assertEquals(testBlock[3], b[3]);
+    assertTrue(((BlockFile) rf).verify(0));
+  }
+
+  @Test
+  @DisplayName("should keep verifying blocks when opened as a MemBlockFile")
+  void mapped() throws Exception {
+    fillFile();
+    rf.close();
+    rf = new MemBlockFile(TestUtils.getAbsolutePath(dir + "/" + fname()));
+    MemBlockFile mf = (MemBlockFile) rf;
+    assertTrue(mf.checksums());
+    assertTrue(mf.verify(3));
+    corrupt(mf, 3, 0);
+    assertThrows(ChecksumException.class, () -> rf.get(3));
+  }
+}
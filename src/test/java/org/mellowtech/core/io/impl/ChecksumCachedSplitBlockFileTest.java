@@ -0,0 +1,98 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mellowtech.core.io.impl;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.mellowtech.core.TestUtils;
+import org.mellowtech.core.io.ChecksumException;
+import org.mellowtech.core.io.RecordFile;
+import org.mellowtech.core.io.SplitRecordFile;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author msvens
+ * @since 4.0.0
+ */
+@DisplayName("A CachedSplitBlockFile with checksums")
+public class ChecksumCachedSplitBlockFileTest extends SplitRecordFileTemplate {
+
+  @Override
+  public String fname() {return "checksumCachedSplitBlockFileTest.blf";}
+
+  @Override
+  public String fnameMoved() {return "checksumCachedSplitBlockFileTestMoved.blf";}
+
+  @Override
+  public long blocksOffset() {
+    return ((CachedSplitBlockFile) rf).blocksOffset();
+  }
+
+  @Override
+  public SplitRecordFile init(int blockSize, int reserve, int maxBlocks, Path fname) throws Exception {
+    return new CachedSplitBlockFile(fname, blockSize, maxBlocks, reserve, maxBlocks, blockSize,
+        CachedSplitBlockFileTest.FRAMES, CachedSplitBlockFileTest.SHARDS, true);
+  }
+
+  @Override
+  public RecordFile reopen(Path fname) throws Exception {
+    return new CachedSplitBlockFile(fname, CachedSplitBlockFileTest.FRAMES, CachedSplitBlockFileTest.SHARDS);
+  }
+
+  @Nested
+  @DisplayName("when a block is corrupted ")
+  class Corrupted {
+
+    @Test
+    @DisplayName("should throw when the block is read into the cache")
+    void get() throws Exception {
+      fillFile();
+      rf.close();
+      rf = reopen(TestUtils.getAbsolutePath(dir + "/" + fname()));
+      rf1 = (SplitRecordFile) rf;
+      assertTrue(((CachedSplitBlockFile) rf).checksums());
+      ChecksumSplitBlockFileTest.corrupt((CachedSplitBlockFile) rf, 3, 100);
+      ChecksumException e = assertThrows(ChecksumException.class, () -> rf.get(3));
+      assertEquals(3, e.getRecord());
+      assertArrayEquals(testBlock, rf.get(2));
+    }
+
+    @Test
+    @DisplayName("should throw when the region block is read")
+    void getRegion() throws Exception {
+      for (int i = 0; i < maxBlocks; i++)
+        rf1.insertRegion(testBlock);
+      ChecksumSplitBlockFileTest.corruptRegion((CachedSplitBlockFile) rf, 4, 100);
+      assertThrows(ChecksumException.class, () -> rf1.getRegion(4));
+    }
+
+    @Test
+    @DisplayName("should fail verification after the block is written back")
+    void verify() throws Exception {
+      fillFile();
+      rf.save();
+      CachedSplitBlockFile cf = (CachedSplitBlockFile) rf;
+      assertTrue(cf.verify(5));
+      ChecksumSplitBlockFileTest.corrupt(cf, 5, 0);
+      assertFalse(cf.verify(5));
+    }
+  }
+}
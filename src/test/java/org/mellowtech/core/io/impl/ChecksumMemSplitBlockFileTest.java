@@ -0,0 +1,113 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mellowtech.core.io.impl;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.mellowtech.core.TestUtils;
+import org.mellowtech.core.io.ChecksumException;
+import org.mellowtech.core.io.RecordFile;
+import org.mellowtech.core.io.SplitRecordFile;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author msvens
+ * @since 4.0.0
+ */
+@DisplayName("A MemSplitBlockFile with checksums")
+public class ChecksumMemSplitBlockFileTest extends SplitRecordFileTemplate {
+
+  @Override
+  public String fname() {return "checksumMemSplitBlockFileTest.blf";}
+
+  @Override
+  public String fnameMoved() {return "checksumMemSplitBlockFileTestMoved.blf";}
+
+  @Override
+  public long blocksOffset() {
+    return ((MemSplitBlockFile) rf).blocksOffset();
+  }
+
+  @Override
+  public SplitRecordFile init(int blockSize, int reserve, int maxBlocks, Path fname) throws Exception {
+    return new MemSplitBlockFile(fname, blockSize, maxBlocks, reserve, maxBlocks, blockSize, true);
+  }
+
+  @Override
+  public RecordFile reopen(Path fname) throws Exception {
+    return new MemSplitBlockFile(fname);
+  }
+
+  @Nested
+  @DisplayName("when a saved block is corrupted ")
+  class Corrupted {
+
+    @Test
+    @DisplayName("should throw when the block is read")
+    void get() throws Exception {
+      fillFile();
+      rf.save();
+      ChecksumSplitBlockFileTest.corrupt((MemSplitBlockFile) rf, 3, 100);
+      ChecksumException e = assertThrows(ChecksumException.class, () -> rf.get(3));
+      assertEquals(3, e.getRecord());
+      assertArrayEquals(testBlock, rf.get(2));
+    }
+
+    @Test
+    @DisplayName("should throw when the region block is read")
+    void getRegion() throws Exception {
+      for (int i = 0; i < maxBlocks; i++)
+        rf1.insertRegion(testBlock);
+      ChecksumSplitBlockFileTest.corruptRegion((MemSplitBlockFile) rf, 4, 100);
+      assertThrows(ChecksumException.class, () -> rf1.getRegion(4));
+      assertFalse(((MemSplitBlockFile) rf).verifyRegion(4));
+    }
+
+    @Test
+    @DisplayName("should be detected after reopen")
+    void reopenFile() throws Exception {
+      fillFile();
+      rf.close();
+      rf = reopen(TestUtils.getAbsolutePath(dir + "/" + fname()));
+      rf1 = (SplitRecordFile) rf;
+      assertTrue(((MemSplitBlockFile) rf).checksums());
+      ChecksumSplitBlockFileTest.corrupt((MemSplitBlockFile) rf, 7, 10);
+      assertThrows(ChecksumException.class, () -> rf.get(7));
+    }
+  }
+
+  @Test
+  @DisplayName("should not verify blocks written through the mapped buffer until they are saved")
+  void mappedWrite() throws Exception {
+    fillFile();
+    rf.save();
+    MemSplitBlockFile mf = (MemSplitBlockFile) rf;
+    rf.markDirty(4);
+    ByteBuffer bb = rf.getMapped(4);
+    bb.put(0, (byte) (testBlock[0] + 1));
+    assertTrue(mf.verify(4));
+    assertEquals(testBlock[0] + 1, rf.get(4)[0]);
+    rf.save();
+    assertTrue(mf.verify(4));
+    assertEquals(testBlock[0] + 1, rf.get(4)[0]);
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mellowtech.core.io.impl;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.mellowtech.core.TestUtils;
+import org.mellowtech.core.io.ChecksumException;
+import org.mellowtech.core.io.RecordFile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author msvens
+ * @since 4.0.0
+ */
+@DisplayName("A MultiBlockFile with checksums")
+public class ChecksumMultiBlockFileTest extends MultiBlockFileTest {
+
+  @Override
+  public String fname() {return "checksumMultiBlockFileTest.mbf";}
+
+  @Override
+  public String fnameMoved() {return "checksumMultiBlockFileTestMoved.mbf";}
+
+  @Override
+  public RecordFile init(int blockSize, int reserve, int maxBlocks, Path fname) throws Exception {
+    return new MultiBlockFile(blockSize * 2, blockSize, reserve, fname, true);
+  }
+
+  static void corrupt(MultiBlockFile file, int record, int offset) throws IOException {
+    int blocksPerFile = 2;
+    int fileId = (record / blocksPerFile) * blocksPerFile;
+    Path data = file.dir.resolve(fileId + "-" + file.name);
+    ChecksumSplitBlockFileTest.corrupt(data,
+        file.blocksOffset() + (long) (record % blocksPerFile) * file.getBlockSize() + offset);
+  }
+
+  @Nested
+  @DisplayName("when a saved block is corrupted ")
+  class Corrupted {
+
+    @Test
+    @DisplayName("should throw when the block is read")
+    void get() throws Exception {
+      fillFile();
+      rf.save();
+      corrupt((MultiBlockFile) rf, 3, 100);
+      ChecksumException e = assertThrows(ChecksumException.class, () -> rf.get(3));
+      assertEquals(3, e.getRecord());
+      assertArrayEquals(testBlock, rf.get(2));
+    }
+
+    @Test
+    @DisplayName("should fail verification")
+    void verify() throws Exception {
+      fillFile();
+      rf.save();
+      MultiBlockFile mf = (MultiBlockFile) rf;
+      assertTrue(mf.verify(5));
+      corrupt(mf, 5, 0);
+      assertFalse(mf.verify(5));
+      assertTrue(mf.verify(maxBlocks + 1));
+    }
+
+    @Test
+    @DisplayName("should be detected after reopen")
+    void reopenFile() throws Exception {
+      fillFile();
+      rf.close();
+      rf = reopen(TestUtils.getAbsolutePath(dir + "/" + fname()));
+      assertTrue(((MultiBlockFile) rf).checksums());
+      corrupt((MultiBlockFile) rf, 7, 10);
+      assertThrows(ChecksumException.class, () -> rf.get(7));
+    }
+  }
+
+  @Test
+  @DisplayName("should not verify blocks written through the mapped buffer until they are saved")
+  void mappedWrite() throws Exception {
+    fillFile();
+    rf.save();
+    MultiBlockFile mf = (MultiBlockFile) rf;
+    rf.markDirty(4);
+    ByteBuffer bb = rf.getMapped(4);
+    bb.put(0, (byte) (testBlock[0] + 1));
+    assertTrue(mf.verify(4));
+    assertEquals(testBlock[0] + 1, rf.get(4)[0]);
+    rf.save();
+    assertTrue(mf.verify(4));
+    assertEquals(testBlock[0] + 1, rf.get(4)[0]);
+  }
+
+  @Test
+  @DisplayName("should open data files without checksums")
+  void noChecksums() throws Exception {
+    rf.remove();
+    rf = new MultiBlockFile(blockSize * 2, blockSize, reserve, TestUtils.getAbsolutePath(dir + "/" + fname()));
+    fillFile();
+    rf.close();
+    rf = new MultiBlockFile(blockSize * 2, blockSize, reserve, TestUtils.getAbsolutePath(dir + "/" + fname()), true);
+    assertFalse(((MultiBlockFile) rf).checksums());
+    assertArrayEquals(testBlock, rf.get(3));
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mellowtech.core.io.impl;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.mellowtech.core.TestUtils;
+import org.mellowtech.core.io.ChecksumException;
+import org.mellowtech.core.io.RecordFile;
+import org.mellowtech.core.io.SplitRecordFile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author msvens
+ * @since 4.0.0
+ */
+@DisplayName("A SplitBlockFile with checksums")
+public class ChecksumSplitBlockFileTest extends SplitRecordFileTemplate {
+
+  @Override
+  public String fname() {return "checksumSplitBlockFileTest.blf";}
+
+  @Override
+  public String fnameMoved() {return "checksumSplitBlockFileTestMoved.blf";}
+
+  @Override
+  public long blocksOffset() {
+    return ((SplitBlockFile) rf).blocksOffset();
+  }
+
+  @Override
+  public SplitRecordFile init(int blockSize, int reserve, int maxBlocks, Path fname) throws Exception {
+    return new SplitBlockFile(fname, blockSize, maxBlocks, reserve, maxBlocks, blockSize, true);
+  }
+
+  @Override
+  public RecordFile reopen(Path fname) throws Exception {
+    return new SplitBlockFile(fname);
+  }
+
+  static void corrupt(AbstractSplitBlockFile file, int record, int offset) throws IOException {
+    corrupt(file.p, file.getOffset(record) + offset);
+  }
+
+  static void corruptRegion(AbstractSplitBlockFile file, int record, int offset) throws IOException {
+    corrupt(file.p, file.regionBlocksOffset() + (long) record * file.getBlockSizeRegion() + offset);
+  }
+
+  static void corrupt(Path p, long position) throws IOException {
+    try (FileChannel fc = FileChannel.open(p, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      ByteBuffer b = ByteBuffer.allocate(1);
+      fc.read(b, position);
+      fc.write(ByteBuffer.wrap(new byte[]{(byte) ~b.get(0)}), position);
+    }
+  }
+
+  void fillRegion() throws Exception {
+    for (int i = 0; i < maxBlocks; i++)
+      rf1.insertRegion(testBlock);
+  }
+
+  @Nested
+  @DisplayName("when a block is corrupted ")
+  class Corrupted {
+
+    @Test
+    @DisplayName("should throw when the block is read")
+    void get() throws Exception {
+      fillFile();
+      corrupt((SplitBlockFile) rf, 3, 100);
+      ChecksumException e = assertThrows(ChecksumException.class, () -> rf.get(3));
+      assertEquals(3, e.getRecord());
+      assertArrayEquals(testBlock, rf.get(2));
+    }
+
+    @Test
+    @DisplayName("should throw when the region block is read")
+    void getRegion() throws Exception {
+      fillRegion();
+      corruptRegion((SplitBlockFile) rf, 4, 100);
+      ChecksumException e = assertThrows(ChecksumException.class, () -> rf1.getRegion(4));
+      assertEquals(4, e.getRecord());
+      assertArrayEquals(testBlock, rf1.getRegion(2));
+    }
+
+    @Test
+    @DisplayName("should fail verification")
+    void verify() throws Exception {
+      fillFile();
+      fillRegion();
+      SplitBlockFile sf = (SplitBlockFile) rf;
+      assertTrue(sf.verify(5));
+      assertTrue(sf.verifyRegion(5));
+      corrupt(sf, 5, 0);
+      corruptRegion(sf, 6, 0);
+      assertFalse(sf.verify(5));
+      assertTrue(sf.verifyRegion(5));
+      assertFalse(sf.verifyRegion(6));
+    }
+
+    @Test
+    @DisplayName("should be detected after reopen")
+    void reopenFile() throws Exception {
+      fillFile();
+      fillRegion();
+      rf.close();
+      rf = reopen(TestUtils.getAbsolutePath(dir + "/" + fname()));
+      rf1 = (SplitRecordFile) rf;
+      assertTrue(((SplitBlockFile) rf).checksums());
+      corrupt((SplitBlockFile) rf, 7, 10);
+      corruptRegion((SplitBlockFile) rf, 7, 10);
+      assertThrows(ChecksumException.class, () -> rf.get(7));
+      assertThrows(ChecksumException.class, () -> rf1.getRegion(7));
+    }
+  }
+
+  @Test
+  @DisplayName("should keep the checksum of partially updated blocks")
+  void partialUpdate() throws Exception {
+    rf.insert(testBlock);
+    rf.update(0, new byte[]{1, 2, 3});
+    rf1.insertRegion(testBlock);
+    rf1.updateRegion(0, new byte[]{1, 2, 3});
+    SplitBlockFile sf = (SplitBlockFile) rf;
+    assertTrue(sf.verify(0));
+    assertTrue(sf.verifyRegion(0));
+    assertEquals(testBlock[3], rf1.getRegion(0)[3]);
+  }
+
+  @Test
+  @DisplayName("should not verify region blocks written through the mapped buffer until they are saved")
+  void mappedRegionWrite() throws Exception {
+    fillRegion();
+    SplitBlockFile sf = (SplitBlockFile) rf;
+    ByteBuffer bb = rf1.getRegionMapped(4);
+    bb.put(0, (byte) (testBlock[0] + 1));
+    assertTrue(sf.verifyRegion(4));
+    assertEquals(testBlock[0] + 1, rf1.getRegion(4)[0]);
+    rf.save();
+    assertTrue(sf.verifyRegion(4));
+    corruptRegion(sf, 4, 0);
+    assertFalse(sf.verifyRegion(4));
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mellowtech.core.io.impl;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.mellowtech.core.TestUtils;
+import org.mellowtech.core.io.ChecksumException;
+import org.mellowtech.core.io.RecordFile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author msvens
+ * @since 4.0.0
+ */
+@DisplayName("A VariableRecordFile with checksums")
+public class ChecksumVariableRecordFileTest extends RecordFileTemplate {
+
+  @Override
+  public String fname() {return "checksumVariableRecordFileTest.blf";}
+
+  @Override
+  public String fnameMoved() {return "checksumVariableRecordFileTestMoved.blf";}
+
+  @Override
+  public long blocksOffset() {
+    return ((VariableRecordFile) rf).blocksOffset();
+  }
+
+  @Override
+  public RecordFile init(int blockSize, int reserve, int maxBlocks, Path fname) throws Exception {
+    return new VariableRecordFile(fname, maxBlocks, reserve, true);
+  }
+
+  @Override
+  public RecordFile reopen(Path fname) throws Exception {
+    return new VariableRecordFile(fname);
+  }
+
+  @Test
+  @Override
+  public void blockSize(){
+    assertEquals(0, rf.getBlockSize());
+  }
+
+  /**
+   * Records inserted into an empty file are stored in record order
+   */
+  void corrupt(int record, int offset) throws IOException {
+    Path p = TestUtils.getAbsolutePath(dir + "/" + fname());
+    try (FileChannel fc = FileChannel.open(p, StandardOpenOption.WRITE)) {
+      long pos = blocksOffset() + (long) record * testBlock.length + offset;
+      fc.write(ByteBuffer.wrap(new byte[]{(byte) (testBlock[offset] + 1)}), pos);
+    }
+  }
+
+  @Nested
+  @DisplayName("when a record is corrupted ")
+  class Corrupted {
+
+    @Test
+    @DisplayName("should throw when the record is read")
+    void get() throws Exception {
+      fillFile();
+      corrupt(3, 10);
+      ChecksumException e = assertThrows(ChecksumException.class, () -> rf.get(3));
+      assertEquals(3, e.getRecord());
+      assertThrows(ChecksumException.class, () -> rf.get(3, new byte[4]));
+      assertArrayEquals(testBlock, rf.get(2));
+      assertArrayEquals(testBlock, rf.get(4));
+    }
+
+    @Test
+    @DisplayName("should be repaired by an update")
+    void update() throws Exception {
+      fillFile();
+      corrupt(3, 0);
+      rf.update(3, testBlock);
+      assertArrayEquals(testBlock, rf.get(3));
+    }
+
+    @Test
+    @DisplayName("should be detected after reopen")
+    void reopenFile() throws Exception {
+      fillFile();
+      rf.close();
+      rf = reopen(TestUtils.getAbsolutePath(dir + "/" + fname()));
+      assertTrue(((VariableRecordFile) rf).checksums());
+      corrupt(7, 0);
+      assertThrows(ChecksumException.class, () -> rf.get(7));
+    }
+  }
+
+  @Test
+  @DisplayName("should keep checksums when records are compacted")
+  void compactChecksums() throws Exception {
+    fillFile();
+    rf.delete(0);
+    rf.delete(4);
+    rf.compact();
+    for (int i = 1; i < maxBlocks; i++) {
+      if (i != 4)
+        assertArrayEquals(testBlock, rf.get(i));
+    }
+  }
+
+  @Test
+  @DisplayName("should not keep checksums unless asked to")
+  void noChecksums() throws Exception {
+    rf.remove();
+    rf = new VariableRecordFile(TestUtils.getAbsolutePath(dir + "/" + fname()), maxBlocks, reserve);
+    rf.close();
+    rf = reopen(TestUtils.getAbsolutePath(dir + "/" + fname()));
+    assertFalse(((VariableRecordFile) rf).checksums());
+  }
+}
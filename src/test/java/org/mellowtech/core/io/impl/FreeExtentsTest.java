@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mellowtech.core.io.impl;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author msvens
+ * @since 4.0.0
+ */
+@DisplayName("FreeExtents")
+class FreeExtentsTest {
+
+  FreeExtents free;
+
+  @BeforeEach
+  void setup() {
+    free = new FreeExtents();
+  }
+
+  @Test
+  void empty() {
+    assertEquals(-1, free.allocate(1));
+    assertEquals(-1, free.allocateTail(100));
+    assertEquals(0, free.freeBytes());
+  }
+
+  @Test
+  void bestFit() {
+    free.free(0, 100);
+    free.free(200, 10);
+    free.free(300, 50);
+    assertEquals(300, free.allocate(40));
+    assertEquals(200, free.allocate(10));
+    assertEquals(0, free.allocate(11));
+    assertEquals(340, free.allocate(10));
+    assertEquals(89, free.freeBytes());
+  }
+
+  @Test
+  void coalesce() {
+    free.free(10, 10);
+    free.free(30, 10);
+    assertEquals(2, free.extents());
+    free.free(20, 10);
+    assertEquals(1, free.extents());
+    assertEquals(30, free.freeBytes());
+    assertEquals(10, free.allocate(30));
+    assertEquals(0, free.extents());
+  }
+
+  @Test
+  void allocateTail() {
+    free.free(10, 10);
+    free.free(50, 50);
+    assertEquals(-1, free.allocateTail(110));
+    assertEquals(50, free.allocateTail(100));
+    assertEquals(10, free.freeBytes());
+  }
+
+  @Test
+  void ignoreEmpty() {
+    free.free(10, 0);
+    free.free(10, -1);
+    assertEquals(0, free.extents());
+  }
+}
@@ -59,6 +59,11 @@ public class MultiBlockFileTest extends RecordFileTemplate {
   }
 
 
+  @Override
+  boolean compactable() {
+    return false;
+  }
+
   @Test
   @Override
   public void reserveSize() throws IOException{
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mellowtech.core.io.impl;
+
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author msvens
+ * @since 4.0.0
+ */
+@DisplayName("A PageCache")
+class PageCacheTest {
+
+  static final int PAGE_SIZE = 16;
+
+  /**
+   * In memory pages that counts reads and writes
+   */
+  static class MemIO implements PageCache.PageIO {
+    Map<Integer, byte[]> pages = new HashMap<>();
+    int reads, writes;
+
+    @Override
+    public void read(int record, ByteBuffer bb) {
+      reads++;
+      byte[] b = pages.get(record);
+      if (b != null)
+        bb.put(b);
+    }
+
+    @Override
+    public void write(int record, ByteBuffer bb) {
+      writes++;
+      byte[] b = new byte[bb.remaining()];
+      bb.get(b);
+      pages.put(record, b);
+    }
+  }
+
+  MemIO io;
+  PageCache cache;
+
+  @BeforeEach
+  void setup() {
+    io = new MemIO();
+    cache = new PageCache(4, 2, PAGE_SIZE, io);
+  }
+
+  byte[] page(int value) {
+    byte[] b = new byte[PAGE_SIZE];
+    b[0] = (byte) value;
+    b[PAGE_SIZE - 1] = (byte) value;
+    return b;
+  }
+
+  @Test
+  @DisplayName("should count hits and misses")
+  void hitsAndMisses() throws IOException {
+    byte[] b = new byte[PAGE_SIZE];
+    cache.read(1, b);
+    cache.read(1, b);
+    cache.read(2, b);
+    assertEquals(2, cache.misses());
+    assertEquals(1, cache.hits());
+    assertEquals(2, io.reads);
+  }
+
+  @Test
+  @DisplayName("should only write dirty pages on flush")
+  void flush() throws IOException {
+    cache.write(1, page(1), 0, PAGE_SIZE);
+    assertEquals(0, io.writes);
+    //full page writes are not read first
+    assertEquals(0, io.reads);
+    cache.flush();
+    assertEquals(1, io.writes);
+    assertArrayEquals(page(1), io.pages.get(1));
+    cache.flush();
+    assertEquals(1, io.writes);
+    assertEquals(1, cache.writeBacks());
+  }
+
+  @Test
+  @DisplayName("should write back dirty pages when they are evicted")
+  void evict() throws IOException {
+    for (int i = 0; i < 20; i++)
+      cache.write(i, page(i), 0, PAGE_SIZE);
+    assertEquals(16, cache.evictions());
+    assertEquals(16, io.writes);
+    cache.flush();
+    byte[] b = new byte[PAGE_SIZE];
+    for (int i = 0; i < 20; i++) {
+      assertArrayEquals(page(i), io.pages.get(i));
+      cache.read(i, b);
+      assertArrayEquals(page(i), b);
+    }
+  }
+
+  @Test
+  @DisplayName("should keep the rest of a page on partial writes")
+  void partialWrite() throws IOException {
+    io.pages.put(1, page(1));
+    cache.write(1, new byte[]{9}, 0, 1);
+    byte[] b = new byte[PAGE_SIZE];
+    cache.read(1, b);
+    assertEquals(9, b[0]);
+    assertEquals(1, b[PAGE_SIZE - 1]);
+  }
+
+  @Test
+  @DisplayName("should never evict pinned pages")
+  void pin() throws IOException {
+    //records 0 and 2 are in the same shard (of 2 frames)
+    PageCache.Page p0 = cache.pin(0);
+    PageCache.Page p2 = cache.pin(2);
+    assertThrows(IOException.class, () -> cache.pin(4));
+    p0.buffer().put(page(7));
+    cache.unpin(p0, true);
+    cache.unpin(p2, false);
+    cache.pin(4);
+    assertArrayEquals(page(7), io.pages.get(0));
+  }
+
+  @Test
+  @DisplayName("should drop invalidated pages without writing them")
+  void invalidate() throws IOException {
+    cache.write(1, page(1), 0, PAGE_SIZE);
+    cache.invalidate(1);
+    cache.flush();
+    assertEquals(0, io.writes);
+    cache.write(2, page(2), 0, PAGE_SIZE);
+    cache.clear();
+    cache.flush();
+    assertEquals(0, io.writes);
+  }
+}
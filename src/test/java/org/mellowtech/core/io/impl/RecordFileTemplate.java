@@ -9,7 +9,17 @@ import org.mellowtech.core.io.*;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Created by msvens on 24/10/15.
@@ -90,6 +100,37 @@ public abstract class RecordFileTemplate {
     rf = rf1;
   }
 
+  @Test
+  public void concurrentInsert() throws Exception {
+    int threads = 2;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      for (int round = 0; round < 50; round++) {
+        List<Future<List<Integer>>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+          futures.add(executor.submit(() -> {
+            List<Integer> records = new ArrayList<>();
+            for (int i = 0; i < maxBlocks / threads; i++)
+              records.add(rf.insert(testBlock));
+            return records;
+          }));
+        }
+        Set<Integer> records = new HashSet<>();
+        for (Future<List<Integer>> f : futures)
+          records.addAll(f.get());
+        assertEquals(maxBlocks / threads * threads, records.size());
+        assertEquals(records.size(), rf.size());
+        for (int record : records) {
+          assertArrayEquals(testBlock, Arrays.copyOf(rf.get(record), testBlock.length));
+          rf.delete(record);
+        }
+        assertEquals(0, rf.size());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
   /****TESTS WITH ZERO ELEMENTS*********/
   @Nested
   @DisplayName("An empty recordfile ")
@@ -523,6 +564,182 @@ public abstract class RecordFileTemplate {
     }
   }
 
+  /**
+   * @return false if the record file does not support compaction
+   */
+  boolean compactable() {
+    return true;
+  }
+
+  @Nested
+  @DisplayName("Compacting ")
+  class Compact {
+
+    byte[] block(int i) {
+      byte[] b = testBlock.clone();
+      b[0] = (byte) i;
+      return b;
+    }
+
+    void fillAndDelete() throws Exception {
+      for (int i = 0; i < maxBlocks; i++)
+        rf.insert(block(i));
+      rf.delete(1);
+      rf.delete(4);
+      rf.delete(5);
+      rf.update(6, block(6));
+    }
+
+    void verify(Map<Integer, Integer> moved) throws Exception {
+      assertEquals(maxBlocks - 3, rf.size());
+      for (int i = 0; i < maxBlocks; i++) {
+        if (i == 1 || i == 4 || i == 5) continue;
+        int record = moved.getOrDefault(i, i);
+        assertTrue(rf.contains(record));
+        assertArrayEquals(block(i), rf.get(record));
+      }
+    }
+
+    @Test
+    @DisplayName("should keep all records")
+    void compact() throws Exception {
+      Assumptions.assumeTrue(compactable());
+      fillAndDelete();
+      Map<Integer, Integer> moved = rf.compact();
+      assertFalse(moved.isEmpty());
+      verify(moved);
+      assertTrue(rf.compact().isEmpty());
+    }
+
+    @Test
+    @DisplayName("should keep all records when incremental")
+    void compactIncremental() throws Exception {
+      Assumptions.assumeTrue(compactable());
+      fillAndDelete();
+      Map<Integer, Integer> moved = new HashMap<>();
+      Map<Integer, Integer> step;
+      int steps = 0;
+      while (!(step = rf.compact(1)).isEmpty()) {
+        assertEquals(1, step.size());
+        moved.putAll(step);
+        steps++;
+      }
+      assertTrue(steps > 1);
+      verify(moved);
+    }
+
+    @Test
+    @DisplayName("should keep all records after reopen")
+    void compactReopen() throws Exception {
+      Assumptions.assumeTrue(compactable());
+      fillAndDelete();
+      Map<Integer, Integer> moved = rf.compact();
+      rf.close();
+      rf = reopen(TestUtils.getAbsolutePath(dir + "/" + fname()));
+      verify(moved);
+    }
+  }
+
+  @Nested
+  @DisplayName("Batch reading and writing ")
+  class Batch {
+
+    byte[] block(int i) {
+      byte[] b = testBlock.clone();
+      b[0] = (byte) i;
+      b[b.length - 1] = (byte) i;
+      return b;
+    }
+
+    ByteBuffer[] buffers(int num) {
+      ByteBuffer[] buffers = new ByteBuffer[num];
+      for (int i = 0; i < num; i++)
+        buffers[i] = ByteBuffer.allocate(testBlock.length);
+      return buffers;
+    }
+
+    @BeforeEach
+    void fill() throws Exception {
+      for (int i = 0; i < maxBlocks; i++)
+        rf.insert(block(i));
+      rf.delete(5);
+    }
+
+    @Test
+    @DisplayName("should read adjacent and non adjacent records")
+    void getAll() throws Exception {
+      int[] records = {3, 0, 1, 2, 8};
+      ByteBuffer[] into = buffers(records.length);
+      assertEquals(records.length, rf.getAll(records, into));
+      for (int i = 0; i < records.length; i++) {
+        assertFalse(into[i].hasRemaining());
+        assertArrayEquals(block(records[i]), into[i].array());
+      }
+    }
+
+    @Test
+    @DisplayName("should read adjacent records into windows of one array")
+    void getAllOneArray() throws Exception {
+      int bs = rf.getBlockSize();
+      Assumptions.assumeTrue(bs > 0);
+      int[] records = {2, 1, 0, 3};
+      byte[] all = new byte[records.length * bs];
+      ByteBuffer[] into = new ByteBuffer[records.length];
+      for (int i = 0; i < records.length; i++)
+        into[i] = ByteBuffer.wrap(all, records[i] * bs, bs).slice();
+      assertEquals(records.length, rf.getAll(records, into));
+      for (int i = 0; i < records.length; i++) {
+        assertFalse(into[i].hasRemaining());
+        byte[] b = Arrays.copyOfRange(all, records[i] * bs, records[i] * bs + testBlock.length);
+        assertArrayEquals(block(records[i]), b);
+      }
+    }
+
+    @Test
+    @DisplayName("should skip records that do not exist")
+    void getAllMissing() throws Exception {
+      int[] records = {4, 5, 6};
+      ByteBuffer[] into = buffers(records.length);
+      assertEquals(2, rf.getAll(records, into));
+      assertEquals(0, into[1].position());
+      assertArrayEquals(block(4), into[0].array());
+      assertArrayEquals(block(6), into[2].array());
+    }
+
+    @Test
+    @DisplayName("should read into short buffers")
+    void getAllShort() throws Exception {
+      int[] records = {1, 2};
+      ByteBuffer[] into = {ByteBuffer.allocate(16), ByteBuffer.allocate(16)};
+      assertEquals(2, rf.getAll(records, into));
+      assertEquals(16, into[0].position());
+      assertEquals(1, into[0].get(0));
+      assertEquals(2, into[1].get(0));
+    }
+
+    @Test
+    @DisplayName("should write adjacent and non adjacent records")
+    void updateAll() throws Exception {
+      int[] records = {2, 9, 0, 1, 6};
+      ByteBuffer[] from = new ByteBuffer[records.length];
+      for (int i = 0; i < records.length; i++)
+        from[i] = ByteBuffer.wrap(block(records[i] + 20));
+      assertEquals(records.length, rf.updateAll(records, from));
+      for (int i = 0; i < records.length; i++) {
+        assertFalse(from[i].hasRemaining());
+        assertArrayEquals(block(records[i] + 20), rf.get(records[i]));
+      }
+      assertArrayEquals(block(3), rf.get(3));
+    }
+
+    @Test
+    @DisplayName("should reject buffers that do not match the records")
+    void wrongLength() {
+      assertThrows(IllegalArgumentException.class, () -> rf.getAll(new int[]{1, 2}, buffers(1)));
+      assertThrows(IllegalArgumentException.class, () -> rf.updateAll(new int[]{1}, buffers(2)));
+    }
+  }
+
   @Nested
   @DisplayName("Hanlding wrong input ")
   class ErrorPath {
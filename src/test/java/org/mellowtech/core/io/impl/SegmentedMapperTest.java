@@ -0,0 +1,114 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mellowtech.core.io.impl;
+
+import org.junit.jupiter.api.*;
+import org.mellowtech.core.TestUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author msvens
+ * @since 4.0.0
+ */
+@DisplayName("A SegmentedMapper")
+class SegmentedMapperTest {
+
+  static final int UNIT_SIZE = 12;
+  static final int SHIFT = 3;
+  static final int UNITS = 100;
+  static final int OFFSET = 20;
+
+  Path path;
+  FileChannel fc;
+  SegmentedMapper mapper;
+
+  @BeforeEach
+  void setup() throws IOException {
+    path = TestUtils.getAbsolutePath("segmentedMapperTest.bin");
+    Files.deleteIfExists(path);
+    fc = FileChannel.open(path, CREATE, READ, WRITE);
+    mapper = new SegmentedMapper(fc, FileChannel.MapMode.READ_WRITE, OFFSET, UNITS, UNIT_SIZE, SHIFT);
+  }
+
+  @AfterEach
+  void after() throws IOException {
+    fc.close();
+    Files.deleteIfExists(path);
+  }
+
+  @Test
+  void segments() throws IOException {
+    assertEquals(13, mapper.segments());
+    assertEquals(OFFSET + UNITS * UNIT_SIZE, fc.size());
+  }
+
+  @Test
+  void position() {
+    assertEquals(0, mapper.position(0));
+    assertEquals(7 * UNIT_SIZE, mapper.position(7));
+    assertEquals(0, mapper.position(8));
+    assertSame(mapper.segment(8), mapper.segment(15));
+    assertNotSame(mapper.segment(7), mapper.segment(8));
+  }
+
+  @Test
+  void putGet() throws IOException {
+    for (int i = 0; i < UNITS; i++) {
+      mapper.putLong(i, 0, i * 1000L);
+      mapper.putInt(i, 8, i);
+    }
+    mapper.force();
+    SegmentedMapper other = new SegmentedMapper(fc, FileChannel.MapMode.READ_ONLY, OFFSET, UNITS, UNIT_SIZE);
+    assertEquals(1, other.segments());
+    for (int i = 0; i < UNITS; i++) {
+      assertEquals(i * 1000L, other.getLong(i, 0));
+      assertEquals(i, other.getInt(i, 8));
+    }
+  }
+
+  @Test
+  void inSegment() {
+    assertTrue(mapper.inSegment(0, 8));
+    assertFalse(mapper.inSegment(0, 9));
+    assertFalse(mapper.inSegment(7, 2));
+    assertTrue(mapper.inSegment(8, 1));
+  }
+
+  @Test
+  void getAcrossSegments() {
+    for (int i = 0; i < UNITS; i++)
+      mapper.putInt(i, 0, i);
+    byte[] b = new byte[20 * UNIT_SIZE];
+    mapper.get(5, b, 0, 20);
+    ByteBuffer bb = ByteBuffer.wrap(b);
+    for (int i = 0; i < 20; i++)
+      assertEquals(i + 5, bb.getInt(i * UNIT_SIZE));
+  }
+
+  @Test
+  void segmentTooLarge() {
+    assertThrows(IllegalArgumentException.class, () ->
+        new SegmentedMapper(fc, FileChannel.MapMode.READ_WRITE, 0, 10, 2, 30));
+  }
+}
@@ -18,9 +18,15 @@ package org.mellowtech.core.io.impl;
 
 import org.junit.jupiter.api.*;
 import static org.junit.jupiter.api.Assertions.*;
+import org.mellowtech.core.TestUtils;
 import org.mellowtech.core.io.RecordFile;
 
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Created by msvens on 28/10/15.
@@ -54,4 +60,115 @@ public class VariableRecordFileTest extends RecordFileTemplate {
     assertEquals(0, rf.getBlockSize());
   }
 
+  @Test
+  public void insertReusesDeleted() throws Exception {
+    fillFile();
+    long fileSize = rf.fileSize();
+    rf.delete(2);
+    assertEquals(2, rf.insert(testBlock));
+    assertEquals(fileSize, rf.fileSize());
+  }
+
+  @Test
+  public void updateReusesFreed() throws Exception {
+    fillFile();
+    long fileSize = rf.fileSize();
+    rf.delete(3);
+    rf.delete(4);
+    byte[] larger = new byte[testBlock.length * 2];
+    larger[0] = 1;
+    rf.update(0, larger);
+    assertEquals(fileSize, rf.fileSize());
+    assertArrayEquals(larger, rf.get(0));
+    //the old extent of record 0 is reused
+    assertEquals(3, rf.insert(testBlock));
+    assertEquals(fileSize, rf.fileSize());
+  }
+
+  @Test
+  public void updateInPlace() throws Exception {
+    fillFile();
+    long fileSize = rf.fileSize();
+    byte[] smaller = new byte[testBlock.length / 2];
+    rf.update(1, smaller);
+    rf.update(1, testBlock);
+    assertEquals(fileSize, rf.fileSize());
+    assertArrayEquals(testBlock, rf.get(1));
+  }
+
+  @Test
+  public void reuseAfterReopen() throws Exception {
+    fillFile();
+    long fileSize = rf.fileSize();
+    rf.delete(5);
+    rf.close();
+    rf = reopen(TestUtils.getAbsolutePath(dir + "/" + fname()));
+    assertEquals(5, rf.insert(testBlock));
+    assertEquals(fileSize, rf.fileSize());
+  }
+
+  @Test
+  public void compactShrinks() throws Exception {
+    fillFile();
+    //updating with a larger record leaves dead space
+    rf.update(0, new byte[testBlock.length * 2]);
+    rf.delete(3);
+    long fileSize = rf.fileSize();
+    rf.compact();
+    long live = testBlock.length * 2 + (maxBlocks - 2) * testBlock.length;
+    assertEquals(blocksOffset() + live, rf.fileSize());
+    assertTrue(rf.fileSize() < fileSize);
+  }
+
+  @Test
+  public void compactOverlapping() throws Exception {
+    byte[] large = new byte[testBlock.length * 4];
+    for (int i = 0; i < large.length; i++)
+      large[i] = (byte) i;
+    int small = rf.insert(new byte[10]);
+    int record = rf.insert(large);
+    rf.delete(small);
+    //the record has to move 10 bytes down, onto itself
+    rf.compact();
+    assertArrayEquals(large, rf.get(record));
+    assertEquals(blocksOffset() + large.length, rf.fileSize());
+    rf.close();
+    rf = reopen(TestUtils.getAbsolutePath(dir + "/" + fname()));
+    assertArrayEquals(large, rf.get(record));
+  }
+
+  @Test
+  public void compactConcurrentWrites() throws Exception {
+    fillFile();
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      Callable<Void> compact = () -> {
+        for (int i = 0; i < 200; i++)
+          rf.compact();
+        return null;
+      };
+      Future<?> compactor = executor.submit(compact);
+      Future<?> compactor2 = executor.submit(compact);
+      Future<byte[][]> writer = executor.submit(() -> {
+        byte[][] expected = new byte[maxBlocks][];
+        for (int i = 0; i < 200; i++) {
+          int record = i % maxBlocks;
+          //alternate sizes so that records move and free extents are reused
+          byte[] b = new byte[(i % 3 + 1) * 100];
+          Arrays.fill(b, (byte) i);
+          rf.update(record, b);
+          expected[record] = b;
+        }
+        return expected;
+      });
+      compactor.get();
+      compactor2.get();
+      byte[][] expected = writer.get();
+      for (int i = 0; i < maxBlocks; i++)
+        assertArrayEquals(expected[i], rf.get(i));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
 }
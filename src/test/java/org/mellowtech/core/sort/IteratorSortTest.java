@@ -0,0 +1,149 @@
+/*
+ * Copyright 2015 mellowtech.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mellowtech.core.sort;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.mellowtech.core.codec.IntCodec;
+import org.mellowtech.core.codec.StringCodec;
+import org.mellowtech.core.collections.KeyValue;
+import org.mellowtech.core.collections.impl.KeyValueCodec;
+import org.mellowtech.core.util.DelDir;
+import org.mellowtech.core.util.Platform;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * @author msvens
+ * @since 4.0.0
+ */
+@DisplayName("An IteratorSort")
+class IteratorSortTest {
+
+  static final int NUM = 20000;
+  Path sortDir;
+
+  @BeforeEach
+  void before() throws Exception {
+    sortDir = Platform.getTempDir().resolve("iteratorsort");
+    Files.createDirectories(sortDir);
+  }
+
+  @AfterEach
+  void after() {
+    DelDir.d(sortDir);
+  }
+
+  private List<String> randomStrings(int num) {
+    Random r = new Random(1);
+    List<String> l = new ArrayList<>();
+    for (int i = 0; i < num; i++)
+      l.add(Integer.toString(r.nextInt(num * 10), 36));
+    return l;
+  }
+
+  private List<String> sort(List<String> input, int memorySize, int complevel, boolean distinct) throws Exception {
+    IteratorSort<String> sort = new IteratorSort<>(new StringCodec(), 1024, memorySize, complevel, sortDir);
+    List<String> sorted = new ArrayList<>();
+    try (IteratorSort.SortedIterator<String> iter = sort.sort(input.iterator(), distinct)) {
+      iter.forEachRemaining(sorted::add);
+    }
+    return sorted;
+  }
+
+  private long runFiles() throws Exception {
+    try (Stream<Path> s = Files.list(sortDir)) {
+      return s.count();
+    }
+  }
+
+  @Test
+  @DisplayName("should sort an empty iterator")
+  void empty() throws Exception {
+    assertTrue(sort(Collections.emptyList(), 1024 * 1024, 0, false).isEmpty());
+  }
+
+  @Test
+  @DisplayName("should sort in memory")
+  void inMemory() throws Exception {
+    List<String> input = randomStrings(NUM);
+    List<String> expected = new ArrayList<>(input);
+    Collections.sort(expected);
+    assertEquals(expected, sort(input, 1024 * 1024, 0, false));
+    assertEquals(0, runFiles());
+  }
+
+  @Test
+  @DisplayName("should merge spilled runs")
+  void spilled() throws Exception {
+    List<String> input = randomStrings(NUM);
+    List<String> expected = new ArrayList<>(input);
+    Collections.sort(expected);
+    assertEquals(expected, sort(input, 4096, 0, false));
+    assertEquals(0, runFiles());
+  }
+
+  @Test
+  @DisplayName("should merge compressed runs")
+  void compressed() throws Exception {
+    List<String> input = randomStrings(NUM);
+    List<String> expected = new ArrayList<>(input);
+    Collections.sort(expected);
+    assertEquals(expected, sort(input, 4096, 1, false));
+  }
+
+  @Test
+  @DisplayName("should remove duplicates")
+  void distinct() throws Exception {
+    List<String> input = randomStrings(NUM);
+    List<String> expected = new ArrayList<>(new TreeSet<>(input));
+    assertEquals(expected, sort(input, 4096, 0, true));
+  }
+
+  @Test
+  @DisplayName("should keep the last of equal objects")
+  void lastWins() throws Exception {
+    KeyValueCodec<Integer, Integer> codec = new KeyValueCodec<>(new IntCodec(), new IntCodec());
+    IteratorSort<KeyValue<Integer, Integer>> sort = new IteratorSort<>(codec, 1024, 4096, 0, sortDir);
+    List<KeyValue<Integer, Integer>> input = new ArrayList<>();
+    for (int i = 0; i < NUM; i++)
+      input.add(new KeyValue<>(i % 100, i));
+    Map<Integer, Integer> expected = new TreeMap<>();
+    for (KeyValue<Integer, Integer> kv : input)
+      expected.put(kv.getKey(), kv.getValue());
+    Map<Integer, Integer> sorted = new LinkedHashMap<>();
+    try (IteratorSort.SortedIterator<KeyValue<Integer, Integer>> iter = sort.sort(input.iterator(), true)) {
+      iter.forEachRemaining(kv -> assertNull(sorted.put(kv.getKey(), kv.getValue())));
+    }
+    assertEquals(new ArrayList<>(expected.entrySet()), new ArrayList<>(sorted.entrySet()));
+  }
+
+  @Test
+  @DisplayName("should remove runs when closed early")
+  void closeEarly() throws Exception {
+    IteratorSort<String> sort = new IteratorSort<>(new StringCodec(), 1024, 4096, 0, sortDir);
+    IteratorSort.SortedIterator<String> iter = sort.sort(randomStrings(NUM).iterator(), false);
+    assertTrue(runFiles() > 0);
+    iter.next();
+    iter.close();
+    assertEquals(0, runFiles());
+  }
+}
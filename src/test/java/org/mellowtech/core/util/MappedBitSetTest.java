@@ -87,6 +87,19 @@ class MappedBitSetTest {
       assertEquals(0, bs.length());
     }
 
+    @Test
+    void emptyDirtyRange() {
+      MappedBitSet bs = createEmptySet();
+      assertNull(bs.takeDirtyRange());
+      bs.set(70);
+      bs.set(maxbits - 1);
+      assertArrayEquals(new int[]{8, 8}, bs.takeDirtyRange());
+      assertNull(bs.takeDirtyRange());
+      bs.set(1);
+      bs.clear(70);
+      assertArrayEquals(new int[]{0, 16}, bs.takeDirtyRange());
+    }
+
     @Test
     void emptyCardinality() {
       MappedBitSet bs = createEmptySet();
@@ -399,4 +412,153 @@ class MappedBitSetTest {
 
 
 
+  @Nested
+  @DisplayName("When allocating clear bits")
+  class Allocate {
+
+    //spans more than one summary word
+    private final int bits = 64 * 64 * 3;
+
+    private MappedBitSet fill(int n){
+      MappedBitSet bs = new MappedBitSet(bits);
+      for(int i = 0; i < n; i++)
+        assertEquals(i, allocate(bs));
+      return bs;
+    }
+
+    private int allocate(MappedBitSet bs){
+      int i = bs.nextClearBit(0);
+      if(i >= 0) bs.set(i);
+      return i;
+    }
+
+    @Test
+    void allocateInOrder() {
+      MappedBitSet bs = fill(bits);
+      assertEquals(bits, bs.cardinality());
+      assertEquals(-1, bs.nextClearBit(0));
+    }
+
+    @Test
+    void reuseLowestCleared() {
+      MappedBitSet bs = fill(bits);
+      bs.clear(5000);
+      bs.clear(130);
+      bs.clear(9000);
+      assertEquals(130, allocate(bs));
+      assertEquals(5000, allocate(bs));
+      assertEquals(9000, allocate(bs));
+      assertEquals(-1, allocate(bs));
+    }
+
+    @Test
+    void reuseFlipped() {
+      MappedBitSet bs = fill(bits - 100);
+      bs.flip(64 * 64 + 1);
+      assertEquals(64 * 64 + 1, allocate(bs));
+      assertEquals(bits - 100, allocate(bs));
+    }
+
+    @Test
+    void nextClearBitFrom() {
+      MappedBitSet bs = fill(bits);
+      bs.clear(3);
+      bs.clear(7000);
+      assertEquals(7000, bs.nextClearBit(4));
+      assertEquals(3, bs.nextClearBit(0));
+      assertEquals(7000, bs.nextClearBit(7000));
+      assertEquals(-1, bs.nextClearBit(7001));
+    }
+
+    @Test
+    void allocateAfterClear() {
+      MappedBitSet bs = fill(bits);
+      bs.clear();
+      assertEquals(0, allocate(bs));
+      assertEquals(1, allocate(bs));
+    }
+
+    @Test
+    void allocateAfterReopen() {
+      MappedBitSet bs = fill(5000);
+      bs.clear(200);
+      bs = reopen(bs);
+      assertEquals(200, allocate(bs));
+      assertEquals(5000, allocate(bs));
+    }
+  }
+
+  @Nested
+  @DisplayName("When counting bits")
+  class Count {
+
+    private final int bits = 64 * 64 * 3;
+
+    //every third bit
+    private MappedBitSet createSparse(){
+      MappedBitSet bs = new MappedBitSet(bits);
+      for(int i = 0; i < bits; i += 3)
+        bs.set(i);
+      return bs;
+    }
+
+    @Test
+    void sparseCardinality() {
+      MappedBitSet bs = createSparse();
+      assertEquals(bits / 3, bs.cardinality());
+      bs.set(0);
+      bs.clear(1);
+      assertEquals(bits / 3, bs.cardinality());
+      bs.flip(1);
+      bs.flip(3);
+      assertEquals(bits / 3, bs.cardinality());
+      bs.clear();
+      assertEquals(0, bs.cardinality());
+      assertEquals(0, bs.length());
+    }
+
+    @Test
+    void sparseRank() {
+      MappedBitSet bs = createSparse();
+      for(int i = 0; i < bits; i++)
+        assertEquals((i + 2) / 3, bs.rank(i));
+      assertEquals(bs.cardinality(), bs.rank(bits));
+    }
+
+    @Test
+    void sparseSelect() {
+      MappedBitSet bs = createSparse();
+      for(int k = 0; k < bits / 3; k++)
+        assertEquals(k * 3, bs.select(k));
+      assertEquals(-1, bs.select(bits / 3));
+    }
+
+    @Test
+    void rankSelectAfterReopen() {
+      MappedBitSet bs = reopen(createSparse());
+      assertEquals(bits / 3, bs.cardinality());
+      assertEquals(9000, bs.select(3000));
+      assertEquals(3000, bs.rank(9000));
+    }
+
+    @Test
+    void lengthAfterClearLast() {
+      MappedBitSet bs = createSparse();
+      int last = bs.length() - 1;
+      bs.clear(last);
+      assertEquals(last - 2, bs.length());
+      bs.flip(last - 3);
+      assertEquals(last - 5, bs.length());
+      bs.flip(last);
+      assertEquals(last + 1, bs.length());
+    }
+
+    @Test
+    void emptyRankSelect() {
+      MappedBitSet bs = createEmptySet();
+      assertEquals(0, bs.rank(10));
+      assertEquals(-1, bs.select(0));
+    }
+  }
+
 }